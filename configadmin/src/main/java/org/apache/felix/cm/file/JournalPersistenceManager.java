@@ -0,0 +1,810 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.file;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import org.apache.felix.cm.PersistenceManager;
+import org.osgi.framework.BundleContext;
+
+
+/**
+ * The <code>JournalPersistenceManager</code> class stores all configuration
+ * data in a single append-only journal file instead of one file per PID as
+ * the {@link FilePersistenceManager} does.
+ * <p>
+ * The journal starts with a short header (magic number and format version)
+ * followed by a sequence of records. Each record consists of the length of
+ * the record body, the CRC32 checksum of the body and the body itself. The
+ * body contains the operation (store or delete), the PID and - for store
+ * operations - the configuration data in the format written by the
+ * {@link ConfigurationHandler}.
+ * <p>
+ * When the journal is opened, it is read sequentially once to build an in
+ * memory index of the PIDs to the location of their most recent record. A
+ * record which is truncated or whose checksum does not match (for example
+ * after a crash while appending) ends the journal: it and anything following
+ * it is cut off. A journal too short to hold its header is reported as
+ * corrupt and left untouched.
+ * <p>
+ * The {@link #store(String, Dictionary)} and {@link #delete(String)} methods
+ * append a single record and force it to the disk before returning. Records
+ * superseded by later stores or deletes are removed by compacting the
+ * journal once they take up more space than the live records. Compaction
+ * writes the live records to a temporary file which then replaces the
+ * journal. If compaction fails, the journal is kept as is and compaction is
+ * tried again with the next store or delete.
+ * <p>
+ * When this persistence manager is used by the Configuration Admin Service,
+ * it is selected by setting the
+ * {@link org.apache.felix.cm.impl.ConfigurationManager#CM_CONFIG_PM} bundle
+ * context property to <code>journal</code>. The journal file is then created
+ * in the directory configured with the
+ * {@link org.apache.felix.cm.impl.ConfigurationManager#CM_CONFIG_DIR}
+ * property, which is resolved the same way as for the
+ * {@link FilePersistenceManager}.
+ */
+public class JournalPersistenceManager implements PersistenceManager
+{
+
+    /**
+     * The name of the journal file in the configuration directory (value is
+     * "configurations.journal").
+     */
+    public static final String JOURNAL_FILE = "configurations.journal";
+
+    /**
+     * The extension of the temporary file written while compacting the journal
+     * (value is ".tmp").
+     */
+    private static final String TMP_EXT = ".tmp";
+
+    /**
+     * The extension of the previous journal while it is being replaced by the
+     * compacted journal on platforms which cannot rename a file over an
+     * existing file (value is ".bak").
+     */
+    private static final String BAK_EXT = ".bak";
+
+    // "FCMJ"
+    private static final int MAGIC = 0x46434D4A;
+
+    private static final int VERSION = 1;
+
+    // size of the journal header: magic and version
+    private static final int HEADER_SIZE = 8;
+
+    // size of the record header: body length and checksum
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte OP_STORE = 1;
+
+    private static final byte OP_DELETE = 2;
+
+    /**
+     * The number of bytes occupied by superseded records at least required
+     * before the journal is compacted (value is 64KB).
+     */
+    private static final long COMPACT_THRESHOLD = 64 * 1024;
+
+    /**
+     * The access control context we use in the presence of a security manager.
+     */
+    private final AccessControlContext acc;
+
+    /**
+     * The journal file
+     */
+    private final File journal;
+
+    /**
+     * The index of PIDs to their current record in the journal. Accessed
+     * while synchronized on this instance.
+     */
+    private final Map index = new HashMap();
+
+    // the open journal
+    private RandomAccessFile file;
+
+    // the end of the last valid record, where the next record is appended
+    private long end;
+
+    // the number of bytes in the journal taken by superseded records
+    private long garbage;
+
+
+    /**
+     * Creates an instance of this persistence manager using the given location
+     * as the directory to store the journal file in.
+     * <p>
+     * The location is resolved as described for the
+     * {@link FilePersistenceManager#FilePersistenceManager(BundleContext, String)}
+     * constructor.
+     *
+     * @param bundleContext The <code>BundleContext</code> to optionally get
+     *      the data location for the journal. This may be <code>null</code>.
+     * @param location The directory of the journal. If this is
+     *      <code>null</code> the <code>config</code> directory in the bundle
+     *      data area or below the current working directory is used.
+     *
+     * @throws IllegalArgumentException If the location exists but is not a
+     *      directory or does not exist and cannot be created.
+     * @throws IOException If the journal exists but cannot be read.
+     */
+    public JournalPersistenceManager( BundleContext bundleContext, String location ) throws IOException
+    {
+        this( new File( new FilePersistenceManager( bundleContext, location ).getLocation(), JOURNAL_FILE ) );
+    }
+
+
+    /**
+     * Creates an instance of this persistence manager using the given journal
+     * file. If the journal does not exist yet, it is created.
+     *
+     * @param journal The journal file
+     *
+     * @throws IOException If the journal cannot be opened or is not a
+     *      configuration journal.
+     */
+    public JournalPersistenceManager( File journal ) throws IOException
+    {
+        // setup the access control context from the calling setup
+        if ( System.getSecurityManager() != null )
+        {
+            acc = AccessController.getContext();
+        }
+        else
+        {
+            acc = null;
+        }
+
+        this.journal = journal.getAbsoluteFile();
+        open();
+    }
+
+
+    /**
+     * Returns the journal file.
+     */
+    public File getJournal()
+    {
+        return journal;
+    }
+
+
+    public boolean exists( final String pid )
+    {
+        synchronized ( this )
+        {
+            return index.containsKey( pid );
+        }
+    }
+
+
+    public Dictionary load( final String pid ) throws IOException
+    {
+        return ( Dictionary ) execute( new PrivilegedExceptionAction()
+        {
+            public Object run() throws IOException
+            {
+                synchronized ( JournalPersistenceManager.this )
+                {
+                    final Entry entry = ( Entry ) index.get( pid );
+                    if ( entry == null )
+                    {
+                        throw new IOException( "No configuration for " + pid + " in " + journal );
+                    }
+                    return read( entry );
+                }
+            }
+        } );
+    }
+
+
+    /**
+     * Returns all configurations in the journal. The dictionaries are read in
+     * the order of their records such that the journal is read sequentially.
+     */
+    public Enumeration getDictionaries() throws IOException
+    {
+        return ( Enumeration ) execute( new PrivilegedExceptionAction()
+        {
+            public Object run() throws IOException
+            {
+                synchronized ( JournalPersistenceManager.this )
+                {
+                    final Entry[] entries = sortedEntries();
+                    final Vector dictionaries = new Vector( entries.length );
+                    for ( int i = 0; i < entries.length; i++ )
+                    {
+                        dictionaries.add( read( entries[i] ) );
+                    }
+                    return dictionaries.elements();
+                }
+            }
+        } );
+    }
+
+
+    public void store( final String pid, final Dictionary properties ) throws IOException
+    {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ConfigurationHandler.write( data, properties );
+
+        execute( new PrivilegedExceptionAction()
+        {
+            public Object run() throws IOException
+            {
+                synchronized ( JournalPersistenceManager.this )
+                {
+                    append( OP_STORE, pid, data.toByteArray() );
+                    return null;
+                }
+            }
+        } );
+    }
+
+
+    public void delete( final String pid ) throws IOException
+    {
+        execute( new PrivilegedExceptionAction()
+        {
+            public Object run() throws IOException
+            {
+                synchronized ( JournalPersistenceManager.this )
+                {
+                    if ( index.containsKey( pid ) )
+                    {
+                        append( OP_DELETE, pid, null );
+                    }
+                    return null;
+                }
+            }
+        } );
+    }
+
+
+    /**
+     * Closes the journal. Further use of this instance fails.
+     */
+    public void close()
+    {
+        synchronized ( this )
+        {
+            if ( file != null )
+            {
+                try
+                {
+                    file.close();
+                }
+                catch ( IOException ioe )
+                {
+                    // ignore
+                }
+                file = null;
+            }
+        }
+    }
+
+
+    /**
+     * Called when compacting the journal failed. The journal is left as it
+     * was and compaction is tried again when the next record is appended.
+     * This default implementation does nothing, extensions may log the
+     * failure.
+     *
+     * @param ioe The exception which caused the compaction to fail
+     */
+    protected void compactionFailed( IOException ioe )
+    {
+    }
+
+
+    /**
+     * Returns the number of bytes currently taken by superseded records. This
+     * method is not part of the API of this class and is declared package
+     * private to enable JUnit testing on it.
+     */
+    long getGarbage()
+    {
+        synchronized ( this )
+        {
+            return garbage;
+        }
+    }
+
+
+    //---------- journal handling
+
+    private Object execute( final PrivilegedExceptionAction action ) throws IOException
+    {
+        try
+        {
+            if ( System.getSecurityManager() != null )
+            {
+                return AccessController.doPrivileged( action, acc );
+            }
+            return action.run();
+        }
+        catch ( PrivilegedActionException pae )
+        {
+            throw ( IOException ) pae.getException();
+        }
+        catch ( IOException ioe )
+        {
+            throw ioe;
+        }
+        catch ( RuntimeException re )
+        {
+            throw re;
+        }
+        catch ( Exception e )
+        {
+            // not expected, since our actions only throw IOException
+            throw new IOException( e.toString() );
+        }
+    }
+
+
+    /**
+     * Opens the journal and builds the index reading the journal once
+     * sequentially. A damaged tail of the journal is cut off.
+     */
+    private void open() throws IOException
+    {
+        final File dir = journal.getParentFile();
+        if ( dir != null && !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IOException( "Cannot create directory " + dir );
+        }
+
+        // restore the previous journal if replacing it by a compacted journal
+        // has been interrupted
+        final File backup = new File( journal.getPath() + BAK_EXT );
+        if ( !journal.exists() && backup.exists() && !backup.renameTo( journal ) )
+        {
+            throw new IOException( "Failed to restore journal '" + journal + "' from '" + backup + "'" );
+        }
+
+        file = new RandomAccessFile( journal, "rw" );
+        boolean opened = false;
+        try
+        {
+            load();
+            opened = true;
+        }
+        finally
+        {
+            // do not keep the file open (and locked on Windows) if it cannot be used
+            if ( !opened )
+            {
+                close();
+            }
+        }
+
+        if ( needsCompaction() )
+        {
+            tryCompact();
+        }
+    }
+
+
+    /**
+     * Reads the journal to build the index or writes the header of a new
+     * journal.
+     */
+    private void load() throws IOException
+    {
+        if ( file.length() == 0 )
+        {
+            // write the header at once, so it is never found partially written
+            final ByteArrayOutputStream header = new ByteArrayOutputStream( HEADER_SIZE );
+            final DataOutputStream out = new DataOutputStream( header );
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            file.write( header.toByteArray() );
+            file.getFD().sync();
+            end = HEADER_SIZE;
+            return;
+        }
+        if ( file.length() < HEADER_SIZE )
+        {
+            throw new IOException( "Configuration journal " + journal + " is corrupt: its " + file.length()
+                + " bytes do not hold the journal header" );
+        }
+
+        long position;
+        final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( journal ),
+            64 * 1024 ) );
+        try
+        {
+            if ( in.readInt() != MAGIC )
+            {
+                throw new IOException( journal + " is not a configuration journal" );
+            }
+            final int version = in.readInt();
+            if ( version != VERSION )
+            {
+                throw new IOException( "Unsupported configuration journal version " + version + " in " + journal );
+            }
+
+            position = HEADER_SIZE;
+            final CRC32 crc = new CRC32();
+            while ( true )
+            {
+                final int length;
+                final int checksum;
+                final byte[] body;
+                try
+                {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if ( length <= 0 || position + RECORD_HEADER_SIZE + length > file.length() )
+                    {
+                        break;
+                    }
+                    body = new byte[length];
+                    in.readFully( body );
+                }
+                catch ( EOFException eofe )
+                {
+                    break;
+                }
+
+                crc.reset();
+                crc.update( body );
+                if ( ( int ) crc.getValue() != checksum )
+                {
+                    break;
+                }
+
+                apply( position, body );
+                position += RECORD_HEADER_SIZE + length;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        // drop anything following the last valid record
+        if ( position < file.length() )
+        {
+            file.setLength( position );
+            file.getFD().sync();
+        }
+        end = position;
+    }
+
+
+    /**
+     * Updates the index with the record with the given body read from the
+     * given position while opening the journal.
+     */
+    private void apply( final long position, final byte[] body ) throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new ByteArrayInputStream( body ) );
+        final byte op = in.readByte();
+        final String pid = in.readUTF();
+        final int recordSize = RECORD_HEADER_SIZE + body.length;
+
+        final Entry old;
+        if ( op == OP_STORE )
+        {
+            final int dataOffset = RECORD_HEADER_SIZE + body.length - in.available();
+            old = ( Entry ) index.put( pid, new Entry( position, recordSize, dataOffset ) );
+        }
+        else
+        {
+            old = ( Entry ) index.remove( pid );
+            garbage += recordSize;
+        }
+
+        if ( old != null )
+        {
+            garbage += old.size;
+        }
+    }
+
+
+    /**
+     * Appends a record to the end of the journal, forces it to the disk and
+     * updates the index. Must be called while synchronized on this instance.
+     */
+    private void append( final byte op, final String pid, final byte[] data ) throws IOException
+    {
+        if ( file == null )
+        {
+            throw new IOException( "Journal " + journal + " has been closed" );
+        }
+
+        final byte[] record = createRecord( op, pid, data );
+        final long position = end;
+        try
+        {
+            file.seek( position );
+            file.write( record );
+            file.getFD().sync();
+        }
+        catch ( IOException ioe )
+        {
+            // cut off the partially written record: as the journal ends with
+            // the first damaged record, any record appended after it would
+            // be lost when the journal is opened again. The next record is
+            // written at the same position anyway.
+            try
+            {
+                file.setLength( position );
+            }
+            catch ( IOException ignore )
+            {
+                // the damaged record is overwritten by the next record
+            }
+            throw ioe;
+        }
+        end = position + record.length;
+
+        final Entry old;
+        if ( op == OP_STORE )
+        {
+            old = ( Entry ) index.put( pid, new Entry( position, record.length, record.length - data.length ) );
+        }
+        else
+        {
+            old = ( Entry ) index.remove( pid );
+            garbage += record.length;
+        }
+
+        if ( old != null )
+        {
+            garbage += old.size;
+        }
+
+        // the record is stored, failing to compact must not fail the operation
+        if ( needsCompaction() )
+        {
+            tryCompact();
+        }
+    }
+
+
+    private static byte[] createRecord( final byte op, final String pid, final byte[] data ) throws IOException
+    {
+        final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        final DataOutputStream body = new DataOutputStream( bodyBytes );
+        body.writeByte( op );
+        body.writeUTF( pid );
+        if ( data != null )
+        {
+            body.write( data );
+        }
+        body.flush();
+
+        final byte[] bodyArray = bodyBytes.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update( bodyArray );
+
+        final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream( RECORD_HEADER_SIZE + bodyArray.length );
+        final DataOutputStream record = new DataOutputStream( recordBytes );
+        record.writeInt( bodyArray.length );
+        record.writeInt( ( int ) crc.getValue() );
+        record.write( bodyArray );
+        record.flush();
+        return recordBytes.toByteArray();
+    }
+
+
+    /**
+     * Reads the configuration of the given index entry from the journal. Must
+     * be called while synchronized on this instance.
+     */
+    private Dictionary read( final Entry entry ) throws IOException
+    {
+        if ( file == null )
+        {
+            throw new IOException( "Journal " + journal + " has been closed" );
+        }
+
+        final byte[] data = new byte[entry.size - entry.dataOffset];
+        file.seek( entry.position + entry.dataOffset );
+        file.readFully( data );
+        return ConfigurationHandler.read( new ByteArrayInputStream( data ) );
+    }
+
+
+    private Entry[] sortedEntries()
+    {
+        final Entry[] entries = ( Entry[] ) index.values().toArray( new Entry[index.size()] );
+        Arrays.sort( entries, new Comparator()
+        {
+            public int compare( Object o1, Object o2 )
+            {
+                final long p1 = ( ( Entry ) o1 ).position;
+                final long p2 = ( ( Entry ) o2 ).position;
+                return ( p1 < p2 ) ? -1 : ( ( p1 == p2 ) ? 0 : 1 );
+            }
+        } );
+        return entries;
+    }
+
+
+    private boolean needsCompaction()
+    {
+        return garbage > COMPACT_THRESHOLD && garbage > end - HEADER_SIZE - garbage;
+    }
+
+
+    private void tryCompact()
+    {
+        try
+        {
+            compact();
+        }
+        catch ( IOException ioe )
+        {
+            compactionFailed( ioe );
+        }
+    }
+
+
+    /**
+     * Rewrites the journal with just the current records and replaces the
+     * journal with the new file. If the journal cannot be replaced, the
+     * current journal remains in use. Must be called while synchronized on
+     * this instance.
+     */
+    private void compact() throws IOException
+    {
+        final File tmpFile = new File( journal.getPath() + TMP_EXT );
+        final Entry[] entries = sortedEntries();
+        final long[] positions = new long[entries.length];
+
+        long tmpEnd = HEADER_SIZE;
+        boolean written = false;
+        RandomAccessFile out = new RandomAccessFile( tmpFile, "rw" );
+        try
+        {
+            out.setLength( 0 );
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            for ( int i = 0; i < entries.length; i++ )
+            {
+                final byte[] record = new byte[entries[i].size];
+                file.seek( entries[i].position );
+                file.readFully( record );
+                positions[i] = tmpEnd;
+                out.write( record );
+                tmpEnd += record.length;
+            }
+            out.getFD().sync();
+            written = true;
+        }
+        finally
+        {
+            out.close();
+            if ( !written )
+            {
+                tmpFile.delete();
+            }
+        }
+
+        replace( tmpFile );
+
+        for ( int i = 0; i < entries.length; i++ )
+        {
+            entries[i].position = positions[i];
+        }
+        end = tmpEnd;
+        garbage = 0;
+    }
+
+
+    /**
+     * Replaces the journal with the given compacted journal and opens it. If
+     * the journal cannot be replaced, the current journal is (re)opened and
+     * an exception is thrown.
+     */
+    private void replace( final File tmpFile ) throws IOException
+    {
+        // the current journal stays open until it has been replaced
+        if ( tmpFile.renameTo( journal ) )
+        {
+            final RandomAccessFile compacted = new RandomAccessFile( journal, "rw" );
+            file.close();
+            file = compacted;
+            return;
+        }
+
+        // Windows does neither rename over an existing nor over an open file:
+        // move the current journal aside first, so that it can be restored
+        final File backup = new File( journal.getPath() + BAK_EXT );
+        backup.delete();
+        file.close();
+        file = null;
+        if ( !journal.renameTo( backup ) )
+        {
+            file = new RandomAccessFile( journal, "rw" );
+            tmpFile.delete();
+            throw new IOException( "Failed to move journal '" + journal + "' to '" + backup + "'" );
+        }
+        if ( !tmpFile.renameTo( journal ) )
+        {
+            if ( !backup.renameTo( journal ) )
+            {
+                // keep using the current journal, it is restored from the
+                // backup when opened again
+                file = new RandomAccessFile( backup, "rw" );
+                throw new IOException( "Failed to rename compacted journal from '" + tmpFile + "' to '" + journal
+                    + "' and to restore '" + backup + "'" );
+            }
+            file = new RandomAccessFile( journal, "rw" );
+            tmpFile.delete();
+            throw new IOException( "Failed to rename compacted journal from '" + tmpFile + "' to '" + journal + "'" );
+        }
+        backup.delete();
+        file = new RandomAccessFile( journal, "rw" );
+    }
+
+
+    /**
+     * The <code>Entry</code> class is the index entry for the current record
+     * of a PID in the journal.
+     */
+    private static class Entry
+    {
+        // position of the record in the journal
+        long position;
+
+        // size of the complete record including the record header
+        final int size;
+
+        // offset of the configuration data from the record position
+        final int dataOffset;
+
+
+        Entry( final long position, final int size, final int dataOffset )
+        {
+            this.position = position;
+            this.size = size;
+            this.dataOffset = dataOffset;
+        }
+    }
+}
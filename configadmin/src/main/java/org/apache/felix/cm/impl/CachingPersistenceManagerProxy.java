@@ -20,9 +20,16 @@ package org.apache.felix.cm.impl;
 
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -31,6 +38,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.felix.cm.NotCachablePersistenceManager;
 import org.apache.felix.cm.PersistenceManager;
 import org.osgi.framework.Constants;
+import org.osgi.service.cm.ConfigurationAdmin;
 
 
 /**
@@ -38,6 +46,13 @@ import org.osgi.framework.Constants;
  * underlying actual {@link PersistenceManager} implementation. All API calls
  * are also (or primarily) routed through a local cache of dictionaries indexed
  * by the <code>service.pid</code>.
+ * <p>
+ * In addition the cache maintains indices of the cached dictionaries on the
+ * <code>service.pid</code>, <code>service.factoryPid</code> and
+ * <code>service.bundleLocation</code> properties. Filters passed to
+ * {@link #getDictionaries(SimpleFilter)} which require one of these properties
+ * to be equal to a given value are answered from these indices instead of
+ * evaluating the filter on each cached dictionary.
  */
 class CachingPersistenceManagerProxy implements PersistenceManager
 {
@@ -47,6 +62,11 @@ class CachingPersistenceManagerProxy implements PersistenceManager
     /** cached dictionaries */
     private final Hashtable<String, CaseInsensitiveDictionary> cache;
 
+    /** indices on the cached dictionaries, modified along with the cache */
+    private final PropertyIndex[] indices = new PropertyIndex[]
+        { new PropertyIndex( Constants.SERVICE_PID ), new PropertyIndex( ConfigurationAdmin.SERVICE_FACTORYPID ),
+            new PropertyIndex( ConfigurationAdmin.SERVICE_BUNDLELOCATION ) };
+
     /** protecting lock */
     private final ReadWriteLock globalLock = new ReentrantReadWriteLock();
 
@@ -80,7 +100,7 @@ class CachingPersistenceManagerProxy implements PersistenceManager
         try
         {
             lock.lock();
-            cache.remove( pid );
+            uncache( pid );
             pm.delete(pid);
         }
         finally
@@ -152,7 +172,7 @@ class CachingPersistenceManagerProxy implements PersistenceManager
                         String pid = (String) next.get( Constants.SERVICE_PID );
                         if ( pid != null )
                         {
-                            cache.put( pid, copy( next ) );
+                            cache( pid, copy( next ) );
                         }
                         else
                         {
@@ -160,7 +180,7 @@ class CachingPersistenceManagerProxy implements PersistenceManager
                             if ( pid != null )
                             {
                                 pid = Factory.factoryPidToIdentifier( pid );
-                                cache.put( pid, copy( next ) );
+                                cache( pid, copy( next ) );
                             }
                         }
                     }
@@ -170,11 +190,26 @@ class CachingPersistenceManagerProxy implements PersistenceManager
 
             // Deep copy the configuration to avoid any threading issue
             Vector<Dictionary> configs = new Vector<Dictionary>();
-            for (Dictionary d : cache.values())
+            final Collection<String> candidates = ( filter == null ) ? null : getCandidates( filter );
+            if ( candidates != null )
+            {
+                for ( String pid : candidates )
+                {
+                    Dictionary d = cache.get( pid );
+                    if ( d != null && d.get( Constants.SERVICE_PID ) != null && filter.matches( d ) )
+                    {
+                        configs.add( copy( d ) );
+                    }
+                }
+            }
+            else
             {
-                if ( d.get( Constants.SERVICE_PID ) != null && ( filter == null || filter.matches( d ) ) )
+                for (Dictionary d : cache.values())
                 {
-                    configs.add( copy( d ) );
+                    if ( d.get( Constants.SERVICE_PID ) != null && ( filter == null || filter.matches( d ) ) )
+                    {
+                        configs.add( copy( d ) );
+                    }
                 }
             }
             return configs.elements();
@@ -212,7 +247,7 @@ class CachingPersistenceManagerProxy implements PersistenceManager
                 if ( loaded == null )
                 {
                     loaded = pm.load( pid );
-                    cache.put( pid, copy( loaded ) );
+                    cache( pid, copy( loaded ) );
                 }
             }
             return copy( loaded );
@@ -240,7 +275,7 @@ class CachingPersistenceManagerProxy implements PersistenceManager
         {
             lock.lock();
             pm.store( pid, properties );
-            cache.put( pid, copy( properties ) );
+            cache( pid, copy( properties ) );
         }
         finally
         {
@@ -249,6 +284,97 @@ class CachingPersistenceManagerProxy implements PersistenceManager
     }
 
 
+    /**
+     * Puts the dictionary into the cache and updates the indices. Must be
+     * called with the write lock held.
+     */
+    private void cache( final String pid, final CaseInsensitiveDictionary props )
+    {
+        final CaseInsensitiveDictionary old = cache.put( pid, props );
+        for ( PropertyIndex index : indices )
+        {
+            if ( old != null )
+            {
+                index.remove( pid, old );
+            }
+            index.add( pid, props );
+        }
+    }
+
+
+    /**
+     * Removes the dictionary from the cache and the indices. Must be called
+     * with the write lock held.
+     */
+    private void uncache( final String pid )
+    {
+        final CaseInsensitiveDictionary old = cache.remove( pid );
+        if ( old != null )
+        {
+            for ( PropertyIndex index : indices )
+            {
+                index.remove( pid, old );
+            }
+        }
+    }
+
+
+    /**
+     * Returns the keys of the cached dictionaries which may match the filter
+     * as far as the indices can tell or <code>null</code> if the indices
+     * cannot be used for the filter and all dictionaries have to be checked.
+     * Must be called with the read or write lock held.
+     */
+    private Collection<String> getCandidates( final SimpleFilter filter )
+    {
+        switch ( filter.getOperation() )
+        {
+            case SimpleFilter.EQ:
+                if ( filter.getValue() instanceof String )
+                {
+                    for ( PropertyIndex index : indices )
+                    {
+                        if ( index.name.equalsIgnoreCase( filter.getName() ) )
+                        {
+                            return index.get( ( String ) filter.getValue() );
+                        }
+                    }
+                }
+                return null;
+
+            case SimpleFilter.AND:
+                // any indexed term restricts the result, use the smallest
+                Collection<String> smallest = null;
+                for ( Object sub : ( List ) filter.getValue() )
+                {
+                    final Collection<String> candidates = getCandidates( ( SimpleFilter ) sub );
+                    if ( candidates != null && ( smallest == null || candidates.size() < smallest.size() ) )
+                    {
+                        smallest = candidates;
+                    }
+                }
+                return smallest;
+
+            case SimpleFilter.OR:
+                // all terms must be indexed to restrict the result
+                final Set<String> union = new HashSet<String>();
+                for ( Object sub : ( List ) filter.getValue() )
+                {
+                    final Collection<String> candidates = getCandidates( ( SimpleFilter ) sub );
+                    if ( candidates == null )
+                    {
+                        return null;
+                    }
+                    union.addAll( candidates );
+                }
+                return union;
+
+            default:
+                return null;
+        }
+    }
+
+
     /**
      * Creates and returns a copy of the given dictionary. This method simply
      * copies all entries from the source dictionary to the newly created
@@ -258,4 +384,84 @@ class CachingPersistenceManagerProxy implements PersistenceManager
     {
         return new CaseInsensitiveDictionary( source );
     }
+
+    /**
+     * The <code>PropertyIndex</code> maps the values of a single property to
+     * the keys of the cached dictionaries having this value. Dictionaries whose
+     * property value is not a string are always considered candidates since
+     * the filter may still match them after type coercion.
+     */
+    private static class PropertyIndex
+    {
+        final String name;
+
+        private final Map<String, Set<String>> values = new HashMap<String, Set<String>>();
+
+        private final Set<String> nonStringValues = new HashSet<String>();
+
+
+        PropertyIndex( final String name )
+        {
+            this.name = name;
+        }
+
+
+        void add( final String pid, final Dictionary props )
+        {
+            final Object value = props.get( name );
+            if ( value instanceof String )
+            {
+                Set<String> pids = values.get( value );
+                if ( pids == null )
+                {
+                    pids = new HashSet<String>();
+                    values.put( ( String ) value, pids );
+                }
+                pids.add( pid );
+            }
+            else if ( value != null )
+            {
+                nonStringValues.add( pid );
+            }
+        }
+
+
+        void remove( final String pid, final Dictionary props )
+        {
+            final Object value = props.get( name );
+            if ( value instanceof String )
+            {
+                final Set<String> pids = values.get( value );
+                if ( pids != null )
+                {
+                    pids.remove( pid );
+                    if ( pids.isEmpty() )
+                    {
+                        values.remove( value );
+                    }
+                }
+            }
+            else if ( value != null )
+            {
+                nonStringValues.remove( pid );
+            }
+        }
+
+
+        Collection<String> get( final String value )
+        {
+            final Set<String> pids = values.get( value );
+            if ( nonStringValues.isEmpty() )
+            {
+                return ( pids == null ) ? Collections.<String> emptySet() : pids;
+            }
+
+            final Set<String> result = new HashSet<String>( nonStringValues );
+            if ( pids != null )
+            {
+                result.addAll( pids );
+            }
+            return result;
+        }
+    }
 }
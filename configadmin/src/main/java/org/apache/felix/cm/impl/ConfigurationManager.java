@@ -35,6 +35,7 @@ import java.util.Random;
 
 import org.apache.felix.cm.PersistenceManager;
 import org.apache.felix.cm.file.FilePersistenceManager;
+import org.apache.felix.cm.file.JournalPersistenceManager;
 import org.apache.felix.cm.impl.helper.BaseTracker;
 import org.apache.felix.cm.impl.helper.ConfigurationMap;
 import org.apache.felix.cm.impl.helper.ManagedServiceFactoryTracker;
@@ -101,6 +102,23 @@ public class ConfigurationManager implements BundleActivator, BundleListener
      */
     public static final String CM_CONFIG_DIR = "felix.cm.dir";
 
+    /**
+     * The name of the bundle context property selecting the platform
+     * persistence manager (value is "felix.cm.pm"). If this property is set
+     * to <code>journal</code> a {@link JournalPersistenceManager} keeping all
+     * configuration in a single journal file in the {@link #CM_CONFIG_DIR}
+     * directory is used. Otherwise the {@link FilePersistenceManager} is used.
+     *
+     * @see #start(BundleContext)
+     */
+    public static final String CM_CONFIG_PM = "felix.cm.pm";
+
+    /**
+     * The value of the {@link #CM_CONFIG_PM} property selecting the
+     * {@link JournalPersistenceManager} (value is "journal").
+     */
+    public static final String CM_CONFIG_PM_JOURNAL = "journal";
+
     /**
      * The name of the bundle context property defining the maximum log level
      * (value is "felix.cm.loglevel"). The log level setting is only used if
@@ -114,11 +132,27 @@ public class ConfigurationManager implements BundleActivator, BundleListener
      */
     public static final String CM_LOG_LEVEL = "felix.cm.loglevel";
 
+    /**
+     * The name of the bundle context property defining the number of threads
+     * used to deliver configuration to <code>ManagedService[Factory]</code>
+     * services (value is "felix.cm.update.threads"). Updates for the same
+     * service PID are always delivered in order by a single thread at a
+     * time while updates for different service PIDs may be delivered
+     * concurrently.
+     * <p>
+     * The value of this property is expected to be a positive integer number.
+     * The default value is 1, such that all updates are delivered in the order
+     * in which they have been scheduled.
+     */
+    public static final String CM_UPDATE_THREADS = "felix.cm.update.threads";
+
     // The name of the LogService (not using the class, which might be missing)
     private static final String LOG_SERVICE_NAME = "org.osgi.service.log.LogService";
 
     private static final int CM_LOG_LEVEL_DEFAULT = 2;
 
+    private static final int CM_UPDATE_THREADS_DEFAULT = 1;
+
     // random number generator to create configuration PIDs for factory
     // configurations
     private static Random numberGenerator;
@@ -129,6 +163,9 @@ public class ConfigurationManager implements BundleActivator, BundleListener
     // the service registration of the default file persistence manager
     private volatile ServiceRegistration filepmRegistration;
 
+    // the journal persistence manager if used instead of the file persistence manager
+    private volatile JournalPersistenceManager journalPm;
+
     // the service registration of the configuration admin
     private volatile ServiceRegistration configurationAdminRegistration;
 
@@ -234,17 +271,46 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         // initialize the asynchonous updater thread
         ThreadGroup tg = new ThreadGroup( "Configuration Admin Service" );
         tg.setDaemon( true );
-        this.updateThread = new UpdateThread( this, tg, "CM Configuration Updater" );
+        this.updateThread = new UpdateThread( this, tg, "CM Configuration Updater",
+            getIntProperty( bundleContext, CM_UPDATE_THREADS, CM_UPDATE_THREADS_DEFAULT ) );
         this.eventThread = new UpdateThread( this, tg, "CM Event Dispatcher" );
 
         // set up the location (might throw IllegalArgumentException)
         try
         {
-            FilePersistenceManager fpm = new FilePersistenceManager( bundleContext, bundleContext
-                .getProperty( CM_CONFIG_DIR ) );
+            PersistenceManager fpm = null;
+            Class pmClass = null;
+            String description = null;
+            if ( CM_CONFIG_PM_JOURNAL.equals( bundleContext.getProperty( CM_CONFIG_PM ) ) )
+            {
+                try
+                {
+                    journalPm = new JournalPersistenceManager( bundleContext, bundleContext.getProperty( CM_CONFIG_DIR ) )
+                    {
+                        protected void compactionFailed( IOException ioe )
+                        {
+                            log( LogService.LOG_WARNING, "Failed to compact configuration journal " + getJournal(), ioe );
+                        }
+                    };
+                    fpm = journalPm;
+                    pmClass = JournalPersistenceManager.class;
+                    description = "Platform Journal Persistence Manager";
+                }
+                catch ( IOException ioe )
+                {
+                    log( LogService.LOG_ERROR,
+                        "Cannot open the configuration journal, using the FilePersistenceManager instead", ioe );
+                }
+            }
+            if ( fpm == null )
+            {
+                fpm = new FilePersistenceManager( bundleContext, bundleContext.getProperty( CM_CONFIG_DIR ) );
+                pmClass = FilePersistenceManager.class;
+                description = "Platform Filesystem Persistence Manager";
+            }
             Hashtable props = new Hashtable();
-            props.put( Constants.SERVICE_PID, fpm.getClass().getName() );
-            props.put( Constants.SERVICE_DESCRIPTION, "Platform Filesystem Persistence Manager" );
+            props.put( Constants.SERVICE_PID, pmClass.getName() );
+            props.put( Constants.SERVICE_DESCRIPTION, description );
             props.put( Constants.SERVICE_VENDOR, "Apache Software Foundation" );
             props.put( Constants.SERVICE_RANKING, new Integer( Integer.MIN_VALUE ) );
             filepmRegistration = bundleContext.registerService( PersistenceManager.class.getName(), fpm, props );
@@ -339,6 +405,12 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         {
             filePmReg.unregister();
         }
+        final JournalPersistenceManager jpm = journalPm;
+        journalPm = null;
+        if ( jpm != null )
+        {
+            jpm.close();
+        }
 
         // stop listening for events
         bundleContext.removeBundleListener( this );
@@ -716,7 +788,7 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         // remove the configuration from the cache
         removeConfiguration( config );
         fireConfigurationEvent( ConfigurationEvent.CM_DELETED, config.getPidString(), config.getFactoryPidString() );
-        updateThread.schedule( new DeleteConfiguration( config ) );
+        updateThread.schedule( getPartitionKey( config ), new DeleteConfiguration( config ) );
         log( LogService.LOG_DEBUG, "DeleteConfiguration({0}) scheduled", new Object[]
             { config.getPid() } );
     }
@@ -728,7 +800,7 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         {
             fireConfigurationEvent( ConfigurationEvent.CM_UPDATED, config.getPidString(), config.getFactoryPidString() );
         }
-        updateThread.schedule( new UpdateConfiguration( config ) );
+        updateThread.schedule( getPartitionKey( config ), new UpdateConfiguration( config ) );
         log( LogService.LOG_DEBUG, "UpdateConfiguration({0}) scheduled", new Object[]
             { config.getPid() } );
     }
@@ -739,7 +811,7 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         fireConfigurationEvent( ConfigurationEvent.CM_LOCATION_CHANGED, config.getPidString(), config.getFactoryPidString() );
         if ( oldLocation != null && !config.isNew() )
         {
-            updateThread.schedule( new LocationChanged( config, oldLocation ) );
+            updateThread.schedule( getPartitionKey( config ), new LocationChanged( config, oldLocation ) );
             log( LogService.LOG_DEBUG, "LocationChanged({0}, {1}=>{2}) scheduled", new Object[]
                 { config.getPid(), oldLocation, config.getBundleLocation() } );
         }
@@ -920,18 +992,66 @@ public class ConfigurationManager implements BundleActivator, BundleListener
                 { toString( sr ) } );
         }
 
-        Runnable r;
-        if ( factory )
+        // schedule an update per PID such that updates for a service
+        // registered with multiple PIDs are ordered with the updates of
+        // each respective configuration
+        for ( int i = 0; i < pid.length; i++ )
         {
-            r = new ManagedServiceFactoryUpdate( pid, sr, configs );
+            final String[] servicePid = new String[]
+                { pid[i] };
+            Runnable r;
+            if ( factory )
+            {
+                r = new ManagedServiceFactoryUpdate( servicePid, sr, configs );
+            }
+            else
+            {
+                r = new ManagedServiceUpdate( servicePid, sr, configs );
+            }
+            updateThread.schedule( pid[i], r );
+            log( LogService.LOG_DEBUG, "[{0}] scheduled", new Object[]
+                { r } );
         }
-        else
+    }
+
+
+    /**
+     * Returns the key used to partition the update tasks for the given
+     * configuration. This is the service PID (without any targeting) of
+     * the factory PID for factory configurations and of the configuration
+     * PID otherwise, such that all tasks concerning a single service are
+     * delivered in order.
+     */
+    private static String getPartitionKey( final ConfigurationImpl config )
+    {
+        final TargetedPID factoryPid = config.getFactoryPid();
+        if ( factoryPid != null )
         {
-            r = new ManagedServiceUpdate( pid, sr, configs );
+            return factoryPid.getServicePid();
         }
-        updateThread.schedule( r );
-        log( LogService.LOG_DEBUG, "[{0}] scheduled", new Object[]
-            { r } );
+        return config.getPid().getServicePid();
+    }
+
+
+    private static int getIntProperty( final BundleContext bundleContext, final String name, final int defaultValue )
+    {
+        final String value = bundleContext.getProperty( name );
+        if ( value != null )
+        {
+            try
+            {
+                final int intValue = Integer.parseInt( value.trim() );
+                if ( intValue > 0 )
+                {
+                    return intValue;
+                }
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // fall back to default
+            }
+        }
+        return defaultValue;
     }
 
 
@@ -1706,7 +1826,7 @@ public class ConfigurationManager implements BundleActivator, BundleListener
      * they are subscribed to. This may cause the configuration to be
      * supplied to multiple services.
      */
-    private class UpdateConfiguration extends ConfigurationProvider
+    private class UpdateConfiguration extends ConfigurationProvider implements UpdateThread.Replacing
     {
 
         UpdateConfiguration( final ConfigurationImpl config )
@@ -1773,6 +1893,15 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         }
 
 
+        public boolean replaces( Runnable pending )
+        {
+            // a pending update of the same configuration is superseded
+            // by this update carrying the more recent properties
+            return ( pending instanceof UpdateConfiguration )
+                && ( ( UpdateConfiguration ) pending ).config.getPid().equals( this.config.getPid() );
+        }
+
+
         @Override
         public String toString()
         {
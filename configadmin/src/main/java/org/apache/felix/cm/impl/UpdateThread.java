@@ -22,7 +22,11 @@ import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Set;
 
 import org.osgi.service.log.LogService;
 
@@ -30,10 +34,23 @@ import org.osgi.service.log.LogService;
 /**
  * The <code>UpdateThread</code> is the thread used to update managed services
  * and managed service factories as well as to send configuration events.
+ * <p>
+ * Tasks may be scheduled with a partition key, which is the service PID of
+ * the service to which the task delivers configuration. Tasks of the same
+ * partition are always run in the order in which they have been scheduled
+ * while tasks of different partitions may be run concurrently if more than
+ * one worker thread has been configured. Tasks scheduled without a partition
+ * key act as a barrier: They are only run after all tasks scheduled before
+ * have completed and no task scheduled after them is started before they
+ * have completed. With a single worker thread all tasks are run in the order
+ * in which they have been scheduled.
  */
 public class UpdateThread implements Runnable
 {
 
+    // the partition key of tasks scheduled without partition key
+    private static final Object BARRIER = new Object();
+
     // the configuration manager on whose behalf this thread is started
     // (this is mainly used for logging)
     private final ConfigurationManager configurationManager;
@@ -44,40 +61,70 @@ public class UpdateThread implements Runnable
     // the thread's base name
     private final String workerBaseName;
 
-    // the queue of Runnable instances  to be run
-    private final LinkedList updateTasks;
+    // the number of worker threads to start
+    private final int workerCount;
+
+    // the queue of Task instances to be run
+    private final LinkedList<Task> updateTasks;
+
+    // the partition keys of the tasks currently being run
+    private final Set<Object> activeKeys;
 
-    // the actual thread
-    private Thread worker;
+    // the actual threads
+    private Thread[] workers;
+
+    // set when the termination task has been taken from the queue
+    private boolean terminated;
 
     // the access control context
     private final AccessControlContext acc;
 
     public UpdateThread( final ConfigurationManager configurationManager, final ThreadGroup tg, final String name )
+    {
+        this( configurationManager, tg, name, 1 );
+    }
+
+
+    public UpdateThread( final ConfigurationManager configurationManager, final ThreadGroup tg, final String name,
+        final int workerCount )
     {
         this.configurationManager = configurationManager;
         this.workerThreadGroup = tg;
         this.workerBaseName = name;
+        this.workerCount = Math.max( 1, workerCount );
         this.acc = AccessController.getContext();
 
-        this.updateTasks = new LinkedList();
+        this.updateTasks = new LinkedList<Task>();
+        this.activeKeys = new HashSet<Object>();
     }
 
 
     // waits on Runnable instances coming into the queue. As instances come
     // in, this method calls the Runnable.run method, logs any exception
     // happening and keeps on waiting for the next Runnable. If the Runnable
-    // taken from the queue is this thread instance itself, the thread
-    // terminates.
+    // taken from the queue is this thread instance itself, all worker
+    // threads terminate.
     public void run()
     {
+        final String name = Thread.currentThread().getName();
         for ( ;; )
         {
-            Runnable task;
+            Task task;
             synchronized ( updateTasks )
             {
-                while ( updateTasks.isEmpty() )
+                for ( ;; )
                 {
+                    if ( terminated )
+                    {
+                        return;
+                    }
+
+                    task = nextTask();
+                    if ( task != null )
+                    {
+                        break;
+                    }
+
                     try
                     {
                         updateTasks.wait();
@@ -87,13 +134,16 @@ public class UpdateThread implements Runnable
                         // don't care
                     }
                 }
-
-                task = ( Runnable ) updateTasks.removeFirst();
             }
 
             // return if the task is this thread itself
-            if ( task == this )
+            if ( task.task == this )
             {
+                synchronized ( updateTasks )
+                {
+                    terminated = true;
+                    updateTasks.notifyAll();
+                }
                 return;
             }
 
@@ -101,12 +151,12 @@ public class UpdateThread implements Runnable
             try
             {
                 // set the thread name indicating the current task
-                Thread.currentThread().setName( workerBaseName + " (" + task + ")" );
+                Thread.currentThread().setName( name + " (" + task.task + ")" );
 
                 configurationManager.log( LogService.LOG_DEBUG, "Running task {0}", new Object[]
-                    { task } );
+                    { task.task } );
 
-                run0(task);
+                run0( task.task );
             }
             catch ( Throwable t )
             {
@@ -115,11 +165,57 @@ public class UpdateThread implements Runnable
             finally
             {
                 // reset the thread name to "idle"
-                Thread.currentThread().setName( workerBaseName );
+                Thread.currentThread().setName( name );
+
+                // release the partition for the next task
+                synchronized ( updateTasks )
+                {
+                    activeKeys.remove( task.key );
+                    updateTasks.notifyAll();
+                }
             }
         }
     }
 
+
+    // returns and removes the first task from the queue whose partition
+    // is not currently being worked on or null if there is none. Must be
+    // called while holding the lock on the updateTasks queue
+    private Task nextTask()
+    {
+        if ( activeKeys.contains( BARRIER ) )
+        {
+            return null;
+        }
+
+        for ( Iterator<Task> ti = updateTasks.iterator(); ti.hasNext(); )
+        {
+            final Task candidate = ti.next();
+            if ( candidate.key == BARRIER )
+            {
+                // if no task is active, all tasks scheduled before the
+                // barrier are done and the barrier is at the head of the
+                // queue. Otherwise no later task may overtake the barrier
+                if ( activeKeys.isEmpty() )
+                {
+                    ti.remove();
+                    activeKeys.add( BARRIER );
+                    return candidate;
+                }
+                return null;
+            }
+
+            if ( !activeKeys.contains( candidate.key ) )
+            {
+                ti.remove();
+                activeKeys.add( candidate.key );
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
     void run0(final Runnable task) throws Throwable {
         if (System.getSecurityManager() != null) {
             try {
@@ -144,30 +240,35 @@ public class UpdateThread implements Runnable
 
     /**
      * Starts processing the queued tasks. This method does nothing if the
-     * worker has already been started.
+     * workers have already been started.
      */
     synchronized void start()
     {
-        if ( this.worker == null )
+        if ( this.workers == null )
         {
-            Thread workerThread = new Thread( workerThreadGroup, this, workerBaseName );
-            workerThread.setDaemon( true );
-            workerThread.start();
-            this.worker = workerThread;
+            Thread[] workerThreads = new Thread[workerCount];
+            for ( int i = 0; i < workerThreads.length; i++ )
+            {
+                final String name = ( workerCount == 1 ) ? workerBaseName : workerBaseName + " #" + ( i + 1 );
+                workerThreads[i] = new Thread( workerThreadGroup, this, name );
+                workerThreads[i].setDaemon( true );
+                workerThreads[i].start();
+            }
+            this.workers = workerThreads;
         }
     }
 
 
     /**
-     * Terminates the worker thread and waits for the thread to have processed
-     * all outstanding events up to and including the termination job. All
-     * jobs {@link #schedule(Runnable) scheduled} after termination has been
-     * initiated will not be processed any more. This method does nothing if
-     * the worker thread is not currently active.
+     * Terminates the worker threads and waits for the threads to have
+     * processed all outstanding events up to and including the termination
+     * job. All jobs {@link #schedule(Runnable) scheduled} after termination
+     * has been initiated will not be processed any more. This method does
+     * nothing if the worker threads are not currently active.
      * <p>
-     * If the worker thread does not terminate within 5 seconds it is killed
+     * If the worker threads do not terminate within 5 seconds they are killed
      * by calling the (deprecated) <code>Thread.stop()</code> method. It may
-     * be that the worker thread may be blocked by a deadlock (it should not,
+     * be that a worker thread may be blocked by a deadlock (it should not,
      * though). In this case hope is that <code>Thread.stop()</code> will be
      * able to released that deadlock at the expense of one or more tasks to
      * not be executed any longer.... In any case an ERROR message is logged
@@ -175,47 +276,121 @@ public class UpdateThread implements Runnable
      */
     synchronized void terminate()
     {
-        if ( this.worker != null )
+        if ( this.workers != null )
         {
-            Thread workerThread = this.worker;
-            this.worker = null;
+            Thread[] workerThreads = this.workers;
+            this.workers = null;
 
             schedule( this );
 
-            // wait for all updates to terminate (<= 10 seconds !)
-            try
+            // wait for all updates to terminate (<= 5 seconds !)
+            final long deadline = System.currentTimeMillis() + 5000;
+            for ( int i = 0; i < workerThreads.length; i++ )
             {
-                workerThread.join( 5000 );
-            }
-            catch ( InterruptedException ie )
-            {
-                // don't really care
+                try
+                {
+                    workerThreads[i].join( Math.max( 1, deadline - System.currentTimeMillis() ) );
+                }
+                catch ( InterruptedException ie )
+                {
+                    // don't really care
+                }
             }
 
-            if ( workerThread.isAlive() )
+            for ( int i = 0; i < workerThreads.length; i++ )
             {
-                this.configurationManager.log( LogService.LOG_ERROR,
-                    "Worker thread {0} did not terminate within 5 seconds; trying to kill", new Object[]
-                        { workerBaseName } );
-                workerThread.stop();
+                if ( workerThreads[i].isAlive() )
+                {
+                    this.configurationManager.log( LogService.LOG_ERROR,
+                        "Worker thread {0} did not terminate within 5 seconds; trying to kill", new Object[]
+                            { workerThreads[i].getName() } );
+                    workerThreads[i].stop();
+                }
             }
         }
     }
 
 
-    // queue the given runnable to be run as soon as possible
+    // queue the given runnable to be run as soon as possible after all
+    // tasks scheduled before
     void schedule( Runnable update )
+    {
+        schedule( null, update );
+    }
+
+
+    // queue the given runnable to be run as soon as possible after all
+    // tasks scheduled before for the same partition. If the partition key
+    // is null, the task is scheduled as a barrier
+    void schedule( final Object key, final Runnable update )
     {
         synchronized ( updateTasks )
         {
             configurationManager.log( LogService.LOG_DEBUG, "Scheduling task {0}", new Object[]
                 { update } );
 
+            final Task task = new Task( ( key == null ) ? BARRIER : key, update );
+
+            // drop a task of the same partition still waiting to be run if
+            // it is replaced by the new task
+            if ( update instanceof Replacing )
+            {
+                for ( ListIterator<Task> ti = updateTasks.listIterator( updateTasks.size() ); ti.hasPrevious(); )
+                {
+                    final Task pending = ti.previous();
+                    if ( pending.key == BARRIER )
+                    {
+                        break;
+                    }
+                    else if ( pending.key.equals( task.key ) )
+                    {
+                        if ( ( ( Replacing ) update ).replaces( pending.task ) )
+                        {
+                            configurationManager.log( LogService.LOG_DEBUG, "Task {0} replaces pending task {1}",
+                                new Object[]
+                                    { update, pending.task } );
+                            ti.remove();
+                        }
+                        break;
+                    }
+                }
+            }
+
             // append to the task queue
-            updateTasks.add( update );
+            updateTasks.add( task );
 
-            // notify the waiting thread
+            // notify the waiting threads
             updateTasks.notifyAll();
         }
     }
+
+    /**
+     * The <code>Replacing</code> interface may be implemented by tasks which
+     * make a task of the same partition scheduled immediately before them
+     * obsolete as long as that task has not been started yet. An example is
+     * an update of a configuration superseding an earlier update of the same
+     * configuration.
+     */
+    interface Replacing
+    {
+        /**
+         * Returns <code>true</code> if the <code>pending</code> task need
+         * not be run anymore if this task is run.
+         */
+        boolean replaces( Runnable pending );
+    }
+
+    // a task in the queue along with its partition key
+    private static final class Task
+    {
+        final Object key;
+        final Runnable task;
+
+
+        Task( final Object key, final Runnable task )
+        {
+            this.key = key;
+            this.task = task;
+        }
+    }
 }
@@ -22,6 +22,7 @@ package org.apache.felix.cm.impl.helper;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 
@@ -30,6 +31,12 @@ public abstract class ConfigurationMap<T>
 {
     private Map<String, T> configurations;
 
+    // callbacks to the service waiting to be run, see deliver
+    private final LinkedList<Runnable> pendingCallbacks = new LinkedList<Runnable>();
+
+    // whether a thread is running the pending callbacks
+    private boolean delivering;
+
 
     protected ConfigurationMap( final String[] configuredPids )
     {
@@ -50,6 +57,61 @@ public abstract class ConfigurationMap<T>
     protected abstract boolean removeConfiguration( TargetedPID configPid, TargetedPID factoryPid );
 
 
+    /**
+     * Runs a callback to the service owning this map. Updates may be
+     * delivered from more than one update thread, so the callbacks are run
+     * one at a time and in the order they are handed in: either by the
+     * calling thread or by the thread already running callbacks for this
+     * map. Callbacks are never run while the monitor of this map is held,
+     * so the service may call back into the Configuration Admin Service.
+     *
+     * @param callback The callback to run
+     */
+    void deliver( final Runnable callback )
+    {
+        synchronized ( pendingCallbacks )
+        {
+            pendingCallbacks.add( callback );
+            if ( delivering )
+            {
+                return;
+            }
+            delivering = true;
+        }
+
+        boolean completed = false;
+        try
+        {
+            while ( true )
+            {
+                final Runnable next;
+                synchronized ( pendingCallbacks )
+                {
+                    next = pendingCallbacks.poll();
+                    if ( next == null )
+                    {
+                        delivering = false;
+                        completed = true;
+                        return;
+                    }
+                }
+                next.run();
+            }
+        }
+        finally
+        {
+            // let the next call run the remaining callbacks
+            if ( !completed )
+            {
+                synchronized ( pendingCallbacks )
+                {
+                    delivering = false;
+                }
+            }
+        }
+    }
+
+
     protected T get( final TargetedPID key )
     {
         final String servicePid = getKeyPid( key );
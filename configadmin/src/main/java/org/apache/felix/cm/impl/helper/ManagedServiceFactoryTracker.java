@@ -58,12 +58,13 @@ public class ManagedServiceFactoryTracker extends BaseTracker<ManagedServiceFact
 
 
     @Override
-    public void provideConfiguration( ServiceReference<ManagedServiceFactory> reference, TargetedPID configPid,
-        TargetedPID factoryPid, Dictionary<String, ?> properties, long revision, ConfigurationMap<?> configs )
+    public void provideConfiguration( final ServiceReference<ManagedServiceFactory> reference,
+        final TargetedPID configPid, final TargetedPID factoryPid, final Dictionary<String, ?> properties,
+        final long revision, ConfigurationMap<?> configs )
     {
         // Get the ManagedServiceFactory and terminate here if already
         // unregistered from the framework concurrently
-        ManagedServiceFactory service = getRealService( reference );
+        final ManagedServiceFactory service = getRealService( reference );
         if (service == null) {
             return;
         }
@@ -84,51 +85,82 @@ public class ManagedServiceFactoryTracker extends BaseTracker<ManagedServiceFact
         // are available, so the service can be updated with the
         // configuration (which may be null)
 
-        if ( configs.shallTake( configPid, factoryPid, revision ) )
+        // The revision check, callback and record are run in order per
+        // service, holding the monitor of the map only to access it
+        final ConfigurationMap<?> map = configs;
+        map.deliver( new Runnable()
         {
-            try
-            {
-                Dictionary props = getProperties( properties, reference, configPid.toString(),
-                    factoryPid.toString() );
-                updated( service, configPid.toString(), props );
-                configs.record( configPid, factoryPid, revision );
-            }
-            catch ( Throwable t )
-            {
-                this.handleCallBackError( t, reference, configPid );
-            }
-            finally
+            public void run()
             {
-                this.ungetRealService( reference );
+                synchronized ( map )
+                {
+                    if ( !map.shallTake( configPid, factoryPid, revision ) )
+                    {
+                        return;
+                    }
+                }
+
+                try
+                {
+                    Dictionary props = getProperties( properties, reference, configPid.toString(),
+                        factoryPid.toString() );
+                    updated( service, configPid.toString(), props );
+                    synchronized ( map )
+                    {
+                        map.record( configPid, factoryPid, revision );
+                    }
+                }
+                catch ( Throwable t )
+                {
+                    handleCallBackError( t, reference, configPid );
+                }
+                finally
+                {
+                    ungetRealService( reference );
+                }
             }
-        }
+        } );
     }
 
 
     @Override
-    public void removeConfiguration( ServiceReference<ManagedServiceFactory> reference, TargetedPID configPid,
-        TargetedPID factoryPid )
+    public void removeConfiguration( final ServiceReference<ManagedServiceFactory> reference,
+        final TargetedPID configPid, final TargetedPID factoryPid )
     {
         final ManagedServiceFactory service = this.getRealService( reference );
         final ConfigurationMap configs = this.getService( reference );
         if ( service != null && configs != null)
         {
-            if ( configs.removeConfiguration( configPid, factoryPid ) )
+            configs.deliver( new Runnable()
             {
-                try
-                {
-                    deleted( service, configPid.toString() );
-                    configs.record( configPid, factoryPid, -1 );
-                }
-                catch ( Throwable t )
+                public void run()
                 {
-                    this.handleCallBackError( t, reference, configPid );
-                }
-                finally
-                {
-                    this.ungetRealService( reference );
+                    synchronized ( configs )
+                    {
+                        if ( !configs.removeConfiguration( configPid, factoryPid ) )
+                        {
+                            return;
+                        }
+                    }
+
+                    try
+                    {
+                        deleted( service, configPid.toString() );
+                        synchronized ( configs )
+                        {
+                            configs.record( configPid, factoryPid, -1 );
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        handleCallBackError( t, reference, configPid );
+                    }
+                    finally
+                    {
+                        ungetRealService( reference );
+                    }
                 }
-            }
+            } );
         }
     }
 
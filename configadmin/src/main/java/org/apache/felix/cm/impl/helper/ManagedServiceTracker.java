@@ -94,8 +94,8 @@ public class ManagedServiceTracker extends BaseTracker<ManagedService>
     }
 
 
-    private void updateService( ServiceReference<ManagedService> service, final TargetedPID configPid,
-        Dictionary<String, ?> properties, long revision, ConfigurationMap<?> configs)
+    private void updateService( final ServiceReference<ManagedService> service, final TargetedPID configPid,
+        final Dictionary<String, ?> properties, final long revision, ConfigurationMap<?> configs)
     {
         // Get the ManagedService and terminate here if already
         // unregistered from the framework concurrently
@@ -120,47 +120,67 @@ public class ManagedServiceTracker extends BaseTracker<ManagedService>
         // are available, so the service can be updated with the
         // configuration (which may be null)
 
-        boolean doUpdate = false;
-        if ( properties == null )
+        // The revision check, callback and record are run in order per
+        // ManagedService, holding the monitor of the map only to access it
+        final ConfigurationMap<?> map = configs;
+        map.deliver( new Runnable()
         {
-            doUpdate = configs.removeConfiguration( configPid, null );
-        }
-        else if ( properties == INITIAL_MARKER )
-        {
-            // initial call to ManagedService may supply null properties
-            properties = null;
-            revision = -1;
-            doUpdate = true;
-        }
-        else if ( revision < 0 || configs.shallTake( configPid, null, revision ) )
-        {
-            // run the plugins and cause the update
-            properties = getProperties( properties, service, configPid.toString(), null );
-            doUpdate = true;
-            revision = Math.abs( revision );
-        }
-        else
-        {
-            // new configuration is not a better match, don't update
-            doUpdate = false;
-        }
-
-        if ( doUpdate )
-        {
-            try
-            {
-                updated( srv, properties );
-                configs.record( configPid, null, revision );
-            }
-            catch ( Throwable t )
+            public void run()
             {
-                this.handleCallBackError( t, service, configPid );
-            }
-            finally
-            {
-                this.ungetRealService( service );
+                Dictionary<String, ?> props = properties;
+                long rev = revision;
+                final boolean doUpdate;
+                synchronized ( map )
+                {
+                    if ( props == null )
+                    {
+                        doUpdate = map.removeConfiguration( configPid, null );
+                    }
+                    else if ( props == INITIAL_MARKER )
+                    {
+                        // initial call to ManagedService may supply null properties
+                        props = null;
+                        rev = -1;
+                        doUpdate = true;
+                    }
+                    else if ( rev < 0 || map.shallTake( configPid, null, rev ) )
+                    {
+                        doUpdate = true;
+                        rev = Math.abs( rev );
+                    }
+                    else
+                    {
+                        // new configuration is not a better match, don't update
+                        doUpdate = false;
+                    }
+                }
+
+                if ( doUpdate )
+                {
+                    try
+                    {
+                        if ( props != null )
+                        {
+                            // run the plugins and cause the update
+                            props = getProperties( props, service, configPid.toString(), null );
+                        }
+                        updated( srv, props );
+                        synchronized ( map )
+                        {
+                            map.record( configPid, null, rev );
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        handleCallBackError( t, service, configPid );
+                    }
+                    finally
+                    {
+                        ungetRealService( service );
+                    }
+                }
             }
-        }
+        } );
     }
 
 
@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.file;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+
+public class JournalPersistenceManagerTest extends TestCase
+{
+    private File file = new File( System.getProperty( "java.io.tmpdir" ), "config.journal" );
+
+    private JournalPersistenceManager jpm;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        file.delete();
+        jpm = new JournalPersistenceManager( file );
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        jpm.close();
+        file.delete();
+
+        super.tearDown();
+    }
+
+
+    public void testStoreLoad() throws Exception
+    {
+        assertFalse( jpm.exists( "a" ) );
+
+        jpm.store( "a", dictionary( "a", "value" ) );
+        assertTrue( jpm.exists( "a" ) );
+        assertEquals( "value", jpm.load( "a" ).get( "prop" ) );
+
+        jpm.store( "a", dictionary( "a", "other" ) );
+        assertEquals( "other", jpm.load( "a" ).get( "prop" ) );
+    }
+
+
+    public void testTypes() throws Exception
+    {
+        final Hashtable props = dictionary( "types", "string" );
+        props.put( "int", new Integer( 1 ) );
+        props.put( "long", new Long( 2 ) );
+        props.put( "array", new String[]
+            { "x", "y" } );
+        jpm.store( "types", props );
+
+        reopen();
+
+        final Dictionary loaded = jpm.load( "types" );
+        assertEquals( new Integer( 1 ), loaded.get( "int" ) );
+        assertEquals( new Long( 2 ), loaded.get( "long" ) );
+        assertEquals( 2, ( ( String[] ) loaded.get( "array" ) ).length );
+    }
+
+
+    public void testDelete() throws Exception
+    {
+        jpm.store( "a", dictionary( "a", "value" ) );
+        jpm.store( "b", dictionary( "b", "value" ) );
+        jpm.delete( "a" );
+        assertFalse( jpm.exists( "a" ) );
+        assertTrue( jpm.exists( "b" ) );
+
+        reopen();
+
+        assertFalse( jpm.exists( "a" ) );
+        assertTrue( jpm.exists( "b" ) );
+        assertEquals( pids( "b" ), pids( jpm.getDictionaries() ) );
+    }
+
+
+    public void testGetDictionaries() throws Exception
+    {
+        jpm.store( "a", dictionary( "a", "value" ) );
+        jpm.store( "b", dictionary( "b", "value" ) );
+        jpm.store( "a", dictionary( "a", "value2" ) );
+
+        reopen();
+
+        assertEquals( pids( "a,b" ), pids( jpm.getDictionaries() ) );
+    }
+
+
+    public void testTruncatedTail() throws Exception
+    {
+        jpm.store( "a", dictionary( "a", "value" ) );
+        jpm.store( "b", dictionary( "b", "value" ) );
+        jpm.close();
+
+        // cut off the last few bytes of record "b"
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.setLength( raf.length() - 3 );
+        raf.close();
+
+        jpm = new JournalPersistenceManager( file );
+        assertTrue( jpm.exists( "a" ) );
+        assertFalse( jpm.exists( "b" ) );
+
+        // the journal must be usable after recovery
+        jpm.store( "c", dictionary( "c", "value" ) );
+        reopen();
+        assertEquals( pids( "a,c" ), pids( jpm.getDictionaries() ) );
+    }
+
+
+    public void testCompaction() throws Exception
+    {
+        final StringBuffer value = new StringBuffer();
+        for ( int i = 0; i < 1024; i++ )
+        {
+            value.append( 'x' );
+        }
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            jpm.store( "a", dictionary( "a", value.toString() + i ) );
+        }
+        jpm.store( "b", dictionary( "b", "value" ) );
+
+        assertTrue( file.length() < 200 * 1024 );
+        assertTrue( jpm.getGarbage() < 100 * 1024 );
+        assertEquals( value.toString() + 199, jpm.load( "a" ).get( "prop" ) );
+
+        reopen();
+        assertEquals( value.toString() + 199, jpm.load( "a" ).get( "prop" ) );
+        assertEquals( pids( "a,b" ), pids( jpm.getDictionaries() ) );
+    }
+
+
+    public void testCompactionFailure() throws Exception
+    {
+        jpm.close();
+        final int[] failures = new int[1];
+        jpm = new JournalPersistenceManager( file )
+        {
+            protected void compactionFailed( IOException ioe )
+            {
+                failures[0]++;
+            }
+        };
+
+        // a directory in place of the temporary file lets compaction fail
+        final File tmp = new File( file.getPath() + ".tmp" );
+        tmp.delete();
+        assertTrue( tmp.mkdir() );
+        try
+        {
+            final String value = value( 1024 );
+            for ( int i = 0; i < 200; i++ )
+            {
+                jpm.store( "a", dictionary( "a", value + i ) );
+            }
+            assertTrue( failures[0] > 0 );
+            assertEquals( value + 199, jpm.load( "a" ).get( "prop" ) );
+        }
+        finally
+        {
+            tmp.delete();
+        }
+
+        // compaction succeeds again once the temporary file can be written
+        jpm.store( "b", dictionary( "b", "value" ) );
+        assertEquals( 0, jpm.getGarbage() );
+
+        reopen();
+        assertEquals( pids( "a,b" ), pids( jpm.getDictionaries() ) );
+    }
+
+
+    public void testInvalidJournal() throws Exception
+    {
+        jpm.close();
+
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.setLength( 0 );
+        raf.writeInt( 0x12345678 );
+        raf.writeInt( 1 );
+        raf.close();
+
+        try
+        {
+            jpm = new JournalPersistenceManager( file );
+            fail( "Expected IOException for a file which is not a journal" );
+        }
+        catch ( IOException ioe )
+        {
+            // expected
+        }
+
+        // the file has been closed and may be replaced
+        assertTrue( file.delete() );
+        jpm = new JournalPersistenceManager( file );
+        jpm.store( "a", dictionary( "a", "value" ) );
+        assertTrue( jpm.exists( "a" ) );
+    }
+
+
+    public void testShortJournal() throws Exception
+    {
+        jpm.close();
+
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.setLength( 0 );
+        raf.writeInt( 0x46434D4A );
+        raf.close();
+
+        try
+        {
+            jpm = new JournalPersistenceManager( file );
+            fail( "Expected IOException for a journal shorter than its header" );
+        }
+        catch ( IOException ioe )
+        {
+            // expected
+        }
+
+        // the damaged journal is kept for inspection
+        assertEquals( 4, file.length() );
+        assertTrue( file.delete() );
+        jpm = new JournalPersistenceManager( file );
+    }
+
+
+    public void testEmptyJournal() throws Exception
+    {
+        jpm.close();
+
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.setLength( 0 );
+        raf.close();
+
+        jpm = new JournalPersistenceManager( file );
+        jpm.store( "a", dictionary( "a", "value" ) );
+        reopen();
+        assertTrue( jpm.exists( "a" ) );
+    }
+
+
+    private String value( final int length )
+    {
+        final StringBuffer value = new StringBuffer();
+        for ( int i = 0; i < length; i++ )
+        {
+            value.append( 'x' );
+        }
+        return value.toString();
+    }
+
+
+    private void reopen() throws Exception
+    {
+        jpm.close();
+        jpm = new JournalPersistenceManager( file );
+    }
+
+
+    private Hashtable dictionary( final String pid, final String value )
+    {
+        final Hashtable props = new Hashtable();
+        props.put( "service.pid", pid );
+        props.put( "prop", value );
+        return props;
+    }
+
+
+    private Set pids( final String pids )
+    {
+        final Set set = new HashSet();
+        final String[] list = pids.split( "," );
+        for ( int i = 0; i < list.length; i++ )
+        {
+            set.add( list[i] );
+        }
+        return set;
+    }
+
+
+    private Set pids( final Enumeration dictionaries )
+    {
+        final Set set = new HashSet();
+        while ( dictionaries.hasMoreElements() )
+        {
+            set.add( ( ( Dictionary ) dictionaries.nextElement() ).get( "service.pid" ) );
+        }
+        return set;
+    }
+}
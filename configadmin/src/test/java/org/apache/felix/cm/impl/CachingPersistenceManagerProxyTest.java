@@ -98,4 +98,39 @@ public class CachingPersistenceManagerProxyTest extends TestCase
         assertEquals(0, list.size());
     }
 
-}
\ No newline at end of file
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void test_indexed_filters() throws Exception {
+        PersistenceManager pm = new MockPersistenceManager();
+        CachingPersistenceManagerProxy cpm = new CachingPersistenceManagerProxy( pm );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            Dictionary dictionary = new Hashtable();
+            dictionary.put( Constants.SERVICE_PID, "factory." + i );
+            dictionary.put( "service.factoryPid", ( i % 2 == 0 ) ? "even" : "odd" );
+            dictionary.put( "property1", "value" + i );
+            pm.store( "factory." + i, dictionary );
+        }
+
+        assertEquals( 5, Collections.list( cpm.getDictionaries( SimpleFilter.parse( "(service.factoryPid=even)" ) ) ).size() );
+        assertEquals( 1, Collections.list( cpm.getDictionaries( SimpleFilter.parse( "(service.pid=factory.3)" ) ) ).size() );
+        assertEquals( 1, Collections.list( cpm.getDictionaries(
+            SimpleFilter.parse( "(&(service.factoryPid=odd)(property1=value3))" ) ) ).size() );
+        assertEquals( 0, Collections.list( cpm.getDictionaries(
+            SimpleFilter.parse( "(&(service.factoryPid=odd)(property1=value2))" ) ) ).size() );
+        assertEquals( 10, Collections.list( cpm.getDictionaries(
+            SimpleFilter.parse( "(|(service.factoryPid=odd)(service.factoryPid=even))" ) ) ).size() );
+        assertEquals( 0, Collections.list( cpm.getDictionaries( SimpleFilter.parse( "(service.factoryPid=none)" ) ) ).size() );
+
+        // indices follow store and delete
+        Dictionary dictionary = new Hashtable();
+        dictionary.put( Constants.SERVICE_PID, "factory.0" );
+        dictionary.put( "service.factoryPid", "odd" );
+        cpm.store( "factory.0", dictionary );
+        cpm.delete( "factory.1" );
+
+        assertEquals( 4, Collections.list( cpm.getDictionaries( SimpleFilter.parse( "(service.factoryPid=even)" ) ) ).size() );
+        assertEquals( 5, Collections.list( cpm.getDictionaries( SimpleFilter.parse( "(service.factoryPid=odd)" ) ) ).size() );
+        assertEquals( 0, Collections.list( cpm.getDictionaries( SimpleFilter.parse( "(service.pid=factory.1)" ) ) ).size() );
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.impl;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+
+public class UpdateThreadTest extends TestCase
+{
+
+    private final List<String> runs = Collections.synchronizedList( new ArrayList<String>() );
+
+    private UpdateThread updateThread;
+
+
+    protected void tearDown() throws Exception
+    {
+        if ( updateThread != null )
+        {
+            updateThread.terminate();
+        }
+
+        super.tearDown();
+    }
+
+
+    public void test_single_worker_keeps_order() throws Exception
+    {
+        updateThread = new UpdateThread( new ConfigurationManager(), null, "Test updater" );
+        updateThread.schedule( "a", new Record( "a1" ) );
+        updateThread.schedule( "b", new Record( "b1" ) );
+        updateThread.schedule( "a", new Record( "a2" ) );
+        updateThread.schedule( new Record( "barrier" ) );
+        updateThread.schedule( "b", new Record( "b2" ) );
+
+        updateThread.start();
+        awaitIdle();
+
+        assertEquals( Arrays.asList( "a1", "b1", "a2", "barrier", "b2" ), runs );
+    }
+
+
+    public void test_replacing_task() throws Exception
+    {
+        updateThread = new UpdateThread( new ConfigurationManager(), null, "Test updater" );
+        updateThread.schedule( "a", new Replacing( "a1" ) );
+        updateThread.schedule( "b", new Replacing( "b1" ) );
+        updateThread.schedule( "a", new Replacing( "a2" ) );
+        updateThread.schedule( "b", new Record( "b2" ) );
+        updateThread.schedule( "b", new Replacing( "b3" ) );
+
+        updateThread.start();
+        awaitIdle();
+
+        // a1 is replaced by a2, b1 is not replaced because b2 is in between
+        assertEquals( Arrays.asList( "b1", "a2", "b2", "b3" ), runs );
+    }
+
+
+    public void test_partitions_run_concurrently() throws Exception
+    {
+        final CountDownLatch blocker = new CountDownLatch( 1 );
+        final CountDownLatch b1Done = new CountDownLatch( 1 );
+
+        updateThread = new UpdateThread( new ConfigurationManager(), null, "Test updater", 2 );
+        updateThread.schedule( "a", new Record( "a1" )
+        {
+            public void run()
+            {
+                await( blocker );
+                super.run();
+            }
+        } );
+        updateThread.schedule( "a", new Record( "a2" ) );
+        updateThread.schedule( "b", new Record( "b1" )
+        {
+            public void run()
+            {
+                super.run();
+                b1Done.countDown();
+            }
+        } );
+        updateThread.start();
+
+        // b1 must be able to run while a1 is blocked, a2 must wait for a1
+        assertTrue( b1Done.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( Arrays.asList( "b1" ), runs );
+
+        blocker.countDown();
+        awaitIdle();
+
+        assertEquals( Arrays.asList( "b1", "a1", "a2" ), runs );
+    }
+
+
+    public void test_barrier_waits_for_partitions() throws Exception
+    {
+        final CountDownLatch blocker = new CountDownLatch( 1 );
+
+        updateThread = new UpdateThread( new ConfigurationManager(), null, "Test updater", 3 );
+        updateThread.schedule( "a", new Record( "a1" )
+        {
+            public void run()
+            {
+                await( blocker );
+                super.run();
+            }
+        } );
+        updateThread.schedule( new Record( "barrier" ) );
+        updateThread.schedule( "b", new Record( "b1" ) );
+        updateThread.start();
+
+        Thread.sleep( 100 );
+        assertTrue( runs.isEmpty() );
+
+        blocker.countDown();
+        awaitIdle();
+
+        assertEquals( Arrays.asList( "a1", "barrier", "b1" ), runs );
+    }
+
+
+    private void awaitIdle() throws InterruptedException
+    {
+        final CountDownLatch idle = new CountDownLatch( 1 );
+        updateThread.schedule( new Runnable()
+        {
+            public void run()
+            {
+                idle.countDown();
+            }
+        } );
+        assertTrue( idle.await( 5, TimeUnit.SECONDS ) );
+    }
+
+
+    private static void await( final CountDownLatch latch )
+    {
+        try
+        {
+            latch.await( 5, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException ie )
+        {
+            // ignore
+        }
+    }
+
+    private class Record implements Runnable
+    {
+        private final String name;
+
+
+        Record( final String name )
+        {
+            this.name = name;
+        }
+
+
+        public void run()
+        {
+            runs.add( name );
+        }
+
+
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    private class Replacing extends Record implements UpdateThread.Replacing
+    {
+        Replacing( final String name )
+        {
+            super( name );
+        }
+
+
+        public boolean replaces( Runnable pending )
+        {
+            return pending instanceof Replacing;
+        }
+    }
+}
@@ -19,7 +19,10 @@
 package org.apache.felix.cm.impl.helper;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
@@ -94,6 +97,100 @@ public class ConfigurationMapTest
         TestCase.assertTrue( holder20.isDifferentPids( pids30 ) );
     }
 
+    @Test
+    public void test_deliver_inOrder()
+    {
+        final ConfigurationMap holder = new TestConfigurationMap( null );
+        final List<String> calls = new ArrayList<String>();
+        holder.deliver( new Runnable()
+        {
+            public void run()
+            {
+                // a callback handed in while delivering runs after this one
+                holder.deliver( new Runnable()
+                {
+                    public void run()
+                    {
+                        calls.add( "second" );
+                    }
+                } );
+                calls.add( "first" );
+            }
+        } );
+
+        TestCase.assertEquals( Arrays.asList( "first", "second" ), calls );
+    }
+
+
+    @Test(timeout = 10000)
+    public void test_deliver_withoutMonitor() throws Exception
+    {
+        final ConfigurationMap holder = new TestConfigurationMap( null );
+        final boolean[] called = new boolean[1];
+        holder.deliver( new Runnable()
+        {
+            public void run()
+            {
+                // another thread accessing the map must not be blocked
+                // while the service is called back
+                final Thread other = new Thread()
+                {
+                    public void run()
+                    {
+                        synchronized ( holder )
+                        {
+                            holder.accepts( "a" );
+                        }
+                    }
+                };
+                other.start();
+                try
+                {
+                    other.join();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                called[0] = !Thread.holdsLock( holder );
+            }
+        } );
+
+        TestCase.assertTrue( called[0] );
+    }
+
+
+    @Test
+    public void test_deliver_afterFailure()
+    {
+        final ConfigurationMap holder = new TestConfigurationMap( null );
+        try
+        {
+            holder.deliver( new Runnable()
+            {
+                public void run()
+                {
+                    throw new IllegalStateException( "failed callback" );
+                }
+            } );
+            TestCase.fail( "Expected the callback failure" );
+        }
+        catch ( IllegalStateException ise )
+        {
+            // expected
+        }
+
+        final boolean[] called = new boolean[1];
+        holder.deliver( new Runnable()
+        {
+            public void run()
+            {
+                called[0] = true;
+            }
+        } );
+        TestCase.assertTrue( called[0] );
+    }
+
     /*
      * Simple ConfigurationMap implementation sufficing for these tests
      * which only test the methods in the abstract base class.
@@ -29,6 +29,7 @@ import static org.apache.felix.dm.benchmark.scenario.Helper.debug;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
@@ -48,10 +49,29 @@ import org.apache.felix.dm.benchmark.scenario.Track;
 import org.apache.felix.dm.benchmark.scenario.Unchecked;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
 
 /**
  * The controller which perform microbenchmarks on some scenario bundles.
  * 
+ * <p> Each scenario bundle is first started/stopped a few times in order to warm up the JVM, and these
+ * warmup results are discarded. Then, for each measured iteration, the controller records:
+ * <ul>
+ * <li> the startup latency: the time needed to start the bundle and to get all components started;
+ * <li> the steady-state service lookup throughput, while all components are started;
+ * <li> the number of bytes allocated by all threads while the bundle is started, including the threadpool threads
+ * which terminated meanwhile (if supported by the JVM);
+ * <li> the shutdown latency: the time needed to stop the bundle and to get all components stopped.
+ * </ul>
+ * 
+ * The number of iterations can be configured using the following OSGi framework properties:
+ * <ul>
+ * <li> "org.apache.felix.dm.benchmark.warmup": number of warmup iterations (default = 10).
+ * <li> "org.apache.felix.dm.benchmark.iterations": number of measured iterations (default = 50).
+ * <li> "org.apache.felix.dm.benchmark.lookup": duration of the service lookup measurement in millis (default = 100).
+ * </ul>
+ * 
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class ScenarioControllerImpl implements Runnable, ScenarioController {
@@ -60,9 +80,18 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
      */
     final List<String> TESTS = Arrays.asList(
         "org.apache.felix.dependencymanager.benchmark.dependencymanager",
-        "org.apache.felix.dependencymanager.benchmark.dependencymanager.parallel"
+        "org.apache.felix.dependencymanager.benchmark.dependencymanager.parallel",
+        "org.apache.felix.dependencymanager.benchmark.dependencymanager.lambda",
+        "org.apache.felix.dependencymanager.benchmark.dependencymanager.lambda.parallel"
     );
     
+    /**
+     * Framework properties used to configure the benchmark.
+     */
+    final static String WARMUP = "org.apache.felix.dm.benchmark.warmup";
+    final static String ITERATIONS = "org.apache.felix.dm.benchmark.iterations";
+    final static String LOOKUP = "org.apache.felix.dm.benchmark.lookup";
+    
     /**
      * Our injected bundle context, used to lookup the bundles to benchmark.
      */
@@ -108,15 +137,18 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
         // Register our controller service
         m_bctx.registerService(ScenarioController.class.getName(), this, null);
         
+        int warmup = getProperty(WARMUP, 10);
+        int iterations = getProperty(ITERATIONS, 50);
+        
         // Start/stop several times the tested bundles. (no processing done in components start methods).
         m_doProcessingInStartStop = false;
         out.println("\n\t[Starting benchmarks with no processing done in components start methods]");
-        startStopScenarioBundles(TESTS, 50);
+        startStopScenarioBundles(TESTS, warmup, iterations);
        
         // Start/stop several times the tested bundles (processing is done in components start methods).
         m_doProcessingInStartStop = true;
         out.println("\n\t[Starting benchmarks with processing done in components start methods]");
-        startStopScenarioBundles(TESTS, 5);
+        startStopScenarioBundles(TESTS, 1, Math.max(1, iterations / 10));
     }
 
     @Override
@@ -166,45 +198,111 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
             
     // ------------------- Private methods -----------------------------------------------------
         
-    private void startStopScenarioBundles(List<String> tests, int iterations) {
+    private void startStopScenarioBundles(List<String> tests, int warmup, int iterations) {
+        long lookupDuration = TimeUnit.MILLISECONDS.toNanos(getProperty(LOOKUP, 100));
         forEachScenarioBundle(tests, bundle -> {
-            out.print("\nBenchmarking bundle: " + bundle.getSymbolicName() + " ");            
-            List<Long> sortedResults = LongStream.range(0, iterations)
-                .peek(i -> out.print("."))
-                .map(n -> durationOf(() -> start(bundle)))
-                .peek(n -> stop(bundle))
-                .sorted().boxed().collect(toList());
+            out.print("\nBenchmarking bundle: " + bundle.getSymbolicName() + " ");
+            
+            // Warm up the JVM, and discard the results.
+            LongStream.range(0, warmup).forEach(i -> {
+                out.print("-");
+                start(bundle);
+                stop(bundle);
+            });
+            
+            List<Long> startTimes = new ArrayList<>();
+            List<Long> stopTimes = new ArrayList<>();
+            List<Long> lookups = new ArrayList<>();
+            List<Long> allocations = new ArrayList<>();
+            LongStream.range(0, iterations).forEach(i -> {
+                out.print(".");
+                long allocated = Helper.allocatedBytes();
+                startTimes.add(durationOf(() -> start(bundle)));
+                allocations.add(Helper.allocatedBytes() - allocated);
+                lookups.add(lookupThroughput(lookupDuration));
+                stopTimes.add(durationOf(() -> stop(bundle)));
+            });
             out.println();
-            displaySortedResults(sortedResults);
+            displaySortedResults("start latency in nanos", startTimes);
+            displaySortedResults("stop latency in nanos", stopTimes);
+            if (lookups.contains(-1L)) {
+                out.println("-> service lookups per second: could not be measured (invalid lookup filter)");
+            } else {
+                displaySortedResults("service lookups per second", lookups);
+            }
+            if (Helper.allocatedBytes() != -1) {
+                displaySortedResults("bytes allocated during start", allocations);
+            }
             Unchecked.run(() -> Thread.sleep(500));
         });               
     }
 
     /**
-     * Displays meaningful values in the sorted results (first=fastest, midle=average, last entry=slowest)
-     * @param sortedResults
+     * Displays meaningful values in the sorted results (first=lowest, midle=average, last entry=highest)
+     * @param label the description of the results
+     * @param results the results to sort and display
      */
-    private void displaySortedResults(List<Long> sortedResults) {
-        // We don't display an average of the duration times; Instead, we sort the results,
-        // and we display the significant results (the first entry is the fastest, the middle entry is the
-        // average, the last entry is the slowest ...)
-        out.printf("-> results in nanos: [%s]%n",  
+    private void displaySortedResults(String label, List<Long> results) {
+        // We don't display an average of the results; Instead, we sort the results,
+        // and we display the significant results (the first entry is the lowest, the middle entry is the
+        // average, the last entry is the highest ...)
+        List<Long> sortedResults = results.stream().sorted().collect(toList());
+        out.printf("-> %s: [%s]%n", label,
             Stream.of(0f, 24.99f, 49.99f, 74.99f, 99.99f)
                 .mapToInt(perc -> (int) (perc * sortedResults.size() / 100))
                 .mapToObj(sortedResults::get)
-                .map(this::formatNano)
+                .map(this::formatNumber)
                 .collect(joining(" | ")));
     }
     
     /**
-     * Displays a nanosecond value using thousands separator. 
+     * Looks up the music tracks by id during the given duration, and returns the number of lookups per second.
+     * The lookups are performed using our bundle context, which uses the Dependency Manager filter indices 
+     * if they are enabled. Returns -1 if the lookups can't be performed.
+     */
+    private long lookupThroughput(long duration) {
+        try {
+            ServiceReference[] tracks = m_bctx.getServiceReferences(Track.class.getName(), null);
+            if (tracks == null || duration <= 0) {
+                return 0;
+            }
+            String[] filters = Stream.of(tracks).map(ref -> "(id=" + ref.getProperty("id") + ")").toArray(String[]::new);
+            long lookups = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                m_bctx.getServiceReferences(Track.class.getName(), filters[(int) (lookups % filters.length)]);
+                lookups ++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < duration);
+            return lookups * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        } catch (InvalidSyntaxException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Returns the value of an integer framework property.
+     */
+    private int getProperty(String name, int defaultValue) {
+        String value = m_bctx.getProperty(name);
+        try {
+            return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            out.println("Invalid value for property " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Displays a value using thousands separator. 
      * Example: 1000000 -> 1,000,000
      */
-    private String formatNano(Long nanoseconds) {
+    private String formatNumber(Long value) {
 		DecimalFormat formatter = (DecimalFormat) NumberFormat.getInstance(Locale.US);
 		DecimalFormatSymbols symbols = formatter.getDecimalFormatSymbols();
 		symbols.setGroupingSeparator(',');
-		return formatter.format(nanoseconds);
+		return formatter.format(value);
     }
 
     private void componentAdded() {
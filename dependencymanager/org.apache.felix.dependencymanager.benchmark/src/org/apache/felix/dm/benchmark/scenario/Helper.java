@@ -18,8 +18,12 @@
  */
 package org.apache.felix.dm.benchmark.scenario;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
 import java.util.function.Supplier;
 
 /**
@@ -39,10 +43,25 @@ public class Helper {
     private final static AtomicLong m_idGenerator = new AtomicLong();
 
     /**
-     * Threadpool which can be optionally used by parallel scenarios.
+     * Number of bytes allocated by the threadpool threads which have terminated.
+     */
+    private final static AtomicLong m_exitedThreadsAllocatedBytes = new AtomicLong();
+
+    /**
+     * Threadpool which can be optionally used by parallel scenarios. When a pool thread terminates, it
+     * records the bytes it has allocated, so they are not lost from the allocation measurements.
      */
     private final static int CORES = Runtime.getRuntime().availableProcessors();
-    private final static ForkJoinPool TPOOL = new ForkJoinPool(CORES);
+    private final static ForkJoinPool TPOOL = new ForkJoinPool(CORES, pool -> new ForkJoinWorkerThread(pool) {
+        @Override
+        protected void onTermination(Throwable exception) {
+            long allocated = threadAllocatedBytes(getId());
+            if (allocated > 0) {
+                m_exitedThreadsAllocatedBytes.addAndGet(allocated);
+            }
+            super.onTermination(exception);
+        }
+    }, null, false);
     
     /**
      * Get the threadpool, possibly needed by some scenario supporting parallel mode
@@ -51,6 +70,30 @@ public class Helper {
         return TPOOL;
     }
     
+    /**
+     * Returns the number of bytes allocated so far by all live threads, plus the bytes allocated by the
+     * terminated threadpool threads, or -1 if the JVM can't tell.
+     */
+    public static long allocatedBytes() {
+        long allocated = threadAllocatedBytes(ManagementFactory.getThreadMXBean().getAllThreadIds());
+        return allocated == -1 ? -1 : allocated + m_exitedThreadsAllocatedBytes.get();
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the given threads, or -1 if the JVM can't tell.
+     */
+    private static long threadAllocatedBytes(long ... threadIds) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (! (threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        if (! sunThreads.isThreadAllocatedMemorySupported() || ! sunThreads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return LongStream.of(sunThreads.getThreadAllocatedBytes(threadIds)).filter(n -> n > 0).sum();
+    }
+
     /**
      * Display some debug messages.
      */
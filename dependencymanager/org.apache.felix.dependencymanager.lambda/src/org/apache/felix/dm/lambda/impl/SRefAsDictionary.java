@@ -27,11 +27,11 @@ import java.util.NoSuchElementException;
 import org.osgi.framework.ServiceReference;
 
 /**
- * Maps a ServiceReference to a Dictionary.
+ * Maps a ServiceReference to a read-only Dictionary. The view always reflects the current service properties, so it
+ * can be reused for all the callbacks invoked with the same service reference.
  */
 public class SRefAsDictionary extends Dictionary<String, Object> {
     private final ServiceReference<?> m_ref;
-    private volatile int m_size = -1;
 
     public SRefAsDictionary(ServiceReference<?> ref) {
         m_ref = ref;
@@ -44,7 +44,7 @@ public class SRefAsDictionary extends Dictionary<String, Object> {
     
     @Override
     public int size() {
-        return m_size != -1 ? m_size : (m_size = m_ref.getPropertyKeys().length);
+        return m_ref.getPropertyKeys().length;
     }
 
     @Override
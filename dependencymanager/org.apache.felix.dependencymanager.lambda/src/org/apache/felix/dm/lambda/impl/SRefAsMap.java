@@ -30,10 +30,12 @@ import java.util.Set;
 import org.osgi.framework.ServiceReference;
 
 /**
- * Maps a ServiceReference to a Map.
+ * Maps a ServiceReference to a read-only Map. The view always reflects the current service properties, so it can be 
+ * reused for all the callbacks invoked with the same service reference.
  */
 public class SRefAsMap extends AbstractMap<String, Object> {
     private final ServiceReference<?> m_ref;
+    private Set<Entry<String, Object>> m_entrySet;
 
     public SRefAsMap(ServiceReference<?> ref) {
         m_ref = ref;
@@ -45,6 +47,15 @@ public class SRefAsMap extends AbstractMap<String, Object> {
 
     @Override
     public Set<Entry<String, Object>> entrySet() {
+        // The entry set is created lazily, only if the properties are iterated.
+        Set<Entry<String, Object>> entrySet = m_entrySet;
+        if (entrySet == null) {
+            m_entrySet = entrySet = createEntrySet();
+        }
+        return entrySet;
+    }
+    
+    private Set<Entry<String, Object>> createEntrySet() {
         return new AbstractSet<Entry<String, Object>>() {
             @Override
             public Iterator<Entry<String, Object>> iterator() {
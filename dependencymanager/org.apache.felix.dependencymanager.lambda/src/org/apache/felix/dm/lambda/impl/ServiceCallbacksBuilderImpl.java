@@ -22,9 +22,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.felix.dm.Component;
+import org.apache.felix.dm.ComponentState;
+import org.apache.felix.dm.ComponentStateListener;
 import org.apache.felix.dm.lambda.ServiceCallbacksBuilder;
 import org.apache.felix.dm.lambda.callbacks.CbRefServiceRefService;
 import org.apache.felix.dm.lambda.callbacks.CbRefServiceRefServiceComponent;
@@ -82,6 +85,38 @@ public class ServiceCallbacksBuilderImpl<S, B extends ServiceCallbacksBuilder<S,
 	 */
 	protected final List<SwapMethodRef<?, S>> m_swapRefs = new ArrayList<>();
 	
+	/**
+	 * Read-only Map views of the service references properties, reused for all callbacks invoked with a given
+	 * service reference. A view is created when first needed, and is dropped when the service is removed or swapped,
+	 * or when a component using the views is stopped.
+	 */
+	private final Map<ServiceReference<S>, SRefAsMap> m_mapViews = new ConcurrentHashMap<>();
+
+	/**
+	 * Read-only Dictionary views of the service references properties (see {@link #m_mapViews}).
+	 */
+	private final Map<ServiceReference<S>, SRefAsDictionary> m_dictViews = new ConcurrentHashMap<>();
+	
+	/**
+	 * Components which have been given a cached view (there are several of them for adapters and aspects).
+	 */
+	private final Set<Component> m_viewOwners = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Drops all cached views when one of their components is stopped, since the remove callbacks are not always
+	 * invoked for all the service references.
+	 */
+	private final ComponentStateListener m_viewsEvictor = new ComponentStateListener() {
+	    @Override
+	    public void changed(Component c, ComponentState state) {
+	        if (state == ComponentState.INACTIVE && m_viewOwners.remove(c)) {
+	            c.remove(this);
+	            m_mapViews.clear();
+	            m_dictViews.clear();
+	        }
+	    }
+	};
+	
 	/**
 	 * This interface (lambda) is called when we want to invoke a method reference. the lambda is called with all necessary service dependency 
 	 * informations.
@@ -218,11 +253,11 @@ public class ServiceCallbacksBuilderImpl<S, B extends ServiceCallbacksBuilder<S,
     
     public <T> B callbacks(CbServiceMap<T, S> add, CbServiceMap<T, S> change, CbServiceMap<T, S> remove) {
         if (add != null)
-            setComponentCallbackRef(Cb.ADD, Helpers.getLambdaArgType(add, 0), (inst, comp, ref, srv) -> add.accept((T) inst, srv, new SRefAsMap(ref)));
+            setComponentCallbackRef(Cb.ADD, Helpers.getLambdaArgType(add, 0), (inst, comp, ref, srv) -> add.accept((T) inst, srv, mapOf(comp, ref)));
         if (change != null)
-            setComponentCallbackRef(Cb.CHG, Helpers.getLambdaArgType(change, 0), (inst, comp, ref, srv) -> change.accept((T) inst, srv, new SRefAsMap(ref)));
+            setComponentCallbackRef(Cb.CHG, Helpers.getLambdaArgType(change, 0), (inst, comp, ref, srv) -> change.accept((T) inst, srv, mapOf(comp, ref)));
         if (remove != null)
-            setComponentCallbackRef(Cb.REM, Helpers.getLambdaArgType(remove, 0), (inst, comp, ref, srv) -> remove.accept((T) inst, srv, new SRefAsMap(ref)));
+            setComponentCallbackRef(Cb.REM, Helpers.getLambdaArgType(remove, 0), (inst, comp, ref, srv) -> remove.accept((T) inst, srv, mapOf(comp, ref)));
         return (B) this;        
     }
     
@@ -240,11 +275,11 @@ public class ServiceCallbacksBuilderImpl<S, B extends ServiceCallbacksBuilder<S,
 
     public B callbacks(InstanceCbServiceMap<S> add, InstanceCbServiceMap<S> change, InstanceCbServiceMap<S> remove) {
         if (add != null)
-            setInstanceCallbackRef(Cb.ADD, (inst, comp, ref, srv) -> add.accept(srv, new SRefAsMap(ref)));   
+            setInstanceCallbackRef(Cb.ADD, (inst, comp, ref, srv) -> add.accept(srv, mapOf(comp, ref)));   
         if (change != null)
-            setInstanceCallbackRef(Cb.CHG, (inst, comp, ref, srv) -> change.accept(srv, new SRefAsMap(ref)));   
+            setInstanceCallbackRef(Cb.CHG, (inst, comp, ref, srv) -> change.accept(srv, mapOf(comp, ref)));   
         if (remove != null)
-            setInstanceCallbackRef(Cb.REM, (inst, comp, ref, srv) -> remove.accept(srv, new SRefAsMap(ref)));
+            setInstanceCallbackRef(Cb.REM, (inst, comp, ref, srv) -> remove.accept(srv, mapOf(comp, ref)));
         return (B) this;        
     }
 
@@ -262,11 +297,11 @@ public class ServiceCallbacksBuilderImpl<S, B extends ServiceCallbacksBuilder<S,
     
     public <T> B callbacks(CbServiceDict<T, S> add, CbServiceDict<T, S> change, CbServiceDict<T, S> remove) {
         if (add != null)
-            setComponentCallbackRef(Cb.ADD, Helpers.getLambdaArgType(add, 0), (inst, comp, ref, srv) -> add.accept((T) inst, srv, new SRefAsDictionary(ref)));
+            setComponentCallbackRef(Cb.ADD, Helpers.getLambdaArgType(add, 0), (inst, comp, ref, srv) -> add.accept((T) inst, srv, dictOf(comp, ref)));
         if (change != null) 
-            setComponentCallbackRef(Cb.CHG, Helpers.getLambdaArgType(change, 0), (inst, comp, ref, srv) -> change.accept((T) inst, srv, new SRefAsDictionary(ref)));
+            setComponentCallbackRef(Cb.CHG, Helpers.getLambdaArgType(change, 0), (inst, comp, ref, srv) -> change.accept((T) inst, srv, dictOf(comp, ref)));
         if (remove != null)
-            setComponentCallbackRef(Cb.REM, Helpers.getLambdaArgType(remove, 0), (inst, comp, ref, srv) -> remove.accept((T) inst, srv, new SRefAsDictionary(ref))); 
+            setComponentCallbackRef(Cb.REM, Helpers.getLambdaArgType(remove, 0), (inst, comp, ref, srv) -> remove.accept((T) inst, srv, dictOf(comp, ref))); 
         return (B) this;  
     }
 
@@ -284,11 +319,11 @@ public class ServiceCallbacksBuilderImpl<S, B extends ServiceCallbacksBuilder<S,
 
     public B callbacks(InstanceCbServiceDict<S> add, InstanceCbServiceDict<S> change, InstanceCbServiceDict<S> remove) {
         if (add != null)
-            setInstanceCallbackRef(Cb.ADD, (inst, comp, ref, srv) -> add.accept(srv, new SRefAsDictionary(ref)));   
+            setInstanceCallbackRef(Cb.ADD, (inst, comp, ref, srv) -> add.accept(srv, dictOf(comp, ref)));   
         if (change != null)
-            setInstanceCallbackRef(Cb.CHG, (inst, comp, ref, srv) -> change.accept(srv, new SRefAsDictionary(ref)));   
+            setInstanceCallbackRef(Cb.CHG, (inst, comp, ref, srv) -> change.accept(srv, dictOf(comp, ref)));   
         if (remove != null)
-            setInstanceCallbackRef(Cb.REM, (inst, comp, ref, srv) -> remove.accept(srv, new SRefAsDictionary(ref)));
+            setInstanceCallbackRef(Cb.REM, (inst, comp, ref, srv) -> remove.accept(srv, dictOf(comp, ref)));
         return (B) this;        
     }
     
@@ -470,10 +505,7 @@ public class ServiceCallbacksBuilderImpl<S, B extends ServiceCallbacksBuilder<S,
        if (! m_autoConfigInvoked) m_autoConfig = false;
        List<MethodRef<Object, S>> list = m_refs.computeIfAbsent(cbType, l -> new ArrayList<>());
        list.add((instance, component, sref, service) -> {           
-           Object componentImpl = Stream.of(component.getInstances())
-               .filter(impl -> type.isAssignableFrom(Helpers.getClass(impl)))
-               .findFirst()
-               .orElseThrow(() -> new IllegalStateException("The method reference " + ref + " does not match any available component impl classes."));           
+           Object componentImpl = getComponentImpl(component, type, ref);
            ref.accept((I) componentImpl, component, sref, service);           
        });
        return (B) this;
@@ -493,10 +525,7 @@ public class ServiceCallbacksBuilderImpl<S, B extends ServiceCallbacksBuilder<S,
        requiresNoCallbacks();
        if (! m_autoConfigInvoked) m_autoConfig = false;
        m_swapRefs.add((instance, component, oref, oservice, nref, nservice) -> {
-           Object componentImpl = Stream.of(component.getInstances())
-               .filter(impl -> type.isAssignableFrom(Helpers.getClass(impl)))
-               .findFirst()
-               .orElseThrow(() -> new IllegalStateException("The method reference " + ref + " does not match any available component impl classes."));
+           Object componentImpl = getComponentImpl(component, type, ref);
            ref.accept((I) componentImpl, component, oref, oservice, nref, nservice);
        });
        return (B) this;
@@ -568,15 +597,77 @@ public class ServiceCallbacksBuilderImpl<S, B extends ServiceCallbacksBuilder<S,
     }
      
     private void invokeMethodRefs(Cb cbType, Component comp, ServiceReference<S> ref, S service) {
-	   m_refs.computeIfPresent(cbType, (k, mrefs) -> {
-		   mrefs.forEach(mref -> mref.accept(null, comp, ref, service));
-		   return mrefs;
-		});
+        // The method refs are not modified anymore once the dependency is built, and we don't use any iterator or 
+        // lambda here, in order to avoid allocating objects for each callback.
+        List<MethodRef<Object, S>> mrefs = m_refs.get(cbType);
+        if (mrefs != null) {
+            for (int i = 0; i < mrefs.size(); i ++) {
+                mrefs.get(i).accept(null, comp, ref, service);
+            }
+        }
+        if (cbType == Cb.REM) {
+            dropViews(ref);
+        }
     }
    
     private void invokeSwapMethodRefs(Component c, ServiceReference<S> oref, S osrv, ServiceReference<S> nref, S nsrv) {
-	   m_swapRefs.forEach(ref -> ref.accept(null, c, oref, osrv, nref, nsrv));
-    }   
+        for (int i = 0; i < m_swapRefs.size(); i ++) {
+            m_swapRefs.get(i).accept(null, c, oref, osrv, nref, nsrv);
+        }
+        dropViews(oref);
+    }
+    
+    /**
+     * Returns the first component instance matching the type of a method reference.
+     */
+    private Object getComponentImpl(Component component, Class<?> type, Object ref) {
+        Object[] instances = component.getInstances();
+        for (int i = 0; i < instances.length; i ++) {
+            if (type.isAssignableFrom(Helpers.getClass(instances[i]))) {
+                return instances[i];
+            }
+        }
+        throw new IllegalStateException("The method reference " + ref + " does not match any available component impl classes.");
+    }
+    
+    /**
+     * Returns the Map view of a service reference properties.
+     */
+    private Map<String, Object> mapOf(Component comp, ServiceReference<S> ref) {
+        SRefAsMap view = m_mapViews.get(ref);
+        if (view == null) {
+            watchViewOwner(comp);
+            view = m_mapViews.computeIfAbsent(ref, SRefAsMap::new);
+        }
+        return view;
+    }
+    
+    /**
+     * Returns the Dictionary view of a service reference properties.
+     */
+    private SRefAsDictionary dictOf(Component comp, ServiceReference<S> ref) {
+        SRefAsDictionary view = m_dictViews.get(ref);
+        if (view == null) {
+            watchViewOwner(comp);
+            view = m_dictViews.computeIfAbsent(ref, SRefAsDictionary::new);
+        }
+        return view;
+    }
+    
+    private void watchViewOwner(Component comp) {
+        if (m_viewOwners.add(comp)) {
+            comp.add(m_viewsEvictor);
+        }
+    }
+    
+    private void dropViews(ServiceReference<S> ref) {
+        if (! m_mapViews.isEmpty()) {
+            m_mapViews.remove(ref);
+        }
+        if (! m_dictViews.isEmpty()) {
+            m_dictViews.remove(ref);
+        }
+    }
    
     private void requiresNoCallbacks() {
 	   if (hasCallbacks()) { 
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.lambda.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.dm.Component;
+import org.apache.felix.dm.ComponentState;
+import org.apache.felix.dm.ComponentStateListener;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Test cases for the method reference callbacks of the {@link ServiceCallbacksBuilderImpl}.
+ */
+public class ServiceCallbacksBuilderImplTest {
+
+    public static class Impl {
+        final List<Runnable> services = new ArrayList<>();
+
+        void add(Runnable service) {
+            services.add(service);
+        }
+    }
+
+    @Test
+    public void testComponentImplLookupOrder() throws Exception {
+        Impl first = new Impl();
+        Impl main = new Impl();
+        Component component = mock(Component.class);
+        when(component.getInstance()).thenReturn(main);
+        when(component.getInstances()).thenReturn(new Object[] { "other", first, main });
+        Runnable service = mock(Runnable.class);
+
+        ServiceCallbacksBuilderImpl<Runnable, ?> builder = new ServiceCallbacksBuilderImpl<>(Runnable.class);
+        builder.add(Impl::add);
+        invoke(builder.createCallbackInstance(), "add", component, mock(ServiceReference.class), service);
+
+        // the first matching instance is used, like before
+        assertEquals(1, first.services.size());
+        assertSame(service, first.services.get(0));
+        assertEquals(0, main.services.size());
+    }
+
+    @Test
+    public void testViewsAreDroppedWhenComponentStops() throws Exception {
+        Component component = mock(Component.class);
+        ServiceReference<?> ref = mock(ServiceReference.class);
+        List<Map<String, Object>> views = new ArrayList<>();
+
+        ServiceCallbacksBuilderImpl<Runnable, ?> builder = new ServiceCallbacksBuilderImpl<>(Runnable.class);
+        builder.add((Runnable service, Map<String, Object> properties) -> views.add(properties));
+        Object cb = builder.createCallbackInstance();
+
+        invoke(cb, "add", component, ref, null);
+        invoke(cb, "add", component, ref, null);
+        assertSame(views.get(0), views.get(1));
+
+        ArgumentCaptor<ComponentStateListener> listener = ArgumentCaptor.forClass(ComponentStateListener.class);
+        verify(component).add(listener.capture());
+        listener.getValue().changed(component, ComponentState.INACTIVE);
+        verify(component).remove(listener.getValue());
+
+        invoke(cb, "add", component, ref, null);
+        assertNotSame(views.get(0), views.get(2));
+    }
+
+    @Test
+    public void testViewsAreDroppedWhenServiceIsRemoved() throws Exception {
+        Component component = mock(Component.class);
+        ServiceReference<?> ref = mock(ServiceReference.class);
+        List<Map<String, Object>> views = new ArrayList<>();
+
+        ServiceCallbacksBuilderImpl<Runnable, ?> builder = new ServiceCallbacksBuilderImpl<>(Runnable.class);
+        builder.callbacks((Runnable service, Map<String, Object> properties) -> views.add(properties), null,
+            (Runnable service, Map<String, Object> properties) -> views.add(properties));
+        Object cb = builder.createCallbackInstance();
+
+        invoke(cb, "add", component, ref, null);
+        invoke(cb, "remove", component, ref, null);
+        assertSame(views.get(0), views.get(1));
+
+        invoke(cb, "add", component, ref, null);
+        assertNotSame(views.get(0), views.get(2));
+    }
+
+    private static void invoke(Object cb, String name, Component component, ServiceReference<?> ref, Object service)
+        throws Exception
+    {
+        Method method = cb.getClass().getDeclaredMethod(name, Component.class, ServiceReference.class, Object.class);
+        method.setAccessible(true);
+        method.invoke(cb, component, ref, service);
+    }
+}
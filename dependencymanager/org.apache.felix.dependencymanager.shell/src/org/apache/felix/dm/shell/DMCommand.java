@@ -309,10 +309,33 @@ public class DMCommand {
             if (!nodeps) {
                 System.out.println(" - Dependencies: " + numberOfDependencies);
             }
+            showFilterIndexStatistics();
         }
 
         }
 
+    /**
+     * Displays the number of service lookups served by each filter index, and the filter indices hit rate.
+     * Nothing is displayed if no filter index is used.
+     */
+    private void showFilterIndexStatistics() {
+        Map<String, Long> indices = DependencyManager.getFilterIndexStatistics();
+        long unindexed = DependencyManager.getUnindexedFilterLookups();
+        if (indices.isEmpty() && unindexed == 0) {
+            return;
+        }
+        long hits = 0;
+        for (Long indexHits : indices.values()) {
+            hits += indexHits;
+        }
+        long lookups = hits + unindexed;
+        System.out.printf(" - Filter index lookups: %d (hit rate: %.1f%%)%n", lookups, 
+            lookups == 0 ? 0.0 : hits * 100.0 / lookups);
+        for (Map.Entry<String, Long> index : indices.entrySet()) {
+            System.out.println("    " + index.getKey() + ": " + index.getValue() + " hits");
+        }
+    }
+
     /**
      * Displays components callbacks (init/start/stop/destroy) elapsed time.
      * The components are sorted (the most time consuming components are displayed first).
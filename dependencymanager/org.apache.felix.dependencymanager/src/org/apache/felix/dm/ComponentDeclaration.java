@@ -58,4 +58,6 @@ public interface ComponentDeclaration {
     public DependencyManager getDependencyManager();
     /** Returns the execution time in nanos for each component callbacks (init/start/stop/destroy) */
     public Map<String, Long> getCallbacksTime(); 
+    /** Returns the time in nanos this component has spent waiting for its required dependencies */
+    public long getDependenciesWaitTime();
 }
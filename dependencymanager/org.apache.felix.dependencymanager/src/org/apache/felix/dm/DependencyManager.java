@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -68,6 +69,11 @@ public class DependencyManager {
 
     public static final String ASPECT = "org.apache.felix.dependencymanager.aspect";
     public static final String SERVICEREGISTRY_CACHE_INDICES = "org.apache.felix.dependencymanager.filterindex";
+    /**
+     * When set to a positive number, a filter index is automatically created for the filters which are not applicable
+     * to any filter index, once filters with the same set of properties have been looked up this number of times.
+     */
+    public static final String SERVICEREGISTRY_CACHE_AUTO_INDEX = "org.apache.felix.dependencymanager.filterindex.auto";
     public static final String METHOD_CACHE_SIZE = "org.apache.felix.dependencymanager.methodcache";
     
     private final BundleContext m_context;
@@ -86,9 +92,12 @@ public class DependencyManager {
 	            }
 	            BundleContext bundleContext = bundle.getBundleContext();
 	            String index = bundleContext.getProperty(SERVICEREGISTRY_CACHE_INDICES);
-	            if (index != null) {
-	            	m_serviceRegistryCache = new ServiceRegistryCache(bundleContext);
+	            int autoIndexThreshold = getAutoIndexThreshold(bundleContext);
+	            if (index != null || autoIndexThreshold > 0) {
+	            	m_serviceRegistryCache = new ServiceRegistryCache(bundleContext, autoIndexThreshold);
 	            	m_serviceRegistryCache.open(); // TODO close it somewhere
+	            }
+	            if (index != null) {
 	            	String[] props = index.split(";");
 	            	for (int i = 0; i < props.length; i++) {
 	            		if (props[i].equals("*aspect*")) {
@@ -836,6 +845,36 @@ public class DependencyManager {
         return new PropertyMetaDataImpl();
     }
 
+    /**
+     * Returns the number of lookups served by each service registry cache filter index, keyed by filter index
+     * description. The map is empty if no filter index is used.
+     */
+    public static Map<String, Long> getFilterIndexStatistics() {
+        ServiceRegistryCache cache = m_serviceRegistryCache;
+        return cache != null ? cache.getStatistics() : Collections.<String, Long>emptyMap();
+    }
+
+    /**
+     * Returns the number of service registry cache lookups which could not be served by any filter index.
+     */
+    public static long getUnindexedFilterLookups() {
+        ServiceRegistryCache cache = m_serviceRegistryCache;
+        return cache != null ? cache.getMisses() : 0;
+    }
+
+    private static int getAutoIndexThreshold(BundleContext context) {
+        String threshold = context.getProperty(SERVICEREGISTRY_CACHE_AUTO_INDEX);
+        if (threshold != null) {
+            try {
+                return Integer.parseInt(threshold.trim());
+            }
+            catch (NumberFormatException e) {
+                // ignore the invalid threshold, no filter index will be automatically created
+            }
+        }
+        return 0;
+    }
+
     private BundleContext createContext(BundleContext context) {
         if (m_serviceRegistryCache != null) {
             return m_serviceRegistryCache.createBundleContextInterceptor(context);
@@ -46,6 +46,7 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer {
 
 	@Override
 	public void stop(BundleContext context) throws Exception {
+		ComponentScheduler.instance().stop();
 	}
 
 	@Override
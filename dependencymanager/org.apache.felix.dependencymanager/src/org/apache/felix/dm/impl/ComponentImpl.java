@@ -180,6 +180,16 @@ public class ComponentImpl implements Component, ComponentContext, ComponentDecl
      */
     private final Map<String, Long> m_stopwatch = new ConcurrentHashMap<>();
     
+    /**
+     * Time in nanos when the component started to wait for its required dependencies, or 0 if it is not waiting.
+     */
+    private long m_waitingSince;
+    
+    /**
+     * Accumulated time in nanos spent by the component waiting for its required dependencies.
+     */
+    private volatile long m_dependenciesWaitTime;
+    
     /**
      * Unique component id.
      */
@@ -845,6 +855,11 @@ public class ComponentImpl implements Component, ComponentContext, ComponentDecl
         return m_stopwatch;
     }
     
+    @Override
+    public long getDependenciesWaitTime() {
+        return m_dependenciesWaitTime;
+    }
+    
     // ---------------------- Package/Private methods ---------------------------
     
     void instantiateComponent() {
@@ -923,6 +938,7 @@ public class ComponentImpl implements Component, ComponentContext, ComponentDecl
                 newState = calculateNewState(oldState);
                 m_logger.debug("%s -> %s", oldState, newState);
                 m_state = newState;
+                recordWaitTime(oldState, newState);
             } while (performTransition(oldState, newState));
         } finally {
         	handlingChange(false);
@@ -931,6 +947,29 @@ public class ComponentImpl implements Component, ComponentContext, ComponentDecl
         }
     }
     
+    /**
+     * Accumulates the time spent between the moment the component starts waiting for its required dependencies and the
+     * moment it is either activated or stopped.
+     */
+    private void recordWaitTime(ComponentState oldState, ComponentState newState) {
+        if (oldState == newState) {
+            return;
+        }
+        if (newState == WAITING_FOR_REQUIRED || newState == INSTANTIATED_AND_WAITING_FOR_REQUIRED) {
+            if (m_waitingSince == 0) {
+                m_waitingSince = System.nanoTime();
+            }
+        }
+        else if (m_waitingSince != 0) {
+            long waitTime = System.nanoTime() - m_waitingSince;
+            m_waitingSince = 0;
+            m_dependenciesWaitTime += waitTime;
+            if (newState == TRACKING_OPTIONAL) {
+                m_logger.debug("required dependencies available after %d ms", waitTime / 1000000);
+            }
+        }
+    }
+    
     /** 
      * Based on the current state, calculate the new state. 
      */
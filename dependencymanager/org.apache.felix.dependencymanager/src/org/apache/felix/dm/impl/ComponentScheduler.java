@@ -21,6 +21,9 @@ package org.apache.felix.dm.impl;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.felix.dm.Component;
 import org.apache.felix.dm.ComponentDeclaration;
@@ -33,12 +36,22 @@ import org.osgi.framework.BundleContext;
  * If a ComponentExecutorFactory is registered in the OSGi registry, this class will use it to get an 
  * Executor used for components management and lifecycle callbacks.
  * 
+ * <p> If no ComponentExecutorFactory is registered, but the "org.apache.felix.dependencymanager.parallelism" OSGi
+ * system property is set to a positive number of threads, then a built-in work-stealing threadpool of that size is 
+ * used instead, for all components (or only for the components matching the prefixes specified in the 
+ * "org.apache.felix.dependencymanager.parallel" property). Like with a ComponentExecutorFactory, all tasks of a given 
+ * component are still executed serially, in FIFO order.
+ * 
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class ComponentScheduler {
     private final static ComponentScheduler m_instance = new ComponentScheduler();
     private final static String PARALLEL = "org.apache.felix.dependencymanager.parallel";
+    private final static String PARALLELISM = "org.apache.felix.dependencymanager.parallelism";
     private volatile ComponentExecutorFactory m_componentExecutorFactory;
+    private volatile ForkJoinPool m_threadPool;
+    private volatile int m_parallelism;
+    private final Executor m_threadPoolExecutor = new ThreadPoolExecutor();
     private final Executor m_serial = new SerialExecutor(null);
     private ConcurrentMap<Component, Component> m_pending = new ConcurrentHashMap<>();
 
@@ -91,13 +104,41 @@ public class ComponentScheduler {
         ((ComponentContext) c).stop();
     }
 
+    /**
+     * Shuts down the built-in threadpool, if it has been created. This method is called when the Dependency Manager
+     * bundle is stopped: the tasks already submitted are still executed, then the pool threads terminate.
+     * Components keep the executor returned by {@link #getThreadPool(BundleContext)}, which creates a new threadpool
+     * on their next task, so a component that is still active never sees a rejected task.
+     */
+    protected void stop() {
+        ForkJoinPool threadPool;
+        synchronized (this) {
+            threadPool = m_threadPool;
+            m_threadPool = null;
+        }
+        if (threadPool != null) {
+            threadPool.shutdown();
+        }
+    }
+
     private boolean mayStartNow(Component c) {
         ComponentExecutorFactory execFactory = m_componentExecutorFactory;
         BundleContext ctx = c.getDependencyManager().getBundleContext();
         String parallel = ctx.getProperty(PARALLEL);
 
         if (execFactory == null) {
-            // No ComponentExecutorFactory available. If a "parallel" OSGi system property is specified, 
+            // No ComponentExecutorFactory available. If the "parallelism" OSGi system property is specified, we use
+            // our built-in threadpool for all components, or only for the components matching one of the prefixes 
+            // specified in the "parallel" system property.
+            Executor threadPool = getThreadPool(ctx);
+            if (threadPool != null) {
+                if (parallel == null || requiresThreadPool(c, parallel)) {
+                    ((ComponentContext) c).setThreadPool(threadPool);
+                }
+                return true; // start the component now, possibly using the built-in threadpool (see above).
+            }
+            
+            // If a "parallel" OSGi system property is specified, 
             // we have to wait for a ComponentExecutorFactory servoce if the component class name is matching one of the 
             // prefixes specified in the "parallel" system property.
             if (parallel != null && requiresThreadPool(c, parallel)) {
@@ -118,6 +159,80 @@ public class ComponentScheduler {
         }
     }
 
+    /**
+     * Returns the built-in threadpool, or null if the "parallelism" OSGi system property is not specified.
+     * The returned executor is shared by all components: it delegates to a work-stealing pool which is created
+     * on first use, and created again if it has been shut down by {@link #stop()}.
+     */
+    Executor getThreadPool(BundleContext ctx) {
+        if (m_threadPool != null) {
+            return m_threadPoolExecutor;
+        }
+        String parallelism = ctx.getProperty(PARALLELISM);
+        if (parallelism == null) {
+            return null;
+        }
+        int threads;
+        try {
+            threads = Integer.parseInt(parallelism.trim());
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+        if (threads <= 0) {
+            return null;
+        }
+        m_parallelism = threads;
+        return m_threadPoolExecutor;
+    }
+
+    /**
+     * Returns the current work-stealing pool, creating it if it does not exist yet.
+     */
+    synchronized ForkJoinPool currentThreadPool() {
+        if (m_threadPool == null) {
+            // Use the asynchronous (FIFO) mode, since our tasks are never joined.
+            m_threadPool = new ForkJoinPool(m_parallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("DependencyManager-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, true);
+        }
+        return m_threadPool;
+    }
+
+    /**
+     * The executor handed to the components using the built-in threadpool. It looks up the current pool for
+     * each task, so that the executor survives a {@link #stop()}.
+     */
+    private class ThreadPoolExecutor implements Executor {
+        @Override
+        public void execute(Runnable task) {
+            while (true) {
+                ForkJoinPool threadPool = m_threadPool;
+                if (threadPool == null) {
+                    threadPool = currentThreadPool();
+                }
+                try {
+                    threadPool.execute(task);
+                    return;
+                }
+                catch (RejectedExecutionException e) {
+                    // The pool has been shut down concurrently by stop(): retry with a new one.
+                    if (!threadPool.isShutdown()) {
+                        throw e;
+                    }
+                    synchronized (ComponentScheduler.this) {
+                        if (m_threadPool == threadPool) {
+                            m_threadPool = null;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     private boolean requiresThreadPool(Component c, String parallel) {
         // The component declared from our DM Activator can not be parallel.
         ComponentDeclaration decl = c.getComponentDeclaration();
@@ -356,6 +356,11 @@ public class FilterComponent implements Component, ComponentContext, ComponentDe
         return m_component.getCallbacksTime();
     }
 
+    @Override
+    public long getDependenciesWaitTime() {
+        return m_component.getDependenciesWaitTime();
+    }
+
     @Override
     public Bundle getBundle() {
         return m_component.getBundle();
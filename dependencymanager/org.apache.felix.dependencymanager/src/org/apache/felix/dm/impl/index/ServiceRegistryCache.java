@@ -20,16 +20,29 @@ package org.apache.felix.dm.impl.index;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.dm.FilterIndex;
+import org.apache.felix.dm.impl.index.multiproperty.MultiPropertyFilterIndex;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 
 /**
+ * Dispatches the service lookups and the service listeners of the intercepted bundle contexts to the filter indices
+ * which are applicable for their filters.
+ * 
+ * <p> When an auto index threshold is specified, the filters which are not applicable to any filter index are
+ * observed, and a multi property filter index is automatically created for a filter shape (a given set of property 
+ * keys) once this shape has been looked up as many times as the threshold. At most {@link #MAX_AUTO_INDICES} indices
+ * are automatically created.
+ * 
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*/ {
@@ -40,9 +53,44 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
     private long m_currentVersion = 0;
     private long m_arrayVersion = -1;
     
+    /**
+     * Max number of filter indices created automatically.
+     */
+    public static final int MAX_AUTO_INDICES = 16;
+    
+    /**
+     * Number of unindexed lookups of a filter shape which triggers the creation of a filter index (0 = disabled).
+     */
+    private final int m_autoIndexThreshold;
+    
+    /**
+     * Number of unindexed lookups for each observed filter shape (a filter index configuration).
+     */
+    private final Map<String, AtomicLong> m_unindexedShapes = new ConcurrentHashMap<>();
+    
+    /**
+     * Filter indices which have been automatically created.
+     */
+    private final Set<FilterIndex> m_autoIndices = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Number of lookups served by each filter index.
+     */
+    private final Map<FilterIndex, AtomicLong> m_hits = new ConcurrentHashMap<>();
+    
+    /**
+     * Number of lookups which could not be served by any filter index.
+     */
+    private final AtomicLong m_misses = new AtomicLong();
+    
     public ServiceRegistryCache(BundleContext context) {
+        this(context, 0);
+    }
+    
+    public ServiceRegistryCache(BundleContext context, int autoIndexThreshold) {
         m_context = context;
         m_filterIndexBundleContext = new FilterIndexBundleContext(m_context);
+        m_autoIndexThreshold = autoIndexThreshold;
     }
     
     public void open() {
@@ -54,13 +102,17 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
     }
     
     public void addFilterIndex(FilterIndex index) {
-        m_filterIndexList.add(index);
+        // open the index before making it visible, so lookups never see an index which is not populated yet
+        m_hits.put(index, new AtomicLong());
         index.open(m_filterIndexBundleContext);
+        m_filterIndexList.add(index);
     }
     
     public void removeFilterIndex(FilterIndex index) {
         index.close();
         m_filterIndexList.remove(index);
+        m_autoIndices.remove(index);
+        m_hits.remove(index);
     }
 
     public void serviceChanged(ServiceEvent event) {
@@ -96,11 +148,77 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
         while (iterator.hasNext()) {
             FilterIndex filterIndex = iterator.next();
             if (filterIndex.isApplicable(clazz, filter)) {
+                AtomicLong hits = m_hits.get(filterIndex);
+                if (hits != null) {
+                    hits.incrementAndGet();
+                }
                 return filterIndex;
             }
         }
+        m_misses.incrementAndGet();
+        if (m_autoIndexThreshold > 0) {
+            observeUnindexedFilter(clazz, filter);
+        }
         return null;
     }
+    
+    /**
+     * Counts the lookups of the shape of an unindexed filter, and creates a filter index for this shape once it
+     * has been looked up often enough.
+     */
+    private void observeUnindexedFilter(String clazz, String filter) {
+        String configuration = MultiPropertyFilterIndex.createConfiguration(clazz, filter);
+        if (configuration == null) {
+            return;
+        }
+        AtomicLong lookups = m_unindexedShapes.computeIfAbsent(configuration, shape -> new AtomicLong());
+        if (lookups.incrementAndGet() != m_autoIndexThreshold) {
+            return;
+        }
+        synchronized (m_autoIndices) {
+            if (m_autoIndices.size() >= MAX_AUTO_INDICES) {
+                return;
+            }
+            MultiPropertyFilterIndex index = new MultiPropertyFilterIndex(configuration);
+            if (index.isApplicable(clazz, filter)) {
+                m_autoIndices.add(index);
+                addFilterIndex(index);
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of lookups served by each filter index, keyed by filter index description.
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        for (FilterIndex index : m_filterIndexList) {
+            AtomicLong hits = m_hits.get(index);
+            statistics.put(getDescription(index), hits != null ? hits.get() : 0L);
+        }
+        return statistics;
+    }
+    
+    /**
+     * Returns the number of lookups which could not be served by any filter index.
+     */
+    public long getMisses() {
+        return m_misses.get();
+    }
+    
+    private String getDescription(FilterIndex index) {
+        if (index instanceof AspectFilterIndex) {
+            return "*aspect*";
+        }
+        if (index instanceof AdapterFilterIndex) {
+            return "*adapter*";
+        }
+        if (index instanceof MultiPropertyFilterIndex) {
+            String configuration = ((MultiPropertyFilterIndex) index).getConfiguration();
+            return m_autoIndices.contains(index) ? configuration + " (auto)" : configuration;
+        }
+        return index.toString();
+    }
 
     public void serviceChangedForFilterIndices(ServiceEvent event) {
         Iterator<FilterIndex> iterator = m_filterIndexList.iterator();
@@ -114,6 +232,7 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
         StringBuffer sb = new StringBuffer();
         sb.append("ServiceRegistryCache[");
         sb.append("FilterIndices: " + m_filterIndexList.size());
+        sb.append(", Automatic FilterIndices: " + m_autoIndices.size());
         sb.append(", BundleContexts intercepted: " + m_bundleContextInterceptorMap.size());
         sb.append("]");
         return sb.toString();
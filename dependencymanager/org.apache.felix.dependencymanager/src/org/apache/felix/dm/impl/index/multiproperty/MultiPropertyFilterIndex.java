@@ -53,11 +53,58 @@ public class MultiPropertyFilterIndex implements FilterIndex, ServiceTrackerCust
     private final Map<String, List<ServiceReference>> m_keyToServiceReferencesMap = new HashMap<>();
     private final Map<String, List<ServiceListener>> m_keyToListenersMap = new HashMap<>();
     private final Map<ServiceListener, String> m_listenerToFilterMap = new HashMap<>();
+    private final String m_configString;
 
 	public MultiPropertyFilterIndex(String configString) {
+		m_configString = configString;
 		parseConfig(configString);
 	}
 	
+	/**
+	 * Returns the configuration string of this filter index.
+	 */
+	public String getConfiguration() {
+		return m_configString;
+	}
+	
+	/**
+	 * Creates the configuration string of a filter index applicable for the given class and filter, or returns null
+	 * if such a filter can not be indexed. Only conjunctions of exact property values and of negated presence tests
+	 * (like "(!(context=*))") can be indexed.
+	 */
+	public static String createConfiguration(String clazz, String filterString) {
+		if (clazz == null && filterString == null) {
+			return null;
+		}
+		Filter filter = createFilter(clazz, filterString);
+		if (!filter.isValid() || filter.getPropertyKeys().isEmpty()) {
+			return null;
+		}
+		Set<String> keys = new TreeSet<>(filter.getPropertyKeys());
+		StringBuilder builder = new StringBuilder();
+		for (String key : keys) {
+			if (key.indexOf('<') != -1 || key.indexOf('>') != -1 || key.indexOf('~') != -1) {
+				// no ranges nor approximations
+				return null;
+			}
+			Property property = filter.getProperty(key);
+			for (String value : property.getValues()) {
+				if (property.isNegate() ? !"*".equals(value) : value.indexOf('*') != -1) {
+					// only negated presence tests, and no substrings
+					return null;
+				}
+			}
+			if (builder.length() > 0) {
+				builder.append(",");
+			}
+			if (property.isNegate()) {
+				builder.append("!");
+			}
+			builder.append(key);
+		}
+		return builder.toString();
+	}
+	
 	public boolean isApplicable(String clazz, String filterString) {
 		Filter filter = createFilter(clazz, filterString);
 		
@@ -139,7 +186,7 @@ public class MultiPropertyFilterIndex implements FilterIndex, ServiceTrackerCust
     	return createFilter(clazz, filterString).createKey();
     }
     
-    private Filter createFilter(String clazz, String filterString) {
+    private static Filter createFilter(String clazz, String filterString) {
 		String filterStringWithObjectClass = filterString;
 		if (clazz != null) {
 			if (filterString != null) {
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Test cases for the built-in threadpool of the {@link ComponentScheduler}.
+ */
+public class ComponentSchedulerTest {
+    private final static String PARALLELISM = "org.apache.felix.dependencymanager.parallelism";
+
+    @Test
+    public void testNoThreadPoolWithoutParallelism() {
+        BundleContext ctx = mock(BundleContext.class);
+        ComponentScheduler scheduler = new ComponentScheduler();
+        assertNull(scheduler.getThreadPool(ctx));
+
+        when(ctx.getProperty(PARALLELISM)).thenReturn("0");
+        assertNull(scheduler.getThreadPool(ctx));
+    }
+
+    @Test
+    public void testStopShutsDownThreadPool() throws Exception {
+        BundleContext ctx = mock(BundleContext.class);
+        when(ctx.getProperty(PARALLELISM)).thenReturn("2");
+        ComponentScheduler scheduler = new ComponentScheduler();
+
+        Executor executor = scheduler.getThreadPool(ctx);
+        assertNotNull(executor);
+        assertSame(executor, scheduler.getThreadPool(ctx));
+        ForkJoinPool threadPool = scheduler.currentThreadPool();
+        assertSame(threadPool, scheduler.currentThreadPool());
+
+        scheduler.stop();
+        assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+
+        // A new threadpool is created if the bundle is started again.
+        ForkJoinPool restarted = scheduler.currentThreadPool();
+        assertNotSame(threadPool, restarted);
+        scheduler.stop();
+        assertTrue(restarted.isShutdown());
+    }
+
+    @Test
+    public void testExecutorSurvivesStop() throws Exception {
+        BundleContext ctx = mock(BundleContext.class);
+        when(ctx.getProperty(PARALLELISM)).thenReturn("2");
+        ComponentScheduler scheduler = new ComponentScheduler();
+
+        // A component keeps the executor it got before the threadpool was shut down.
+        Executor executor = scheduler.getThreadPool(ctx);
+        CountDownLatch before = new CountDownLatch(1);
+        executor.execute(before::countDown);
+        assertTrue(before.await(5, TimeUnit.SECONDS));
+        ForkJoinPool threadPool = scheduler.currentThreadPool();
+
+        scheduler.stop();
+        assertTrue(threadPool.isShutdown());
+
+        CountDownLatch after = new CountDownLatch(1);
+        executor.execute(after::countDown);
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+        assertNotSame(threadPool, scheduler.currentThreadPool());
+        scheduler.stop();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.felix.dm.FilterIndex;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+
+/**
+ * Test cases for the filter indices automatically created by the {@link ServiceRegistryCache}.
+ */
+public class ServiceRegistryCacheTest {
+
+    @Test
+    public void testAutomaticFilterIndex() throws Exception {
+        ServiceRegistryCache cache = new ServiceRegistryCache(createContext(), 3);
+
+        // filters with the same shape are counted together
+        assertNull(cache.hasFilterIndexFor(null, "(&(objectClass=foo.Bar)(name=x))"));
+        assertNull(cache.hasFilterIndexFor(null, "(&(objectClass=foo.Baz)(name=y))"));
+        assertEquals(0, cache.getFilterIndices().size());
+
+        // the index is created on the threshold lookup, and serves the next ones
+        assertNull(cache.hasFilterIndexFor("foo.Bar", "(name=z)"));
+        assertEquals(1, cache.getFilterIndices().size());
+        FilterIndex index = cache.getFilterIndices().get(0);
+        assertSame(index, cache.hasFilterIndexFor(null, "(&(name=a)(objectClass=foo.Qux))"));
+
+        assertEquals(3, cache.getMisses());
+        assertEquals(Long.valueOf(1), cache.getStatistics().get("name,objectclass (auto)"));
+    }
+
+    @Test
+    public void testFiltersWhichAreNotIndexedAutomatically() throws Exception {
+        ServiceRegistryCache cache = new ServiceRegistryCache(createContext(), 1);
+        assertNull(cache.hasFilterIndexFor(null, "(|(objectClass=foo.Bar)(name=x))"));
+        assertNull(cache.hasFilterIndexFor(null, "(&(objectClass=foo.Bar)(name=x*))"));
+        assertNull(cache.hasFilterIndexFor(null, "(&(objectClass=foo.Bar)(service.ranking>=1))"));
+        assertEquals(0, cache.getFilterIndices().size());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testMaxAutomaticFilterIndices() throws Exception {
+        ServiceRegistryCache cache = new ServiceRegistryCache(createContext(), 1);
+        for (int i = 0; i < ServiceRegistryCache.MAX_AUTO_INDICES * 2; i++) {
+            cache.hasFilterIndexFor(null, "(&(objectClass=foo.Bar)(key" + i + "=x))");
+        }
+        assertEquals(ServiceRegistryCache.MAX_AUTO_INDICES, cache.getFilterIndices().size());
+    }
+
+    @Test
+    public void testNoAutomaticFilterIndexWithoutThreshold() throws Exception {
+        ServiceRegistryCache cache = new ServiceRegistryCache(createContext());
+        for (int i = 0; i < 10; i++) {
+            assertNull(cache.hasFilterIndexFor(null, "(&(objectClass=foo.Bar)(name=x))"));
+        }
+        assertEquals(0, cache.getFilterIndices().size());
+    }
+
+    private BundleContext createContext() throws Exception {
+        BundleContext context = mock(BundleContext.class);
+        when(context.createFilter(anyString())).thenAnswer(invocation -> FrameworkUtil.createFilter((String) invocation.getArguments()[0]));
+        return context;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl.index.multiproperty;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the filter index configurations created from filters.
+ */
+public class MultiPropertyFilterIndexTest {
+
+    @Test
+    public void testConfigurationOfClassAndFilter() {
+        String configuration = MultiPropertyFilterIndex.createConfiguration("foo.Bar", "(&(name=x)(type=y))");
+        assertEquals("name,objectclass,type", configuration);
+        assertTrue(new MultiPropertyFilterIndex(configuration).isApplicable("foo.Bar", "(&(name=x)(type=y))"));
+        assertTrue(new MultiPropertyFilterIndex(configuration).isApplicable(null, "(&(objectClass=foo.Baz)(type=z)(name=a))"));
+    }
+
+    @Test
+    public void testConfigurationWithNegatedPresence() {
+        String configuration = MultiPropertyFilterIndex.createConfiguration(null, "(&(objectClass=foo.Bar)(!(context=*)))");
+        assertEquals("!context,objectclass", configuration);
+        assertTrue(new MultiPropertyFilterIndex(configuration).isApplicable(null, "(&(objectClass=foo.Bar)(!(context=*)))"));
+    }
+
+    @Test
+    public void testFiltersWhichCanNotBeIndexed() {
+        assertNull(MultiPropertyFilterIndex.createConfiguration(null, null));
+        assertNull(MultiPropertyFilterIndex.createConfiguration(null, "(|(a=b)(c=d))"));
+        assertNull(MultiPropertyFilterIndex.createConfiguration(null, "(&(objectClass=foo.Bar)(name=x*))"));
+        assertNull(MultiPropertyFilterIndex.createConfiguration(null, "(&(objectClass=foo.Bar)(name=*))"));
+        assertNull(MultiPropertyFilterIndex.createConfiguration(null, "(&(objectClass=foo.Bar)(!(name=x)))"));
+        assertNull(MultiPropertyFilterIndex.createConfiguration(null, "(&(objectClass=foo.Bar)(service.ranking>=1))"));
+    }
+}
@@ -33,6 +33,7 @@ import org.apache.felix.eventadmin.impl.adapter.LogEventAdapter;
 import org.apache.felix.eventadmin.impl.adapter.ServiceEventAdapter;
 import org.apache.felix.eventadmin.impl.handler.EventAdminImpl;
 import org.apache.felix.eventadmin.impl.security.SecureEventAdminFactory;
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
 import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.framework.BundleContext;
@@ -117,6 +118,38 @@ import org.osgi.service.metatype.MetaTypeProvider;
  * </p>
  * <p>
  * <p>
+ *      <tt>org.apache.felix.eventadmin.QueueSize</tt> - The maximum number of posted
+ *          events waiting for delivery per posting thread.
+ * </p>
+ * The default value is 0 which means the queue is unbounded.
+ * </p>
+ * <p>
+ * <p>
+ *      <tt>org.apache.felix.eventadmin.GlobalQueueSize</tt> - The maximum number of
+ *          posted events waiting for delivery of all posting threads together.
+ * </p>
+ * The default value is 0 which means the queue is unbounded.
+ * </p>
+ * <p>
+ * <p>
+ *      <tt>org.apache.felix.eventadmin.QueuePolicy</tt> - The policy applied if
+ *          a queue is full.
+ * </p>
+ * <tt>block</tt> (the default) blocks the posting thread until an event has been
+ * delivered, <tt>dropOldest</tt> drops the oldest waiting event of the posting thread,
+ * <tt>dropNewest</tt> drops the posted event and <tt>sample</tt> only queues every
+ * n-th posted event dropping the oldest waiting event of the posting thread.
+ * Threads delivering events are never blocked.
+ * </p>
+ * <p>
+ * <p>
+ *      <tt>org.apache.felix.eventadmin.QueueSampleRate</tt> - Every n-th event
+ *          is queued with the <tt>sample</tt> queue policy.
+ * </p>
+ * The default value is 10.
+ * </p>
+ * <p>
+ * <p>
  * These properties are read at startup and serve as a default configuration.
  * If a configuration admin is configured, the event admin can be configured
  * through the config admin.
@@ -136,6 +169,10 @@ public class Configuration
     static final String PROP_IGNORE_TIMEOUT = "org.apache.felix.eventadmin.IgnoreTimeout";
     static final String PROP_IGNORE_TOPIC = "org.apache.felix.eventadmin.IgnoreTopic";
     static final String PROP_LOG_LEVEL = "org.apache.felix.eventadmin.LogLevel";
+    static final String PROP_QUEUE_SIZE = "org.apache.felix.eventadmin.QueueSize";
+    static final String PROP_GLOBAL_QUEUE_SIZE = "org.apache.felix.eventadmin.GlobalQueueSize";
+    static final String PROP_QUEUE_POLICY = "org.apache.felix.eventadmin.QueuePolicy";
+    static final String PROP_QUEUE_SAMPLE_RATE = "org.apache.felix.eventadmin.QueueSampleRate";
 
     /** The bundle context. */
     private final BundleContext m_bundleContext;
@@ -156,11 +193,25 @@ public class Configuration
 
     private int m_logLevel;
 
+    private int m_queueSize;
+
+    private int m_globalQueueSize;
+
+    private String m_queuePolicy;
+
+    private int m_queueSampleRate;
+
     // The thread pool used - this is a member because we need to close it on stop
     private volatile DefaultThreadPool m_sync_pool;
 
     private volatile DefaultThreadPool m_async_pool;
 
+    // The thread pool used to deliver events to handlers not requiring ordered delivery
+    private volatile DefaultThreadPool m_unordered_pool;
+
+    // The registration of the status printer reporting the queue statistics
+    private volatile ServiceRegistration m_printerRegistration;
+
     // The actual implementation of the service - this is a member because we need to
     // close it on stop. Note, security is not part of this implementation but is
     // added via a decorator in the start method (this is the wrapped object without
@@ -330,6 +381,16 @@ public class Configuration
                     m_bundleContext.getProperty(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+
+            // The bounds of the queues for posted events - A value of 0 means
+            // unbounded. If a queue is full the queue policy is applied.
+            m_queueSize = getIntProperty(PROP_QUEUE_SIZE,
+                    m_bundleContext.getProperty(PROP_QUEUE_SIZE), 0, 0);
+            m_globalQueueSize = getIntProperty(PROP_GLOBAL_QUEUE_SIZE,
+                    m_bundleContext.getProperty(PROP_GLOBAL_QUEUE_SIZE), 0, 0);
+            m_queuePolicy = getQueuePolicy(m_bundleContext.getProperty(PROP_QUEUE_POLICY));
+            m_queueSampleRate = getIntProperty(PROP_QUEUE_SAMPLE_RATE,
+                    m_bundleContext.getProperty(PROP_QUEUE_SAMPLE_RATE), 10, 1);
         }
         else
         {
@@ -372,6 +433,10 @@ public class Configuration
                     config.get(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+            m_queueSize = getIntProperty(PROP_QUEUE_SIZE, config.get(PROP_QUEUE_SIZE), 0, 0);
+            m_globalQueueSize = getIntProperty(PROP_GLOBAL_QUEUE_SIZE, config.get(PROP_GLOBAL_QUEUE_SIZE), 0, 0);
+            m_queuePolicy = getQueuePolicy(config.get(PROP_QUEUE_POLICY));
+            m_queueSampleRate = getIntProperty(PROP_QUEUE_SAMPLE_RATE, config.get(PROP_QUEUE_SAMPLE_RATE), 10, 1);
         }
         // a timeout less or equals to 100 means : disable timeout
         if ( m_timeout <= 100 )
@@ -396,6 +461,12 @@ public class Configuration
             PROP_TIMEOUT + "=" + m_timeout);
         LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
             PROP_REQUIRE_TOPIC + "=" + m_requireTopic);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_QUEUE_SIZE + "=" + m_queueSize);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_GLOBAL_QUEUE_SIZE + "=" + m_globalQueueSize);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_QUEUE_POLICY + "=" + m_queuePolicy);
 
         // Note that this uses a lazy thread pool that will create new threads on
         // demand - in case none of its cached threads is free - until threadPoolSize
@@ -418,12 +489,21 @@ public class Configuration
         {
             m_async_pool.configure(asyncThreadPoolSize);
         }
+        if ( m_unordered_pool == null )
+        {
+            m_unordered_pool = new DefaultThreadPool(asyncThreadPoolSize, false);
+        }
+        else
+        {
+            m_unordered_pool.configure(asyncThreadPoolSize);
+        }
 
         if ( m_admin == null )
         {
             m_admin = new EventAdminImpl(m_bundleContext,
                     m_sync_pool,
                     m_async_pool,
+                    m_unordered_pool,
                     m_timeout,
                     m_ignoreTimeout,
                     m_requireTopic,
@@ -437,11 +517,14 @@ public class Configuration
             // appropriated permissions of each calling bundle
             m_registration = m_bundleContext.registerService(EventAdmin.class.getName(),
                     new SecureEventAdminFactory(m_admin), null);
+            m_printerRegistration = m_bundleContext.registerService(StatusPrinter.class.getName(),
+                    new StatusPrinter(m_admin), StatusPrinter.getProperties());
         }
         else
         {
             m_admin.update(m_timeout, m_ignoreTimeout, m_requireTopic, m_ignoreTopics);
         }
+        m_admin.updateQueues(m_queueSize, m_globalQueueSize, m_queuePolicy, m_queueSampleRate);
 
     }
 
@@ -469,6 +552,11 @@ public class Configuration
                 m_managedServiceReg.unregister();
                 m_managedServiceReg = null;
             }
+            if ( m_printerRegistration != null )
+            {
+                m_printerRegistration.unregister();
+                m_printerRegistration = null;
+            }
             // We need to unregister manually
             if ( m_registration != null )
             {
@@ -485,6 +573,11 @@ public class Configuration
                 m_async_pool.close();
                 m_async_pool = null;
             }
+            if ( m_unordered_pool != null )
+            {
+                m_unordered_pool.close();
+                m_unordered_pool = null;
+            }
             if ( m_sync_pool != null )
             {
                 m_sync_pool.close();
@@ -511,7 +604,8 @@ public class Configuration
         {
             return new MetaTypeProviderImpl((ManagedService)managedService,
                     m_threadPoolSize, m_timeout, m_requireTopic,
-                    m_ignoreTimeout, m_ignoreTopics, m_asyncToSyncThreadRatio);
+                    m_ignoreTimeout, m_ignoreTopics, m_asyncToSyncThreadRatio,
+                    m_queueSize, m_globalQueueSize, m_queuePolicy, m_queueSampleRate);
         }
         catch (final Throwable t)
         {
@@ -622,6 +716,29 @@ public class Configuration
         return defaultValue;
     }
 
+    /**
+     * Returns the queue policy from the value of the property if it is set and
+     * valid or the default (block). Additionally, a warning is generated in case
+     * the value is erroneous.
+     */
+    private String getQueuePolicy(final Object value)
+    {
+        if ( value != null )
+        {
+            final String policy = value.toString().trim();
+            if ( AsyncDeliverTasks.POLICY_BLOCK.equals(policy)
+                    || AsyncDeliverTasks.POLICY_DROP_OLDEST.equals(policy)
+                    || AsyncDeliverTasks.POLICY_DROP_NEWEST.equals(policy)
+                    || AsyncDeliverTasks.POLICY_SAMPLE.equals(policy) )
+            {
+                return policy;
+            }
+            LogWrapper.getLogger().log(LogWrapper.LOG_WARNING,
+                    "Value for property: " + PROP_QUEUE_POLICY + " is unknown - Using default");
+        }
+        return AsyncDeliverTasks.POLICY_BLOCK;
+    }
+
     /**
      * Returns true if the value of the property is set and is either 1, true, or yes
      * Returns false if the value of the property is set and is either 0, false, or no
@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Dictionary;
 
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.metatype.AttributeDefinition;
@@ -42,6 +43,10 @@ public class MetaTypeProviderImpl
     private final String[] m_ignoreTimeout;
     private final String[] m_ignoreTopic;
     private final double m_asyncThreadPoolRatio;
+    private final int m_queueSize;
+    private final int m_globalQueueSize;
+    private final String m_queuePolicy;
+    private final int m_queueSampleRate;
 
     private final ManagedService m_delegatee;
 
@@ -50,7 +55,11 @@ public class MetaTypeProviderImpl
             final int timeout, final boolean requireTopic,
             final String[] ignoreTimeout,
             final String[] ignoreTopic,
-            final double asyncThreadPoolRatio)
+            final double asyncThreadPoolRatio,
+            final int queueSize,
+            final int globalQueueSize,
+            final String queuePolicy,
+            final int queueSampleRate)
     {
         m_threadPoolSize = threadPoolSize;
         m_timeout = timeout;
@@ -59,6 +68,10 @@ public class MetaTypeProviderImpl
         m_ignoreTimeout = ignoreTimeout;
         m_ignoreTopic = ignoreTopic;
         m_asyncThreadPoolRatio = asyncThreadPoolRatio;
+        m_queueSize = queueSize;
+        m_globalQueueSize = globalQueueSize;
+        m_queuePolicy = queuePolicy;
+        m_queueSampleRate = queueSampleRate;
     }
 
     private ObjectClassDefinition ocd;
@@ -143,6 +156,29 @@ public class MetaTypeProviderImpl
                     "are ignored. If a single value neither ends with a dot nor with a start, this is assumed " +
                     "to define an exact topic. A single star can be used to disable delivery completely.",
                     AttributeDefinition.STRING, m_ignoreTopic, Integer.MAX_VALUE, null, null));
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_QUEUE_SIZE, "Queue Size",
+                    "The maximum number of posted events waiting for delivery per posting thread. " +
+                    "The default value is 0 which means the queue is unbounded. If the queue is full, " +
+                    "the queue policy is applied.",
+                    m_queueSize ) );
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_GLOBAL_QUEUE_SIZE, "Global Queue Size",
+                    "The maximum number of posted events waiting for delivery of all posting threads together. " +
+                    "The default value is 0 which means the queue is unbounded. If the queue is full, " +
+                    "the queue policy is applied.",
+                    m_globalQueueSize ) );
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_QUEUE_POLICY, "Queue Policy",
+                    "The policy applied if a queue for posted events is full. Block waits until an event has " +
+                    "been delivered, drop oldest drops the oldest waiting event of the posting thread, drop " +
+                    "newest drops the posted event and sample only queues every n-th posted event dropping " +
+                    "the oldest waiting event of the posting thread. Threads delivering events are never blocked.",
+                    AttributeDefinition.STRING, new String[] {m_queuePolicy}, 0,
+                    new String[] {"Block", "Drop Oldest", "Drop Newest", "Sample"},
+                    new String[] {AsyncDeliverTasks.POLICY_BLOCK, AsyncDeliverTasks.POLICY_DROP_OLDEST,
+                            AsyncDeliverTasks.POLICY_DROP_NEWEST, AsyncDeliverTasks.POLICY_SAMPLE}));
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_QUEUE_SAMPLE_RATE, "Queue Sample Rate",
+                    "Every n-th posted event is queued if the queue is full and the sample queue policy is used. " +
+                    "The default value is 10.",
+                    m_queueSampleRate ) );
             ocd = new ObjectClassDefinition()
             {
 
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl;
+
+import java.io.PrintWriter;
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.apache.felix.eventadmin.impl.handler.EventAdminImpl;
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.osgi.framework.Constants;
+
+/**
+ * The status printer reports the queue statistics of the event admin
+ * and the delivery latencies of the event handlers.
+ * It is registered as a web console configuration printer without
+ * depending on the web console API: the console calls the
+ * {@link #printConfiguration(PrintWriter)} method reflectively.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class StatusPrinter
+{
+    private final EventAdminImpl m_admin;
+
+    public StatusPrinter(final EventAdminImpl admin)
+    {
+        m_admin = admin;
+    }
+
+    /**
+     * The service properties of the configuration printer.
+     */
+    public static Dictionary<String, Object> getProperties()
+    {
+        final Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(Constants.SERVICE_DESCRIPTION, "Apache Felix Event Admin Status Printer");
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put("felix.webconsole.label", "eventadmin");
+        props.put("felix.webconsole.title", "Event Admin");
+        props.put("felix.webconsole.configprinter.modes", "always");
+        return props;
+    }
+
+    /**
+     * Print the queue statistics of the event admin and the latency
+     * histogram of each event handler.
+     */
+    public void printConfiguration(final PrintWriter pw)
+    {
+        pw.println("Apache Felix Event Admin");
+        pw.println();
+        pw.println("Events waiting for delivery: " + m_admin.getQueuedEvents());
+        pw.println("Events dropped because of a full queue: " + m_admin.getDroppedEvents());
+        pw.println("Posting threads blocked because of a full queue: " + m_admin.getBlockedEvents());
+        pw.println();
+        pw.println("Event handler latencies:");
+        for(final EventHandlerProxy handler : m_admin.getHandlers())
+        {
+            pw.println("  ServiceReference [" + handler.getReference() + " | Bundle("
+                    + handler.getReference().getBundle() + ")]"
+                    + ( handler.isBlacklisted() ? " (blacklisted)" : "" ));
+            pw.println("    " + handler.getLatency());
+        }
+    }
+}
@@ -18,6 +18,9 @@
  */
 package org.apache.felix.eventadmin.impl.handler;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import org.apache.felix.eventadmin.impl.handler.EventHandlerTracker.Matcher;
 import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
@@ -58,11 +61,13 @@ public class EventAdminImpl implements EventAdmin
      *
      * @param syncPool The synchronous thread pool
      * @param asyncPool The asynchronous thread pool
+     * @param unorderedPool The thread pool for handlers not requiring ordered delivery
      */
     public EventAdminImpl(
                     final BundleContext bundleContext,
                     final DefaultThreadPool syncPool,
                     final DefaultThreadPool asyncPool,
+                    final DefaultThreadPool unorderedPool,
                     final int timeout,
                     final String[] ignoreTimeout,
                     final boolean requireTopic,
@@ -70,12 +75,13 @@ public class EventAdminImpl implements EventAdmin
     {
         checkNull(syncPool, "syncPool");
         checkNull(asyncPool, "asyncPool");
+        checkNull(unorderedPool, "unorderedPool");
 
         this.tracker = new EventHandlerTracker(bundleContext);
         this.tracker.update(ignoreTimeout, requireTopic);
         this.tracker.open();
         m_sendManager = new SyncDeliverTasks(syncPool, timeout);
-        m_postManager = new AsyncDeliverTasks(asyncPool, m_sendManager);
+        m_postManager = new AsyncDeliverTasks(asyncPool, unorderedPool, m_sendManager);
         m_ignoreTopics = EventHandlerTracker.createMatchers(ignoreTopics);
     }
 
@@ -155,6 +161,8 @@ public class EventAdminImpl implements EventAdmin
     {
         this.tracker.close();
         this.tracker = null;
+        this.m_sendManager.stop();
+        this.m_postManager.stop();
     }
 
     /**
@@ -172,6 +180,56 @@ public class EventAdminImpl implements EventAdmin
         this.m_ignoreTopics = EventHandlerTracker.createMatchers(ignoreTopics);
     }
 
+    /**
+     * Update the bounds and the policy of the queues for posted events.
+     */
+    public void updateQueues(final int queueSize,
+            final int globalQueueSize,
+            final String queuePolicy,
+            final int sampleRate)
+    {
+        this.m_postManager.update(queueSize, globalQueueSize, queuePolicy, sampleRate);
+    }
+
+    /**
+     * Returns the event handlers currently tracked, e.g. to report
+     * their delivery latencies.
+     */
+    public Collection<EventHandlerProxy> getHandlers()
+    {
+        final EventHandlerTracker localTracker = tracker;
+        if ( localTracker == null )
+        {
+            return Collections.emptyList();
+        }
+        return localTracker.getTracked().values();
+    }
+
+    /**
+     * Returns the number of posted events currently waiting for delivery.
+     */
+    public int getQueuedEvents()
+    {
+        return this.m_postManager.getQueuedEvents();
+    }
+
+    /**
+     * Returns the number of posted events dropped because of a full queue.
+     */
+    public long getDroppedEvents()
+    {
+        return this.m_postManager.getDroppedEvents();
+    }
+
+    /**
+     * Returns the number of times a posting thread was blocked because
+     * of a full queue.
+     */
+    public long getBlockedEvents()
+    {
+        return this.m_postManager.getBlockedEvents();
+    }
+
     /**
      * This is a utility method that will throw a <tt>NullPointerException</tt>
      * in case that the given object is null. The message will be of the form
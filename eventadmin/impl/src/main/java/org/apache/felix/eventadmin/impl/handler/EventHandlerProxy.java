@@ -22,6 +22,7 @@ import java.util.Collection;
 import java.util.Iterator;
 
 import org.apache.felix.eventadmin.impl.security.PermissionsUtil;
+import org.apache.felix.eventadmin.impl.util.LatencyHistogram;
 import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Filter;
@@ -57,6 +58,9 @@ public class EventHandlerProxy {
     /** Lazy fetched event handler. */
     private volatile EventHandler handler;
 
+    /** The latencies of the event deliveries to this handler. */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
     /** Is this handler blacklisted? */
     private volatile boolean blacklisted;
 
@@ -410,6 +414,7 @@ public class EventHandlerProxy {
             return;
         }
 
+        final long start = System.nanoTime();
         try
         {
             handlerService.handleEvent(event);
@@ -424,6 +429,34 @@ public class EventHandlerProxy {
                                             + this.reference + " | Bundle("
                                             + this.reference.getBundle() + ")]", e);
         }
+        finally
+        {
+            this.latency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the service reference of the event handler.
+     */
+    public ServiceReference<EventHandler> getReference()
+    {
+        return this.reference;
+    }
+
+    /**
+     * Is this handler blacklisted?
+     */
+    public boolean isBlacklisted()
+    {
+        return this.blacklisted;
+    }
+
+    /**
+     * Get the latencies of the event deliveries to this handler.
+     */
+    public LatencyHistogram getLatency()
+    {
+        return this.latency;
     }
 
     /**
@@ -436,7 +469,8 @@ public class EventHandlerProxy {
 	        LogWrapper.getLogger().log(
 	                        LogWrapper.LOG_WARNING,
 	                        "Blacklisting ServiceReference [" + this.reference + " | Bundle("
-	                                        + this.reference.getBundle() + ")] due to timeout!");
+	                                        + this.reference.getBundle() + ")] due to timeout! Latencies: "
+	                                        + this.latency);
 	        this.blacklisted = true;
 	        // we can free the handler now.
 	        this.release();
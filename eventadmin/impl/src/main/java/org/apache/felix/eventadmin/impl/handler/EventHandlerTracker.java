@@ -20,7 +20,8 @@ package org.apache.felix.eventadmin.impl.handler;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,18 +41,26 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandlerProxy> {
 
+    /** The maximum number of topics for which the matching handlers are cached.
+     * When the cache is full it is cleared, so that it follows the topics
+     * currently in use.
+     */
+    static final int MAX_CACHED_TOPICS = 1024;
+
     /** The proxies in this list match all events. */
 	private final List<EventHandlerProxy> matchingAllEvents;
 
-    /** This is a map for exact topic matches. The key is the topic,
-     * the value is a list of proxies.
+    /** The root node of the topic trie. Each node represents a topic
+     * segment and holds the proxies registered for the exact topic
+     * as well as the proxies registered for the wildcard topic of the node.
      */
-    private final Map<String, List<EventHandlerProxy>> matchingTopic;
+    private final TopicNode topicTrie;
 
-	/** This is a map for wildcard topics. The key is the prefix of the topic,
-	 * the value is a list of proxies
-	 */
-	private final Map<String, List<EventHandlerProxy>> matchingPrefixTopic;
+    /** The cache of proxies matching a concrete topic. The key is the topic,
+     * the value is the list of proxies to check for the topic. The
+     * cache is replaced whenever the registered proxies change.
+     */
+    private volatile Map<String, List<EventHandlerProxy>> topicCache;
 
 
 	/** The context for the proxies. */
@@ -62,8 +71,8 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 
 		// we start with empty collections
 		this.matchingAllEvents = new CopyOnWriteArrayList<EventHandlerProxy>();
-		this.matchingTopic = new ConcurrentHashMap<String, List<EventHandlerProxy>>();
-		this.matchingPrefixTopic = new ConcurrentHashMap<String, List<EventHandlerProxy>>();
+		this.topicTrie = new TopicNode();
+		this.topicCache = new ConcurrentHashMap<String, List<EventHandlerProxy>>();
 	}
 
     /**
@@ -138,30 +147,61 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
         proxy.dispose();
 	}
 
-	private void updateMap(final Map<String, List<EventHandlerProxy>> proxyListMap, final String key, final EventHandlerProxy proxy, final boolean add) {
-        List<EventHandlerProxy> proxies = proxyListMap.get(key);
-        if (proxies == null)
-        {
-            if ( !add )
-            {
-                return;
-            }
-            proxies = new CopyOnWriteArrayList<EventHandlerProxy>();
-            proxyListMap.put(key, proxies);
-        }
+	/**
+	 * Add the proxy to or remove it from the trie node for the topic.
+	 * A topic ending with <code>/*</code> is registered as a wildcard
+	 * topic with the node of the prefix.
+	 */
+	private void updateTrie(final String topic, final EventHandlerProxy proxy, final boolean add) {
+	    final boolean wildcard = topic.endsWith("/*");
+	    // prefix topic: we remove the /*
+	    final String path = wildcard ? topic.substring(0, topic.length() - 2) : topic;
+
+	    TopicNode node = this.topicTrie;
+	    final List<TopicNode> parents = new ArrayList<TopicNode>();
+	    int start = 0;
+	    while ( start <= path.length() )
+	    {
+	        int end = path.indexOf('/', start);
+	        if ( end == -1 )
+	        {
+	            end = path.length();
+	        }
+	        final String segment = path.substring(start, end);
+	        TopicNode child = node.children.get(segment);
+	        if ( child == null )
+	        {
+	            if ( !add )
+	            {
+	                return;
+	            }
+	            child = new TopicNode();
+	            node.children.put(segment, child);
+	        }
+	        parents.add(node);
+	        node = child;
+	        start = end + 1;
+	    }
 
-        if ( add )
-        {
-            proxies.add(proxy);
-        }
-        else
-        {
-            proxies.remove(proxy);
-            if ( proxies.size() == 0 )
-            {
-                proxyListMap.remove(key);
-            }
-        }
+	    final List<EventHandlerProxy> proxies = wildcard ? node.matchingPrefix : node.matchingTopic;
+	    if ( add )
+	    {
+	        proxies.add(proxy);
+	    }
+	    else
+	    {
+	        proxies.remove(proxy);
+
+	        // prune nodes which are not used anymore
+	        int end = path.length();
+	        for(int i = parents.size() - 1; i >= 0 && node.isEmpty(); i--)
+	        {
+	            final int pos = path.lastIndexOf('/', end - 1);
+	            parents.get(i).children.remove(path.substring(pos + 1, end));
+	            node = parents.get(i);
+	            end = pos;
+	        }
+	    }
 	}
 
 	/**
@@ -177,21 +217,10 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 		else
 		{
     		for(int i = 0; i < topics.length; i++) {
-    			final String topic = topics[i];
-
-    			if ( topic.endsWith("/*") )
-    			{
-                    // prefix topic: we remove the /*
-    				final String prefix = topic.substring(0, topic.length() - 2);
-                    this.updateMap(this.matchingPrefixTopic, prefix, proxy, true);
-    			}
-    			else
-    			{
-    			    // exact match
-                    this.updateMap(this.matchingTopic, topic, proxy, true);
-    			}
+                this.updateTrie(topics[i], proxy, true);
     		}
 		}
+		this.topicCache = new ConcurrentHashMap<String, List<EventHandlerProxy>>();
 	}
 
     /**
@@ -205,21 +234,10 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
             this.matchingAllEvents.remove(proxy);
         } else {
             for(int i = 0; i < topics.length; i++) {
-                final String topic = topics[i];
-
-                if ( topic.endsWith("/*") )
-                {
-                    // prefix topic: we remove the /*
-                    final String prefix = topic.substring(0, topic.length() - 2);
-                    this.updateMap(this.matchingPrefixTopic, prefix, proxy, false);
-                }
-                else
-                {
-                    // exact match
-                    this.updateMap(this.matchingTopic, topic, proxy, false);
-                }
+                this.updateTrie(topics[i], proxy, false);
             }
         }
+        this.topicCache = new ConcurrentHashMap<String, List<EventHandlerProxy>>();
 	}
 
 	/**
@@ -231,48 +249,88 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 	public Collection<EventHandlerProxy> getHandlers(final Event event) {
 	    final String topic = event.getTopic();
 
-		final Set<EventHandlerProxy> handlers = new HashSet<EventHandlerProxy>();
-
-		// Add all handlers matching everything
-        this.checkHandlerAndAdd(handlers, this.matchingAllEvents, event);
+	    // the proxies registered for the topic are cached per topic;
+	    // a concurrent change just creates a new cache, so it is safe
+	    // to add to the one we got
+	    final Map<String, List<EventHandlerProxy>> cache = this.topicCache;
+	    List<EventHandlerProxy> proxies = cache.get(topic);
+	    if ( proxies == null )
+	    {
+	        proxies = this.getProxies(topic);
+	        if ( cache.size() >= MAX_CACHED_TOPICS )
+	        {
+	            // start over instead of keeping the first topics forever
+	            cache.clear();
+	        }
+	        cache.put(topic, proxies);
+	    }
 
-		// Now check for prefix matches
-		if ( !this.matchingPrefixTopic.isEmpty() )
-		{
-		    int pos = topic.lastIndexOf('/');
-			while (pos != -1)
-			{
-			    final String prefix = topic.substring(0, pos);
-		        this.checkHandlerAndAdd(handlers, this.matchingPrefixTopic.get(prefix), event);
-
-				pos = prefix.lastIndexOf('/');
-			}
-		}
+	    // only create a new list if a proxy can't deliver the event
+	    List<EventHandlerProxy> handlers = null;
+	    for(int i = 0; i < proxies.size(); i++)
+	    {
+	        final EventHandlerProxy p = proxies.get(i);
+	        if ( !p.canDeliver(event) )
+	        {
+	            if ( handlers == null )
+	            {
+	                handlers = new ArrayList<EventHandlerProxy>(proxies.subList(0, i));
+	            }
+	        }
+	        else if ( handlers != null )
+	        {
+	            handlers.add(p);
+	        }
+	    }
 
-		// Add the handlers for matching topic names
-		this.checkHandlerAndAdd(handlers, this.matchingTopic.get(topic), event);
+		return handlers == null ? proxies : handlers;
+	}
 
-		return handlers;
+	/**
+	 * Returns the number of topics currently cached. This method is not
+	 * part of the API of this class and is declared package private to
+	 * enable JUnit testing on it.
+	 */
+	int getCachedTopics() {
+	    return this.topicCache.size();
 	}
 
 	/**
-	 * Checks each handler from the proxy list if it can deliver the event
-	 * If the event can be delivered, the proxy is added to the handlers.
+	 * Collect all proxies registered for the topic by walking the
+	 * topic trie along the segments of the topic.
 	 */
-	private void checkHandlerAndAdd( final Set<EventHandlerProxy> handlers,
-	        final List<EventHandlerProxy> proxies,
-	        final Event event)
-	{
-	    if ( proxies != null )
+	private List<EventHandlerProxy> getProxies(final String topic) {
+	    final Set<EventHandlerProxy> proxies = new LinkedHashSet<EventHandlerProxy>();
+
+	    // Add all handlers matching everything
+	    proxies.addAll(this.matchingAllEvents);
+
+	    TopicNode node = this.topicTrie;
+	    int start = 0;
+	    while ( node != null )
 	    {
-            for(final EventHandlerProxy p : proxies)
-            {
-                if ( p.canDeliver(event) )
-                {
-                    handlers.add(p);
-                }
-            }
+	        int end = topic.indexOf('/', start);
+	        if ( end == -1 )
+	        {
+	            end = topic.length();
+	        }
+	        node = node.children.get(topic.substring(start, end));
+	        if ( node != null )
+	        {
+	            if ( end == topic.length() )
+	            {
+	                // Add the handlers for matching topic names
+	                proxies.addAll(node.matchingTopic);
+	                break;
+	            }
+
+	            // Add the handlers for the prefix matches
+	            proxies.addAll(node.matchingPrefix);
+	        }
+	        start = end + 1;
 	    }
+
+	    return Collections.unmodifiableList(new ArrayList<EventHandlerProxy>(proxies));
 	}
 
 	static Matcher[] createMatchers(final String[] config)
@@ -394,6 +452,26 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
         }
     }
 
+    /**
+     * A node of the topic trie.
+     */
+    private static final class TopicNode
+    {
+        /** The child nodes keyed by the next topic segment. */
+        public final Map<String, TopicNode> children = new ConcurrentHashMap<String, TopicNode>();
+
+        /** The proxies registered for the topic of this node. */
+        public final List<EventHandlerProxy> matchingTopic = new CopyOnWriteArrayList<EventHandlerProxy>();
+
+        /** The proxies registered for all sub topics of this node. */
+        public final List<EventHandlerProxy> matchingPrefix = new CopyOnWriteArrayList<EventHandlerProxy>();
+
+        public boolean isEmpty()
+        {
+            return this.children.isEmpty() && this.matchingTopic.isEmpty() && this.matchingPrefix.isEmpty();
+        }
+    }
+
     /**
      * The context object passed to the proxies.
      */
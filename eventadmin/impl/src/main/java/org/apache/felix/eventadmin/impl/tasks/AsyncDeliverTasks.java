@@ -18,16 +18,38 @@
  */
 package org.apache.felix.eventadmin.impl.tasks;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.service.event.Event;
 
 /**
  * This class does the actual work of the asynchronous event dispatch.
  *
+ * The number of posted events waiting for delivery can be bounded per
+ * posting thread and for all posting threads together. If a bound is
+ * reached, the configured queue policy defines whether the posting thread
+ * is blocked until an event has been taken from the queue, the oldest
+ * waiting event of the posting thread is dropped, the new event is dropped
+ * or only every n-th new event is queued at the expense of the oldest
+ * waiting event. As the bounds are checked without locking they may be
+ * exceeded by a few events under contention. Events waiting for ordered
+ * and for unordered delivery count alike against the bounds. The number of
+ * dropped events and blocked posting threads is reported by the status
+ * printer and logged when the event admin is stopped.
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class AsyncDeliverTasks
@@ -35,14 +57,68 @@ public class AsyncDeliverTasks
     /** The thread pool to use to spin-off new threads. */
     private final DefaultThreadPool m_pool;
 
+    /** The thread pool to deliver events to handlers not requiring ordered delivery. */
+    private final DefaultThreadPool m_unordered_pool;
+
     /** The deliver task for actually delivering the events. This
      * is the sync deliver tasks as this has all the code for timeout
      * handling etc.
      */
     private final SyncDeliverTasks m_deliver_task;
 
+    /** Queue policy: block the posting thread until the event can be queued. */
+    public static final String POLICY_BLOCK = "block";
+
+    /** Queue policy: drop the oldest waiting event of the posting thread. */
+    public static final String POLICY_DROP_OLDEST = "dropOldest";
+
+    /** Queue policy: drop the new event. */
+    public static final String POLICY_DROP_NEWEST = "dropNewest";
+
+    /** Queue policy: queue every n-th new event dropping the oldest waiting event. */
+    public static final String POLICY_SAMPLE = "sample";
+
+    /** Marks the threads currently delivering async events. */
+    private static final ThreadLocal<Boolean> DELIVERING = new ThreadLocal<Boolean>();
+
     /** A map of running threads currently delivering async events. */
-    private final Map<Long, TaskExecuter> m_running_threads = new ConcurrentHashMap<Long, TaskExecuter>();
+    private final ConcurrentMap<Long, TaskExecuter> m_running_threads = new ConcurrentHashMap<Long, TaskExecuter>();
+
+    /** A map of handlers not requiring ordered delivery with events waiting for delivery. */
+    private final ConcurrentMap<EventHandlerProxy, HandlerExecuter> m_running_handlers = new ConcurrentHashMap<EventHandlerProxy, HandlerExecuter>();
+
+    /** The monitor used to wait for free queue capacity. */
+    private final Object m_capacity = new Object();
+
+    /** The number of threads waiting for free queue capacity. */
+    private final AtomicInteger m_waiting = new AtomicInteger();
+
+    /** The number of events waiting for delivery. */
+    private final AtomicInteger m_queued = new AtomicInteger();
+
+    /** The number of events dropped because of a full queue. */
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    /** The number of times a posting thread was blocked because of a full queue. */
+    private final AtomicLong m_blocked = new AtomicLong();
+
+    /** The counter for the sample policy. */
+    private final AtomicLong m_sampled = new AtomicLong();
+
+    /** The maximum number of waiting events per posting thread, 0 if unbounded. */
+    private volatile int m_queueSize;
+
+    /** The maximum number of waiting events of all posting threads, 0 if unbounded. */
+    private volatile int m_globalQueueSize;
+
+    /** The queue policy. */
+    private volatile String m_queuePolicy = POLICY_BLOCK;
+
+    /** Every n-th event is queued with the sample policy. */
+    private volatile int m_sampleRate = 10;
+
+    /** Whether the event admin has been stopped. */
+    private volatile boolean m_stopped;
 
     /**
      * The constructor of the class that will use the asynchronous.
@@ -50,93 +126,547 @@ public class AsyncDeliverTasks
      * @param pool The thread pool used to spin-off new asynchronous event
      *      dispatching threads in case of timeout or that the asynchronous event
      *      dispatching thread is used to send a synchronous event
+     * @param unorderedPool The thread pool used to deliver events to handlers
+     *      not requiring ordered delivery
      * @param deliverTask The deliver tasks for dispatching the event.
      */
-    public AsyncDeliverTasks(final DefaultThreadPool pool, final SyncDeliverTasks deliverTask)
+    public AsyncDeliverTasks(final DefaultThreadPool pool,
+            final DefaultThreadPool unorderedPool,
+            final SyncDeliverTasks deliverTask)
     {
         m_pool = pool;
+        m_unordered_pool = unorderedPool;
         m_deliver_task = deliverTask;
     }
 
+    /**
+     * Update the queue configuration.
+     *
+     * @param queueSize The maximum number of waiting events per posting thread
+     * @param globalQueueSize The maximum number of waiting events of all posting threads
+     * @param queuePolicy The policy to apply if a queue is full
+     * @param sampleRate Every n-th event is queued with the sample policy
+     */
+    public void update(final int queueSize, final int globalQueueSize, final String queuePolicy, final int sampleRate)
+    {
+        m_queueSize = queueSize;
+        m_globalQueueSize = globalQueueSize;
+        m_queuePolicy = queuePolicy;
+        m_sampleRate = sampleRate;
+
+        // release blocked threads in case the queues are now unbounded
+        synchronized ( m_capacity )
+        {
+            m_capacity.notifyAll();
+        }
+    }
+
+    /**
+     * Stop the delivery: threads blocked by a full queue are released
+     * and the queue statistics are logged.
+     */
+    public void stop()
+    {
+        m_stopped = true;
+        synchronized ( m_capacity )
+        {
+            m_capacity.notifyAll();
+        }
+
+        final long dropped = m_dropped.get();
+        final long blocked = m_blocked.get();
+        if ( dropped > 0 || blocked > 0 )
+        {
+            LogWrapper.getLogger().log(LogWrapper.LOG_INFO,
+                    "Event queue statistics: " + dropped + " events dropped, "
+                    + blocked + " times a posting thread was blocked, "
+                    + m_queued.get() + " events waiting for delivery");
+        }
+    }
+
+    /**
+     * Returns the number of events currently waiting for delivery.
+     */
+    public int getQueuedEvents()
+    {
+        return m_queued.get();
+    }
+
+    /**
+     * Returns the number of events dropped because of a full queue.
+     */
+    public long getDroppedEvents()
+    {
+        return m_dropped.get();
+    }
+
+    /**
+     * Returns the number of times a posting thread was blocked because
+     * of a full queue.
+     */
+    public long getBlockedEvents()
+    {
+        return m_blocked.get();
+    }
+
     /**
      * This does not block an unrelated thread used to send a synchronous event.
+     * It may block the posting thread if the queue of the thread is full
+     * and the block queue policy is configured.
+     *
+     * Handlers requiring ordered delivery (the default) get the events of a
+     * posting thread in the order they were posted, one after the other.
+     * Handlers registered with <code>async.unordered</code> delivery get the
+     * events one after the other from a task of their own running in a
+     * separate pool such that they neither wait for nor slow down the other
+     * handlers. An event is counted once as waiting for delivery until it
+     * has been taken by all of its handlers.
      *
      * @param tasks The event handler dispatch tasks to execute
      *
      */
     public void execute(final Collection<EventHandlerProxy> tasks, final Event event)
     {
-        /*
-        final Iterator i = tasks.iterator();
-        boolean hasOrdered = false;
-        while ( i.hasNext() )
+        final Long currentThreadId = Thread.currentThread().getId();
+        if ( tasks.isEmpty() || !this.admit(currentThreadId) )
+        {
+            return;
+        }
+
+        final List<EventHandlerProxy> unorderedTasks = new ArrayList<EventHandlerProxy>();
+        final Collection<EventHandlerProxy> orderedTasks = this.splitUnordered(tasks, unorderedTasks);
+        TaskExecuter executer = m_running_threads.get(currentThreadId);
+        if ( executer == null )
+        {
+            executer = new TaskExecuter(currentThreadId);
+        }
+        final QueuedEvent queued = new QueuedEvent(event, executer,
+                unorderedTasks.size() + ( orderedTasks.isEmpty() ? 0 : 1 ));
+        m_queued.incrementAndGet();
+        boolean activate = false;
+        synchronized ( executer )
         {
-            final EventHandlerProxy task = (EventHandlerProxy)i.next();
-            if ( !task.isAsyncOrderedDelivery() )
+            // the executer is registered as long as events of the thread are waiting
+            m_running_threads.put(currentThreadId, executer);
+            executer.add(queued, orderedTasks.isEmpty() ? null : new TaskInfo(orderedTasks, queued));
+            if ( !orderedTasks.isEmpty() && !executer.isActive() )
             {
-                // do somethimg
+                // reactivate thread
+                executer.setSyncDeliverTasks(m_deliver_task);
+                activate = true;
+            }
+        }
+        for(final EventHandlerProxy handler : unorderedTasks)
+        {
+            this.deliverUnordered(handler, queued);
+        }
+        if ( activate && !m_pool.executeTask(executer) )
+        {
+            // scheduling failed: last resort, call directly
+            executer.run();
+        }
+    }
+
+    /**
+     * Check whether an event posted by the thread can be queued and apply
+     * the queue policy if the queue of the thread or the global queue is full.
+     *
+     * @return <code>true</code> if the event can be queued
+     */
+    private boolean admit(final Long threadId)
+    {
+        final int queueSize = m_queueSize;
+        final int globalQueueSize = m_globalQueueSize;
+        if ( queueSize <= 0 && globalQueueSize <= 0 )
+        {
+            return true;
+        }
+
+        boolean blocked = false;
+        for(;;)
+        {
+            final TaskExecuter executer = m_running_threads.get(threadId);
+            if ( !this.isFull(executer) )
+            {
+                return true;
+            }
+
+            final String policy = m_queuePolicy;
+            if ( POLICY_BLOCK.equals(policy) )
+            {
+                // never block a delivering thread as this might dead lock
+                // the delivery: queue the event regardless of the bounds
+                if ( m_stopped || DELIVERING.get() != null || Thread.currentThread() instanceof SyncThread )
+                {
+                    return true;
+                }
+                if ( !blocked )
+                {
+                    blocked = true;
+                    m_blocked.incrementAndGet();
+                }
+                this.awaitCapacity(threadId);
+            }
+            else if ( POLICY_DROP_OLDEST.equals(policy) || this.sample(policy) )
+            {
+                if ( executer != null && executer.removeOldest() )
+                {
+                    this.dropped();
+                    return true;
+                }
+                this.dropped();
+                return false;
             }
             else
             {
-                hasOrdered = true;
+                this.dropped();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Check whether the sample policy queues the new event at the expense
+     * of the oldest waiting event.
+     */
+    private boolean sample(final String policy)
+    {
+        if ( !POLICY_SAMPLE.equals(policy) )
+        {
+            return false;
+        }
+        final int sampleRate = m_sampleRate;
+        if ( m_sampled.incrementAndGet() % sampleRate != 0 )
+        {
+            return false;
+        }
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+                "Event queue is full, queueing one of " + sampleRate + " events (QueueSampleRate="
+                + sampleRate + "), " + m_dropped.get() + " events have been dropped so far");
+        return true;
+    }
+
+    /**
+     * Check whether the queue of the thread or the global queue is full.
+     */
+    private boolean isFull(final TaskExecuter executer)
+    {
+        final int queueSize = m_queueSize;
+        final int globalQueueSize = m_globalQueueSize;
+        return ( queueSize > 0 && executer != null && executer.size() >= queueSize )
+                || ( globalQueueSize > 0 && m_queued.get() >= globalQueueSize );
+    }
+
+    /**
+     * Wait for an event to be taken from a queue.
+     */
+    private void awaitCapacity(final Long threadId)
+    {
+        m_waiting.incrementAndGet();
+        try
+        {
+            synchronized ( m_capacity )
+            {
+                // check again holding the monitor: an event taken from a
+                // queue after this check is signalled once we are waiting
+                if ( !m_stopped && this.isFull(m_running_threads.get(threadId)) )
+                {
+                    m_capacity.wait();
+                }
             }
+        }
+        catch ( final InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            m_waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * An event has been taken from a queue.
+     */
+    private void dequeued()
+    {
+        m_queued.decrementAndGet();
+        if ( m_waiting.get() > 0 )
+        {
+            synchronized ( m_capacity )
+            {
+                m_capacity.notifyAll();
+            }
+        }
+    }
 
+    /**
+     * An event has been dropped.
+     */
+    private void dropped()
+    {
+        final long count = m_dropped.incrementAndGet();
+        if ( count == 1 || count % 1000 == 0 )
+        {
+            LogWrapper.getLogger().log(LogWrapper.LOG_WARNING,
+                    "Event queue is full, " + count + " events have been dropped so far (policy=" + m_queuePolicy + ")");
         }
-        if ( hasOrdered )
-        {*/
-            final TaskInfo info = new TaskInfo(tasks, event);
-            final Long currentThreadId = Thread.currentThread().getId();
-            TaskExecuter executer = m_running_threads.get(currentThreadId);
+    }
+
+    /**
+     * Split the handlers into the ones requiring ordered delivery and
+     * the ones not requiring ordered delivery.
+     *
+     * @param unorderedTasks Receives the handlers not requiring ordered delivery
+     * @return The handlers requiring ordered delivery
+     */
+    private Collection<EventHandlerProxy> splitUnordered(final Collection<EventHandlerProxy> tasks,
+            final List<EventHandlerProxy> unorderedTasks)
+    {
+        List<EventHandlerProxy> orderedTasks = null;
+        int index = 0;
+        for(final EventHandlerProxy task : tasks)
+        {
+            if ( task.isAsyncOrderedDelivery() )
+            {
+                if ( orderedTasks != null )
+                {
+                    orderedTasks.add(task);
+                }
+            }
+            else
+            {
+                if ( orderedTasks == null )
+                {
+                    // copy the ordered handlers seen so far
+                    orderedTasks = new ArrayList<EventHandlerProxy>(tasks.size());
+                    final Iterator<EventHandlerProxy> i = tasks.iterator();
+                    for(int n = 0; n < index; n++)
+                    {
+                        orderedTasks.add(i.next());
+                    }
+                }
+                unorderedTasks.add(task);
+            }
+            index++;
+        }
+        return orderedTasks == null ? tasks : orderedTasks;
+    }
+
+    /**
+     * Queue the event for a handler not requiring ordered delivery.
+     */
+    private void deliverUnordered(final EventHandlerProxy handler, final QueuedEvent queued)
+    {
+        for(;;)
+        {
+            HandlerExecuter executer = m_running_handlers.get(handler);
             if ( executer == null )
             {
-                executer = new TaskExecuter(currentThreadId, m_running_threads);
+                final HandlerExecuter newExecuter = new HandlerExecuter(handler);
+                executer = m_running_handlers.putIfAbsent(handler, newExecuter);
+                if ( executer == null )
+                {
+                    executer = newExecuter;
+                }
+            }
+            if ( executer.add(queued) )
+            {
+                return;
+            }
+            // the executer has just become idle and is unregistered, retry
+            m_running_handlers.remove(handler, executer);
+        }
+    }
+
+    /**
+     * An event waiting for delivery. It is taken once for the handlers
+     * requiring ordered delivery and once for each handler not requiring
+     * ordered delivery. It is no longer waiting once all parts have been
+     * taken or it has been dropped.
+     */
+    private final class QueuedEvent
+    {
+        public final Event event;
+
+        /** The executer of the posting thread accounting for the event. */
+        private final TaskExecuter m_owner;
+
+        private final AtomicInteger m_pending;
+
+        public QueuedEvent(final Event event, final TaskExecuter owner, final int parts)
+        {
+            this.event = event;
+            this.m_owner = owner;
+            this.m_pending = new AtomicInteger(parts);
+        }
+
+        public boolean isDone()
+        {
+            return m_pending.get() == 0;
+        }
+
+        /**
+         * Take a part of the event for delivery.
+         * @return <code>false</code> if the event has been dropped
+         */
+        public boolean take()
+        {
+            for(;;)
+            {
+                final int pending = m_pending.get();
+                if ( pending == 0 )
+                {
+                    return false;
+                }
+                if ( m_pending.compareAndSet(pending, pending - 1) )
+                {
+                    if ( pending == 1 )
+                    {
+                        m_owner.taken();
+                        dequeued();
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Drop the parts of the event not yet taken.
+         * @return <code>false</code> if the event has already been taken
+         */
+        public boolean drop()
+        {
+            if ( m_pending.getAndSet(0) > 0 )
+            {
+                m_owner.taken();
+                dequeued();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Delivers the events to a handler not requiring ordered delivery
+     * one after the other. Running the handlers in tasks of their own
+     * prevents a slow handler from delaying the other handlers.
+     */
+    private final class HandlerExecuter implements Runnable
+    {
+        private final EventHandlerProxy handler;
+
+        private final Queue<QueuedEvent> events = new ConcurrentLinkedQueue<QueuedEvent>();
+
+        /** Whether a task is running, guarded by this. */
+        private boolean active;
+
+        /** Whether the executer has been removed from the running handlers, guarded by this. */
+        private boolean retired;
+
+        public HandlerExecuter(final EventHandlerProxy handler)
+        {
+            this.handler = handler;
+        }
+
+        /**
+         * Queue an event and start a task if none is running.
+         * @return <code>false</code> if the executer has been retired
+         */
+        public boolean add(final QueuedEvent queued)
+        {
+            synchronized ( this )
+            {
+                if ( retired )
+                {
+                    return false;
+                }
+                events.add(queued);
+                if ( active )
+                {
+                    return true;
+                }
+                active = true;
             }
-            synchronized ( executer )
+            if ( !m_unordered_pool.executeTask(this) )
             {
-                executer.add(info);
-                if ( !executer.isActive() )
+                // scheduling failed: last resort, call directly
+                this.run();
+            }
+            return true;
+        }
+
+        @Override
+        public void run()
+        {
+            DELIVERING.set(Boolean.TRUE);
+            try
+            {
+                for(;;)
                 {
-                    // reactivate thread
-                    executer.setSyncDeliverTasks(m_deliver_task);
-                    if ( !m_pool.executeTask(executer) )
+                    final QueuedEvent queued;
+                    synchronized ( this )
+                    {
+                        queued = events.poll();
+                        if ( queued == null )
+                        {
+                            active = false;
+                            retired = true;
+                            m_running_handlers.remove(handler, this);
+                            return;
+                        }
+                    }
+                    if ( queued.take() )
                     {
-                        // scheduling failed: last resort, call directly
-                        executer.run();
+                        // the timeout is checked by the watchdog of the deliver task,
+                        // there is no need to hand over to another thread
+                        m_deliver_task.executeInline(Collections.singletonList(handler), queued.event);
                     }
-                    m_running_threads.put(currentThreadId, executer);
                 }
             }
-        //}
+            finally
+            {
+                DELIVERING.remove();
+            }
+        }
     }
 
     private final static class TaskInfo {
         public final Collection<EventHandlerProxy> tasks;
-        public final Event event;
+        public final QueuedEvent queued;
 
         public TaskInfo next;
 
-        public TaskInfo(final Collection<EventHandlerProxy> tasks, final Event event) {
+        public TaskInfo(final Collection<EventHandlerProxy> tasks, final QueuedEvent queued) {
             this.tasks = tasks;
-            this.event = event;
+            this.queued = queued;
         }
     }
 
-    private final static class TaskExecuter implements Runnable
+    private final class TaskExecuter implements Runnable
     {
         private volatile TaskInfo first;
         private volatile TaskInfo last;
 
-        private volatile SyncDeliverTasks m_deliver_task;
+        /** The events of the thread in posting order, guarded by this. */
+        private final Queue<QueuedEvent> waiting = new ArrayDeque<QueuedEvent>();
 
-        private final Map<Long, TaskExecuter> m_running_threads;
+        /** The number of events of the thread waiting for delivery. */
+        private final AtomicInteger size = new AtomicInteger();
+
+        private volatile SyncDeliverTasks m_deliver_task;
 
         private final long threadId;
 
-        public TaskExecuter(final long threadId, final Map<Long, TaskExecuter> runningThreads) {
-            m_running_threads = runningThreads;
+        public TaskExecuter(final long threadId) {
             this.threadId = threadId;
         }
 
+        public int size()
+        {
+            return this.size.get();
+        }
+
         public boolean isActive()
         {
             return this.m_deliver_task != null;
@@ -150,34 +680,68 @@ public class AsyncDeliverTasks
         @Override
         public void run()
         {
-            boolean running;
-            do
+            DELIVERING.set(Boolean.TRUE);
+            try
             {
-                TaskInfo info = null;
-                synchronized ( this )
+                boolean running;
+                do
                 {
-                    info = first;
-                    first = info.next;
-                    if ( first == null )
+                    TaskInfo info = null;
+                    synchronized ( this )
                     {
-                        last = null;
+                        info = first;
+                        if ( info == null )
+                        {
+                            // the waiting events have been dropped
+                            this.m_deliver_task = null;
+                            this.unregisterIfIdle();
+                            return;
+                        }
+                        first = info.next;
+                        if ( first == null )
+                        {
+                            last = null;
+                        }
                     }
-                }
-                m_deliver_task.execute(info.tasks, info.event, true);
-                synchronized ( this )
-                {
-                    running = first != null;
-                    if ( !running )
+                    if ( info.queued.take() )
                     {
-                        this.m_deliver_task = null;
-                        this.m_running_threads.remove(threadId);
+                        m_deliver_task.execute(info.tasks, info.queued.event, true);
                     }
-                }
-            } while ( running );
+                    synchronized ( this )
+                    {
+                        running = first != null;
+                        if ( !running )
+                        {
+                            this.m_deliver_task = null;
+                            this.unregisterIfIdle();
+                        }
+                    }
+                } while ( running );
+            }
+            finally
+            {
+                DELIVERING.remove();
+            }
         }
 
-        public void add(final TaskInfo info)
+        /**
+         * Add an event posted by the thread, must be called holding the monitor.
+         * @param info The ordered delivery of the event or <code>null</code>
+         */
+        public void add(final QueuedEvent queued, final TaskInfo info)
         {
+            size.incrementAndGet();
+            // forget the events already taken by all handlers
+            QueuedEvent head;
+            while ( ( head = waiting.peek() ) != null && head.isDone() )
+            {
+                waiting.poll();
+            }
+            waiting.add(queued);
+            if ( info == null )
+            {
+                return;
+            }
             if ( first == null )
             {
                 first = info;
@@ -189,5 +753,50 @@ public class AsyncDeliverTasks
                 last = info;
             }
         }
+
+        /**
+         * An event of the thread has been taken by all handlers or dropped.
+         */
+        public void taken()
+        {
+            if ( size.decrementAndGet() == 0 )
+            {
+                synchronized ( this )
+                {
+                    this.unregisterIfIdle();
+                }
+            }
+        }
+
+        /**
+         * Unregister the executer if no event of the thread is waiting,
+         * must be called holding the monitor.
+         */
+        private void unregisterIfIdle()
+        {
+            if ( size.get() == 0 && !this.isActive() )
+            {
+                m_running_threads.remove(threadId, this);
+            }
+        }
+
+        /**
+         * Remove the oldest event waiting for delivery, regardless of
+         * whether it is waiting for ordered or unordered delivery. The
+         * dropped event is skipped once it is taken from a queue.
+         * @return <code>true</code> if an event has been removed
+         */
+        public synchronized boolean removeOldest()
+        {
+            QueuedEvent queued;
+            while ( ( queued = waiting.poll() ) != null )
+            {
+                if ( queued.drop() )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 }
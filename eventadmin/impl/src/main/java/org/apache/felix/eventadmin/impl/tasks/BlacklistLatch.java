@@ -18,17 +18,14 @@
  */
 package org.apache.felix.eventadmin.impl.tasks;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.eventadmin.impl.util.LogWrapper;
 
 /**
  *
- * A latch that checks handlers for blacklisting on an interval.
+ * A latch that waits for the handlers of an event. Handlers exceeding
+ * the timeout are blacklisted by the {@link TimeoutWatchdog}.
  *
  */
 public class BlacklistLatch {
@@ -37,19 +34,12 @@ public class BlacklistLatch {
 
 	private final int count;
 
-	private final long timeout;
-
-	private final List<HandlerTask> handlerTasks;
-
 	/**
 	 * @param count Number of handlers that must call countdown
-	 * @param timeout Timeout in Milliseconds to check for blacklisting handlers
 	 */
-	public BlacklistLatch(final int count, final long timeout)
+	public BlacklistLatch(final int count)
 	{
-		this.handlerTasks = new ArrayList<HandlerTask>(count);
 		this.count = count;
-		this.timeout = timeout;
 		internalSemaphore = new Semaphore(count);
 		internalSemaphore.drainPermits();
 	}
@@ -64,36 +54,16 @@ public class BlacklistLatch {
 		internalSemaphore.release();
 	}
 
-	/**
-	 *
-	 * Adds a handler task to the timeout based blackout checking.
-	 *
-	 * @param task
-	 */
-	public void addToBlacklistCheck(final HandlerTask task)
-	{
-		this.handlerTasks.add(task);
-	}
-
 	/**
 	 *
 	 * Causes current thread to wait until each handler has called countDown.
-	 * Checks on timeout interval to determine if a handler needs blacklisting.
 	 *
 	 */
-	public void awaitAndBlacklistCheck()
+	public void await()
 	{
 		try
         {
-        	while(!internalSemaphore.tryAcquire(this.count, this.timeout, TimeUnit.MILLISECONDS))
-            {
-            	final Iterator<HandlerTask> handlerTaskIt = handlerTasks.iterator();
-            	while(handlerTaskIt.hasNext())
-            	{
-            		HandlerTask currentTask = handlerTaskIt.next();
-            		currentTask.checkForBlacklist();
-            	}
-            }
+        	internalSemaphore.acquire(this.count);
         }
         catch (final InterruptedException e)
         {
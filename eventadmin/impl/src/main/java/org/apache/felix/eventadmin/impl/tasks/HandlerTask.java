@@ -18,8 +18,7 @@
  */
 package org.apache.felix.eventadmin.impl.tasks;
 
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
 import org.osgi.service.event.Event;
@@ -38,12 +37,10 @@ public class HandlerTask implements Runnable
 
 	private final BlacklistLatch handlerLatch;
 
-	private volatile long threadId;
+	private final TimeoutWatchdog watchdog;
 
 	private volatile long startTime;
 
-	private volatile long endTime;
-
 	/**
 	 *
 	 *
@@ -51,31 +48,18 @@ public class HandlerTask implements Runnable
 	 * @param event The event to send to the handler
 	 * @param timeout Timeout for handler blacklisting
 	 * @param handlerLatch The latch used to ensure events fire in proper order
+	 * @param watchdog The watchdog checking the timeout
 	 */
-	public HandlerTask(final EventHandlerProxy task, final Event event, final long timeout, final BlacklistLatch handlerLatch)
+	public HandlerTask(final EventHandlerProxy task, final Event event, final long timeout,
+	        final BlacklistLatch handlerLatch, final TimeoutWatchdog watchdog)
 	{
 		this.task = task;
 		this.event = event;
 		this.timeout = timeout;
 		this.handlerLatch = handlerLatch;
-		this.threadId = -1l;
-		this.startTime = -1l;
-		this.endTime = -1l;
+		this.watchdog = watchdog;
 	}
 
-	/**
-	 *
-	 * Perform timing based on thread CPU time with clock time fall back.
-	 *
-	 * @return
-	 */
-	public long getTimeInMillis()
-    {
-        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
-        return bean.isThreadCpuTimeEnabled() ?
-            bean.getThreadCpuTime(threadId)/1000000 : System.currentTimeMillis();
-    }
-
 	/**
 	 * Run Hander Event
 	 */
@@ -84,15 +68,14 @@ public class HandlerTask implements Runnable
     {
         try
         {
-        	threadId = Thread.currentThread().getId();
-            startTime = getTimeInMillis();
+            startTime = System.nanoTime();
+            watchdog.started(this);
             // execute the task
             task.sendEvent(event);
-            endTime = getTimeInMillis();
-            checkForBlacklist();
         }
         finally
         {
+            watchdog.finished(this);
         	handlerLatch.countDown();
         }
     }
@@ -120,33 +103,13 @@ public class HandlerTask implements Runnable
     /**
      * Check to see if we need to blacklist this handler
      *
+     * @param now The current time as returned by {@link System#nanoTime()}
      */
-    public void checkForBlacklist()
+    public void checkForBlacklist(final long now)
     {
-    	if(useTimeout() && getTaskTime() > this.timeout)
+    	if(useTimeout() && now - startTime > TimeUnit.MILLISECONDS.toNanos(this.timeout))
 		{
 			task.blackListHandler();
 		}
     }
-
-    /**
-     *
-     * Determine the amount of time spent running this task
-     *
-     * @return
-     */
-    public long getTaskTime()
-    {
-    	if(threadId < 0l || startTime < 0l)
-    	{
-    		return 0l;
-    	}
-    	else if(endTime < 0l)
-    	{
-    		return getTimeInMillis() - startTime;
-    	}
-    	return endTime - startTime;
-
-    }
-
 }
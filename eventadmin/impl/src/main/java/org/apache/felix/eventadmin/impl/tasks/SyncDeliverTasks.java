@@ -58,6 +58,9 @@ public class SyncDeliverTasks
     /** The thread pool used to spin-off new threads. */
     private final DefaultThreadPool pool;
 
+    /** The watchdog blacklisting handlers exceeding the timeout. */
+    private final TimeoutWatchdog watchdog;
+
     private long timeout;
 
     /**
@@ -67,6 +70,7 @@ public class SyncDeliverTasks
     public SyncDeliverTasks(final DefaultThreadPool pool, final long timeout)
     {
         this.pool = pool;
+        this.watchdog = new TimeoutWatchdog(timeout);
         this.update(timeout);
     }
 
@@ -76,6 +80,15 @@ public class SyncDeliverTasks
     public void update(final long timeout)
     {
         this.timeout = timeout;
+        this.watchdog.update(timeout);
+    }
+
+    /**
+     * Stop the timeout handling.
+     */
+    public void stop()
+    {
+        this.watchdog.stop();
     }
 
     /**
@@ -91,12 +104,12 @@ public class SyncDeliverTasks
         final SyncThread syncThread = sleepingThread instanceof SyncThread ? (SyncThread)sleepingThread : null;
 
         final Iterator<EventHandlerProxy> i = tasks.iterator();
-        final BlacklistLatch handlerLatch = new BlacklistLatch(tasks.size(), this.timeout/2);
+        final BlacklistLatch handlerLatch = new BlacklistLatch(tasks.size());
 
         while ( i.hasNext() )
         {
             final EventHandlerProxy task = i.next();
-            HandlerTask handlerTask = new HandlerTask(task, event, this.timeout, handlerLatch);
+            HandlerTask handlerTask = new HandlerTask(task, event, this.timeout, handlerLatch, this.watchdog);
 //            if ( !filterAsyncUnordered || task.isAsyncOrderedDelivery() )
 //            {
                 if( !handlerTask.useTimeout() )
@@ -111,8 +124,6 @@ public class SyncDeliverTasks
                 }
                 else
                 {
-
-                	handlerLatch.addToBlacklistCheck(handlerTask);
                     if ( !this.pool.executeTask(handlerTask) )
                     {
                         // scheduling failed: last resort, call directly
@@ -122,7 +133,31 @@ public class SyncDeliverTasks
 
 //            }
         }
-        handlerLatch.awaitAndBlacklistCheck();
+        handlerLatch.await();
+
+    }
 
+    /**
+     * Deliver the event to the handlers one after the other using the
+     * calling thread. Handlers exceeding the timeout are blacklisted by
+     * the watchdog, the calling thread is not replaced.
+     *
+     * @param tasks The event handler dispatch tasks to execute
+     */
+    public void executeInline(final Collection<EventHandlerProxy> tasks, final Event event)
+    {
+        final BlacklistLatch handlerLatch = new BlacklistLatch(tasks.size());
+        for(final EventHandlerProxy task : tasks)
+        {
+            final HandlerTask handlerTask = new HandlerTask(task, event, this.timeout, handlerLatch, this.watchdog);
+            if ( handlerTask.useTimeout() )
+            {
+                handlerTask.run();
+            }
+            else
+            {
+                handlerTask.runWithoutBlacklistTiming();
+            }
+        }
     }
 }
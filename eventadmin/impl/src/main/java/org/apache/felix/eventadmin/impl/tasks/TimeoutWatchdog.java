@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.felix.eventadmin.impl.util.LogWrapper;
+
+/**
+ * The watchdog checks the handler tasks currently delivering an event
+ * with a timeout. A single thread samples the start times of the tasks
+ * in flight on an interval of a quarter of the timeout and blacklists
+ * the handlers exceeding the timeout. This avoids any timing overhead
+ * on the delivering threads apart from registering the task.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class TimeoutWatchdog implements Runnable
+{
+    /** The tasks currently delivering an event. */
+    private final Map<HandlerTask, Boolean> m_inFlight = new ConcurrentHashMap<HandlerTask, Boolean>();
+
+    /** The check interval in milliseconds. */
+    private volatile long m_interval;
+
+    /** The watchdog thread, started on demand. */
+    private volatile Thread m_thread;
+
+    private volatile boolean m_stopped;
+
+    /**
+     * Create a new watchdog.
+     * @param timeout The timeout in milliseconds
+     */
+    public TimeoutWatchdog(final long timeout)
+    {
+        this.update(timeout);
+    }
+
+    /**
+     * Update the timeout configuration.
+     */
+    public void update(final long timeout)
+    {
+        m_interval = Math.max(10, timeout / 4);
+    }
+
+    /**
+     * A task started delivering an event.
+     */
+    public void started(final HandlerTask task)
+    {
+        m_inFlight.put(task, Boolean.TRUE);
+        if ( m_thread == null )
+        {
+            this.startThread();
+        }
+    }
+
+    /**
+     * A task finished delivering an event.
+     */
+    public void finished(final HandlerTask task)
+    {
+        m_inFlight.remove(task);
+    }
+
+    private synchronized void startThread()
+    {
+        if ( m_thread == null && !m_stopped )
+        {
+            final Thread thread = new Thread(this, "EventAdminTimeoutWatchdog");
+            thread.setDaemon(true);
+            thread.start();
+            m_thread = thread;
+        }
+    }
+
+    /**
+     * Stop the watchdog thread.
+     */
+    public synchronized void stop()
+    {
+        m_stopped = true;
+        if ( m_thread != null )
+        {
+            m_thread.interrupt();
+            m_thread = null;
+        }
+        m_inFlight.clear();
+    }
+
+    @Override
+    public void run()
+    {
+        while ( !m_stopped )
+        {
+            try
+            {
+                Thread.sleep(m_interval);
+            }
+            catch ( final InterruptedException ie )
+            {
+                // check whether we are stopped
+                continue;
+            }
+
+            final long now = System.nanoTime();
+            for(final HandlerTask task : m_inFlight.keySet())
+            {
+                try
+                {
+                    task.checkForBlacklist(now);
+                }
+                catch ( final Throwable t )
+                {
+                    // keep the watchdog alive
+                    LogWrapper.getLogger().log(LogWrapper.LOG_WARNING,
+                            "Exception while checking handler timeout: " + t, t);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of event delivery latencies. The latencies are
+ * counted in buckets of powers of two microseconds: bucket <tt>i</tt>
+ * counts the latencies less than <tt>2^i</tt> microseconds, the last
+ * bucket counts all longer latencies.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class LatencyHistogram
+{
+    /** The number of buckets, the last one starts at about 4 seconds. */
+    private static final int BUCKETS = 24;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record a latency.
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(final long nanos)
+    {
+        final long micros = nanos / 1000;
+        final int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while ( nanos > max && !maxNanos.compareAndSet(max, nanos) )
+        {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean latency in microseconds.
+     */
+    public long getMeanMicros()
+    {
+        final long c = count.get();
+        return c == 0 ? 0 : totalNanos.get() / c / 1000;
+    }
+
+    /**
+     * Returns the maximum latency in microseconds.
+     */
+    public long getMaxMicros()
+    {
+        return maxNanos.get() / 1000;
+    }
+
+    /**
+     * Returns the upper bound in microseconds of the bucket containing
+     * the given percentile of the recorded latencies.
+     * @param percentile The percentile between 0 and 100
+     */
+    public long getPercentileMicros(final double percentile)
+    {
+        final long c = count.get();
+        if ( c == 0 )
+        {
+            return 0;
+        }
+        final long threshold = (long)Math.ceil(c * percentile / 100);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS - 1; i++)
+        {
+            seen += buckets.get(i);
+            if ( seen >= threshold )
+            {
+                return 1L << i;
+            }
+        }
+        return getMaxMicros();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "count=" + getCount()
+            + ", mean=" + getMeanMicros() + "us"
+            + ", p50<" + getPercentileMicros(50) + "us"
+            + ", p99<" + getPercentileMicros(99) + "us"
+            + ", max=" + getMaxMicros() + "us";
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+public class EventHandlerTrackerTest
+{
+    private EventHandlerTracker tracker;
+
+    @Before
+    public void setUp()
+    {
+        tracker = new EventHandlerTracker(mock(BundleContext.class, null));
+        tracker.update(null, false);
+    }
+
+    @Test
+    public void testHandlersByTopic()
+    {
+        final EventHandlerProxy exact = add("a/b/c");
+        final EventHandlerProxy wildcard = add("a/*");
+        final EventHandlerProxy all = add("*");
+
+        assertHandlers("a/b/c", all, wildcard, exact);
+        assertHandlers("a/b", all, wildcard);
+        assertHandlers("x", all);
+    }
+
+    @Test
+    public void testCacheIsInvalidated()
+    {
+        assertHandlers("a/b");
+        final EventHandlerProxy proxy = add("a/b");
+        assertHandlers("a/b", proxy);
+
+        tracker.removedService(null, proxy);
+        assertHandlers("a/b");
+    }
+
+    @Test
+    public void testCacheOverflow()
+    {
+        final EventHandlerProxy proxy = add("topic/*");
+        for ( int i = 0; i < EventHandlerTracker.MAX_CACHED_TOPICS; i++ )
+        {
+            assertHandlers("topic/" + i, proxy);
+        }
+        assertEquals(EventHandlerTracker.MAX_CACHED_TOPICS, tracker.getCachedTopics());
+
+        // the cache is cleared and then caches the new topics
+        assertHandlers("topic/new", proxy);
+        assertEquals(1, tracker.getCachedTopics());
+        assertHandlers("topic/other", proxy);
+        assertEquals(2, tracker.getCachedTopics());
+    }
+
+    private EventHandlerProxy add(final String topic)
+    {
+        final Map<String, Object> props = new HashMap<String, Object>();
+        props.put(EventConstants.EVENT_TOPIC, topic);
+        @SuppressWarnings("unchecked")
+        final ServiceReference<EventHandler> reference = mock(ServiceReference.class, props);
+        return tracker.addingService(reference);
+    }
+
+    private void assertHandlers(final String topic, final EventHandlerProxy... expected)
+    {
+        final Collection<EventHandlerProxy> handlers = tracker.getHandlers(new Event(topic, (Map<String, ?>) null));
+        assertEquals(expected.length, handlers.size());
+        for ( final EventHandlerProxy proxy : expected )
+        {
+            assertTrue(handlers.contains(proxy));
+        }
+    }
+
+    /**
+     * Creates a mock answering <code>getProperty</code> from the given properties,
+     * <code>getBundle</code> with a bundle having all permissions and
+     * <code>null</code>, <code>false</code> or zero otherwise.
+     */
+    private static <T> T mock(final Class<T> type, final Map<String, Object> props)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler()
+        {
+            public Object invoke(final Object proxy, final Method method, final Object[] args)
+            {
+                final String name = method.getName();
+                if ( name.equals("getProperty") )
+                {
+                    return props.get(args[0]);
+                }
+                if ( name.equals("getBundle") )
+                {
+                    return mock(Bundle.class, null);
+                }
+                if ( name.equals("hasPermission") )
+                {
+                    return Boolean.TRUE;
+                }
+                if ( name.equals("equals") )
+                {
+                    return proxy == args[0];
+                }
+                if ( name.equals("hashCode") )
+                {
+                    return System.identityHashCode(proxy);
+                }
+                if ( name.equals("toString") )
+                {
+                    return type.getSimpleName();
+                }
+                final Class<?> rt = method.getReturnType();
+                if ( rt == boolean.class )
+                {
+                    return Boolean.FALSE;
+                }
+                if ( rt == int.class )
+                {
+                    return 0;
+                }
+                if ( rt == long.class )
+                {
+                    return 0L;
+                }
+                return null;
+            }
+        }));
+    }
+}
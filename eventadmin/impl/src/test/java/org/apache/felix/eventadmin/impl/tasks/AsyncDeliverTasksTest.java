@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+
+public class AsyncDeliverTasksTest
+{
+    private DefaultThreadPool pool;
+
+    private DefaultThreadPool unorderedPool;
+
+    private SyncDeliverTasks syncTasks;
+
+    private AsyncDeliverTasks asyncTasks;
+
+    @Before
+    public void setUp()
+    {
+        pool = new DefaultThreadPool(2, false);
+        unorderedPool = new DefaultThreadPool(2, false);
+        syncTasks = new SyncDeliverTasks(new DefaultThreadPool(2, true), 0);
+        asyncTasks = new AsyncDeliverTasks(pool, unorderedPool, syncTasks);
+    }
+
+    @After
+    public void tearDown()
+    {
+        syncTasks.stop();
+        unorderedPool.close();
+        pool.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testUnorderedDoesNotWaitForOrdered() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Handler ordered = new Handler(true, release);
+        final Handler unordered = new Handler(false, null);
+
+        asyncTasks.execute(Arrays.<EventHandlerProxy> asList(ordered, unordered), event(1));
+
+        // the unordered handler gets the event while the ordered one blocks
+        assertTrue(unordered.await(1));
+        release.countDown();
+        assertTrue(ordered.await(1));
+    }
+
+    @Test(timeout = 10000)
+    public void testSlowUnorderedDoesNotDelayOtherUnordered() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Handler slow = new Handler(false, release);
+        final Handler fast = new Handler(false, null);
+
+        asyncTasks.execute(Arrays.<EventHandlerProxy> asList(slow, fast), event(1));
+        slow.started.await();
+        asyncTasks.execute(Arrays.<EventHandlerProxy> asList(slow, fast), event(2));
+
+        // the fast handler gets both events while the slow one blocks
+        assertTrue(fast.await(2));
+        assertEquals(Arrays.asList("test/1", "test/2"), fast.topics);
+        release.countDown();
+        assertTrue(slow.await(2));
+        assertEquals(Arrays.asList("test/1", "test/2"), slow.topics);
+    }
+
+    @Test(timeout = 10000)
+    public void testMixedEventIsQueuedOnce() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Handler ordered = new Handler(true, release);
+        final Handler unordered = new Handler(false, release);
+        final Collection<EventHandlerProxy> handlers = Arrays.<EventHandlerProxy> asList(ordered, unordered);
+
+        asyncTasks.execute(handlers, event(1));
+        ordered.started.await();
+        unordered.started.await();
+        asyncTasks.execute(handlers, event(2));
+        assertEquals(1, asyncTasks.getQueuedEvents());
+
+        release.countDown();
+        assertTrue(ordered.await(2));
+        assertTrue(unordered.await(2));
+        assertEquals(0, asyncTasks.getQueuedEvents());
+    }
+
+    @Test(timeout = 10000)
+    public void testDropNewest() throws Exception
+    {
+        asyncTasks.update(1, 0, AsyncDeliverTasks.POLICY_DROP_NEWEST, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Handler handler = new Handler(true, release);
+        fillQueue(handler);
+
+        asyncTasks.execute(Collections.<EventHandlerProxy> singletonList(handler), event(3));
+        assertEquals(1, asyncTasks.getDroppedEvents());
+
+        release.countDown();
+        assertTrue(handler.await(2));
+        assertEquals(Arrays.asList("test/1", "test/2"), handler.topics);
+    }
+
+    @Test(timeout = 10000)
+    public void testDropOldest() throws Exception
+    {
+        asyncTasks.update(1, 0, AsyncDeliverTasks.POLICY_DROP_OLDEST, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Handler handler = new Handler(true, release);
+        fillQueue(handler);
+
+        asyncTasks.execute(Collections.<EventHandlerProxy> singletonList(handler), event(3));
+        assertEquals(1, asyncTasks.getDroppedEvents());
+
+        release.countDown();
+        assertTrue(handler.await(2));
+        assertEquals(Arrays.asList("test/1", "test/3"), handler.topics);
+    }
+
+    @Test(timeout = 10000)
+    public void testDropOldestUnordered() throws Exception
+    {
+        asyncTasks.update(1, 0, AsyncDeliverTasks.POLICY_DROP_OLDEST, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Handler handler = new Handler(false, release);
+        fillQueue(handler);
+
+        asyncTasks.execute(Collections.<EventHandlerProxy> singletonList(handler), event(3));
+        assertEquals(1, asyncTasks.getDroppedEvents());
+        assertEquals(1, asyncTasks.getQueuedEvents());
+
+        release.countDown();
+        assertTrue(handler.await(2));
+        assertEquals(Arrays.asList("test/1", "test/3"), handler.topics);
+    }
+
+    @Test(timeout = 10000)
+    public void testBlock() throws Exception
+    {
+        asyncTasks.update(0, 1, AsyncDeliverTasks.POLICY_BLOCK, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Handler handler = new Handler(true, release);
+        fillQueue(handler);
+
+        final Thread poster = post(handler, event(3));
+        while ( asyncTasks.getBlockedEvents() == 0 )
+        {
+            Thread.sleep(10);
+        }
+        assertTrue(poster.isAlive());
+
+        release.countDown();
+        poster.join();
+        assertTrue(handler.await(3));
+        assertEquals(Arrays.asList("test/1", "test/2", "test/3"), handler.topics);
+        assertEquals(0, asyncTasks.getDroppedEvents());
+    }
+
+    @Test(timeout = 10000)
+    public void testStopReleasesBlockedThread() throws Exception
+    {
+        asyncTasks.update(0, 1, AsyncDeliverTasks.POLICY_BLOCK, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Handler handler = new Handler(true, release);
+        fillQueue(handler);
+
+        final Thread poster = post(handler, event(3));
+        while ( asyncTasks.getBlockedEvents() == 0 )
+        {
+            Thread.sleep(10);
+        }
+
+        asyncTasks.stop();
+        poster.join();
+        assertFalse(poster.isAlive());
+        release.countDown();
+    }
+
+    /**
+     * Post two events: the first one is being delivered and blocks the
+     * handler, the second one is waiting in the queue.
+     */
+    private void fillQueue(final Handler handler) throws InterruptedException
+    {
+        final Collection<EventHandlerProxy> handlers = Collections.<EventHandlerProxy> singletonList(handler);
+        asyncTasks.execute(handlers, event(1));
+        handler.started.await();
+        asyncTasks.execute(handlers, event(2));
+        assertEquals(1, asyncTasks.getQueuedEvents());
+    }
+
+    private Thread post(final Handler handler, final Event event)
+    {
+        final Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                asyncTasks.execute(Collections.<EventHandlerProxy> singletonList(handler), event);
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private static Event event(final int number)
+    {
+        return new Event("test/" + number, (Map<String, ?>) null);
+    }
+
+    /**
+     * A handler recording the delivered events, optionally blocking until
+     * the latch is released.
+     */
+    private static final class Handler extends EventHandlerProxy
+    {
+        private final boolean ordered;
+
+        private final CountDownLatch release;
+
+        private final Semaphore delivered = new Semaphore(0);
+
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final List<String> topics = new CopyOnWriteArrayList<String>();
+
+        Handler(final boolean ordered, final CountDownLatch release)
+        {
+            super(null, null);
+            this.ordered = ordered;
+            this.release = release;
+        }
+
+        @Override
+        public boolean isAsyncOrderedDelivery()
+        {
+            return ordered;
+        }
+
+        @Override
+        public void sendEvent(final Event event)
+        {
+            started.countDown();
+            if ( release != null )
+            {
+                try
+                {
+                    release.await();
+                }
+                catch ( final InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            topics.add(event.getTopic());
+            delivered.release();
+        }
+
+        boolean await(final int events) throws InterruptedException
+        {
+            return delivered.tryAcquire(events, 5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+
+public class TimeoutWatchdogTest
+{
+    private static final long TIMEOUT = 100;
+
+    private TimeoutWatchdog watchdog;
+
+    @Before
+    public void setUp()
+    {
+        watchdog = new TimeoutWatchdog(TIMEOUT);
+    }
+
+    @After
+    public void tearDown()
+    {
+        watchdog.stop();
+    }
+
+    @Test
+    public void testCheckForBlacklistAfterTimeout()
+    {
+        final Handler handler = new Handler(true, 0);
+        final HandlerTask task = task(handler, TIMEOUT);
+        final long start = System.nanoTime();
+        task.run();
+
+        task.checkForBlacklist(start);
+        assertEquals(1, handler.blacklisted.getCount());
+
+        task.checkForBlacklist(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT + 1));
+        assertEquals(0, handler.blacklisted.getCount());
+    }
+
+    @Test
+    public void testNoBlacklistWithoutTimeout()
+    {
+        final Handler ignored = new Handler(false, 0);
+        final HandlerTask ignoredTask = task(ignored, TIMEOUT);
+        ignoredTask.run();
+        ignoredTask.checkForBlacklist(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+        assertEquals(1, ignored.blacklisted.getCount());
+
+        final Handler unconfigured = new Handler(true, 0);
+        final HandlerTask unconfiguredTask = task(unconfigured, 0);
+        unconfiguredTask.run();
+        unconfiguredTask.checkForBlacklist(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+        assertEquals(1, unconfigured.blacklisted.getCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testWatchdogBlacklistsSlowHandler() throws Exception
+    {
+        final Handler handler = new Handler(true, 5 * TIMEOUT);
+        final long start = System.nanoTime();
+        task(handler, TIMEOUT).run();
+
+        // the watchdog blacklists the handler while it is still delivering
+        assertTrue(handler.blacklisted.await(0, TimeUnit.MILLISECONDS));
+        final long blacklistedAfter = TimeUnit.NANOSECONDS.toMillis(handler.blacklistedAt - start);
+        assertTrue("blacklisted after " + blacklistedAfter + "ms", blacklistedAfter >= TIMEOUT);
+        assertTrue("blacklisted after " + blacklistedAfter + "ms", blacklistedAfter < 5 * TIMEOUT);
+    }
+
+    @Test(timeout = 10000)
+    public void testWatchdogIgnoresFastHandler() throws Exception
+    {
+        final Handler handler = new Handler(true, TIMEOUT / 10);
+        task(handler, TIMEOUT).run();
+
+        // give the watchdog a few intervals to check
+        assertFalse(handler.blacklisted.await(2 * TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    private HandlerTask task(final Handler handler, final long timeout)
+    {
+        return new HandlerTask(handler, new Event("test/timeout", (Map<String, ?>) null),
+                timeout, new BlacklistLatch(1), watchdog);
+    }
+
+    /**
+     * A handler taking the given time to handle an event.
+     */
+    private static final class Handler extends EventHandlerProxy
+    {
+        private final boolean useTimeout;
+
+        private final long delay;
+
+        final CountDownLatch blacklisted = new CountDownLatch(1);
+
+        volatile long blacklistedAt;
+
+        Handler(final boolean useTimeout, final long delay)
+        {
+            super(null, null);
+            this.useTimeout = useTimeout;
+            this.delay = delay;
+        }
+
+        @Override
+        public boolean useTimeout()
+        {
+            return useTimeout;
+        }
+
+        @Override
+        public void sendEvent(final Event event)
+        {
+            if ( delay > 0 )
+            {
+                try
+                {
+                    Thread.sleep(delay);
+                }
+                catch ( final InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void blackListHandler()
+        {
+            if ( blacklisted.getCount() > 0 )
+            {
+                blacklistedAt = System.nanoTime();
+                blacklisted.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void testEmpty()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(50));
+    }
+
+    @Test
+    public void testBucketBoundaries()
+    {
+        // bucket i counts the latencies less than 2^i microseconds
+        assertEquals(1, upperBound(0));
+        assertEquals(1, upperBound(999));
+        assertEquals(2, upperBound(1000));
+        assertEquals(2, upperBound(1999));
+        assertEquals(4, upperBound(2000));
+        assertEquals(4, upperBound(3999));
+        assertEquals(8, upperBound(4000));
+        assertEquals(1L << 22, upperBound(((1L << 22) - 1) * 1000));
+    }
+
+    @Test
+    public void testLastBucketReportsMaximum()
+    {
+        // the last bucket has no upper bound, the maximum is reported instead
+        assertEquals(1L << 22, upperBound((1L << 22) * 1000));
+        assertEquals(60000000, upperBound(60000000000L));
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 0; i < 99; i++)
+        {
+            histogram.record(1500);
+        }
+        histogram.record(100000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(2, histogram.getPercentileMicros(50));
+        assertEquals(2, histogram.getPercentileMicros(99));
+        assertEquals(128, histogram.getPercentileMicros(100));
+        assertEquals(100, histogram.getMaxMicros());
+        assertEquals((99 * 1500 + 100000) / 100 / 1000, histogram.getMeanMicros());
+    }
+
+    private static long upperBound(final long nanos)
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(nanos);
+        return histogram.getPercentileMicros(100);
+    }
+}
@@ -37,6 +37,7 @@ public class Artifact
     private File transformed;
     private long bundleId = -1;
     private long checksum;
+    private String contentHash;
 
     public File getPath()
     {
@@ -117,4 +118,14 @@ public class Artifact
     {
         this.checksum = checksum;
     }
+
+    public String getContentHash()
+    {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash)
+    {
+        this.contentHash = contentHash;
+    }
 }
@@ -36,19 +36,41 @@ import org.osgi.service.cm.*;
 /**
  * ArtifactInstaller for configurations.
  * TODO: This service lifecycle should be bound to the ConfigurationAdmin service lifecycle.
+ *
+ * In bulk mode, the configurations created from files are indexed by file
+ * name with a single listConfigurations call, instead of one filtered call
+ * per file.  The index is kept up to date with the changes made by this
+ * installer and the configuration events: a configuration updated by someone
+ * else is looked up by pid and only indexed if it refers to a file.  The
+ * index is dropped whenever a change can not be accounted for.  The index is
+ * built without holding the lock of the installer and only published if no
+ * change happened while the configurations were listed.
  */
 public class ConfigInstaller implements ArtifactInstaller, ConfigurationListener
 {
     private final BundleContext context;
     private final ConfigurationAdmin configAdmin;
     private final FileInstall fileInstall;
+    private final boolean bulk;
     private ServiceRegistration registration;
 
+    // Configurations keyed by file name and file names keyed by pid, only used in bulk mode
+    private Map<String, Configuration> configurationsByFile;
+    private Map<String, String> filesByPid;
+    // Incremented on every change which may have to be reflected in the index
+    private long indexGeneration;
+
     ConfigInstaller(BundleContext context, ConfigurationAdmin configAdmin, FileInstall fileInstall)
+    {
+        this(context, configAdmin, fileInstall, false);
+    }
+
+    ConfigInstaller(BundleContext context, ConfigurationAdmin configAdmin, FileInstall fileInstall, boolean bulk)
     {
         this.context = context;
         this.configAdmin = configAdmin;
         this.fileInstall = fileInstall;
+        this.bulk = bulk;
     }
 
     public void init()
@@ -111,6 +133,11 @@ public class ConfigInstaller implements ArtifactInstaller, ConfigurationListener
 
     public void doConfigurationEvent(ConfigurationEvent configurationEvent)
     {
+        if (bulk)
+        {
+            updateIndex(configurationEvent);
+        }
+
         // Check if writing back configurations has been disabled.
         {
             if (!shouldSaveConfig())
@@ -251,7 +278,22 @@ public class ConfigInstaller implements ArtifactInstaller, ConfigurationListener
         String pid[] = parsePid(f.getName());
         Configuration config = getConfiguration(toConfigKey(f), pid[0], pid[1]);
 
-        Dictionary<String, Object> props = config.getProperties();
+        Dictionary<String, Object> props;
+        try
+        {
+            props = config.getProperties();
+        }
+        catch (IllegalStateException e)
+        {
+            if (!bulk)
+            {
+                throw e;
+            }
+            // The indexed configuration has been deleted in the meantime
+            invalidateIndex();
+            config = getConfiguration(toConfigKey(f), pid[0], pid[1]);
+            props = config.getProperties();
+        }
         Hashtable<String, Object> old = props != null ? new Hashtable<String, Object>(new DictionaryAsMap<String, Object>(props)) : null;
         if (old != null) {
         	old.remove( DirectoryWatcher.FILENAME );
@@ -270,6 +312,10 @@ public class ConfigInstaller implements ArtifactInstaller, ConfigurationListener
                         + (pid[1] == null ? "" : "-" + pid[1]) + ".cfg", null);
             }
             config.update(ht);
+            if (bulk)
+            {
+                addToIndex(toConfigKey(f), config);
+            }
             return true;
         }
         else
@@ -293,6 +339,10 @@ public class ConfigInstaller implements ArtifactInstaller, ConfigurationListener
                 + (pid[1] == null ? "" : "-" + pid[1]) + ".cfg", null);
         Configuration config = getConfiguration(toConfigKey(f), pid[0], pid[1]);
         config.delete();
+        if (bulk)
+        {
+            removeFromIndex(toConfigKey(f));
+        }
         return true;
     }
 
@@ -351,6 +401,10 @@ public class ConfigInstaller implements ArtifactInstaller, ConfigurationListener
 
     Configuration findExistingConfiguration(String fileName) throws Exception
     {
+        if (bulk)
+        {
+            return findIndexedConfiguration(fileName);
+        }
         String filter = "(" + DirectoryWatcher.FILENAME + "=" + escapeFilterValue(fileName) + ")";
         Configuration[] configurations = getConfigurationAdmin().listConfigurations(filter);
         if (configurations != null && configurations.length > 0)
@@ -363,6 +417,147 @@ public class ConfigInstaller implements ArtifactInstaller, ConfigurationListener
         }
     }
 
+    /**
+     * Look up a configuration in the index of the configurations created from
+     * files, listing all of them at once if needed.  The configurations are
+     * listed outside of the lock; if the index changed in the meantime, the
+     * listing may miss that change, so it is only used for this lookup and
+     * not kept.
+     */
+    private Configuration findIndexedConfiguration(String fileName) throws Exception
+    {
+        long generation;
+        synchronized (this)
+        {
+            if (configurationsByFile != null)
+            {
+                return configurationsByFile.get(fileName);
+            }
+            generation = indexGeneration;
+        }
+
+        Map<String, Configuration> byFile = new HashMap<String, Configuration>();
+        Map<String, String> byPid = new HashMap<String, String>();
+        Configuration[] configurations = getConfigurationAdmin().listConfigurations(
+                "(" + DirectoryWatcher.FILENAME + "=*)");
+        if (configurations != null)
+        {
+            for (Configuration configuration : configurations)
+            {
+                Dictionary dict = configuration.getProperties();
+                Object name = dict != null ? dict.get(DirectoryWatcher.FILENAME) : null;
+                if (name != null && !byFile.containsKey(name.toString()))
+                {
+                    byFile.put(name.toString(), configuration);
+                    byPid.put(configuration.getPid(), name.toString());
+                }
+            }
+        }
+
+        synchronized (this)
+        {
+            if (configurationsByFile != null)
+            {
+                // published by another thread in the meantime
+                return configurationsByFile.get(fileName);
+            }
+            if (generation == indexGeneration)
+            {
+                configurationsByFile = byFile;
+                filesByPid = byPid;
+            }
+        }
+        return byFile.get(fileName);
+    }
+
+    private synchronized void addToIndex(String fileName, Configuration configuration)
+    {
+        indexGeneration++;
+        if (configurationsByFile != null)
+        {
+            configurationsByFile.put(fileName, configuration);
+            filesByPid.put(configuration.getPid(), fileName);
+        }
+    }
+
+    private synchronized void removeFromIndex(String fileName)
+    {
+        indexGeneration++;
+        if (configurationsByFile != null)
+        {
+            configurationsByFile.remove(fileName);
+            filesByPid.values().remove(fileName);
+        }
+    }
+
+    private synchronized void invalidateIndex()
+    {
+        indexGeneration++;
+        configurationsByFile = null;
+        filesByPid = null;
+    }
+
+    private void updateIndex(ConfigurationEvent configurationEvent)
+    {
+        String pid = configurationEvent.getPid();
+        synchronized (this)
+        {
+            indexGeneration++;
+            if (configurationsByFile == null)
+            {
+                return;
+            }
+            if (configurationEvent.getType() == ConfigurationEvent.CM_DELETED)
+            {
+                String fileName = filesByPid.remove(pid);
+                if (fileName != null)
+                {
+                    configurationsByFile.remove(fileName);
+                }
+                return;
+            }
+            if (configurationEvent.getType() != ConfigurationEvent.CM_UPDATED
+                    || filesByPid.containsKey(pid))
+            {
+                // The configurations created by this installer are already indexed
+                return;
+            }
+        }
+
+        // A configuration not created by this installer may refer to a file:
+        // look it up by pid, outside of the lock, and index it if it does
+        Configuration configuration = null;
+        Dictionary dict = null;
+        try
+        {
+            Configuration[] configurations = getConfigurationAdmin().listConfigurations(
+                    "(" + Constants.SERVICE_PID + "=" + escapeFilterValue(pid) + ")");
+            if (configurations != null && configurations.length > 0)
+            {
+                configuration = configurations[0];
+                dict = configuration.getProperties();
+            }
+        }
+        catch (Exception e)
+        {
+            invalidateIndex();
+            return;
+        }
+        Object fileName = dict != null ? dict.get(DirectoryWatcher.FILENAME) : null;
+        if (fileName == null)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            if (configurationsByFile != null && !configurationsByFile.containsKey(fileName.toString()))
+            {
+                configurationsByFile.put(fileName.toString(), configuration);
+                filesByPid.put(pid, fileName.toString());
+            }
+        }
+    }
+
     private String escapeFilterValue(String s) {
         return s.replaceAll("[(]", "\\\\(").
                 replaceAll("[)]", "\\\\)").
@@ -19,10 +19,14 @@
 package org.apache.felix.fileinstall.internal;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -38,7 +42,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 
@@ -57,10 +67,12 @@ import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.Version;
 import org.osgi.framework.startlevel.BundleStartLevel;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
 import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.FrameworkWiring;
 
 /**
  * -DirectoryWatcher-
@@ -100,6 +112,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
     public final static String NO_INITIAL_DELAY = "felix.fileinstall.noInitialDelay";
     public final static String DISABLE_CONFIG_SAVE = "felix.fileinstall.disableConfigSave";
     public final static String ENABLE_CONFIG_SAVE = "felix.fileinstall.enableConfigSave";
+    public final static String CONFIG_BULK = "felix.fileinstall.config.bulk";
     public final static String START_LEVEL = "felix.fileinstall.start.level";
     public final static String ACTIVE_LEVEL = "felix.fileinstall.active.level";
     public final static String UPDATE_WITH_LISTENERS = "felix.fileinstall.bundles.updateWithListeners";
@@ -107,6 +120,9 @@ public class DirectoryWatcher extends Thread implements BundleListener
     public final static String FRAGMENT_SCOPE = "felix.fileinstall.fragmentRefreshScope";
     public final static String DISABLE_NIO2 = "felix.fileinstall.disableNio2";
     public final static String SUBDIR_MODE = "felix.fileinstall.subdir.mode";
+    public final static String USE_REFERENCE = "felix.fileinstall.bundles.reference";
+    public final static String TRANSFORM_THREADS = "felix.fileinstall.transform.threads";
+    public final static String TRANSFORM_CACHE = "felix.fileinstall.transform.cache";
 
     public final static String SCOPE_NONE = "none";
     public final static String SCOPE_MANAGED = "managed";
@@ -115,6 +131,16 @@ public class DirectoryWatcher extends Thread implements BundleListener
     public final static String LOG_STDOUT = "stdout";
     public final static String LOG_JUL = "jul";
 
+    public final static String REFERENCE_PROTOCOL = "reference";
+
+    final static String TRANSFORM_CACHE_DIR = "transformed";
+
+    /** The file of a transform cache entry listing the artifacts it has been used for */
+    final static String TRANSFORM_CACHE_SOURCES = "sources";
+
+    /** Guards the sources files of the transform cache shared by all watchers */
+    private final static Object TRANSFORM_CACHE_LOCK = new Object();
+
     final FileInstall fileInstall;
 
     Map<String, String> properties;
@@ -136,6 +162,10 @@ public class DirectoryWatcher extends Thread implements BundleListener
     String fragmentScope;
     String optionalScope;
     boolean disableNio2;
+    boolean useReference;
+    int transformThreads;
+    boolean transformCache;
+    private ExecutorService executor;
 
     // Map of all installed artifacts
     final Map<File, Artifact> currentManagedArtifacts = new HashMap<File, Artifact>();
@@ -184,6 +214,9 @@ public class DirectoryWatcher extends Thread implements BundleListener
         fragmentScope = properties.get(FRAGMENT_SCOPE);
         optionalScope = properties.get(OPTIONAL_SCOPE);
         disableNio2 = getBoolean(properties, DISABLE_NIO2, false);
+        useReference = getBoolean(properties, USE_REFERENCE, false); // by default, exploded bundles are installed from their jar
+        transformThreads = getInt(properties, TRANSFORM_THREADS, 1); // by default, process the files one after the other
+        transformCache = getBoolean(properties, TRANSFORM_CACHE, true); // by default, cache transformed artifacts
         this.context.addBundleListener(this);
 
         if (disableNio2) {
@@ -278,7 +311,10 @@ public class DirectoryWatcher extends Thread implements BundleListener
                             + START_NEW_BUNDLES + " = " + startBundles + ", "
                             + TMPDIR + " = " + tmpDir + ", "
                             + FILTER + " = " + filter + ", "
-                            + START_LEVEL + " = " + startLevel + "}", null
+                            + START_LEVEL + " = " + startLevel + ", "
+                            + USE_REFERENCE + " = " + useReference + ", "
+                            + TRANSFORM_THREADS + " = " + transformThreads + ", "
+                            + TRANSFORM_CACHE + " = " + transformCache + "}", null
             );
 
             if (!noInitialDelay) {
@@ -380,101 +416,15 @@ public class DirectoryWatcher extends Thread implements BundleListener
             processingFailures.clear();
         }
 
-        for (File file : files) {
-            boolean exists = file.exists();
-            Artifact artifact = getArtifact(file);
-            // File has been deleted
-            if (!exists) {
-                if (artifact != null) {
-                    deleteJaredDirectory(artifact);
-                    deleteTransformedFile(artifact);
-                    deleted.add(artifact);
-                }
-            }
-            // File exists
-            else {
-                File jar = file;
-                URL jaredUrl = null;
-                try {
-                    jaredUrl = file.toURI().toURL();
-                } catch (MalformedURLException e) {
-                    // Ignore, can't happen
-                }
-                // Jar up the directory if needed
-                if (file.isDirectory()) {
-                    prepareTempDir();
-                    try {
-                        jar = new File(tmpDir, file.getName() + ".jar");
-                        Util.jarDir(file, jar);
-                        jaredUrl = new URL(JarDirUrlHandler.PROTOCOL, null, file.getPath());
-
-                    } catch (IOException e) {
-                        // Notify user of problem, won't retry until the dir is updated.
-                        log(Logger.LOG_ERROR,
-                                "Unable to create jar for: " + file.getAbsolutePath(), e);
-                        continue;
-                    }
-                }
-                // File has been modified
-                if (artifact != null) {
-                    artifact.setChecksum(scanner.getChecksum(file));
-                    // If there's no listener, this is because this artifact has been installed before
-                    // fileinstall has been restarted.  In this case, try to find a listener.
-                    if (artifact.getListener() == null) {
-                        ArtifactListener listener = findListener(jar, listeners);
-                        // If no listener can handle this artifact, we need to defer the
-                        // processing for this artifact until one is found
-                        if (listener == null) {
-                            synchronized (processingFailures) {
-                                processingFailures.add(file);
-                            }
-                            continue;
-                        }
-                        artifact.setListener(listener);
-                    }
-                    // If the listener can not handle this file anymore,
-                    // uninstall the artifact and try as if is was new
-                    if (!listeners.contains(artifact.getListener()) || !artifact.getListener().canHandle(jar)) {
-                        deleted.add(artifact);
-                    }
-                    // The listener is still ok
-                    else {
-                        deleteTransformedFile(artifact);
-                        artifact.setJaredDirectory(jar);
-                        artifact.setJaredUrl(jaredUrl);
-                        if (transformArtifact(artifact)) {
-                            modified.add(artifact);
-                        } else {
-                            deleteJaredDirectory(artifact);
-                            deleted.add(artifact);
-                        }
-                    }
-                }
-                // File has been added
-                else {
-                    // Find the listener
-                    ArtifactListener listener = findListener(jar, listeners);
-                    // If no listener can handle this artifact, we need to defer the
-                    // processing for this artifact until one is found
-                    if (listener == null) {
-                        synchronized (processingFailures) {
-                            processingFailures.add(file);
-                        }
-                        continue;
-                    }
-                    // Create the artifact
-                    artifact = new Artifact();
-                    artifact.setPath(file);
-                    artifact.setJaredDirectory(jar);
-                    artifact.setJaredUrl(jaredUrl);
-                    artifact.setListener(listener);
-                    artifact.setChecksum(scanner.getChecksum(file));
-                    if (transformArtifact(artifact)) {
-                        created.add(artifact);
-                    } else {
-                        deleteJaredDirectory(artifact);
-                    }
-                }
+        if (files.size() > 1 && transformThreads > 1)
+        {
+            // Jar, find the listener of and transform the files in parallel
+            processFiles(files, listeners, deleted, modified, created);
+        }
+        else
+        {
+            for (File file : files) {
+                processFile(file, listeners, deleted, modified, created);
             }
         }
         // Handle deleted artifacts
@@ -508,6 +458,8 @@ public class DirectoryWatcher extends Thread implements BundleListener
             
             delayedStart.addAll(installedBundles);
             delayedStart.removeAll(uninstalledBundles);
+            // Resolve all the bundles to start at once rather than one by one when starting them
+            resolve(delayedStart);
             // Try to start newly installed bundles, or bundles which we missed on a previous round
             startBundles(delayedStart);
             consistentlyFailingBundles.clear();
@@ -518,6 +470,198 @@ public class DirectoryWatcher extends Thread implements BundleListener
         }
     }
 
+    /**
+     * Find out what happened to a changed file and prepare its artifact:
+     * jar it up if it is a directory, find its listener and transform it.
+     * The artifact is added to the list of deleted, modified or created
+     * artifacts.  This method may be called concurrently for different files.
+     */
+    void processFile(File file, List<ArtifactListener> listeners,
+                             List<Artifact> deleted, List<Artifact> modified, List<Artifact> created)
+    {
+        boolean exists = file.exists();
+        Artifact artifact = getArtifact(file);
+        // File has been deleted
+        if (!exists) {
+            if (artifact != null) {
+                deleteJaredDirectory(artifact);
+                deleteTransformedFile(artifact);
+                deleteCachedTransform(artifact);
+                deleted.add(artifact);
+            }
+        }
+        // File exists
+        else {
+            File jar = file;
+            URL jaredUrl = null;
+            try {
+                jaredUrl = file.toURI().toURL();
+            } catch (MalformedURLException e) {
+                // Ignore, can't happen
+            }
+            String contentHash;
+            // Jar up the directory if needed, the content hash of a directory
+            // is computed while it is jared so that it is only read once
+            if (file.isDirectory()) {
+                prepareTempDir();
+                try {
+                    jar = fileInstall.jarDirCache.getJar(file, new File(tmpDir, file.getName() + ".jar"));
+                    jaredUrl = new URL(JarDirUrlHandler.PROTOCOL, null, file.getPath());
+
+                } catch (IOException e) {
+                    // Notify user of problem, won't retry until the dir is updated.
+                    log(Logger.LOG_ERROR,
+                            "Unable to create jar for: " + file.getAbsolutePath(), e);
+                    return;
+                }
+                contentHash = fileInstall.jarDirCache.getContentHash(file);
+            } else {
+                contentHash = Util.contentHash(file);
+            }
+            // File has been touched, but its content has not changed
+            if (artifact != null && contentHash != null
+                    && contentHash.equals(artifact.getContentHash())
+                    && (artifact.getListener() == null || listeners.contains(artifact.getListener()))
+                    && !isInstallationFailure(file)) {
+                if (file.isDirectory()) {
+                    // keep track of the jar so that it gets deleted
+                    artifact.setJaredDirectory(jar);
+                    artifact.setJaredUrl(jaredUrl);
+                }
+                artifact.setChecksum(scanner.getChecksum(file));
+                storeChecksum(artifact);
+                log(Logger.LOG_DEBUG, "Content of " + file + " has not changed, skipping update", null);
+                return;
+            }
+            // File has been modified
+            if (artifact != null) {
+                artifact.setChecksum(scanner.getChecksum(file));
+                // If there's no listener, this is because this artifact has been installed before
+                // fileinstall has been restarted.  In this case, try to find a listener.
+                if (artifact.getListener() == null) {
+                    ArtifactListener listener = findListener(jar, listeners);
+                    // If no listener can handle this artifact, we need to defer the
+                    // processing for this artifact until one is found
+                    if (listener == null) {
+                        synchronized (processingFailures) {
+                            processingFailures.add(file);
+                        }
+                        return;
+                    }
+                    artifact.setListener(listener);
+                }
+                // If the listener can not handle this file anymore,
+                // uninstall the artifact and try as if is was new
+                if (!listeners.contains(artifact.getListener()) || !artifact.getListener().canHandle(jar)) {
+                    deleted.add(artifact);
+                }
+                // The listener is still ok
+                else {
+                    deleteTransformedFile(artifact);
+                    deleteCachedTransform(artifact);
+                    artifact.setJaredDirectory(jar);
+                    artifact.setJaredUrl(jaredUrl);
+                    artifact.setContentHash(contentHash);
+                    if (transformArtifact(artifact)) {
+                        modified.add(artifact);
+                    } else {
+                        deleteJaredDirectory(artifact);
+                        deleted.add(artifact);
+                    }
+                }
+            }
+            // File has been added
+            else {
+                // Find the listener
+                ArtifactListener listener = findListener(jar, listeners);
+                // If no listener can handle this artifact, we need to defer the
+                // processing for this artifact until one is found
+                if (listener == null) {
+                    synchronized (processingFailures) {
+                        processingFailures.add(file);
+                    }
+                    return;
+                }
+                // Create the artifact
+                artifact = new Artifact();
+                artifact.setPath(file);
+                artifact.setJaredDirectory(jar);
+                artifact.setJaredUrl(jaredUrl);
+                artifact.setListener(listener);
+                artifact.setChecksum(scanner.getChecksum(file));
+                artifact.setContentHash(contentHash);
+                if (transformArtifact(artifact)) {
+                    created.add(artifact);
+                } else {
+                    deleteJaredDirectory(artifact);
+                }
+            }
+        }
+    }
+
+    /**
+     * Process the files concurrently.  The artifacts of each file are collected
+     * separately and merged in the order of the files, so that the artifacts
+     * are installed in the same order as if the files were processed one
+     * after the other.
+     */
+    void processFiles(Set<File> files, final List<ArtifactListener> listeners,
+                      List<Artifact> deleted, List<Artifact> modified, List<Artifact> created)
+        throws InterruptedException
+    {
+        // make sure the tmp dir is not created concurrently
+        prepareTempDir();
+        List<ProcessedFile> processed = new ArrayList<ProcessedFile>(files.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>(files.size());
+        for (final File file : files) {
+            final ProcessedFile result = new ProcessedFile();
+            processed.add(result);
+            futures.add(getExecutor().submit(new Runnable() {
+                public void run() {
+                    processFile(file, listeners, result.deleted, result.modified, result.created);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                log(Logger.LOG_ERROR, "Unable to process artifact", e.getCause());
+            }
+        }
+        for (ProcessedFile result : processed) {
+            deleted.addAll(result.deleted);
+            modified.addAll(result.modified);
+            created.addAll(result.created);
+        }
+    }
+
+    /**
+     * The artifacts resulting from processing a single file.
+     */
+    private static class ProcessedFile
+    {
+        final List<Artifact> deleted = new ArrayList<Artifact>(1);
+        final List<Artifact> modified = new ArrayList<Artifact>(1);
+        final List<Artifact> created = new ArrayList<Artifact>(1);
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (executor == null) {
+            final String name = getName();
+            executor = Executors.newFixedThreadPool(transformThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name + "-transform-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
     ArtifactListener findListener(File artifact, List<ArtifactListener> listeners)
     {
         for (ArtifactListener listener : listeners) {
@@ -535,7 +679,20 @@ public class DirectoryWatcher extends Thread implements BundleListener
             prepareTempDir();
             try
             {
-                File transformed = ((ArtifactTransformer) artifact.getListener()).transform(artifact.getJaredDirectory(), tmpDir);
+                File cacheDir = getTransformCacheDir(artifact);
+                File transformed = loadCachedTransform(cacheDir);
+                if (transformed == null)
+                {
+                    transformed = ((ArtifactTransformer) artifact.getListener()).transform(artifact.getJaredDirectory(), tmpDir);
+                    if (transformed != null)
+                    {
+                        storeCachedTransform(cacheDir, transformed);
+                    }
+                }
+                if (transformed != null && cacheDir != null)
+                {
+                    recordCachedTransformSource(cacheDir, artifact.getPath());
+                }
                 if (transformed != null)
                 {
                     artifact.setTransformed(transformed);
@@ -582,8 +739,295 @@ public class DirectoryWatcher extends Thread implements BundleListener
         }
     }
 
+    /**
+     * Retrieve the directory holding the cached result of the transformation of
+     * an artifact.  The cache is keyed by the content hash of the artifact and
+     * by the transformer, so that it survives restarts but not a change of the
+     * artifact or of the bundle providing the transformer.
+     *
+     * @return the cache directory, or <code>null</code> if the result can not be cached
+     */
+    private File getTransformCacheDir(Artifact artifact)
+    {
+        if (!transformCache || artifact.getContentHash() == null)
+        {
+            return null;
+        }
+        File root = context.getDataFile(TRANSFORM_CACHE_DIR);
+        if (root == null)
+        {
+            return null;
+        }
+        Class<?> transformer = artifact.getListener().getClass();
+        String key = transformer.getName();
+        Bundle bundle = FrameworkUtil.getBundle(transformer);
+        if (bundle != null)
+        {
+            key += "-" + bundle.getBundleId() + "-" + bundle.getLastModified();
+        }
+        return new File(new File(root, artifact.getContentHash()), key);
+    }
+
+    private File loadCachedTransform(File cacheDir)
+    {
+        File[] cached = cacheDir != null ? cacheDir.listFiles() : null;
+        if (cached == null || cached.length != 1)
+        {
+            return null;
+        }
+        File transformed = null;
+        try
+        {
+            // Artifacts with the same content share the cached transform,
+            // each one gets its own copy
+            transformed = File.createTempFile("cached-", "-" + cached[0].getName(), tmpDir);
+            Util.copy(cached[0], transformed);
+            log(Logger.LOG_DEBUG, "Using cached transformed artifact " + cached[0], null);
+            return transformed;
+        }
+        catch (IOException e)
+        {
+            log(Logger.LOG_WARNING, "Unable to use cached transformed artifact " + cached[0], e);
+            if (transformed != null)
+            {
+                transformed.delete();
+            }
+            return null;
+        }
+    }
+
+    private void storeCachedTransform(File cacheDir, File transformed)
+    {
+        if (cacheDir == null)
+        {
+            return;
+        }
+        // Copy in a temporary directory first so that a partial copy is never used
+        File tmp = new File(cacheDir.getParentFile(), cacheDir.getName() + "-" + Thread.currentThread().getId() + ".tmp");
+        try
+        {
+            if (!tmp.mkdirs())
+            {
+                throw new IOException("Unable to create directory " + tmp);
+            }
+            Util.copy(transformed, new File(tmp, transformed.getName()));
+            if (!tmp.renameTo(cacheDir))
+            {
+                // Already cached by another watcher
+                deleteTree(tmp);
+            }
+        }
+        catch (IOException e)
+        {
+            log(Logger.LOG_DEBUG, "Unable to cache transformed artifact " + transformed, e);
+            deleteTree(tmp);
+        }
+    }
+
+    /**
+     * Remember that the cached transform has been used for the given
+     * artifact, so that it can be pruned once the artifact is gone.
+     */
+    private void recordCachedTransformSource(File cacheDir, File source)
+    {
+        File sources = new File(cacheDir.getParentFile(), TRANSFORM_CACHE_SOURCES);
+        String path = source.getAbsolutePath();
+        synchronized (TRANSFORM_CACHE_LOCK)
+        {
+            try
+            {
+                if (readCachedTransformSources(sources).contains(path))
+                {
+                    return;
+                }
+                OutputStream os = new FileOutputStream(sources, true);
+                try
+                {
+                    os.write((path + "\n").getBytes("UTF-8"));
+                }
+                finally
+                {
+                    os.close();
+                }
+            }
+            catch (IOException e)
+            {
+                log(Logger.LOG_DEBUG, "Unable to record the source of cached transformed artifact " + source, e);
+            }
+        }
+    }
+
+    private static List<String> readCachedTransformSources(File sources) throws IOException
+    {
+        List<String> paths = new ArrayList<String>();
+        if (!sources.isFile())
+        {
+            return paths;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(sources), "UTF-8"));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.length() > 0)
+                {
+                    paths.add(line);
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return paths;
+    }
+
+    /**
+     * Delete the cached transforms of the artifacts deleted while file install
+     * was stopped, i.e. the entries none of whose recorded artifacts exists
+     * anymore, and the copies left over by an interrupted store.  This must be
+     * called before any watcher is started.
+     */
+    static void pruneTransformCache(BundleContext context)
+    {
+        File root = context.getDataFile(TRANSFORM_CACHE_DIR);
+        File[] entries = root != null ? root.listFiles() : null;
+        if (entries == null)
+        {
+            return;
+        }
+        int pruned = 0;
+        for (File entry : entries)
+        {
+            try
+            {
+                if (!hasExistingSource(new File(entry, TRANSFORM_CACHE_SOURCES)))
+                {
+                    deleteTree(entry);
+                    pruned++;
+                    continue;
+                }
+            }
+            catch (IOException e)
+            {
+                Util.log(context, Logger.LOG_DEBUG, "Unable to read the sources of cached transformed artifact " + entry, e);
+                deleteTree(entry);
+                pruned++;
+                continue;
+            }
+            File[] children = entry.listFiles();
+            for (int i = 0; children != null && i < children.length; i++)
+            {
+                if (children[i].getName().endsWith(".tmp"))
+                {
+                    deleteTree(children[i]);
+                }
+            }
+        }
+        if (pruned > 0)
+        {
+            Util.log(context, Logger.LOG_DEBUG, "Pruned " + pruned + " cached transformed artifacts of deleted artifacts", null);
+        }
+    }
+
+    private static boolean hasExistingSource(File sources) throws IOException
+    {
+        for (String path : readCachedTransformSources(sources))
+        {
+            if (new File(path).exists())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delete the cached transform of an artifact, unless it is shared with
+     * another artifact having the same content.
+     */
+    private void deleteCachedTransform(Artifact artifact)
+    {
+        if (transformCache && artifact.getContentHash() != null
+                && artifact.getListener() instanceof ArtifactTransformer
+                && !isContentShared(artifact))
+        {
+            File root = context.getDataFile(TRANSFORM_CACHE_DIR);
+            if (root != null)
+            {
+                deleteTree(new File(root, artifact.getContentHash()));
+            }
+        }
+    }
+
+    /**
+     * Check if another artifact of any watcher has the same content.
+     */
+    private boolean isContentShared(Artifact artifact)
+    {
+        List<DirectoryWatcher> watchers;
+        synchronized (fileInstall.watchers)
+        {
+            watchers = new ArrayList<DirectoryWatcher>(fileInstall.watchers.values());
+        }
+        if (!watchers.contains(this))
+        {
+            watchers.add(this);
+        }
+        for (DirectoryWatcher watcher : watchers)
+        {
+            for (Artifact other : watcher.getArtifacts())
+            {
+                if (other != artifact && artifact.getContentHash().equals(other.getContentHash()))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void deleteTree(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    private boolean isInstallationFailure(File file)
+    {
+        synchronized (installationFailures)
+        {
+            return installationFailures.containsKey(file);
+        }
+    }
+
+    private void storeChecksum(Artifact artifact)
+    {
+        if (artifact.getBundleId() > 0)
+        {
+            Bundle bundle = context.getBundle(artifact.getBundleId());
+            if (bundle != null)
+            {
+                Util.storeChecksum(bundle, artifact.getChecksum(), context);
+            }
+        }
+    }
+
     private void deleteJaredDirectory(Artifact artifact)
     {
+        if (artifact.getJaredDirectory() != null
+                && !artifact.getJaredDirectory().equals(artifact.getPath()))
+        {
+            fileInstall.jarDirCache.remove(artifact.getPath());
+        }
         if (artifact.getJaredDirectory() != null
                 && !artifact.getJaredDirectory().equals(artifact.getPath())
                 && !artifact.getJaredDirectory().delete())
@@ -680,6 +1124,14 @@ public class DirectoryWatcher extends Thread implements BundleListener
         FileInstall.refresh(systemBundle, bundles);
     }
 
+    void resolve(Collection<Bundle> bundles)
+    {
+        if (!bundles.isEmpty())
+        {
+            systemBundle.adapt(FrameworkWiring.class).resolveBundles(bundles);
+        }
+    }
+
     /**
      * Retrieve a property as a long.
      *
@@ -770,6 +1222,14 @@ public class DirectoryWatcher extends Thread implements BundleListener
     {
         this.context.removeBundleListener(this);
         interrupt();
+        synchronized (this)
+        {
+            if (executor != null)
+            {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
         for (Artifact artifact : getArtifacts()) {
             deleteTransformedFile(artifact);
             deleteJaredDirectory(artifact);
@@ -850,6 +1310,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
                 Artifact artifact = new Artifact();
                 artifact.setBundleId(bundle.getBundleId());
                 artifact.setChecksum(Util.loadChecksum(bundle, context));
+                artifact.setContentHash(Util.loadContentHash(bundle, context));
                 artifact.setListener(null);
                 artifact.setPath(new File(path));
                 setArtifact(new File(path), artifact);
@@ -946,16 +1407,36 @@ public class DirectoryWatcher extends Thread implements BundleListener
                 }
                 URL transformed = artifact.getTransformedUrl();
                 String location = transformed.toString();
+                boolean reference = isReference(artifact);
+                if (path.isDirectory())
+                {
+                    // Keep the location of a bundle installed before
+                    // felix.fileinstall.bundles.reference has been changed
+                    String referenceLocation = REFERENCE_PROTOCOL + ":" + path.toURI().normalize();
+                    if (context.getBundle(referenceLocation) != null)
+                    {
+                        reference = true;
+                    }
+                    else if (context.getBundle(location) != null)
+                    {
+                        reference = false;
+                    }
+                    if (reference)
+                    {
+                        location = referenceLocation;
+                    }
+                }
                 BufferedInputStream in = new BufferedInputStream(transformed.openStream());
                 try
                 {
-                    bundle = installOrUpdateBundle(location, in, artifact.getChecksum(), modified);
+                    bundle = installOrUpdateBundle(location, in, artifact.getChecksum(), modified, reference);
                 }
                 finally
                 {
                     in.close();
                 }
                 artifact.setBundleId(bundle.getBundleId());
+                Util.storeContentHash(bundle, artifact.getContentHash(), context);
             }
             // if the listener is an artifact transformer
             else if (artifact.getListener() instanceof ArtifactTransformer)
@@ -970,13 +1451,14 @@ public class DirectoryWatcher extends Thread implements BundleListener
                 BufferedInputStream in = new BufferedInputStream(new FileInputStream(transformed != null ? transformed : path));
                 try
                 {
-                    bundle = installOrUpdateBundle(location, in, artifact.getChecksum(), modified);
+                    bundle = installOrUpdateBundle(location, in, artifact.getChecksum(), modified, false);
                 }
                 finally
                 {
                     in.close();
                 }
                 artifact.setBundleId(bundle.getBundleId());
+                Util.storeContentHash(bundle, artifact.getContentHash(), context);
             }
             installationFailures.remove(path);
             setArtifact(path, artifact);
@@ -993,8 +1475,22 @@ public class DirectoryWatcher extends Thread implements BundleListener
         return modified.get() ? bundle : null;
     }
 
+    /**
+     * Check if an exploded bundle directory can be installed as a reference
+     * to the directory rather than from its jar.  This is only the case for
+     * plain bundles, i.e. if the url has not been transformed.
+     */
+    private boolean isReference(Artifact artifact)
+    {
+        return useReference
+            && artifact.getPath().isDirectory()
+            && artifact.getJaredUrl() != null
+            && JarDirUrlHandler.PROTOCOL.equals(artifact.getJaredUrl().getProtocol())
+            && artifact.getJaredUrl().equals(artifact.getTransformedUrl());
+    }
+
     private Bundle installOrUpdateBundle(
-        String bundleLocation, BufferedInputStream is, long checksum, AtomicBoolean modified)
+        String bundleLocation, BufferedInputStream is, long checksum, AtomicBoolean modified, boolean reference)
         throws IOException, BundleException
     {
         is.mark(256 * 1024);
@@ -1033,7 +1529,10 @@ public class DirectoryWatcher extends Thread implements BundleListener
         is.reset();
         Util.log(context, Logger.LOG_INFO, "Installing bundle " + sn
                 + " / " + v, null);
-        Bundle b = context.installBundle(bundleLocation, is);
+        // A reference bundle is read by the framework from the directory itself
+        Bundle b = reference
+            ? context.installBundle(bundleLocation)
+            : context.installBundle(bundleLocation, is);
         Util.storeChecksum(b, checksum, context);
         modified.set(true);
 
@@ -1126,16 +1625,25 @@ public class DirectoryWatcher extends Thread implements BundleListener
                         + " / " + bundle.getVersion(), null);
                 stopTransient(bundle);
                 Util.storeChecksum(bundle, artifact.getChecksum(), context);
-                InputStream in = (transformed != null)
-                    ? transformed.openStream()
-                    : new FileInputStream(path);
-                try
+                Util.storeContentHash(bundle, artifact.getContentHash(), context);
+                if (bundle.getLocation().startsWith(REFERENCE_PROTOCOL + ":"))
                 {
-                    bundle.update(in);
+                    // The framework reads the bundle from the directory again
+                    bundle.update();
                 }
-                finally
+                else
                 {
-                    in.close();
+                    InputStream in = (transformed != null)
+                        ? transformed.openStream()
+                        : new FileInputStream(path);
+                    try
+                    {
+                        bundle.update(in);
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
                 }
             }
             // else we need to ask for an update on the bundle
@@ -1156,6 +1664,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
                         + " / " + bundle.getVersion(), null);
                 stopTransient(bundle);
                 Util.storeChecksum(bundle, artifact.getChecksum(), context);
+                Util.storeContentHash(bundle, artifact.getContentHash(), context);
                 InputStream in = new FileInputStream(transformed != null ? transformed : path);
                 try
                 {
@@ -62,6 +62,7 @@ public class FileInstall implements BundleActivator, ServiceTrackerCustomizer
     ServiceTracker listenersTracker;
     final ReadWriteLock lock = new ReentrantReadWriteLock();
     ServiceRegistration urlHandlerRegistration;
+    final JarDirCache jarDirCache = new JarDirCache();
     volatile boolean stopped;
 
     public void start(BundleContext context) throws Exception
@@ -73,7 +74,10 @@ public class FileInstall implements BundleActivator, ServiceTrackerCustomizer
         {
             Hashtable<String, Object> props = new Hashtable<String, Object>();
             props.put("url.handler.protocol", JarDirUrlHandler.PROTOCOL);
-            urlHandlerRegistration = context.registerService(org.osgi.service.url.URLStreamHandlerService.class.getName(), new JarDirUrlHandler(), props);
+            urlHandlerRegistration = context.registerService(org.osgi.service.url.URLStreamHandlerService.class.getName(), new JarDirUrlHandler(jarDirCache), props);
+
+            // Forget the cached transforms of the artifacts deleted while stopped
+            DirectoryWatcher.pruneTransformCache(context);
 
             String flt = "(|(" + Constants.OBJECTCLASS + "=" + ArtifactInstaller.class.getName() + ")"
                     + "(" + Constants.OBJECTCLASS + "=" + ArtifactTransformer.class.getName() + ")"
@@ -113,6 +117,9 @@ public class FileInstall implements BundleActivator, ServiceTrackerCustomizer
             set(ht, DirectoryWatcher.FRAGMENT_SCOPE);
             set(ht, DirectoryWatcher.DISABLE_NIO2);
             set(ht, DirectoryWatcher.SUBDIR_MODE);
+            set(ht, DirectoryWatcher.USE_REFERENCE);
+            set(ht, DirectoryWatcher.TRANSFORM_THREADS);
+            set(ht, DirectoryWatcher.TRANSFORM_CACHE);
 
             // check if dir is an array of dirs
             String dirs = ht.get(DirectoryWatcher.DIR);
@@ -207,6 +214,7 @@ public class FileInstall implements BundleActivator, ServiceTrackerCustomizer
             {
                 cmSupport.run();
             }
+            jarDirCache.clear();
         }
         finally
         {
@@ -393,7 +401,8 @@ public class FileInstall implements BundleActivator, ServiceTrackerCustomizer
                     }
                     ConfigurationAdmin cm = super.addingService(serviceReference);
                     long id = (Long) serviceReference.getProperty(Constants.SERVICE_ID);
-                    ConfigInstaller configInstaller = new ConfigInstaller(this.context, cm, fileInstall);
+                    ConfigInstaller configInstaller = new ConfigInstaller(this.context, cm, fileInstall,
+                            Boolean.valueOf(this.context.getProperty(DirectoryWatcher.CONFIG_BULK)));
                     configInstaller.init();
                     configInstallers.put(id, configInstaller);
                     return cm;
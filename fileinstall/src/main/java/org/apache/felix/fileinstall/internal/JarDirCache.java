@@ -0,0 +1,564 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Cache of the jars built from exploded bundle directories.
+ *
+ * The cache remembers the length and last modification date of every file
+ * of a jared directory, so an unchanged directory is not jared again.  As a
+ * file can change without changing its modification date within the
+ * granularity of the file system, files modified shortly before the jar was
+ * built are also compared with the jar by content checksum.  When the
+ * directory changes, the jar is rebuilt reading only the new and changed
+ * files from the directory; the content of unchanged files is copied from
+ * the previous jar.  The files are digested while they are jared, which
+ * provides the content hash of the directory without reading it again.
+ *
+ * A jar is rebuilt into a new file which then replaces the previous jar, so
+ * streams still reading the previous jar are not affected.  If the previous
+ * jar can not be replaced because it is still open, the new jar is kept
+ * aside and the previous one is deleted once it has been closed.
+ *
+ * Different directories can be jared concurrently.
+ */
+public class JarDirCache
+{
+
+    /**
+     * Files modified less than this number of milliseconds before a jar was
+     * built are compared by content, as the modification date of a file may
+     * not change when the file is modified again.
+     */
+    static final long RACY_WINDOW = 2000;
+
+    private final Map<File, CachedJar> jars = new HashMap<File, CachedJar>();
+
+    private final Map<File, DirLock> locks = new HashMap<File, DirLock>();
+
+    /** Replaced jars which could not be deleted yet. */
+    private final List<File> stale = new ArrayList<File>();
+
+    /**
+     * Get an up to date jar of the given directory, building it in the
+     * given file if needed.  The returned file differs from the given one
+     * if the given file could not be replaced as it is still being read.
+     *
+     * @param directory the directory to jar
+     * @param jar the file holding the jar
+     * @return the jar file
+     * @throws IOException if the jar can not be built
+     */
+    public File getJar(File directory, File jar) throws IOException
+    {
+        return getJar(directory, jar, false);
+    }
+
+    /**
+     * Get an up to date jar of the given directory.  The jar previously
+     * built for this directory is reused, or a temporary file owned by
+     * the cache is created if the directory has not been jared yet.
+     *
+     * @param directory the directory to jar
+     * @return the jar file
+     * @throws IOException if the jar can not be built
+     */
+    public File getJar(File directory) throws IOException
+    {
+        return getJar(directory, null, true);
+    }
+
+    /**
+     * Get the content hash of the directory, as computed by the last call
+     * to {@link #getJar(File, File)} or {@link #getJar(File)}.  The hash
+     * covers the names and contents of the files of the directory.
+     *
+     * @param directory the jared directory
+     * @return the content hash, or <code>null</code> if the directory has not been jared
+     */
+    public String getContentHash(File directory)
+    {
+        CachedJar cached = getCachedJar(directory.getAbsoluteFile());
+        return cached != null ? cached.contentHash : null;
+    }
+
+    /**
+     * Forget the jar of the given directory.  The jar is deleted if it is
+     * owned by the cache.
+     *
+     * @param directory the jared directory
+     */
+    public void remove(File directory)
+    {
+        CachedJar cached;
+        synchronized (jars)
+        {
+            cached = jars.remove(directory.getAbsoluteFile());
+        }
+        if (cached != null && cached.owned)
+        {
+            discard(cached.file);
+        }
+        purge();
+    }
+
+    /**
+     * Forget all jars, deleting the jars owned by the cache.
+     */
+    public void clear()
+    {
+        List<CachedJar> cachedJars;
+        synchronized (jars)
+        {
+            cachedJars = new ArrayList<CachedJar>(jars.values());
+            jars.clear();
+        }
+        for (CachedJar cached : cachedJars)
+        {
+            if (cached.owned)
+            {
+                discard(cached.file);
+            }
+        }
+        purge();
+    }
+
+    private File getJar(File directory, File jar, boolean own) throws IOException
+    {
+        File key = directory.getAbsoluteFile();
+        DirLock lock = acquire(key);
+        try
+        {
+            synchronized (lock)
+            {
+                long now = System.currentTimeMillis();
+                Map<String, Long> stamps = new LinkedHashMap<String, Long>();
+                stamp(directory, "", stamps);
+
+                CachedJar cached = getCachedJar(key);
+                boolean owned = false;
+                if (jar == null && cached != null)
+                {
+                    jar = cached.target;
+                    owned = cached.owned;
+                }
+                else if (jar == null)
+                {
+                    jar = File.createTempFile("jardir", ".jar");
+                    owned = own;
+                }
+                if (cached != null && cached.target.equals(jar) && cached.stamps.equals(stamps)
+                        && cached.file.isFile() && !hasRacyChanges(directory, cached, now))
+                {
+                    return cached.file;
+                }
+
+                purge();
+                Map<String, byte[]> digests = new TreeMap<String, byte[]>();
+                File file = build(directory, jar, stamps, cached, digests);
+                synchronized (stale)
+                {
+                    // the file may have been replaced while still open before
+                    stale.remove(file);
+                }
+                synchronized (jars)
+                {
+                    jars.put(key, new CachedJar(jar, file, stamps, now, owned, contentHash(digests)));
+                }
+                if (cached != null && !cached.file.equals(file))
+                {
+                    // the previous jar has been replaced by a jar in another file
+                    discard(cached.file);
+                }
+                return file;
+            }
+        }
+        finally
+        {
+            release(key, lock);
+        }
+    }
+
+    private CachedJar getCachedJar(File key)
+    {
+        synchronized (jars)
+        {
+            return jars.get(key);
+        }
+    }
+
+    private DirLock acquire(File key)
+    {
+        synchronized (locks)
+        {
+            DirLock lock = locks.get(key);
+            if (lock == null)
+            {
+                lock = new DirLock();
+                locks.put(key, lock);
+            }
+            lock.users++;
+            return lock;
+        }
+    }
+
+    private void release(File key, DirLock lock)
+    {
+        synchronized (locks)
+        {
+            if (--lock.users == 0)
+            {
+                locks.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Delete a jar which is not used anymore, or remember it to be deleted
+     * later if it is still open.
+     */
+    private void discard(File file)
+    {
+        if (file.exists() && !file.delete())
+        {
+            synchronized (stale)
+            {
+                stale.add(file);
+            }
+        }
+    }
+
+    /**
+     * Delete the replaced jars which have been closed in the meantime.
+     */
+    private void purge()
+    {
+        synchronized (stale)
+        {
+            for (Iterator<File> it = stale.iterator(); it.hasNext();)
+            {
+                File file = it.next();
+                if (!file.exists() || file.delete())
+                {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the jar entry names of a directory, in the same order as
+     * {@link Util#zipDir}, with a stamp made of the length and last
+     * modification date of each file.
+     */
+    private static void stamp(File directory, String path, Map<String, Long> stamps)
+    {
+        File[] dirList = directory.listFiles();
+        if (dirList == null)
+        {
+            return;
+        }
+        for (File f : dirList)
+        {
+            if (f.isDirectory())
+            {
+                String prefix = path + f.getName() + "/";
+                stamps.put(prefix, -1L);
+                stamp(f, prefix, stamps);
+            }
+            else
+            {
+                stamps.put(path + f.getName(), f.lastModified() * 31 + f.length());
+            }
+        }
+    }
+
+    /**
+     * Check if a file may have changed without changing its stamp, i.e. if
+     * it has been modified shortly before the jar was built.
+     */
+    private static boolean isRacy(File file, CachedJar cached)
+    {
+        return file.lastModified() >= cached.built - RACY_WINDOW;
+    }
+
+    /**
+     * Compare the content of the files which may have changed without
+     * changing their stamp with the jar.  If the content is unchanged, the
+     * files are not compared again once they are out of the racy window.
+     */
+    private static boolean hasRacyChanges(File directory, CachedJar cached, long now) throws IOException
+    {
+        ZipFile zip = null;
+        try
+        {
+            for (String name : cached.stamps.keySet())
+            {
+                File file = new File(directory, name);
+                if (name.endsWith("/") || !isRacy(file, cached))
+                {
+                    continue;
+                }
+                if (zip == null)
+                {
+                    zip = new ZipFile(cached.file);
+                }
+                ZipEntry entry = zip.getEntry(name);
+                if (entry == null || entry.getCrc() != checksum(file))
+                {
+                    return true;
+                }
+            }
+        }
+        finally
+        {
+            if (zip != null)
+            {
+                zip.close();
+            }
+        }
+        cached.built = now;
+        return false;
+    }
+
+    private static long checksum(File file) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        InputStream is = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1)
+            {
+                crc.update(buffer, 0, n);
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Build the jar in a new file and switch over to it.
+     *
+     * @return the file holding the new jar
+     */
+    private static File build(File directory, File jar, Map<String, Long> stamps, CachedJar cached,
+                              Map<String, byte[]> digests) throws IOException
+    {
+        ZipFile previous = null;
+        if (cached != null && cached.file.isFile())
+        {
+            try
+            {
+                previous = new ZipFile(cached.file);
+            }
+            catch (IOException e)
+            {
+                // Ignore, the jar will be built from scratch
+            }
+        }
+
+        File parent = jar.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File tmp = File.createTempFile(jar.getName(), ".tmp", parent);
+        try
+        {
+            JarOutputStream zos = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try
+            {
+                zos.setLevel(Deflater.NO_COMPRESSION);
+                // the manifest must be the first entry
+                if (stamps.containsKey(JarFile.MANIFEST_NAME))
+                {
+                    addEntry(directory, JarFile.MANIFEST_NAME, stamps, cached, previous, zos, digests);
+                }
+                for (String name : stamps.keySet())
+                {
+                    if (name.endsWith("/"))
+                    {
+                        zos.putNextEntry(new ZipEntry(name));
+                        digests.put(name, new byte[0]);
+                    }
+                    else if (!name.equals(JarFile.MANIFEST_NAME))
+                    {
+                        addEntry(directory, name, stamps, cached, previous, zos, digests);
+                    }
+                }
+            }
+            finally
+            {
+                zos.close();
+            }
+        }
+        catch (IOException e)
+        {
+            tmp.delete();
+            throw e;
+        }
+        finally
+        {
+            if (previous != null)
+            {
+                previous.close();
+            }
+        }
+
+        // Renaming replaces the jar atomically where the file system allows it,
+        // streams reading the previous jar keep reading the previous content
+        if (tmp.renameTo(jar) || (!jar.exists() || jar.delete()) && tmp.renameTo(jar))
+        {
+            return jar;
+        }
+        // The jar is still open: keep the new jar aside
+        return tmp;
+    }
+
+    private static void addEntry(File directory, String name, Map<String, Long> stamps,
+                                 CachedJar cached, ZipFile previous, JarOutputStream zos,
+                                 Map<String, byte[]> digests) throws IOException
+    {
+        File file = new File(directory, name);
+        ZipEntry unchanged = null;
+        if (previous != null && stamps.get(name).equals(cached.stamps.get(name)) && !isRacy(file, cached))
+        {
+            unchanged = previous.getEntry(name);
+        }
+        MessageDigest digest = newDigest();
+        InputStream is = new DigestInputStream((unchanged != null)
+            ? previous.getInputStream(unchanged)
+            : new FileInputStream(file), digest);
+        try
+        {
+            zos.putNextEntry(new ZipEntry(name));
+            copy(is, zos);
+            zos.closeEntry();
+        }
+        finally
+        {
+            is.close();
+        }
+        digests.put(name, digest.digest());
+    }
+
+    /**
+     * Compute the content hash of a directory from the digests of its
+     * entries, sorted by name so that the hash does not depend on the
+     * order in which the files are listed.
+     */
+    private static String contentHash(Map<String, byte[]> digests) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        for (Map.Entry<String, byte[]> entry : digests.entrySet())
+        {
+            digest.update(entry.getKey().getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(entry.getValue());
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+            sb.append(Character.forDigit(b & 0x0f, 16));
+        }
+        return sb.toString();
+    }
+
+    private static MessageDigest newDigest() throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw (IOException) new IOException("Unable to digest jar entries").initCause(e);
+        }
+    }
+
+    private static void copy(InputStream is, OutputStream os) throws IOException
+    {
+        byte[] readBuffer = new byte[8192];
+        int bytesIn = is.read(readBuffer);
+        while (bytesIn != -1)
+        {
+            os.write(readBuffer, 0, bytesIn);
+            bytesIn = is.read(readBuffer);
+        }
+    }
+
+    private static class CachedJar
+    {
+        /** The file the jar is meant to be built in. */
+        final File target;
+        /** The file holding the jar, which differs from the target if the target could not be replaced. */
+        final File file;
+        final Map<String, Long> stamps;
+        /** Whether the jar is a temporary file owned by the cache. */
+        final boolean owned;
+        /** The content hash of the directory. */
+        final String contentHash;
+        /** The time the directory was last compared with the jar. */
+        volatile long built;
+
+        CachedJar(File target, File file, Map<String, Long> stamps, long built, boolean owned, String contentHash)
+        {
+            this.target = target;
+            this.file = file;
+            this.stamps = stamps;
+            this.built = built;
+            this.owned = owned;
+            this.contentHash = contentHash;
+        }
+    }
+
+    private static class DirLock
+    {
+        /** The number of threads using the lock, guarded by the locks map. */
+        int users;
+    }
+
+}
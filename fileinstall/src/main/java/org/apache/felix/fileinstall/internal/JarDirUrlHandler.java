@@ -18,10 +18,9 @@
 package org.apache.felix.fileinstall.internal;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
@@ -29,7 +28,9 @@ import java.net.URLConnection;
 import org.osgi.service.url.AbstractURLStreamHandlerService;
 
 /**
- * A URL handler that can jar a directory on the fly
+ * A URL handler that can jar a directory on the fly.
+ * The jars are kept in a {@link JarDirCache}, so a directory is only
+ * jared again when its content has changed.
  */
 public class JarDirUrlHandler extends AbstractURLStreamHandlerService
 {
@@ -38,6 +39,13 @@ public class JarDirUrlHandler extends AbstractURLStreamHandlerService
 
     private static final String SYNTAX = PROTOCOL + ": file";
 
+    private final JarDirCache cache;
+
+    public JarDirUrlHandler(JarDirCache cache)
+    {
+        this.cache = cache;
+    }
+
     /**
      * Open the connection for the given URL.
      *
@@ -70,34 +78,11 @@ public class JarDirUrlHandler extends AbstractURLStreamHandlerService
         {
             try
             {
-                final PipedOutputStream pos = new PipedOutputStream();
-                final PipedInputStream pis = new PipedInputStream(pos);
-                new Thread()
-                {
-                    public void run()
-                    {
-                        try
-                        {
-                            Util.jarDir(new File(getURL().getPath()), pos);
-                        }
-                        catch (IOException e)
-                        {
-                            try
-                            {
-                                pos.close();
-                            }
-                            catch (IOException e2)
-                            {
-                                // Ignore
-                            }
-                        }
-                    }
-                }.start();
-                return pis;
+                return new FileInputStream(cache.getJar(new File(getURL().getPath())));
             }
             catch (Exception e)
             {
-                throw (IOException) new IOException("Error opening spring xml url").initCause(e);
+                throw (IOException) new IOException("Error opening jardir url").initCause(e);
             }
         }
     }
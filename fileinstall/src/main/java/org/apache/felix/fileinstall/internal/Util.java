@@ -26,6 +26,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 import java.util.jar.JarFile;
@@ -43,6 +45,7 @@ import org.osgi.service.log.LogService;
 public class Util
 {
     private static final String CHECKSUM_SUFFIX = ".checksum";
+    private static final String CONTENT_HASH_SUFFIX = ".hash";
 
     /**
      * Returns the log level as defined in the BundleContext or System properties.
@@ -377,6 +380,186 @@ public class Util
         }
     }
 
+    /**
+     * Compute a hash of the content of a file, or of the names and content
+     * of all the files of a directory.  Unlike the checksum computed by the
+     * {@link Scanner}, this hash does not change when a file is touched.
+     * @param file the file or directory
+     * @return the hex encoded SHA-1 hash of the content, or <code>null</code>
+     *          if the content can not be read
+     */
+    public static String contentHash( File file )
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            contentHash( file, "", digest );
+            StringBuilder sb = new StringBuilder();
+            for ( byte b : digest.digest() )
+            {
+                sb.append( Character.forDigit( ( b >> 4 ) & 0x0f, 16 ) );
+                sb.append( Character.forDigit( b & 0x0f, 16 ) );
+            }
+            return sb.toString();
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
+    private static void contentHash( File file, String path, MessageDigest digest ) throws IOException
+    {
+        if ( file.isDirectory() )
+        {
+            File[] children = file.listFiles();
+            if ( children == null )
+            {
+                throw new IOException( "Unable to list " + file );
+            }
+            Arrays.sort( children );
+            for ( File child : children )
+            {
+                String name = path + child.getName() + ( child.isDirectory() ? "/" : "" );
+                digest.update( name.getBytes( "UTF-8" ) );
+                digest.update( ( byte ) 0 );
+                contentHash( child, name, digest );
+            }
+        }
+        else
+        {
+            byte[] readBuffer = new byte[8192];
+            FileInputStream fis = new FileInputStream( file );
+            try
+            {
+                int bytesIn = fis.read( readBuffer );
+                while ( bytesIn != -1 )
+                {
+                    digest.update( readBuffer, 0, bytesIn );
+                    bytesIn = fis.read( readBuffer );
+                }
+            }
+            finally
+            {
+                fis.close();
+            }
+        }
+    }
+
+    /**
+     * Stores the content hash into a bundle data file.
+     * @param b The bundle whose content hash must be stored
+     * @param hash the content hash of the artifact of the bundle
+     * @param bc the FileInstall's bundle context where to store the hash.
+     */
+    public static void storeContentHash( Bundle b, String hash, BundleContext bc )
+    {
+        String key = getBundleKey(b);
+        File f = bc.getDataFile( key + CONTENT_HASH_SUFFIX );
+        if ( f == null )
+        {
+            return;
+        }
+        if ( hash == null )
+        {
+            f.delete();
+            return;
+        }
+        DataOutputStream dout = null;
+        try
+        {
+            dout = new DataOutputStream( new FileOutputStream( f ) );
+            dout.writeUTF( hash );
+        }
+        catch ( Exception e )
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            if ( dout != null )
+            {
+                try
+                {
+                    dout.close();
+                }
+                catch ( IOException ignored )
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the stored content hash of the bundle.
+     * @param b the bundle whose content hash must be returned
+     * @param bc the FileInstall's bundle context.
+     * @return the stored content hash of the bundle, or <code>null</code>
+     */
+    public static String loadContentHash( Bundle b, BundleContext bc )
+    {
+        String key = getBundleKey(b);
+        File f = bc.getDataFile( key + CONTENT_HASH_SUFFIX );
+        if ( f == null || !f.isFile() )
+        {
+            return null;
+        }
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new FileInputStream( f ) );
+            return in.readUTF();
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException e )
+                {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy a file.
+     */
+    public static void copy( File from, File to ) throws IOException
+    {
+        FileInputStream fis = new FileInputStream( from );
+        try
+        {
+            OutputStream os = new BufferedOutputStream( new FileOutputStream( to ) );
+            try
+            {
+                byte[] readBuffer = new byte[8192];
+                int bytesIn = fis.read( readBuffer );
+                while ( bytesIn != -1 )
+                {
+                    os.write( readBuffer, 0, bytesIn );
+                    bytesIn = fis.read( readBuffer );
+                }
+            }
+            finally
+            {
+                os.close();
+            }
+        }
+        finally
+        {
+            fis.close();
+        }
+    }
+
     private static String getBundleKey(Bundle b)
     {
         return Long.toString(b.getBundleId());
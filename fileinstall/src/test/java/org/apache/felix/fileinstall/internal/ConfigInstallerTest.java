@@ -21,6 +21,7 @@ package org.apache.felix.fileinstall.internal;
 import java.io.File;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
@@ -31,6 +32,7 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.cm.ConfigurationEvent;
 
 /**
  * Tests for ConfigInstaller
@@ -231,4 +233,95 @@ public class ConfigInstallerTest extends TestCase {
         EasyMock.verify(mockConfiguration, mockConfigurationAdmin, mockBundleContext);
     }
 
+    public void testBulkIndexFollowsConfigurationEvents() throws Exception
+    {
+        Configuration foreign = EasyMock.createMock(Configuration.class);
+        Configuration fromFile = EasyMock.createMock(Configuration.class);
+        Hashtable<String, Object> fromFileProps = new Hashtable<String, Object>();
+        fromFileProps.put(DirectoryWatcher.FILENAME, "file:/etc/other.cfg");
+
+        EasyMock.expect(mockBundleContext.getProperty(DirectoryWatcher.LOG_DEFAULT)).andReturn(null).anyTimes();
+        EasyMock.expect(mockBundleContext.getProperty(DirectoryWatcher.LOG_LEVEL)).andReturn(null).anyTimes();
+        EasyMock.expect(mockBundleContext.getProperty(DirectoryWatcher.ENABLE_CONFIG_SAVE)).andReturn("false").anyTimes();
+        // all the configurations are listed only once
+        EasyMock.expect(mockConfigurationAdmin.listConfigurations("(" + DirectoryWatcher.FILENAME + "=*)"))
+                        .andReturn(null);
+        EasyMock.expect(mockConfigurationAdmin.getConfiguration("firstcfg", null))
+                        .andReturn(mockConfiguration);
+        EasyMock.expect(mockConfiguration.getProperties()).andReturn(null);
+        EasyMock.expect(mockConfiguration.getPid()).andReturn("firstcfg");
+        mockConfiguration.update((Dictionary) EasyMock.anyObject());
+        // configurations updated by someone else are looked up by pid
+        EasyMock.expect(mockConfigurationAdmin.listConfigurations("(service.pid=foreign)"))
+                        .andReturn(new Configuration[] { foreign });
+        EasyMock.expect(foreign.getProperties()).andReturn(new Hashtable<String, Object>());
+        EasyMock.expect(mockConfigurationAdmin.listConfigurations("(service.pid=other)"))
+                        .andReturn(new Configuration[] { fromFile });
+        EasyMock.expect(fromFile.getProperties()).andReturn(fromFileProps);
+        EasyMock.replay(mockConfiguration, mockConfigurationAdmin, mockBundleContext, foreign, fromFile);
+
+        ConfigInstaller ci = new ConfigInstaller( mockBundleContext, mockConfigurationAdmin, new FileInstall(), true );
+
+        File file = new File( "src/test/resources/watched/firstcfg.cfg" );
+        assertTrue( ci.setConfig( file ) );
+        ci.configurationEvent( new ConfigurationEvent( null, ConfigurationEvent.CM_UPDATED, null, "firstcfg" ) );
+        ci.configurationEvent( new ConfigurationEvent( null, ConfigurationEvent.CM_UPDATED, null, "foreign" ) );
+        ci.configurationEvent( new ConfigurationEvent( null, ConfigurationEvent.CM_UPDATED, null, "other" ) );
+
+        assertSame( mockConfiguration, ci.findExistingConfiguration( ci.toConfigKey( file ) ) );
+        assertSame( fromFile, ci.findExistingConfiguration( "file:/etc/other.cfg" ) );
+        assertNull( ci.findExistingConfiguration( "file:/etc/unknown.cfg" ) );
+
+        ci.configurationEvent( new ConfigurationEvent( null, ConfigurationEvent.CM_DELETED, null, "other" ) );
+        assertNull( ci.findExistingConfiguration( "file:/etc/other.cfg" ) );
+
+        EasyMock.verify(mockConfiguration, mockConfigurationAdmin, mockBundleContext, foreign, fromFile);
+    }
+
+    public void testBulkIndexIsListedOutsideTheLock() throws Exception
+    {
+        final Configuration indexed = EasyMock.createMock(Configuration.class);
+        Hashtable<String, Object> indexedProps = new Hashtable<String, Object>();
+        indexedProps.put(DirectoryWatcher.FILENAME, "file:/etc/indexed.cfg");
+        final AtomicReference<ConfigInstaller> installer = new AtomicReference<ConfigInstaller>();
+        final AtomicInteger listings = new AtomicInteger();
+
+        EasyMock.expect(mockBundleContext.getProperty(DirectoryWatcher.LOG_DEFAULT)).andReturn(null).anyTimes();
+        EasyMock.expect(mockBundleContext.getProperty(DirectoryWatcher.LOG_LEVEL)).andReturn(null).anyTimes();
+        EasyMock.expect(mockBundleContext.getProperty(DirectoryWatcher.ENABLE_CONFIG_SAVE)).andReturn("false").anyTimes();
+        EasyMock.expect(mockConfigurationAdmin.listConfigurations("(" + DirectoryWatcher.FILENAME + "=*)")).andAnswer(
+                new IAnswer<Configuration[]>() {
+                    public Configuration[] answer() throws Throwable {
+                        assertFalse( Thread.holdsLock( installer.get() ) );
+                        if ( listings.incrementAndGet() == 1 )
+                        {
+                            // a configuration changes while the first listing is running
+                            installer.get().configurationEvent(
+                                new ConfigurationEvent( null, ConfigurationEvent.CM_DELETED, null, "unrelated" ) );
+                        }
+                        return new Configuration[] { indexed };
+                    }
+                }
+        ).times(2);
+        EasyMock.expect(indexed.getProperties()).andReturn(indexedProps).anyTimes();
+        EasyMock.expect(indexed.getPid()).andReturn("indexed").anyTimes();
+        EasyMock.replay(mockConfigurationAdmin, mockBundleContext, indexed);
+
+        ConfigInstaller ci = new ConfigInstaller( mockBundleContext, mockConfigurationAdmin, new FileInstall(), true );
+        installer.set( ci );
+
+        // the listing which may have missed the change is used but not kept
+        assertSame( indexed, ci.findExistingConfiguration( "file:/etc/indexed.cfg" ) );
+        assertEquals( 1, listings.get() );
+        assertSame( indexed, ci.findExistingConfiguration( "file:/etc/indexed.cfg" ) );
+        assertEquals( 2, listings.get() );
+
+        // the second listing has been kept
+        assertSame( indexed, ci.findExistingConfiguration( "file:/etc/indexed.cfg" ) );
+        assertNull( ci.findExistingConfiguration( "file:/etc/unknown.cfg" ) );
+        assertEquals( 2, listings.get() );
+
+        EasyMock.verify(mockConfigurationAdmin, mockBundleContext, indexed);
+    }
+
 }
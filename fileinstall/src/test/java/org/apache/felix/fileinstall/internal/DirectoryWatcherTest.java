@@ -19,15 +19,23 @@
 package org.apache.felix.fileinstall.internal;
 
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import junit.framework.TestCase;
 import org.apache.felix.fileinstall.ArtifactListener;
+import org.apache.felix.fileinstall.ArtifactTransformer;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 import org.junit.Assert;
@@ -215,10 +223,210 @@ public class DirectoryWatcherTest extends TestCase
                 new File(System.getProperty("java.io.tmpdir")).getAbsolutePath()));
         assertEquals("Default START_NEW_BUNDLES parameter correctly read", true, dw.startBundles);
         assertEquals( "Default FILTER parameter correctly read", null, dw.filter );
+        assertEquals( "Default TRANSFORM_THREADS parameter correctly read", 1, dw.transformThreads );
         EasyMock.verify(mockBundleContext);
     }
 
 
+    public void testProcessFilesKeepsOrder() throws Exception
+    {
+        props.put( DirectoryWatcher.TRANSFORM_THREADS, "4" );
+
+        mockBundleContext.addBundleListener((BundleListener) org.easymock.EasyMock.anyObject());
+        mockBundleContext.removeBundleListener((BundleListener) org.easymock.EasyMock.anyObject());
+        EasyMock.replay(mockBundleContext, mockBundle, mockSysBundle, mockStartLevel);
+
+        dw = new DirectoryWatcher( new FileInstall(), props, mockBundleContext )
+        {
+            void processFile(File file, List<ArtifactListener> listeners,
+                             List<Artifact> deleted, List<Artifact> modified, List<Artifact> created)
+            {
+                // the first files take the longest
+                int index = Integer.parseInt( file.getName() );
+                try
+                {
+                    Thread.sleep( ( 10 - index ) * 10 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                Artifact artifact = new Artifact();
+                artifact.setPath( file );
+                ( index % 2 == 0 ? created : modified ).add( artifact );
+            }
+        };
+
+        Set<File> files = new LinkedHashSet<File>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            files.add( new File( Integer.toString( i ) ) );
+        }
+        List<Artifact> deleted = new ArrayList<Artifact>();
+        List<Artifact> modified = new ArrayList<Artifact>();
+        List<Artifact> created = new ArrayList<Artifact>();
+        dw.processFiles( files, new ArrayList<ArtifactListener>(), deleted, modified, created );
+
+        assertTrue( deleted.isEmpty() );
+        assertEquals( 5, created.size() );
+        assertEquals( 5, modified.size() );
+        for ( int i = 0; i < 5; i++ )
+        {
+            assertEquals( new File( Integer.toString( i * 2 ) ), created.get( i ).getPath() );
+            assertEquals( new File( Integer.toString( i * 2 + 1 ) ), modified.get( i ).getPath() );
+        }
+        dw.close();
+    }
+
+
+    public void testSharedTransformCache() throws Exception
+    {
+        File root = new File( "target/transform" ).getAbsoluteFile();
+        deleteTree( root );
+        final File cacheRoot = new File( root, "data" );
+        props.put( DirectoryWatcher.TMPDIR, new File( root, "tmp" ).getPath() );
+
+        mockBundleContext.addBundleListener((BundleListener) org.easymock.EasyMock.anyObject());
+        EasyMock.expect(mockBundleContext.getDataFile(DirectoryWatcher.TRANSFORM_CACHE_DIR))
+                        .andReturn(cacheRoot).anyTimes();
+        EasyMock.replay(mockBundleContext, mockBundle, mockSysBundle, mockStartLevel);
+
+        final int[] transformations = new int[1];
+        ArtifactTransformer transformer = new ArtifactTransformer()
+        {
+            public boolean canHandle(File artifact)
+            {
+                return true;
+            }
+
+            public File transform(File artifact, File tmpDir) throws Exception
+            {
+                transformations[0]++;
+                File transformed = new File( tmpDir, "transformed.jar" );
+                FileOutputStream fos = new FileOutputStream( transformed );
+                fos.write( 1 );
+                fos.close();
+                return transformed;
+            }
+        };
+
+        dw = new DirectoryWatcher( new FileInstall(), props, mockBundleContext );
+        Artifact first = artifact( new File( root, "first.jar" ), transformer );
+        Artifact second = artifact( new File( root, "second.jar" ), transformer );
+
+        // artifacts with the same content share the cached transform, not the transformed file
+        assertTrue( dw.transformArtifact( first ) );
+        assertTrue( dw.transformArtifact( second ) );
+        assertEquals( 1, transformations[0] );
+        assertFalse( first.getTransformed().equals( second.getTransformed() ) );
+        assertTrue( first.getTransformed().isFile() );
+        assertTrue( second.getTransformed().isFile() );
+        assertEquals( 2, countLines( new File( new File( cacheRoot, "hash" ), DirectoryWatcher.TRANSFORM_CACHE_SOURCES ) ) );
+
+        // the cached transform is kept as long as an artifact uses it
+        File cacheDir = new File( cacheRoot, "hash" );
+        dw.currentManagedArtifacts.put( first.getPath(), first );
+        dw.currentManagedArtifacts.put( second.getPath(), second );
+        dw.processFile( first.getPath(), null, new ArrayList<Artifact>(), null, null );
+        assertTrue( cacheDir.isDirectory() );
+        assertTrue( second.getTransformed().isFile() );
+
+        dw.currentManagedArtifacts.remove( first.getPath() );
+        dw.processFile( second.getPath(), null, new ArrayList<Artifact>(), null, null );
+        assertFalse( cacheDir.exists() );
+    }
+
+
+    public void testPruneTransformCache() throws Exception
+    {
+        File root = new File( "target/transform-prune" ).getAbsoluteFile();
+        deleteTree( root );
+        File cacheRoot = new File( root, "data" );
+        File existing = new File( root, "existing.jar" );
+        root.mkdirs();
+        new FileOutputStream( existing ).close();
+
+        File kept = cacheEntry( cacheRoot, "kept", new File( root, "deleted.jar" ), existing );
+        File interrupted = new File( kept, "transformer-1.tmp" );
+        interrupted.mkdirs();
+        File pruned = cacheEntry( cacheRoot, "pruned", new File( root, "deleted.jar" ) );
+        File unknown = new File( cacheRoot, "unknown" );
+        new File( unknown, "transformer" ).mkdirs();
+
+        EasyMock.expect(mockBundleContext.getDataFile(DirectoryWatcher.TRANSFORM_CACHE_DIR))
+                        .andReturn(cacheRoot).anyTimes();
+        EasyMock.replay(mockBundleContext, mockBundle, mockSysBundle, mockStartLevel);
+
+        DirectoryWatcher.pruneTransformCache( mockBundleContext );
+
+        // entries are kept as long as one of their artifacts exists
+        assertTrue( new File( kept, "transformer" ).isDirectory() );
+        assertFalse( interrupted.exists() );
+        assertFalse( pruned.exists() );
+        assertFalse( unknown.exists() );
+    }
+
+
+    private static File cacheEntry( File cacheRoot, String hash, File... sources ) throws IOException
+    {
+        File entry = new File( cacheRoot, hash );
+        File transformed = new File( new File( entry, "transformer" ), "transformed.jar" );
+        transformed.getParentFile().mkdirs();
+        new FileOutputStream( transformed ).close();
+        FileOutputStream fos = new FileOutputStream( new File( entry, DirectoryWatcher.TRANSFORM_CACHE_SOURCES ) );
+        for ( File source : sources )
+        {
+            fos.write( ( source.getAbsolutePath() + "\n" ).getBytes( "UTF-8" ) );
+        }
+        fos.close();
+        return entry;
+    }
+
+
+    private static Artifact artifact( File path, ArtifactListener listener )
+    {
+        Artifact artifact = new Artifact();
+        artifact.setPath( path );
+        artifact.setJaredDirectory( path );
+        artifact.setListener( listener );
+        artifact.setContentHash( "hash" );
+        return artifact;
+    }
+
+
+    private static int countLines( File file ) throws IOException
+    {
+        BufferedReader reader = new BufferedReader( new FileReader( file ) );
+        try
+        {
+            int lines = 0;
+            while ( reader.readLine() != null )
+            {
+                lines++;
+            }
+            return lines;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+
+    private static void deleteTree( File file )
+    {
+        File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                deleteTree( child );
+            }
+        }
+        file.delete();
+    }
+
+
     public void testIsFragment() throws Exception
     {
         mockBundleContext.addBundleListener((BundleListener) org.easymock.EasyMock.anyObject());
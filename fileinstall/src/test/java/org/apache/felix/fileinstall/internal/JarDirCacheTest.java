@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import junit.framework.TestCase;
+
+
+/**
+ * Test class for the JarDirCache
+ */
+public class JarDirCacheTest extends TestCase
+{
+
+    File dir;
+    File jar;
+    JarDirCache cache;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        File root = new File( "target/jardir" );
+        delete( root );
+        dir = new File( root, "bundle" );
+        jar = new File( root, "bundle.jar" );
+        write( new File( dir, JarFile.MANIFEST_NAME ), "Manifest-Version: 1.0\n" );
+        write( new File( dir, "a/b.txt" ), "b" );
+        write( new File( dir, "c.txt" ), "c" );
+        cache = new JarDirCache();
+    }
+
+
+    public void testJar() throws Exception
+    {
+        assertEquals( jar, cache.getJar( dir, jar ) );
+
+        ZipFile zip = new ZipFile( jar );
+        try
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            assertEquals( JarFile.MANIFEST_NAME, entries.nextElement().getName() );
+            assertEquals( "b", read( zip, "a/b.txt" ) );
+            assertEquals( "c", read( zip, "c.txt" ) );
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+
+    public void testUnchangedDirectoryIsNotJaredAgain() throws Exception
+    {
+        cache.getJar( dir, jar );
+        jar.setLastModified( 1000 );
+
+        cache.getJar( dir, jar );
+        assertEquals( 1000, jar.lastModified() );
+        assertEquals( jar, cache.getJar( dir ) );
+        assertEquals( 1000, jar.lastModified() );
+    }
+
+
+    public void testChangedDirectory() throws Exception
+    {
+        cache.getJar( dir, jar );
+
+        File c = new File( dir, "c.txt" );
+        write( c, "c2" );
+        c.setLastModified( c.lastModified() + 2000 );
+        write( new File( dir, "d.txt" ), "d" );
+        new File( dir, "a/b.txt" ).delete();
+
+        cache.getJar( dir, jar );
+        ZipFile zip = new ZipFile( jar );
+        try
+        {
+            assertNull( zip.getEntry( "a/b.txt" ) );
+            assertEquals( "c2", read( zip, "c.txt" ) );
+            assertEquals( "d", read( zip, "d.txt" ) );
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+
+    public void testChangeWithinTimestampGranularity() throws Exception
+    {
+        File c = new File( dir, "c.txt" );
+        long modified = c.lastModified();
+        cache.getJar( dir, jar );
+
+        // same length and modification date
+        write( c, "x" );
+        c.setLastModified( modified );
+
+        cache.getJar( dir, jar );
+        ZipFile zip = new ZipFile( jar );
+        try
+        {
+            assertEquals( "x", read( zip, "c.txt" ) );
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+
+    public void testOpenJarIsNotOverwritten() throws Exception
+    {
+        cache.getJar( dir, jar );
+        InputStream is = new FileInputStream( jar );
+        try
+        {
+            byte[] before = readFully( is );
+            is.close();
+            is = new FileInputStream( jar );
+
+            write( new File( dir, "d.txt" ), "d" );
+            File rebuilt = cache.getJar( dir, jar );
+
+            // the open stream still reads the previous jar
+            assertTrue( Arrays.equals( before, readFully( is ) ) );
+            ZipFile zip = new ZipFile( rebuilt );
+            try
+            {
+                assertEquals( "d", read( zip, "d.txt" ) );
+            }
+            finally
+            {
+                zip.close();
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+
+    public void testClearDeletesOwnedJars() throws Exception
+    {
+        File owned = cache.getJar( dir );
+        assertTrue( owned.isFile() );
+        assertEquals( owned, cache.getJar( dir ) );
+
+        cache.clear();
+        assertFalse( owned.exists() );
+    }
+
+
+    public void testContentHash() throws Exception
+    {
+        cache.getJar( dir, jar );
+        String hash = cache.getContentHash( dir );
+        assertNotNull( hash );
+
+        // the hash only depends on the content
+        JarDirCache other = new JarDirCache();
+        other.getJar( dir );
+        assertEquals( hash, other.getContentHash( dir ) );
+        other.clear();
+
+        write( new File( dir, "d.txt" ), "d" );
+        cache.getJar( dir, jar );
+        assertFalse( hash.equals( cache.getContentHash( dir ) ) );
+    }
+
+
+    public void testRemove() throws Exception
+    {
+        cache.getJar( dir, jar );
+        jar.setLastModified( 1000 );
+        cache.remove( dir );
+
+        cache.getJar( dir, jar );
+        assertTrue( jar.lastModified() != 1000 );
+    }
+
+
+    private static String read( ZipFile zip, String name ) throws IOException
+    {
+        InputStream is = zip.getInputStream( zip.getEntry( name ) );
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            int b;
+            while ( ( b = is.read() ) != -1 )
+            {
+                baos.write( b );
+            }
+            return baos.toString( "UTF-8" );
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+
+    private static byte[] readFully( InputStream is ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ( ( n = is.read( buffer ) ) != -1 )
+        {
+            baos.write( buffer, 0, n );
+        }
+        return baos.toByteArray();
+    }
+
+
+    private static void write( File file, String content ) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        FileOutputStream fos = new FileOutputStream( file );
+        try
+        {
+            fos.write( content.getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            fos.close();
+        }
+    }
+
+
+    private static void delete( File file )
+    {
+        File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+
+}
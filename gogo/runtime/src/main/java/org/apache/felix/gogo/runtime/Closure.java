@@ -20,10 +20,12 @@ package org.apache.felix.gogo.runtime;
 
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -220,7 +222,7 @@ public class Closure implements Function, Evaluate
                 System.arraycopy(session.channels, 0, streams, 0, 3);
             }
             if (capturingOutput != null) {
-                streams[1] = capturingOutput;
+                streams[1] = new CapturedChannel((WritableByteChannel) capturingOutput);
                 toclose[1] = true;
             }
 
@@ -241,22 +243,20 @@ public class Closure implements Function, Evaluate
                         nstreams = streams;
                         ntoclose = toclose;
                     } else if (Token.eq("|", op)) {
-                        PipedInputStream pis = new PipedInputStream();
-                        PipedOutputStream pos = new PipedOutputStream(pis);
+                        PipeBuffer buffer = new PipeBuffer();
                         nstreams = streams.clone();
-                        nstreams[1] = Channels.newChannel(pos);
+                        nstreams[1] = buffer.sink();
                         ntoclose = toclose.clone();
                         ntoclose[1] = true;
-                        streams[0] = Channels.newChannel(pis);
+                        streams[0] = buffer.source();
                         toclose[0] = true;
                     } else if (Token.eq("|&", op)) {
-                        PipedInputStream pis = new PipedInputStream();
-                        PipedOutputStream pos = new PipedOutputStream(pis);
+                        PipeBuffer buffer = new PipeBuffer();
                         nstreams = streams.clone();
-                        nstreams[1] = nstreams[2] = Channels.newChannel(pos);
+                        nstreams[1] = nstreams[2] = buffer.sink();
                         ntoclose = toclose.clone();
                         ntoclose[1] = ntoclose[2] = true;
-                        streams[0] = Channels.newChannel(pis);
+                        streams[0] = buffer.source();
                         toclose[0] = true;
                     } else {
                         throw new IllegalStateException("Unrecognized pipe operator: '" + op + "'");
@@ -692,6 +692,43 @@ public class Closure implements Function, Evaluate
         return session().currentDir();
     }
 
+    /**
+     * The output captured for a whole sequence, as seen by one of its statements:
+     * closing it when the statement is done does not close the captured output.
+     */
+    private static class CapturedChannel implements WritableByteChannel
+    {
+        private final WritableByteChannel channel;
+        private volatile boolean open = true;
+
+        CapturedChannel(WritableByteChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            if (!open)
+            {
+                throw new ClosedChannelException();
+            }
+            return channel.write(src);
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return open;
+        }
+
+        @Override
+        public void close()
+        {
+            open = false;
+        }
+    }
+
     @Override
     public String toString()
     {
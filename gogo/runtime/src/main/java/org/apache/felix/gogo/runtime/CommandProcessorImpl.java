@@ -31,6 +31,8 @@ import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.felix.gogo.api.CommandSessionListener;
 import org.apache.felix.service.command.CommandProcessor;
@@ -46,8 +48,14 @@ public class CommandProcessorImpl implements CommandProcessor
     protected final Set<CommandSessionListener> listeners = new CopyOnWriteArraySet<>();
     protected final ConcurrentMap<String, Map<Object, Integer>> commands = new ConcurrentHashMap<>();
     protected final Map<String, Object> constants = new ConcurrentHashMap<>();
+    // commands key resolved for a scope path and an unscoped function, cleared on command changes
+    protected final ConcurrentMap<String, String> resolved = new ConcurrentHashMap<>();
     protected final ThreadIO threadIO;
     protected final WeakHashMap<CommandSession, Object> sessions = new WeakHashMap<>();
+    // invocation candidates of the command and target classes, cleared on stop
+    final Reflective.Cache candidates = new Reflective.Cache();
+    // runs the jobs and pipeline stages of all sessions, the stages of a pipeline run concurrently
+    protected final ExecutorService executor = Executors.newCachedThreadPool();
     protected boolean stopped;
 
     public CommandProcessorImpl()
@@ -112,6 +120,8 @@ public class CommandProcessorImpl implements CommandProcessor
             // Just in case...
 			sessions.clear();
         }
+        candidates.clear();
+        executor.shutdownNow();
     }
 
     public void addConverter(Converter c)
@@ -157,27 +167,19 @@ public class CommandProcessorImpl implements CommandProcessor
         if (null == cmdMap && anyScope)
         {
             String scopePath = (null == path ? "*" : path.toString());
-
-            for (String scope : scopePath.split(":"))
+            String resolvedKey = scopePath + " " + cfunction;
+            String key = resolved.get(resolvedKey);
+            if (key != null)
             {
-                if (scope.equals("*"))
-                {
-                    for (Entry<String, Map<Object, Integer>> entry : commands.entrySet())
-                    {
-                        if (entry.getKey().endsWith(cfunction))
-                        {
-                            cmdMap = entry.getValue();
-                            break;
-                        }
-                    }
-                }
-                else
+                cmdMap = commands.get(key);
+            }
+            if (cmdMap == null)
+            {
+                key = resolveScope(scopePath, cfunction);
+                if (key != null)
                 {
-                    cmdMap = commands.get(scope + cfunction);
-                    if (cmdMap != null)
-                    {
-                        break;
-                    }
+                    cmdMap = commands.get(key);
+                    resolved.put(resolvedKey, key);
                 }
             }
         }
@@ -201,6 +203,36 @@ public class CommandProcessorImpl implements CommandProcessor
         return new CommandProxy(cmd, cfunction.substring(1));
     }
 
+    /**
+     * Returns the commands key of the given function in the first scope of the path
+     * providing it, or null if no scope provides it.
+     */
+    private String resolveScope(String scopePath, String cfunction)
+    {
+        String key = null;
+        for (String scope : scopePath.split(":"))
+        {
+            key = null;
+            if (scope.equals("*"))
+            {
+                for (String k : commands.keySet())
+                {
+                    if (k.endsWith(cfunction))
+                    {
+                        key = k;
+                        break;
+                    }
+                }
+            }
+            else if (commands.containsKey(scope + cfunction))
+            {
+                key = scope + cfunction;
+                break;
+            }
+        }
+        return key;
+    }
+
     @Descriptor("add commands")
     public void addCommand(@Descriptor("scope") String scope, @Descriptor("target") Object target)
     {
@@ -253,6 +285,7 @@ public class CommandProcessorImpl implements CommandProcessor
             cmdMap = commands.get(key);
         }
         cmdMap.put(target, ranking);
+        resolved.clear();
     }
 
     public void removeCommand(String scope, String function)
@@ -260,6 +293,7 @@ public class CommandProcessorImpl implements CommandProcessor
         // TODO: WARNING: this method does remove all mapping for scope:function
         String key = (scope + ":" + function).toLowerCase();
         commands.remove(key);
+        resolved.clear();
     }
 
     public void removeCommand(String scope, String function, Object target)
@@ -271,6 +305,7 @@ public class CommandProcessorImpl implements CommandProcessor
         {
             cmdMap.remove(target);
         }
+        resolved.clear();
     }
 
     public void removeCommand(Object target)
@@ -279,6 +314,7 @@ public class CommandProcessorImpl implements CommandProcessor
         {
             cmdMap.remove(target);
         }
+        resolved.clear();
     }
 
     private String[] getFunctions(Class<?> target)
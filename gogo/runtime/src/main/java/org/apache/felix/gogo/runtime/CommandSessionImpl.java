@@ -40,15 +40,15 @@ import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.stream.BaseStream;
 import java.util.stream.Collectors;
 
 import org.apache.felix.gogo.api.Job;
@@ -56,7 +56,6 @@ import org.apache.felix.gogo.api.Job.Status;
 import org.apache.felix.gogo.api.JobListener;
 import org.apache.felix.gogo.api.Process;
 import org.apache.felix.gogo.runtime.Pipe.Result;
-import org.apache.felix.service.command.CommandProcessor;
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Converter;
 import org.apache.felix.service.command.Function;
@@ -84,14 +83,11 @@ public class CommandSessionImpl implements CommandSession, Converter
     private final List<JobImpl> jobs = new ArrayList<>();
     private JobListener jobListener;
 
-    private final ExecutorService executor;
-
     private Path currentDir;
 
     protected CommandSessionImpl(CommandProcessorImpl shell, CommandSessionImpl parent)
     {
         this.currentDir = parent.currentDir;
-        this.executor = Executors.newCachedThreadPool();
         this.processor = shell;
         this.channels = parent.channels;
         this.in = parent.in;
@@ -104,7 +100,6 @@ public class CommandSessionImpl implements CommandSession, Converter
     protected CommandSessionImpl(CommandProcessorImpl shell, InputStream in, OutputStream out, OutputStream err)
     {
         this.currentDir = Paths.get(System.getProperty("user.dir")).toAbsolutePath().normalize();
-        this.executor = Executors.newCachedThreadPool();
         this.processor = shell;
         ReadableByteChannel inCh = Channels.newChannel(in);
         WritableByteChannel outCh = Channels.newChannel(out);
@@ -122,7 +117,7 @@ public class CommandSessionImpl implements CommandSession, Converter
         return processor.threadIO;
     }
 
-    public CommandProcessor processor()
+    public CommandProcessorImpl processor()
     {
         return processor;
     }
@@ -148,7 +143,16 @@ public class CommandSessionImpl implements CommandSession, Converter
         {
             this.closed = true;
             this.processor.closeSession(this);
-            executor.shutdownNow();
+            // the executor is shared with the other sessions, only interrupt our jobs
+            List<JobImpl> running;
+            synchronized (jobs)
+            {
+                running = new ArrayList<>(jobs);
+            }
+            for (JobImpl job : running)
+            {
+                job.interrupt();
+            }
         }
     }
 
@@ -263,13 +267,10 @@ public class CommandSessionImpl implements CommandSession, Converter
             return (CharSequence) target;
         }
 
-        for (Converter c : processor.converters)
+        CharSequence formatted = formatWithConverters(target, level);
+        if (formatted != null)
         {
-            CharSequence s = c.format(target, level, this);
-            if (s != null)
-            {
-                return s;
-            }
+            return formatted;
         }
 
         if (target.getClass().isArray())
@@ -428,6 +429,22 @@ public class CommandSessionImpl implements CommandSession, Converter
         }
     }
 
+    /**
+     * Returns the first format of the target given by a converter, or null.
+     */
+    private CharSequence formatWithConverters(Object target, int level) throws Exception
+    {
+        for (Converter c : processor.converters)
+        {
+            CharSequence s = c.format(target, level, this);
+            if (s != null)
+            {
+                return s;
+            }
+        }
+        return null;
+    }
+
     CharSequence inspect(Object b)
     {
         boolean found = false;
@@ -488,6 +505,69 @@ public class CommandSessionImpl implements CommandSession, Converter
         }
     }
 
+    /**
+     * Prints the result of a pipeline stage to the next one. Collections, iterators and streams
+     * are printed one element per line while iterating, so that they are not formatted as a whole
+     * and are not iterated faster than the next stage reads them.
+     */
+    void print(Object result, PrintStream out)
+    {
+        try
+        {
+            if (result instanceof Collection)
+            {
+                // converters may format the collection as a whole
+                CharSequence formatted = formatWithConverters(result, Converter.INSPECT);
+                if (formatted != null)
+                {
+                    out.println(formatted);
+                    return;
+                }
+            }
+            Iterator<?> elements = elements(result);
+            if (elements == null)
+            {
+                out.println(format(result, Converter.INSPECT, this));
+                return;
+            }
+            // stop when the next stage is done
+            while (elements.hasNext() && !out.checkError())
+            {
+                out.println(format(elements.next(), Converter.LINE, this));
+            }
+            // same output as a formatted collection
+            out.println();
+        }
+        catch (Exception e)
+        {
+            out.println("<can not format " + result + ":" + e);
+        }
+        finally
+        {
+            if (result instanceof BaseStream)
+            {
+                ((BaseStream<?, ?>) result).close();
+            }
+        }
+    }
+
+    private static Iterator<?> elements(Object target)
+    {
+        if (target instanceof Iterator)
+        {
+            return (Iterator<?>) target;
+        }
+        if (target instanceof BaseStream)
+        {
+            return ((BaseStream<?, ?>) target).iterator();
+        }
+        if (target instanceof Collection)
+        {
+            return ((Collection<?>) target).iterator();
+        }
+        return null;
+    }
+
     public Object expr(CharSequence expr)
     {
         return processor.expr(this, expr);
@@ -740,7 +820,7 @@ public class CommandSessionImpl implements CommandSession, Converter
                     foreground();
                     break;
             }
-            future = executor.submit(this::call);
+            future = processor.executor.submit(this::call);
             while (this.status == Status.Foreground)
             {
                 JobImpl.this.wait();
@@ -768,7 +848,7 @@ public class CommandSessionImpl implements CommandSession, Converter
                 thread.setName("job controller " + id);
 
                 List<Callable<Result>> wrapped = pipes.stream().collect(Collectors.toList());
-                List<Future<Result>> results = executor.invokeAll(wrapped);
+                List<Future<Result>> results = processor.executor.invokeAll(wrapped);
 
                 // Get pipe exceptions
                 Exception pipeException = null;
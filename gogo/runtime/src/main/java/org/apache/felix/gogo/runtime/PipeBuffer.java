@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A bounded buffer connecting the output of a pipeline stage to the input of the next one.
+ *
+ * Writes block while the buffer is full and reads while it is empty, so a stage never
+ * gets ahead of the next one by more than the buffer size. Unlike piped streams, the
+ * channels do not depend on the threads using them: any thread may write until the sink
+ * is closed, and writes fail as soon as the source is closed.
+ */
+public class PipeBuffer
+{
+    public static final int DEFAULT_SIZE = 64 * 1024;
+
+    private final byte[] buffer;
+    private int head;
+    private int count;
+    private boolean sinkClosed;
+    private boolean sourceClosed;
+
+    private final Source source = new Source();
+    private final Sink sink = new Sink();
+
+    public PipeBuffer()
+    {
+        this(DEFAULT_SIZE);
+    }
+
+    public PipeBuffer(int size)
+    {
+        if (size <= 0)
+        {
+            throw new IllegalArgumentException("Buffer size <= 0");
+        }
+        buffer = new byte[size];
+    }
+
+    /**
+     * @return the channel reading from the buffer.
+     */
+    public ReadableByteChannel source()
+    {
+        return source;
+    }
+
+    /**
+     * @return the channel writing to the buffer.
+     */
+    public WritableByteChannel sink()
+    {
+        return sink;
+    }
+
+    private synchronized int read(ByteBuffer dst) throws IOException
+    {
+        if (sourceClosed)
+        {
+            throw new ClosedChannelException();
+        }
+        while (count == 0)
+        {
+            if (sinkClosed)
+            {
+                return -1;
+            }
+            await();
+        }
+        int nb = 0;
+        while (count > 0 && dst.hasRemaining())
+        {
+            int len = Math.min(Math.min(count, buffer.length - head), dst.remaining());
+            dst.put(buffer, head, len);
+            head = (head + len) % buffer.length;
+            count -= len;
+            nb += len;
+        }
+        notifyAll();
+        return nb;
+    }
+
+    private synchronized int write(ByteBuffer src) throws IOException
+    {
+        if (sinkClosed)
+        {
+            throw new ClosedChannelException();
+        }
+        int nb = 0;
+        while (src.hasRemaining())
+        {
+            while (count == buffer.length && !sourceClosed)
+            {
+                await();
+            }
+            if (sourceClosed)
+            {
+                throw new IOException("Pipe closed");
+            }
+            int tail = (head + count) % buffer.length;
+            int len = Math.min(Math.min(buffer.length - count, buffer.length - tail), src.remaining());
+            src.get(buffer, tail, len);
+            count += len;
+            nb += len;
+            notifyAll();
+        }
+        return nb;
+    }
+
+    private void await() throws InterruptedIOException
+    {
+        try
+        {
+            wait();
+        }
+        catch (InterruptedException e)
+        {
+            throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+        }
+    }
+
+    private synchronized void closeSource()
+    {
+        sourceClosed = true;
+        // discard pending data, nobody will read it
+        count = 0;
+        notifyAll();
+    }
+
+    private synchronized void closeSink()
+    {
+        sinkClosed = true;
+        notifyAll();
+    }
+
+    private class Source implements ReadableByteChannel
+    {
+        @Override
+        public int read(ByteBuffer dst) throws IOException
+        {
+            return PipeBuffer.this.read(dst);
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            synchronized (PipeBuffer.this)
+            {
+                return !sourceClosed;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            closeSource();
+        }
+    }
+
+    private class Sink implements WritableByteChannel
+    {
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            return PipeBuffer.this.write(src);
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            synchronized (PipeBuffer.this)
+            {
+                return !sinkClosed;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            closeSink();
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.felix.gogo.runtime;
 
 import java.lang.annotation.Annotation;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -29,6 +30,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Parameter;
@@ -56,94 +60,69 @@ public final class Reflective
     public static Object invoke(CommandSession session, Object target, String name,
         List<Object> args) throws Exception
     {
-        Method[] methods = target.getClass().getMethods();
         name = name.toLowerCase();
 
-        String org = name;
-        String get = "get" + name;
-        String is = "is" + name;
-        String set = "set" + name;
+        Candidates candidates = getCandidates(session, target, name);
 
         if (KEYWORDS.contains(name))
         {
             name = "_" + name;
         }
 
-        if (target instanceof Class<?>)
+        // Replay the previous invocation with the same argument types
+        Plan plan = candidates.plans.get(args.size());
+        if (plan != null && plan.matches(session, args))
         {
-            Method[] staticMethods = ((Class<?>) target).getMethods();
-            for (Method m : staticMethods)
-            {
-                String mname = m.getName().toLowerCase();
-                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                    || mname.equals(is) || mname.equals(MAIN))
-                {
-                    methods = staticMethods;
-                    break;
-                }
-            }
+            return call(plan.candidate, target, plan.coerce(session, args));
         }
 
-        Method bestMethod = null;
+        Candidate bestCandidate = null;
         Object[] bestArgs = null;
         int lowestMatch = Integer.MAX_VALUE;
         ArrayList<Class<?>[]> possibleTypes = new ArrayList<>();
 
-        for (Method m : methods)
+        for (Candidate c : candidates.candidates)
         {
-            String mname = m.getName().toLowerCase();
-            if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                || mname.equals(is) || mname.equals(MAIN))
-            {
-                Class<?>[] types = m.getParameterTypes();
-                ArrayList<Object> xargs = new ArrayList<>(args);
+            Class<?>[] types = c.types;
+            ArrayList<Object> xargs = new ArrayList<>(args);
 
-                // pass command name as argv[0] to main, so it can handle
-                // multiple commands
-                if (mname.equals(MAIN))
-                {
-                    xargs.add(0, org);
-                }
+            // pass command name as argv[0] to main, so it can handle
+            // multiple commands
+            if (c.main)
+            {
+                xargs.add(0, candidates.name);
+            }
 
-                Object[] parms = new Object[types.length];
-                int match = coerce(session, target, m, types, parms, xargs);
+            Object[] parms = new Object[types.length];
+            int match = coerce(session, target, c, types, parms, xargs);
 
-                if (match < 0)
+            if (match < 0)
+            {
+                // coerce failed
+                possibleTypes.add(types);
+            }
+            else
+            {
+                if (match < lowestMatch)
                 {
-                    // coerce failed
-                    possibleTypes.add(types);
+                    lowestMatch = match;
+                    bestCandidate = c;
+                    bestArgs = parms;
                 }
-                else
-                {
-                    if (match < lowestMatch)
-                    {
-                        lowestMatch = match;
-                        bestMethod = m;
-                        bestArgs = parms;
-                    }
 
-                    if (match == 0)
-                        break; // can't get better score
-                }
+                if (match == 0)
+                    break; // can't get better score
             }
         }
 
-        if (bestMethod != null)
+        if (bestCandidate != null)
         {
-            bestMethod.setAccessible(true);
-            try
-            {
-                return bestMethod.invoke(target, bestArgs);
-            }
-            catch (InvocationTargetException e)
+            // Without named parameters, an exact match only depends on the argument types
+            if (lowestMatch == 0 && !candidates.parameters && !bestCandidate.main)
             {
-                Throwable cause = e.getCause();
-                if (cause instanceof Exception)
-                {
-                    throw (Exception) cause;
-                }
-                throw e;
+                candidates.plans.put(args.size(), new Plan(bestCandidate, session, args));
             }
+            return call(bestCandidate, target, bestArgs);
         }
         else
         {
@@ -179,55 +158,355 @@ public final class Reflective
         }
     }
 
+    private static Object call(Candidate candidate, Object target, Object[] args) throws Exception
+    {
+        Method method = candidate.accessible();
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+            {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
     /**
-     * transform name/value parameters into ordered argument list.
-     * params: --param2, value2, --flag1, arg3
-     * args: true, value2, arg3
-     * @return new ordered list of args.
+     * Returns the methods of the target matching the given (lower case) command name.
+     * Static methods are used when the target is a class having matching methods.
      */
-    private static List<Object> transformParameters(Method method, List<Object> in)
+    private static Candidates getCandidates(CommandSession session, Object target, String name)
     {
-        Annotation[][] pas = method.getParameterAnnotations();
-        ArrayList<Object> out = new ArrayList<>();
-        ArrayList<Object> parms = new ArrayList<>(in);
+        if (target instanceof Class<?>)
+        {
+            Candidates candidates = getClassCandidates(session, (Class<?>) target).getStatics(name);
+            if (candidates.candidates.length > 0)
+            {
+                return candidates;
+            }
+        }
+        return getClassCandidates(session, target.getClass()).getMethods(name);
+    }
 
-        for (Annotation as[] : pas)
+    /**
+     * Returns the candidates of a class from the cache of the session processor.
+     * Sessions of other implementations do not cache the candidates.
+     */
+    private static ClassCandidates getClassCandidates(CommandSession session, Class<?> type)
+    {
+        if (session instanceof CommandSessionImpl)
         {
-            for (Annotation a : as)
+            return ((CommandSessionImpl) session).processor().candidates.get(type);
+        }
+        return new ClassCandidates(type);
+    }
+
+    private static Candidates findCandidates(Method[] methods, String name)
+    {
+        String org = name;
+        String get = "get" + name;
+        String is = "is" + name;
+        String set = "set" + name;
+
+        if (KEYWORDS.contains(name))
+        {
+            name = "_" + name;
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (Method m : methods)
+        {
+            String mname = m.getName().toLowerCase();
+            if (mname.equals(name) || mname.equals(get) || mname.equals(set)
+                || mname.equals(is) || mname.equals(MAIN))
             {
-                if (a instanceof Parameter)
+                candidates.add(new Candidate(m, mname.equals(MAIN)));
+            }
+        }
+        return new Candidates(org, candidates.toArray(new Candidate[candidates.size()]));
+    }
+
+    /**
+     * The invocation candidates of each class, owned by a command processor and
+     * cleared when it stops, so that no class keeps the gogo classes reachable.
+     * Classes are weakly referenced, and their candidates softly as they refer
+     * to the class through its methods.
+     */
+    static final class Cache
+    {
+        private final Map<Class<?>, SoftReference<ClassCandidates>> candidates = new WeakHashMap<>();
+
+        synchronized ClassCandidates get(Class<?> type)
+        {
+            SoftReference<ClassCandidates> ref = candidates.get(type);
+            ClassCandidates c = ref != null ? ref.get() : null;
+            if (c == null)
+            {
+                c = new ClassCandidates(type);
+                candidates.put(type, new SoftReference<>(c));
+            }
+            return c;
+        }
+
+        synchronized void clear()
+        {
+            candidates.clear();
+        }
+    }
+
+    /**
+     * The candidates of a class, computed on first use of a command name.
+     */
+    private static final class ClassCandidates
+    {
+        private final Class<?> type;
+        private final ConcurrentMap<String, Candidates> methods = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Candidates> statics = new ConcurrentHashMap<>();
+        /** the public methods of the class, looked up on the first cache miss */
+        private volatile Method[] publicMethods;
+
+        ClassCandidates(Class<?> type)
+        {
+            this.type = type;
+        }
+
+        Candidates getMethods(String name)
+        {
+            return get(methods, name);
+        }
+
+        Candidates getStatics(String name)
+        {
+            return get(statics, name);
+        }
+
+        private Candidates get(ConcurrentMap<String, Candidates> cache, String name)
+        {
+            Candidates candidates = cache.get(name);
+            if (candidates == null)
+            {
+                candidates = findCandidates(getPublicMethods(), name);
+                // do not remember unknown names, they are typically typos
+                if (candidates.candidates.length > 0)
                 {
-                    int i = -1;
-                    Parameter p = (Parameter) a;
-                    for (String name : p.names())
+                    Candidates previous = cache.putIfAbsent(name, candidates);
+                    if (previous != null)
                     {
-                        i = parms.indexOf(name);
-                        if (i >= 0)
-                            break;
+                        candidates = previous;
                     }
+                }
+            }
+            return candidates;
+        }
 
-                    if (i >= 0)
-                    {
-                        // parameter present
-                        parms.remove(i);
-                        Object value = p.presentValue();
-                        if (Parameter.UNSPECIFIED.equals(value))
-                        {
-                            if (i >= parms.size())
-                                return null; // missing parameter, so try other methods
-                            value = parms.remove(i);
-                        }
-                        out.add(value);
-                    }
-                    else
+        private Method[] getPublicMethods()
+        {
+            // Class.getMethods() copies the array on each call
+            Method[] m = publicMethods;
+            if (m == null)
+            {
+                m = type.getMethods();
+                publicMethods = m;
+            }
+            return m;
+        }
+    }
+
+    /**
+     * The methods matching a command name, in the order of {@link Class#getMethods()}.
+     */
+    private static final class Candidates
+    {
+        final String name;
+        final Candidate[] candidates;
+        /** whether a candidate has named parameters */
+        final boolean parameters;
+        /** the last exact match, per number of arguments */
+        final ConcurrentMap<Integer, Plan> plans = new ConcurrentHashMap<>();
+
+        Candidates(String name, Candidate[] candidates)
+        {
+            this.name = name;
+            this.candidates = candidates;
+            boolean parameters = false;
+            for (Candidate c : candidates)
+            {
+                parameters |= c.parameters.length > 0;
+            }
+            this.parameters = parameters;
+        }
+    }
+
+    /**
+     * A method with its parameter types and named parameters.
+     */
+    private static final class Candidate
+    {
+        final Method method;
+        final boolean main;
+        final Class<?>[] types;
+        final Parameter[] parameters;
+        private volatile boolean accessible;
+
+        Candidate(Method method, boolean main)
+        {
+            this.method = method;
+            this.main = main;
+            this.types = method.getParameterTypes();
+
+            List<Parameter> parameters = new ArrayList<>();
+            for (Annotation[] as : method.getParameterAnnotations())
+            {
+                for (Annotation a : as)
+                {
+                    if (a instanceof Parameter)
                     {
-                        out.add(p.absentValue());
+                        parameters.add((Parameter) a);
                     }
+                }
+            }
+            this.parameters = parameters.toArray(new Parameter[parameters.size()]);
+        }
 
+        Method accessible()
+        {
+            if (!accessible)
+            {
+                method.setAccessible(true);
+                accessible = true;
+            }
+            return method;
+        }
+    }
+
+    /**
+     * Replays an exact match: the arguments are passed as is, after the session
+     * if the method takes it, but for the no-cost integer conversions.
+     * Methods named _main are never replayed.
+     */
+    private static final class Plan
+    {
+        final Candidate candidate;
+        final Class<?> sessionType;
+        final Class<?>[] argTypes;
+        final boolean withSession;
+        final Class<?>[] conversions;
+
+        Plan(Candidate candidate, CommandSession session, List<Object> args)
+        {
+            this.candidate = candidate;
+            this.sessionType = session.getClass();
+            this.argTypes = new Class<?>[args.size()];
+            for (int i = 0; i < argTypes.length; i++)
+            {
+                Object arg = args.get(i);
+                argTypes[i] = (arg == null) ? null : arg.getClass();
+            }
+
+            Class<?>[] types = candidate.types;
+            this.withSession = types.length > 0 && types[0].isInterface()
+                && types[0].isAssignableFrom(sessionType);
+            this.conversions = new Class<?>[types.length];
+            int first = withSession ? 1 : 0;
+            for (int i = first; i < types.length; i++)
+            {
+                if (argTypes[i - first] == Long.class && types[i].isPrimitive())
+                {
+                    conversions[i] = types[i];
                 }
             }
         }
 
+        boolean matches(CommandSession session, List<Object> args)
+        {
+            if (session.getClass() != sessionType)
+            {
+                return false;
+            }
+            for (int i = 0; i < argTypes.length; i++)
+            {
+                Object arg = args.get(i);
+                if ((arg == null) ? argTypes[i] != null : arg.getClass() != argTypes[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Object[] coerce(CommandSession session, List<Object> args)
+        {
+            Object[] out = new Object[candidate.types.length];
+            int i = 0;
+            if (withSession)
+            {
+                out[i++] = session;
+            }
+            for (Object arg : args)
+            {
+                out[i++] = arg;
+            }
+            for (i = 0; i < out.length; i++)
+            {
+                if (conversions[i] != null)
+                {
+                    out[i] = toInteger(conversions[i], (Number) out[i]);
+                }
+            }
+            return out;
+        }
+    }
+
+    /**
+     * transform name/value parameters into ordered argument list.
+     * params: --param2, value2, --flag1, arg3
+     * args: true, value2, arg3
+     * @return new ordered list of args.
+     */
+    private static List<Object> transformParameters(Candidate candidate, List<Object> in)
+    {
+        if (candidate.parameters.length == 0)
+        {
+            return in;
+        }
+
+        ArrayList<Object> out = new ArrayList<>();
+        ArrayList<Object> parms = new ArrayList<>(in);
+
+        for (Parameter p : candidate.parameters)
+        {
+            int i = -1;
+            for (String name : p.names())
+            {
+                i = parms.indexOf(name);
+                if (i >= 0)
+                    break;
+            }
+
+            if (i >= 0)
+            {
+                // parameter present
+                parms.remove(i);
+                Object value = p.presentValue();
+                if (Parameter.UNSPECIFIED.equals(value))
+                {
+                    if (i >= parms.size())
+                        return null; // missing parameter, so try other methods
+                    value = parms.remove(i);
+                }
+                out.add(value);
+            }
+            else
+            {
+                out.add(p.absentValue());
+            }
+        }
+
         out.addAll(parms);
 
         return out;
@@ -241,10 +520,10 @@ public final class Reflective
      * @return -1 if arguments can't be coerced; 0 if no coercion was necessary;
      *          > 0 if coercion was needed.
      */
-    private static int coerce(CommandSession session, Object target, Method m,
+    private static int coerce(CommandSession session, Object target, Candidate c,
         Class<?> types[], Object out[], List<Object> in)
     {
-        in = transformParameters(m, in);
+        in = transformParameters(c, in);
         if (in == null)
         {
             // missing parameter argument?
@@ -355,19 +634,10 @@ public final class Reflective
         if (type.isPrimitive() && arg instanceof Long)
         {
             // no-cost conversions between integer types
-            Number num = (Number) arg;
-
-            if (type == short.class)
-            {
-                return num.shortValue();
-            }
-            if (type == int.class)
+            Object num = toInteger(type, (Number) arg);
+            if (num != null)
             {
-                return num.intValue();
-            }
-            if (type == long.class)
-            {
-                return num.longValue();
+                return num;
             }
         }
 
@@ -419,6 +689,26 @@ public final class Reflective
         return NO_MATCH;
     }
 
+    /**
+     * @return the number converted to the given short, int or long type, null for other types.
+     */
+    private static Object toInteger(Class<?> type, Number num)
+    {
+        if (type == short.class)
+        {
+            return num.shortValue();
+        }
+        if (type == int.class)
+        {
+            return num.intValue();
+        }
+        if (type == long.class)
+        {
+            return num.longValue();
+        }
+        return null;
+    }
+
     private static String toString(Object arg)
     {
         if (arg instanceof Map)
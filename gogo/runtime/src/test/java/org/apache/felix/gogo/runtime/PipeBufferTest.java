@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PipeBufferTest
+{
+
+    @Test(timeout = 10000)
+    public void testTransfer() throws Exception
+    {
+        PipeBuffer pipe = new PipeBuffer(7);
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) i;
+        }
+
+        // the writer blocks until the reader makes room
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try
+            {
+                pipe.sink().write(ByteBuffer.wrap(data));
+                pipe.sink().close();
+            }
+            catch (IOException e)
+            {
+                failure.set(e);
+            }
+        });
+        writer.start();
+
+        ByteBuffer read = ByteBuffer.allocate(data.length + 1);
+        ByteBuffer chunk = ByteBuffer.allocate(5);
+        while (pipe.source().read(chunk) >= 0)
+        {
+            chunk.flip();
+            read.put(chunk);
+            chunk.clear();
+        }
+        writer.join();
+
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(data.length, read.position());
+        Assert.assertArrayEquals(data, Arrays.copyOf(read.array(), data.length));
+    }
+
+    @Test(timeout = 10000)
+    public void testClosedSource() throws Exception
+    {
+        PipeBuffer pipe = new PipeBuffer(4);
+        pipe.sink().write(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+        pipe.source().close();
+        try
+        {
+            pipe.sink().write(ByteBuffer.wrap(new byte[] { 5 }));
+            Assert.fail("Writing to a closed pipe should fail");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+}
@@ -43,6 +43,29 @@ public class ReflectiveTest {
         assertEquals(new Object[] { new Object[] { 1, 2 }, "ab" }, invoke("test1", Arrays.asList(new Object[] { 1, 2 }, "ab")));
     }
 
+    @Test
+    public void testRepeatedInvocation() throws Exception {
+        // the second invocation replays the exact match of the first one
+        assertEquals("int 1", invoke("test5", Arrays.<Object>asList(1L)));
+        assertEquals("int 2", invoke("test5", Arrays.<Object>asList(2L)));
+        assertEquals("string a", invoke("test5", Arrays.<Object>asList("a")));
+        assertEquals("int 3", invoke("test5", Arrays.<Object>asList(3L)));
+        assertEquals("string b", invoke("test5", Arrays.<Object>asList("b")));
+        assertEquals("string 4.0", invoke("test5", Arrays.<Object>asList(4.0d)));
+    }
+
+    @Test
+    public void testCandidatesOwnedByProcessor() throws Exception {
+        CommandProcessorImpl processor = new CommandProcessorImpl(null);
+        Object candidates = processor.candidates.get(Target.class);
+        Assert.assertSame(candidates, processor.candidates.get(Target.class));
+        Assert.assertNotSame(candidates, new CommandProcessorImpl(null).candidates.get(Target.class));
+
+        // stopping the processor releases the classes it invoked
+        processor.stop();
+        Assert.assertNotSame(candidates, processor.candidates.get(Target.class));
+    }
+
     static class Target {
         public Object test1(CommandSession session, Object[] argv) {
             return argv;
@@ -59,6 +82,14 @@ public class ReflectiveTest {
         public Object test4(CommandSession session, List<String> argv) {
             return argv;
         }
+
+        public Object test5(int i) {
+            return "int " + i;
+        }
+
+        public Object test5(String s) {
+            return "string " + s;
+        }
     }
 
     static Object invoke(String method, List<Object> args) throws Exception {
@@ -23,9 +23,13 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import org.apache.felix.gogo.api.Process;
 import org.apache.felix.gogo.runtime.Parser.Pipeline;
@@ -33,6 +37,7 @@ import org.apache.felix.gogo.runtime.Parser.Program;
 import org.apache.felix.gogo.runtime.Parser.Sequence;
 import org.apache.felix.gogo.runtime.Parser.Statement;
 import org.apache.felix.service.command.CommandSession;
+import org.apache.felix.service.command.Converter;
 import org.apache.felix.service.command.Function;
 import org.junit.Test;
 
@@ -138,6 +143,58 @@ public class TestParser extends AbstractParserTest
         assertEquals("defghi", c.execute("(echoout abc; echoout def; echoout ghi)|grep 'def|ghi'|capture"));
     }
 
+    @Test(timeout = 10000)
+    public void testStreamingPipe() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("letters", this);
+        c.addCommand("numbers", this);
+        c.addCommand("capture", this);
+        c.addCommand("first", this);
+
+        assertEquals("abc", c.execute("letters | capture"));
+        // the numbers are printed while the next stage reads them, until it is done
+        assertEquals("1", c.execute("numbers | first"));
+
+        // a collection formatted by a converter is printed as a whole, formatted once
+        AtomicInteger formats = new AtomicInteger();
+        c.addConverter(new Converter()
+        {
+            public Object convert(Class<?> desiredType, Object in)
+            {
+                return null;
+            }
+
+            public CharSequence format(Object target, int level, Converter escape)
+            {
+                if (target instanceof List && level == Converter.INSPECT)
+                {
+                    formats.incrementAndGet();
+                    return "letters";
+                }
+                return null;
+            }
+        });
+        assertEquals("letters", c.execute("letters | capture"));
+        assertEquals(1, formats.get());
+    }
+
+    public List<String> letters()
+    {
+        return Arrays.asList("a", "b", "c");
+    }
+
+    public Iterator<Integer> numbers()
+    {
+        return Stream.iterate(1, i -> i + 1).iterator();
+    }
+
+    public String first() throws IOException
+    {
+        BufferedReader rdr = new BufferedReader(new InputStreamReader(System.in));
+        return rdr.readLine();
+    }
+
     @Test
     public void testAssignment() throws Exception
     {
@@ -250,7 +250,8 @@ public class ClassChecker extends ClassVisitor implements Opcodes {
                 || isSetterMethod(name, desc)
                 || isSetInstanceManagerMethod(name)
                 || isGetComponentInstanceMethod(name, desc)
-                || isManipulatedMethod(name);
+                || isManipulatedMethod(name)
+                || isIdsMethod(name);
     }
 
     private static boolean isGetterMethod(String name, String desc) {
@@ -278,6 +279,10 @@ public class ClassChecker extends ClassVisitor implements Opcodes {
                 && Type.getType("Lorg/apache/felix/ipojo/ComponentInstance;").equals(Type.getReturnType(desc)));
     }
 
+    private static boolean isIdsMethod(String name) {
+        return ClassManipulator.FIELD_IDS.equals(name) || ClassManipulator.METHOD_IDS.equals(name);
+    }
+
     private static boolean isManipulatedMethod(String name) {
         return (name.startsWith(ClassManipulator.PREFIX));
     }
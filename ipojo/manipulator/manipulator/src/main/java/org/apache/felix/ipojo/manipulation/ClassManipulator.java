@@ -88,6 +88,16 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
      */
     private static final  String SET = "onSet";
 
+    /**
+     * Name of the generated static method returning the field names, indexed by field id.
+     */
+    public static final  String FIELD_IDS = "__fieldIds";
+
+    /**
+     * Name of the generated static method returning the method ids, indexed by method index.
+     */
+    public static final  String METHOD_IDS = "__methodIds";
+
     /**
      * The manipulator. It has already collected all the metadata about the class.
      */
@@ -106,10 +116,17 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
 
     /**
      * List of methods contained in the class.
-     * This set contains method id.
+     * This set contains method id. The index of a method id in this list
+     * is the integer id given to the instance manager.
      */
     private List<String> m_methods = new ArrayList<String>();
 
+    /**
+     * List of the manipulated fields. The index of a field in this list
+     * is the integer id given to the instance manager.
+     */
+    private List<String> m_fieldIds = new ArrayList<String>();
+
     /**
      * List of fields injected as method flag in the class.
      * This set contains field name generate from method id.
@@ -435,10 +452,10 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
         mv.visitVarInsn(ALOAD, 0);
         mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
         mv.visitVarInsn(ALOAD, 0);
-        mv.visitLdcInsn(generateMethodId(name, desc));
+        pushInt(mv, getMethodIndex(name, desc));
         mv.loadArgArray();
         mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", ENTRY,
-                "(Ljava/lang/Object;Ljava/lang/String;[Ljava/lang/Object;)V", false);
+                "(Ljava/lang/Object;I[Ljava/lang/Object;)V", false);
 
         mv.visitVarInsn(ALOAD, 0);
 
@@ -453,7 +470,7 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
         mv.visitVarInsn(ALOAD, 0);
         mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
         mv.visitVarInsn(ALOAD, 0);
-        mv.visitLdcInsn(generateMethodId(name, desc));
+        pushInt(mv, getMethodIndex(name, desc));
         if (returnType.getSort() != Type.VOID) {
             mv.visitVarInsn(returnType.getOpcode(ILOAD), result);
             mv.box(returnType);
@@ -461,7 +478,7 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
             mv.visitInsn(ACONST_NULL);
         }
         mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", EXIT,
-                "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V", false);
+                "(Ljava/lang/Object;ILjava/lang/Object;)V", false);
 
         mv.visitLabel(l1);
         Label l7 = new Label();
@@ -472,10 +489,10 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
         mv.visitVarInsn(ALOAD, 0);
         mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
         mv.visitVarInsn(ALOAD, 0);
-        mv.visitLdcInsn(generateMethodId(name, desc));
+        pushInt(mv, getMethodIndex(name, desc));
         mv.visitVarInsn(ALOAD, exception);
         mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", ERROR,
-                "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Throwable;)V", false);
+                "(Ljava/lang/Object;ILjava/lang/Throwable;)V", false);
         mv.visitVarInsn(ALOAD, exception);
         mv.visitInsn(ATHROW);
 
@@ -565,6 +582,47 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
         return id.toString();
     }
 
+    /**
+     * Gets the integer id of a method, i.e. the index of its method id.
+     * @param name : method name
+     * @param desc : method descriptor
+     * @return the index of the method id
+     */
+    private int getMethodIndex(String name, String desc) {
+        return m_methods.indexOf(generateMethodId(name, desc));
+    }
+
+    /**
+     * Gets the integer id of a field, registering the field if needed.
+     * @param name : field name
+     * @return the field id
+     */
+    private int getFieldId(String name) {
+        int id = m_fieldIds.indexOf(name);
+        if (id == -1) {
+            id = m_fieldIds.size();
+            m_fieldIds.add(name);
+        }
+        return id;
+    }
+
+    /**
+     * Pushes an integer constant on the stack, using the shortest instruction.
+     * @param mv : the method visitor
+     * @param value : the value to push
+     */
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
     private String generateMethodIdForMethodFromInnerClass(String name, String desc, String inner) {
         StringBuilder id = new StringBuilder(inner);
         id.append("___"); // Separator
@@ -667,8 +725,13 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
             createSimpleConstructor();
         }
 
+        // Give the id tables to the instance manager
+        createIdsMethod(FIELD_IDS, m_fieldIds);
+        createIdsMethod(METHOD_IDS, m_methods);
+
         m_methods.clear();
         m_methodFlags.clear();
+        m_fieldIds.clear();
 
         cv.visitEnd();
     }
@@ -769,6 +832,29 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
         mv.visitEnd();
     }
 
+    /**
+     * Create a static method returning the given ids, so the instance manager
+     * can map the integer ids used by the generated code to the field names
+     * and the method ids.
+     * @param name : the name of the method
+     * @param ids : the ids, indexed by integer id
+     */
+    private void createIdsMethod(String name, List<String> ids) {
+        MethodVisitor mv = cv.visitMethod(ACC_STATIC, name, "()[Ljava/lang/String;", null, null);
+        mv.visitCode();
+        pushInt(mv, ids.size());
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/String");
+        for (int i = 0; i < ids.size(); i++) {
+            mv.visitInsn(DUP);
+            pushInt(mv, i);
+            mv.visitLdcInsn(ids.get(i));
+            mv.visitInsn(AASTORE);
+        }
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
     /**
      * Create the getComponentInstance method.
      */
@@ -810,10 +896,10 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
         mv.visitVarInsn(ALOAD, 0);
         mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
         mv.visitVarInsn(ALOAD, 0);
-        mv.visitLdcInsn(name);
+        pushInt(mv, getFieldId(name));
         mv.visitVarInsn(ALOAD, 1);
         mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET,
-                "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V", false);
+                "(Ljava/lang/Object;ILjava/lang/Object;)V", false);
 
         mv.visitInsn(RETURN);
 
@@ -846,9 +932,9 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
         mv.visitVarInsn(ALOAD, 0);
         mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
         mv.visitVarInsn(ALOAD, 0);
-        mv.visitLdcInsn(name);
+        pushInt(mv, getFieldId(name));
         mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET,
-                "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;", false);
+                "(Ljava/lang/Object;I)Ljava/lang/Object;", false);
         mv.visitTypeInsn(CHECKCAST, internalType);
         mv.visitInsn(ARETURN);
 
@@ -895,9 +981,9 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
-                mv.visitLdcInsn(name);
+                pushInt(mv, getFieldId(name));
                 mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager",
-                        GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;", false);
+                        GET, "(Ljava/lang/Object;I)Ljava/lang/Object;", false);
                 mv.visitVarInsn(ASTORE, 1);
 
                 mv.visitVarInsn(ALOAD, 1);
@@ -928,9 +1014,9 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
-                mv.visitLdcInsn(name);
+                pushInt(mv, getFieldId(name));
                 mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager",
-                        GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;", false);
+                        GET, "(Ljava/lang/Object;I)Ljava/lang/Object;", false);
                 mv.visitVarInsn(ASTORE, 1);
 
                 mv.visitVarInsn(ALOAD, 1);
@@ -962,9 +1048,9 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
-                mv.visitLdcInsn(name);
+                pushInt(mv, getFieldId(name));
                 mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager",
-                        GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;", false);
+                        GET, "(Ljava/lang/Object;I)Ljava/lang/Object;", false);
                 mv.visitVarInsn(ASTORE, 1);
 
                 mv.visitVarInsn(ALOAD, 1);
@@ -996,9 +1082,9 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
-                mv.visitLdcInsn(name);
+                pushInt(mv, getFieldId(name));
                 mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager",
-                        GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;", false);
+                        GET, "(Ljava/lang/Object;I)Ljava/lang/Object;", false);
                 mv.visitVarInsn(ASTORE, 1);
 
                 mv.visitVarInsn(ALOAD, 1);
@@ -1026,9 +1112,9 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
-                mv.visitLdcInsn(name);
+                pushInt(mv, getFieldId(name));
                 mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager",
-                        GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;", false);
+                        GET, "(Ljava/lang/Object;I)Ljava/lang/Object;", false);
                 mv.visitTypeInsn(CHECKCAST, type.getInternalName());
                 mv.visitInsn(ARETURN);
 
@@ -1088,10 +1174,10 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
-                mv.visitLdcInsn(name);
+                pushInt(mv, getFieldId(name));
                 mv.visitVarInsn(ALOAD, 2);
                 mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET,
-                        "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V", false);
+                        "(Ljava/lang/Object;ILjava/lang/Object;)V", false);
 
                 Label l3 = new Label();
                 mv.visitLabel(l3);
@@ -1128,10 +1214,10 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
-                mv.visitLdcInsn(name);
+                pushInt(mv, getFieldId(name));
                 mv.visitVarInsn(ALOAD, 3);
                 mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager",
-                        SET, "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V", false);
+                        SET, "(Ljava/lang/Object;ILjava/lang/Object;)V", false);
 
                 l3 = new Label();
                 mv.visitLabel(l3);
@@ -1153,10 +1239,10 @@ public class ClassManipulator extends ClassVisitor implements Opcodes {
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
-                mv.visitLdcInsn(name);
+                pushInt(mv, getFieldId(name));
                 mv.visitVarInsn(ALOAD, 1);
                 mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET,
-                        "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V", false);
+                        "(Ljava/lang/Object;ILjava/lang/Object;)V", false);
 
                 mv.visitInsn(RETURN);
                 break;
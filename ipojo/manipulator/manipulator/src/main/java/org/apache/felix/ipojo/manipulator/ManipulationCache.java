@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.manipulator;
+
+import java.io.IOException;
+
+import org.apache.felix.ipojo.manipulator.cache.CachedManipulation;
+
+/**
+ * Stores the result of previous manipulations, so unchanged classes
+ * are not manipulated again.
+ * Entries are keyed by a digest of the original class bytecode and of the
+ * classpath used to manipulate it.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public interface ManipulationCache {
+
+    /**
+     * Return the manipulation stored for the given key.
+     * @param key digest of the original class bytecode and of the classpath
+     * @return the cached manipulation, {@literal null} if there is none
+     * @throws IOException if the cache cannot be read
+     */
+    CachedManipulation get(String key) throws IOException;
+
+    /**
+     * Store the manipulation of a class.
+     * @param key digest of the original class bytecode and of the classpath
+     * @param manipulation the manipulation result
+     * @throws IOException if the cache cannot be written
+     */
+    void put(String key, CachedManipulation manipulation) throws IOException;
+
+}
@@ -20,8 +20,14 @@
 package org.apache.felix.ipojo.manipulator;
 
 import org.apache.felix.ipojo.manipulation.Manipulator;
+import org.apache.felix.ipojo.manipulator.cache.CachedManipulation;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -57,6 +63,16 @@ public class ManipulationEngine {
      */
     private ManipulationVisitor m_manipulationVisitor;
 
+    /**
+     * Cache of previous manipulations, {@literal null} if not cached.
+     */
+    private ManipulationCache m_cache;
+
+    /**
+     * Digest of the classpath of the classloader, computed on the first cache lookup.
+     */
+    private String m_classPathDigest;
+
     public ManipulationEngine(ClassLoader classLoader) {
         m_classLoader = classLoader;
     }
@@ -89,6 +105,15 @@ public class ManipulationEngine {
         m_store = store;
     }
 
+    /**
+     * Provides the cache keeping the result of previous manipulations.
+     * Without cache, all the classes are manipulated.
+     * @param cache the manipulation cache, may be {@literal null}
+     */
+    public void setManipulationCache(ManipulationCache cache) {
+        m_cache = cache;
+    }
+
     /**
      * Manipulates classes of all the given component's.
      */
@@ -113,73 +138,217 @@ public class ManipulationEngine {
             if (result != null) {
                 // Should always be the case
 
-                // Manipulation preparation
-                Manipulator manipulator = new Manipulator(m_classLoader);
-                try {
-                    manipulator.prepare(bytecode);
-                } catch (IOException e) {
-                    m_reporter.error("Cannot analyze the class " + info.getClassName() + " : " + e.getMessage());
-                    return;
-                }
-
-                // Inner class preparation
-                for (String inner : manipulator.getInnerClasses()) {
-                    // Get the bytecode and start manipulation
-                    String resourcePath = inner + ".class";
-                    String outerClassInternalName = info.getClassName().replace('.', '/');
-                    byte[] innerClassBytecode;
-                    try {
-                        innerClassBytecode = m_store.read(resourcePath);
-                        manipulator.prepareInnerClass(inner, innerClassBytecode);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot find or analyze inner class '" + resourcePath + "'");
+                // Digests are only needed to look up the cache
+                String digest = (m_cache == null) ? null : CachedManipulation.digest(bytecode);
+                CachedManipulation manipulation = getCachedManipulation(info, digest);
+                if (manipulation == null) {
+                    manipulation = manipulate(info, bytecode, digest);
+                    if (manipulation == null) {
+                        // Error already reported
                         return;
                     }
+                    putCachedManipulation(info, digest, manipulation);
                 }
 
-                // Now manipulate the classes.
-                try {
-                    byte[] out = manipulator.manipulate(bytecode);
-                    // Call the visitor
-                    result.visitManipulatedResource(info.getResourcePath(), out);
-                } catch (IOException e) {
-                    m_reporter.error("Cannot manipulate the class " + info.getClassName() + " : " + e.getMessage());
-                    return;
-                }
-
-                // Visit inner classes
-                for (String inner : manipulator.getInnerClasses()) {
-                    // Get the bytecode and start manipulation
-                    String resourcePath = inner + ".class";
-                    String outerClassInternalName = info.getClassName().replace('.', '/');
-                    byte[] innerClassBytecode;
-                    try {
-                        innerClassBytecode = m_store.read(resourcePath);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot find inner class '" + resourcePath + "'");
-                        return;
-                    }
-
-                    // Manipulate inner class
-                    // Notice that (for performance reason) re-use the class version information
-                    // discovered in the main class instead of re-parsing the inner class to find
-                    // its own class version
-                    try {
-                        byte[] manipulated = manipulator.manipulateInnerClass(inner, innerClassBytecode);
-                        // Propagate manipulated resource
-                        result.visitManipulatedResource(resourcePath, manipulated);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot manipulate inner class '" + resourcePath + "'");
-                        return;
-                    }
+                // Call the visitor, the component class first
+                for (CachedManipulation.Resource resource : manipulation.getResources()) {
+                    result.visitManipulatedResource(resource.getPath(), resource.getBytecode());
                 }
 
                 // Compute manipulation metadata
-                result.visitClassStructure(manipulator.getManipulationMetadata());
+                result.visitClassStructure(manipulation.getMetadata());
 
                 // All resources have been manipulated for this component
                 result.visitEnd();
             }
         }
     }
+
+    /**
+     * Manipulates a component class and its inner classes.
+     * @param info the component
+     * @param bytecode the component class bytecode
+     * @param digest the digest of the component class bytecode, {@literal null} when not cached
+     * @return the manipulation result, {@literal null} if the manipulation failed
+     */
+    private CachedManipulation manipulate(ManipulationUnit info, byte[] bytecode, String digest) {
+        CachedManipulation manipulation = new CachedManipulation();
+
+        // Manipulation preparation
+        Manipulator manipulator = new Manipulator(m_classLoader);
+        try {
+            manipulator.prepare(bytecode);
+        } catch (IOException e) {
+            m_reporter.error("Cannot analyze the class " + info.getClassName() + " : " + e.getMessage());
+            return null;
+        }
+
+        // Inner class preparation
+        for (String inner : manipulator.getInnerClasses()) {
+            // Get the bytecode and start manipulation
+            String resourcePath = inner + ".class";
+            byte[] innerClassBytecode;
+            try {
+                innerClassBytecode = m_store.read(resourcePath);
+                manipulator.prepareInnerClass(inner, innerClassBytecode);
+            } catch (IOException e) {
+                m_reporter.error("Cannot find or analyze inner class '" + resourcePath + "'");
+                return null;
+            }
+        }
+
+        // Now manipulate the classes.
+        try {
+            byte[] out = manipulator.manipulate(bytecode);
+            manipulation.addResource(info.getResourcePath(), digest, out);
+        } catch (IOException e) {
+            m_reporter.error("Cannot manipulate the class " + info.getClassName() + " : " + e.getMessage());
+            return null;
+        }
+
+        // Manipulate inner classes
+        for (String inner : manipulator.getInnerClasses()) {
+            // Get the bytecode and start manipulation
+            String resourcePath = inner + ".class";
+            byte[] innerClassBytecode;
+            try {
+                innerClassBytecode = m_store.read(resourcePath);
+            } catch (IOException e) {
+                m_reporter.error("Cannot find inner class '" + resourcePath + "'");
+                return null;
+            }
+
+            // Manipulate inner class
+            // Notice that (for performance reason) re-use the class version information
+            // discovered in the main class instead of re-parsing the inner class to find
+            // its own class version
+            try {
+                byte[] manipulated = manipulator.manipulateInnerClass(inner, innerClassBytecode);
+                String innerDigest = (m_cache == null) ? null : CachedManipulation.digest(innerClassBytecode);
+                manipulation.addResource(resourcePath, innerDigest, manipulated);
+            } catch (IOException e) {
+                m_reporter.error("Cannot manipulate inner class '" + resourcePath + "'");
+                return null;
+            }
+        }
+
+        manipulation.setMetadata(manipulator.getManipulationMetadata());
+        return manipulation;
+    }
+
+    /**
+     * Looks for a previous manipulation of the component class.
+     * The entry is only used when the inner classes did not change either.
+     * @param info the component
+     * @param digest the digest of the component class bytecode
+     * @return the cached manipulation, {@literal null} if the class has to be manipulated
+     */
+    private CachedManipulation getCachedManipulation(ManipulationUnit info, String digest) {
+        if (m_cache == null) {
+            return null;
+        }
+
+        CachedManipulation manipulation;
+        try {
+            manipulation = m_cache.get(getCacheKey(digest));
+        } catch (IOException e) {
+            m_reporter.warn("Cannot read the manipulation cache for class " + info.getClassName() + " : " + e.getMessage());
+            return null;
+        }
+        if (manipulation == null) {
+            return null;
+        }
+
+        for (CachedManipulation.Resource resource : manipulation.getResources()) {
+            if (resource.getPath().equals(info.getResourcePath())) {
+                continue;
+            }
+            try {
+                if (!resource.getDigest().equals(CachedManipulation.digest(m_store.read(resource.getPath())))) {
+                    return null;
+                }
+            } catch (IOException e) {
+                // The inner class is gone, manipulate again to report the error
+                return null;
+            }
+        }
+        return manipulation;
+    }
+
+    private void putCachedManipulation(ManipulationUnit info, String digest, CachedManipulation manipulation) {
+        if (m_cache == null) {
+            return;
+        }
+
+        try {
+            m_cache.put(getCacheKey(digest), manipulation);
+        } catch (IOException e) {
+            m_reporter.warn("Cannot store the manipulation of class " + info.getClassName() + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Computes the cache key of a class from the digest of its bytecode and the
+     * digest of the classpath: the manipulator loads classes from the classpath
+     * to compute the stack map frames, so a dependency change must not replay a
+     * former manipulation.
+     * @param digest the digest of the class bytecode
+     * @return the cache key
+     */
+    private String getCacheKey(String digest) {
+        if (m_classPathDigest == null) {
+            m_classPathDigest = getClassPathDigest(m_classLoader);
+        }
+        return CachedManipulation.digest((digest + m_classPathDigest).getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Computes a digest of the classpath of the given classloader and its parents.
+     * Jars are identified by their path, size and last modification date.
+     * Directories are only identified by their path, as the classes being
+     * manipulated are usually in one of them.
+     * @param loader the classloader
+     * @return the digest of the classpath
+     */
+    static String getClassPathDigest(ClassLoader loader) {
+        StringBuilder classpath = new StringBuilder();
+        for (ClassLoader current = loader; current != null; current = current.getParent()) {
+            if (current instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) current).getURLs()) {
+                    appendClassPathElement(classpath, url);
+                }
+            } else if (current == ClassLoader.getSystemClassLoader()) {
+                String path = System.getProperty("java.class.path", "");
+                for (String element : path.split(File.pathSeparator)) {
+                    appendClassPathElement(classpath, new File(element));
+                }
+            } else {
+                // Nothing more is known about this classloader
+                classpath.append(current.getClass().getName()).append('\n');
+            }
+        }
+        return CachedManipulation.digest(classpath.toString().getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static void appendClassPathElement(StringBuilder classpath, URL url) {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                appendClassPathElement(classpath, new File(url.toURI()));
+                return;
+            } catch (URISyntaxException e) {
+                // Use the URL itself
+            } catch (IllegalArgumentException e) {
+                // Use the URL itself
+            }
+        }
+        classpath.append(url.toExternalForm()).append('\n');
+    }
+
+    private static void appendClassPathElement(StringBuilder classpath, File file) {
+        classpath.append(file.getAbsolutePath());
+        if (file.isFile()) {
+            classpath.append(':').append(file.length()).append(':').append(file.lastModified());
+        }
+        classpath.append('\n');
+    }
 }
@@ -19,6 +19,7 @@
 
 package org.apache.felix.ipojo.manipulator;
 
+import org.apache.felix.ipojo.manipulator.cache.DirectoryManipulationCache;
 import org.apache.felix.ipojo.manipulator.manifest.FileManifestProvider;
 import org.apache.felix.ipojo.manipulator.metadata.*;
 import org.apache.felix.ipojo.manipulator.render.MetadataRenderer;
@@ -70,6 +71,11 @@ public class Pojoization {
 
     private final ModuleProvider m_moduleProvider;
 
+    /**
+     * Cache of previous manipulations, {@literal null} if not cached.
+     */
+    private ManipulationCache m_cache;
+
     public Pojoization() {
         this(new SystemReporter());
     }
@@ -103,6 +109,23 @@ public class Pojoization {
         m_useLocalXSD = true;
     }
 
+    /**
+     * Keeps the manipulated classes in the given directory, so unchanged
+     * classes are not manipulated again by later pojoizations.
+     * @param directory the cache directory
+     */
+    public void setManipulationCache(File directory) {
+        setManipulationCache(new DirectoryManipulationCache(directory));
+    }
+
+    /**
+     * Sets the cache keeping the result of previous manipulations.
+     * @param cache the manipulation cache, {@literal null} to disable the cache
+     */
+    public void setManipulationCache(ManipulationCache cache) {
+        m_cache = cache;
+    }
+
     /**
      * @return all the errors (fatal) reported by the manipulation process.
      */
@@ -345,6 +368,7 @@ public class Pojoization {
         engine.setResourceStore(store);
         engine.setReporter(m_reporter);
         engine.setManipulationVisitor(visitor);
+        engine.setManipulationCache(m_cache);
 
         try {
 
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.manipulator.cache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.felix.ipojo.metadata.Element;
+
+/**
+ * The result of the manipulation of a component class: the manipulated
+ * class and inner classes, and the manipulation metadata.
+ * Each resource remembers the digest of its original bytecode, so a cached
+ * manipulation can be checked against the classes to manipulate.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class CachedManipulation {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Manipulated resources, the component class first.
+     */
+    private final List<Resource> m_resources = new ArrayList<Resource>();
+
+    /**
+     * The manipulation metadata.
+     */
+    private Element m_metadata;
+
+    /**
+     * Compute the digest of the given bytecode.
+     * @param bytecode the bytecode
+     * @return the hexadecimal SHA-1 digest
+     */
+    public static String digest(byte[] bytecode) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is available on every platform
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = md.digest(bytecode);
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Add a manipulated resource.
+     * @param path resource path (format: {@literal org/objectweb/asm/Visitor.class})
+     * @param digest digest of the original bytecode, {@literal null} if the manipulation is not cached
+     * @param bytecode manipulated bytecode
+     */
+    public void addResource(String path, String digest, byte[] bytecode) {
+        m_resources.add(new Resource(path, digest, bytecode));
+    }
+
+    public List<Resource> getResources() {
+        return Collections.unmodifiableList(m_resources);
+    }
+
+    public Element getMetadata() {
+        return m_metadata;
+    }
+
+    public void setMetadata(Element metadata) {
+        m_metadata = metadata;
+    }
+
+    /**
+     * A manipulated class.
+     */
+    public static class Resource {
+
+        private final String m_path;
+        private final String m_digest;
+        private final byte[] m_bytecode;
+
+        public Resource(String path, String digest, byte[] bytecode) {
+            m_path = path;
+            m_digest = digest;
+            m_bytecode = bytecode;
+        }
+
+        public String getPath() {
+            return m_path;
+        }
+
+        /**
+         * @return digest of the original bytecode
+         */
+        public String getDigest() {
+            return m_digest;
+        }
+
+        /**
+         * @return the manipulated bytecode
+         */
+        public byte[] getBytecode() {
+            return m_bytecode;
+        }
+    }
+}
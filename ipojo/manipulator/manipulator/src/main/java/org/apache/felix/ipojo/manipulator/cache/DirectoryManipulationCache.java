@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.manipulator.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.felix.ipojo.manipulation.Manipulator;
+import org.apache.felix.ipojo.manipulator.ManipulationCache;
+import org.apache.felix.ipojo.manipulator.util.Constants;
+import org.apache.felix.ipojo.manipulator.util.Streams;
+import org.apache.felix.ipojo.metadata.Attribute;
+import org.apache.felix.ipojo.metadata.Element;
+
+/**
+ * A {@link ManipulationCache} storing one file per manipulated class in a directory.
+ * Entries are kept in a sub-directory named after the manipulator version and
+ * a digest of the manipulator code, so classes are manipulated again when the
+ * manipulator changes, even between two builds of the same SNAPSHOT version.
+ * Directories of other manipulator builds are removed on the first write, and
+ * the least recently used entries are removed once the cache holds more than
+ * the maximum number of entries. Only the directories holding the cache marker
+ * file are removed, so the cache can be rooted in a directory shared with
+ * other files (such as the build directory).
+ * The directory can be shared between builds and processes: entries are
+ * written in a temporary file and then renamed.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class DirectoryManipulationCache implements ManipulationCache {
+
+    /**
+     * Format of the entry files.
+     */
+    private static final int FORMAT = 1;
+
+    /**
+     * Marker file identifying the directories created by the cache.
+     */
+    static final String MARKER = ".ipojo-manipulation-cache";
+
+    /**
+     * Accepts the entries, but not the files being written.
+     */
+    private static final FileFilter ENTRIES = new FileFilter() {
+        public boolean accept(File file) {
+            return file.isFile() && !file.getName().endsWith(".tmp") && !file.getName().equals(MARKER);
+        }
+    };
+
+    /**
+     * Default maximum number of entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * The cache root directory.
+     */
+    private final File m_root;
+
+    /**
+     * Directory holding the entries of the current manipulator build.
+     */
+    private final File m_directory;
+
+    /**
+     * Maximum number of entries, the least recently used ones are removed beyond.
+     */
+    private final int m_maxEntries;
+
+    /**
+     * Number of entries, computed on the first write ({@literal -1} before).
+     */
+    private int m_entries = -1;
+
+    public DirectoryManipulationCache(File directory) {
+        this(directory, Constants.getVersion() + "-" + getBuildStamp(), DEFAULT_MAX_ENTRIES);
+    }
+
+    public DirectoryManipulationCache(File directory, String version) {
+        this(directory, version, DEFAULT_MAX_ENTRIES);
+    }
+
+    public DirectoryManipulationCache(File directory, String version, int maxEntries) {
+        m_root = directory;
+        m_directory = new File(directory, version);
+        m_maxEntries = maxEntries;
+    }
+
+    /**
+     * Compute a digest of the manipulator code: the manipulator jar, or the
+     * {@link Manipulator} class when the manipulator is not packaged.
+     * @return the hexadecimal digest, {@literal unknown} if the code cannot be read
+     */
+    static String getBuildStamp() {
+        InputStream is = null;
+        try {
+            CodeSource source = Manipulator.class.getProtectionDomain().getCodeSource();
+            URL location = (source == null) ? null : source.getLocation();
+            if (location != null && "file".equals(location.getProtocol())
+                    && new File(location.toURI()).isFile()) {
+                is = location.openStream();
+            } else {
+                is = Manipulator.class.getResourceAsStream(Manipulator.class.getSimpleName() + ".class");
+            }
+            if (is == null) {
+                return "unknown";
+            }
+            return CachedManipulation.digest(Streams.readBytes(is));
+        } catch (Exception e) {
+            return "unknown";
+        } finally {
+            Streams.close(is);
+        }
+    }
+
+    public CachedManipulation get(String key) throws IOException {
+        File file = new File(m_directory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        long limit = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        CachedManipulation manipulation = new CachedManipulation();
+        try {
+            if (in.readInt() != FORMAT) {
+                return null;
+            }
+            int count = readLength(in, limit);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                String digest = in.readUTF();
+                byte[] bytecode = new byte[readLength(in, limit)];
+                in.readFully(bytecode);
+                manipulation.addResource(path, digest, bytecode);
+            }
+            manipulation.setMetadata(readElement(in, limit));
+        } catch (IOException e) {
+            // Truncated or corrupted entry, written again after the manipulation
+            Streams.close(in);
+            file.delete();
+            throw e;
+        } finally {
+            Streams.close(in);
+        }
+
+        // Keep track of the last use for the eviction
+        file.setLastModified(System.currentTimeMillis());
+        return manipulation;
+    }
+
+    public void put(String key, CachedManipulation manipulation) throws IOException {
+        if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+            throw new IOException("Cannot create the manipulation cache directory " + m_directory);
+        }
+        File marker = new File(m_directory, MARKER);
+        if (!marker.isFile() && !marker.createNewFile() && !marker.isFile()) {
+            throw new IOException("Cannot create the manipulation cache marker " + marker);
+        }
+        File tmp = File.createTempFile(key, ".tmp", m_directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(FORMAT);
+            out.writeInt(manipulation.getResources().size());
+            for (CachedManipulation.Resource resource : manipulation.getResources()) {
+                out.writeUTF(resource.getPath());
+                out.writeUTF(resource.getDigest());
+                out.writeInt(resource.getBytecode().length);
+                out.write(resource.getBytecode());
+            }
+            writeElement(out, manipulation.getMetadata());
+        } finally {
+            Streams.close(out);
+        }
+
+        File file = new File(m_directory, key);
+        boolean added = !file.exists();
+        if (!added) {
+            file.delete();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot write the manipulation cache entry " + file);
+        }
+
+        if (m_entries < 0) {
+            deleteOtherBuilds();
+            m_entries = countEntries();
+        } else if (added) {
+            m_entries++;
+        }
+        if (m_entries > m_maxEntries) {
+            evict();
+        }
+    }
+
+    /**
+     * Remove the entries of the other manipulator builds. Directories without
+     * the cache marker were not created by the cache and are left untouched.
+     */
+    private void deleteOtherBuilds() {
+        File[] directories = m_root.listFiles();
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            if (directory.isDirectory() && !directory.equals(m_directory)
+                    && new File(directory, MARKER).isFile()) {
+                delete(directory);
+            }
+        }
+    }
+
+    private int countEntries() {
+        File[] entries = m_directory.listFiles(ENTRIES);
+        return (entries == null) ? 0 : entries.length;
+    }
+
+    /**
+     * Remove the least recently used entries, down to three quarters of the
+     * maximum so the directory is not listed on every write.
+     */
+    private void evict() {
+        File[] entries = m_directory.listFiles(ENTRIES);
+        if (entries == null) {
+            m_entries = 0;
+            return;
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return (m1 < m2) ? -1 : ((m1 == m2) ? 0 : 1);
+            }
+        });
+        int remaining = entries.length;
+        int target = m_maxEntries - m_maxEntries / 4;
+        for (int i = 0; i < entries.length && remaining > target; i++) {
+            if (entries[i].delete()) {
+                remaining--;
+            }
+        }
+        m_entries = remaining;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Read a length or a count, and check it against the size of the entry
+     * before anything is allocated.
+     * @param in the entry stream
+     * @param limit the size of the entry
+     * @return the length
+     * @throws IOException if the length cannot be stored in the entry
+     */
+    private static int readLength(DataInputStream in, long limit) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > limit) {
+            throw new IOException("Corrupted manipulation cache entry (invalid length " + length + ")");
+        }
+        return length;
+    }
+
+    private static void writeElement(DataOutputStream out, Element element) throws IOException {
+        out.writeUTF(element.getName());
+        writeNullable(out, element.getNameSpace());
+        Attribute[] attributes = element.getAttributes();
+        out.writeInt(attributes.length);
+        for (Attribute attribute : attributes) {
+            out.writeUTF(attribute.getName());
+            writeNullable(out, attribute.getNameSpace());
+            writeNullable(out, attribute.getValue());
+        }
+        Element[] elements = element.getElements();
+        out.writeInt(elements.length);
+        for (Element child : elements) {
+            writeElement(out, child);
+        }
+    }
+
+    private static Element readElement(DataInputStream in, long limit) throws IOException {
+        Element element = new Element(in.readUTF(), readNullable(in));
+        int attributes = readLength(in, limit);
+        for (int i = 0; i < attributes; i++) {
+            String name = in.readUTF();
+            String ns = readNullable(in);
+            element.addAttribute(new Attribute(name, ns, readNullable(in)));
+        }
+        int elements = readLength(in, limit);
+        for (int i = 0; i < elements; i++) {
+            element.addElement(readElement(in, limit));
+        }
+        return element;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
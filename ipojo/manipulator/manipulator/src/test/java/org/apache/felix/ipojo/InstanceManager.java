@@ -48,4 +48,24 @@ public class InstanceManager {
 
     }
 
+    public void onEntry(Object pojo, int methodId, Object[] args) {
+
+    }
+
+    public void onExit(Object pojo, int methodId, Object result) {
+
+    }
+
+    public void onError(Object pojo, int methodId, Throwable error) {
+
+    }
+
+    public Object onGet(Object pojo, int fieldId) {
+        return null;
+    }
+
+    public void onSet(Object pojo, int fieldId, Object value) {
+
+    }
+
 }
@@ -149,6 +149,31 @@ public class ManipulatorTest extends TestCase {
 
     }
 
+    public void testInterceptionIds() throws Exception {
+        Manipulator manipulator = new Manipulator(this.getClass().getClassLoader());
+        byte[] origin = getBytesFromFile(new File("target/test-classes/test/SimplePojo.class"));
+        manipulator.prepare(origin);
+        byte[] clazz = manipulator.manipulate(origin);
+        ManipulatedClassLoader classloader = new ManipulatedClassLoader("test.SimplePojo", clazz);
+        Class cl = classloader.findClass("test.SimplePojo");
+
+        // The generated methods give the field names and method ids, indexed by the integer ids
+        Method fields = cl.getDeclaredMethod(ClassManipulator.FIELD_IDS);
+        fields.setAccessible(true);
+        Assert.assertEquals(Arrays.asList("m_result"), Arrays.asList((String[]) fields.invoke(null)));
+
+        Method methods = cl.getDeclaredMethod(ClassManipulator.METHOD_IDS);
+        methods.setAccessible(true);
+        Assert.assertEquals(Arrays.asList("doSomething"), Arrays.asList((String[]) methods.invoke(null)));
+
+        // The generated methods are not part of the metadata of the manipulated class
+        Manipulator remanipulator = new Manipulator(this.getClass().getClassLoader());
+        remanipulator.prepare(clazz);
+        String metadata = remanipulator.getManipulationMetadata().toString();
+        Assert.assertEquals(-1, metadata.indexOf(ClassManipulator.FIELD_IDS));
+        Assert.assertEquals(-1, metadata.indexOf(ClassManipulator.METHOD_IDS));
+    }
+
     public void testManipulatingTheNonSunPOJO() throws Exception {
         Manipulator manipulator = new Manipulator(this.getClass().getClassLoader());
         byte[] origin = getBytesFromFile(new File("target/test-classes/test/NonSunClass.class"));
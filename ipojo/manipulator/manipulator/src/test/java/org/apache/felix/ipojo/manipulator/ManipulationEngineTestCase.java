@@ -19,10 +19,22 @@
 
 package org.apache.felix.ipojo.manipulator;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
 
 import junit.framework.TestCase;
+import org.apache.felix.ipojo.manipulator.cache.CachedManipulation;
 import org.apache.felix.ipojo.manipulator.util.Streams;
 import org.apache.felix.ipojo.manipulator.util.Strings;
 import org.apache.felix.ipojo.metadata.Element;
@@ -36,6 +48,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -105,9 +118,152 @@ public class ManipulationEngineTestCase extends TestCase {
 
     }
 
+    public void testCacheMiss() throws Exception {
+
+        when(store.read(anyString())).thenReturn(from(ClusterDaemon.class));
+        when(visitor.visitManipulationResult(any(Element.class))).thenReturn(result);
+
+        RecordingCache cache = new RecordingCache();
+        String path = Strings.asResourcePath(ClusterDaemon.class.getName());
+        ManipulationEngine engine = engine(getClass().getClassLoader(), cache);
+        engine.addManipulationUnit(new ManipulationUnit(path, new Element("", "")));
+
+        engine.generate();
+
+        assertEquals(0, cache.m_hits);
+        assertEquals(1, cache.m_puts.size());
+        verify(result).visitManipulatedResource(eq(path), any(byte[].class));
+        verify(result).visitEnd();
+    }
+
+    public void testCacheHit() throws Exception {
+
+        when(store.read(anyString())).thenReturn(from(ClusterDaemon.class));
+        when(visitor.visitManipulationResult(any(Element.class))).thenReturn(result);
+
+        RecordingCache cache = new RecordingCache();
+        String path = Strings.asResourcePath(ClusterDaemon.class.getName());
+        ManipulationEngine first = engine(getClass().getClassLoader(), cache);
+        first.addManipulationUnit(new ManipulationUnit(path, new Element("", "")));
+        first.generate();
+
+        ManipulationEngine second = engine(getClass().getClassLoader(), cache);
+        second.addManipulationUnit(new ManipulationUnit(path, new Element("", "")));
+        second.generate();
+
+        assertEquals(1, cache.m_hits);
+        assertEquals(1, cache.m_puts.size());
+        // The cached manipulation is visited as a fresh one
+        verify(result, times(2)).visitManipulatedResource(eq(path), any(byte[].class));
+        verify(result, times(2)).visitClassStructure(any(Element.class));
+        verify(result, times(2)).visitEnd();
+    }
+
+    public void testStaleEntryAfterInnerClassChange() throws Exception {
+
+        when(visitor.visitManipulationResult(any(Element.class))).thenReturn(result);
+
+        String innerPath = Strings.asResourcePath(PojoWithInner.MyInner.class.getName());
+        byte[] inner = from(PojoWithInner.MyInner.class);
+        when(store.read(innerPath)).thenReturn(inner);
+
+        String path = Strings.asResourcePath(PojoWithInner.class.getName());
+        when(store.read(path)).thenReturn(from(PojoWithInner.class));
+
+        RecordingCache cache = new RecordingCache();
+        ManipulationEngine first = engine(getClass().getClassLoader(), cache);
+        first.addManipulationUnit(new ManipulationUnit(path, new Element("", "")));
+        first.generate();
+
+        // Same component class, but its inner class was recompiled
+        when(store.read(innerPath)).thenReturn(Arrays.copyOf(inner, inner.length + 1));
+
+        ManipulationEngine second = engine(getClass().getClassLoader(), cache);
+        second.addManipulationUnit(new ManipulationUnit(path, new Element("", "")));
+        second.generate();
+
+        assertEquals(1, cache.m_hits);
+        assertEquals(2, cache.m_puts.size());
+        assertEquals(cache.m_puts.get(0), cache.m_puts.get(1));
+        verify(result, times(2)).visitManipulatedResource(eq(innerPath), any(byte[].class));
+    }
+
+    public void testStaleEntryAfterClassPathChange() throws Exception {
+
+        when(store.read(anyString())).thenReturn(from(ClusterDaemon.class));
+        when(visitor.visitManipulationResult(any(Element.class))).thenReturn(result);
+
+        File jar = File.createTempFile("dependency", ".jar");
+        try {
+            writeJar(jar, "a.txt");
+            URLClassLoader loader = new URLClassLoader(new URL[] {jar.toURI().toURL()}, getClass().getClassLoader());
+
+            RecordingCache cache = new RecordingCache();
+            String path = Strings.asResourcePath(ClusterDaemon.class.getName());
+            ManipulationEngine first = engine(loader, cache);
+            first.addManipulationUnit(new ManipulationUnit(path, new Element("", "")));
+            first.generate();
+
+            // The dependency is updated between two builds
+            writeJar(jar, "a.txt", "b.txt");
+
+            ManipulationEngine second = engine(loader, cache);
+            second.addManipulationUnit(new ManipulationUnit(path, new Element("", "")));
+            second.generate();
+
+            assertEquals(0, cache.m_hits);
+            assertEquals(2, cache.m_puts.size());
+            assertFalse(cache.m_puts.get(0).equals(cache.m_puts.get(1)));
+        } finally {
+            jar.delete();
+        }
+    }
+
+    private ManipulationEngine engine(ClassLoader loader, ManipulationCache cache) {
+        ManipulationEngine engine = new ManipulationEngine(loader);
+        engine.setReporter(reporter);
+        engine.setResourceStore(store);
+        engine.setManipulationVisitor(visitor);
+        engine.setManipulationCache(cache);
+        return engine;
+    }
+
+    private static void writeJar(File file, String... entries) throws IOException {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (String entry : entries) {
+                jos.putNextEntry(new ZipEntry(entry));
+                jos.write(entry.getBytes("UTF-8"));
+                jos.closeEntry();
+            }
+        } finally {
+            jos.close();
+        }
+    }
+
     private byte[] from(Class<?> type) throws IOException {
         ClassLoader loader = type.getClassLoader();
         InputStream is = loader.getResourceAsStream(Strings.asResourcePath(type.getName()));
         return Streams.readBytes(is);
     }
+
+    private static class RecordingCache implements ManipulationCache {
+
+        private final Map<String, CachedManipulation> m_entries = new HashMap<String, CachedManipulation>();
+        private final List<String> m_puts = new ArrayList<String>();
+        private int m_hits;
+
+        public CachedManipulation get(String key) {
+            CachedManipulation manipulation = m_entries.get(key);
+            if (manipulation != null) {
+                m_hits++;
+            }
+            return manipulation;
+        }
+
+        public void put(String key, CachedManipulation manipulation) {
+            m_puts.add(key);
+            m_entries.put(key, manipulation);
+        }
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.manipulator.cache;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.apache.felix.ipojo.metadata.Attribute;
+import org.apache.felix.ipojo.metadata.Element;
+
+public class DirectoryManipulationCacheTestCase extends TestCase {
+
+    private File directory;
+
+    @Override
+    public void setUp() throws Exception {
+        directory = new File("target/manipulation-cache");
+        delete(directory);
+    }
+
+    public void testMissingEntry() throws Exception {
+        DirectoryManipulationCache cache = new DirectoryManipulationCache(directory, "1.0");
+        assertNull(cache.get("unknown"));
+    }
+
+    public void testEntryIsRestored() throws Exception {
+        DirectoryManipulationCache cache = new DirectoryManipulationCache(directory, "1.0");
+
+        Element metadata = new Element("Manipulation", "");
+        metadata.addAttribute(new Attribute("className", "test.Pojo"));
+        Element field = new Element("Field", "");
+        field.addAttribute(new Attribute("name", "m_foo"));
+        field.addAttribute(new Attribute("type", "java.lang.String"));
+        metadata.addElement(field);
+
+        CachedManipulation manipulation = new CachedManipulation();
+        manipulation.addResource("test/Pojo.class", "a", new byte[] {1, 2, 3});
+        manipulation.addResource("test/Pojo$Inner.class", "b", new byte[] {4});
+        manipulation.setMetadata(metadata);
+        cache.put("key", manipulation);
+
+        CachedManipulation cached = cache.get("key");
+        assertNotNull(cached);
+        assertEquals(2, cached.getResources().size());
+        CachedManipulation.Resource outer = cached.getResources().get(0);
+        assertEquals("test/Pojo.class", outer.getPath());
+        assertEquals("a", outer.getDigest());
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, outer.getBytecode()));
+        assertEquals("test/Pojo$Inner.class", cached.getResources().get(1).getPath());
+        assertEquals(metadata.toXMLString(), cached.getMetadata().toXMLString());
+    }
+
+    public void testEntriesAreSeparatedByVersion() throws Exception {
+        CachedManipulation manipulation = new CachedManipulation();
+        manipulation.addResource("test/Pojo.class", "a", new byte[] {1});
+        manipulation.setMetadata(new Element("Manipulation", ""));
+        new DirectoryManipulationCache(directory, "1.0").put("key", manipulation);
+
+        assertNull(new DirectoryManipulationCache(directory, "2.0").get("key"));
+    }
+
+    public void testOtherBuildsAreDeleted() throws Exception {
+        new DirectoryManipulationCache(directory, "1.0-a").put("key", manipulation());
+        new DirectoryManipulationCache(directory, "1.0-b").put("key", manipulation());
+
+        assertFalse(new File(directory, "1.0-a").exists());
+        assertNotNull(new DirectoryManipulationCache(directory, "1.0-b").get("key"));
+    }
+
+    public void testOtherDirectoriesAreKept() throws Exception {
+        // The cache may be rooted in a directory holding other files, such as the build directory
+        File classes = new File(directory, "classes");
+        File pojo = new File(classes, "test/Pojo.class");
+        pojo.getParentFile().mkdirs();
+        new FileOutputStream(pojo).close();
+
+        new DirectoryManipulationCache(directory, "1.0").put("key", manipulation());
+
+        assertTrue(pojo.isFile());
+        assertNotNull(new DirectoryManipulationCache(directory, "1.0").get("key"));
+    }
+
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+        DirectoryManipulationCache cache = new DirectoryManipulationCache(directory, "1.0", 4);
+        for (int i = 0; i < 4; i++) {
+            cache.put("key" + i, manipulation());
+            new File(directory, "1.0/key" + i).setLastModified(i * 1000L);
+        }
+        // key0 becomes the most recently used entry
+        assertNotNull(cache.get("key0"));
+
+        cache.put("key4", manipulation());
+        assertEquals(4, new File(directory, "1.0").list().length); // 3 entries and the marker
+        assertNotNull(cache.get("key0"));
+        assertNull(cache.get("key1"));
+        assertNull(cache.get("key2"));
+        assertNotNull(cache.get("key4"));
+    }
+
+    public void testCorruptedEntryIsDeleted() throws Exception {
+        File entry = new File(directory, "1.0/key");
+        entry.getParentFile().mkdirs();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(entry));
+        try {
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeUTF("test/Pojo.class");
+            out.writeUTF("a");
+            // far more bytes than the entry holds
+            out.writeInt(Integer.MAX_VALUE);
+        } finally {
+            out.close();
+        }
+
+        DirectoryManipulationCache cache = new DirectoryManipulationCache(directory, "1.0");
+        try {
+            cache.get("key");
+            fail("A corrupted entry should not be read");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(entry.exists());
+        assertNull(cache.get("key"));
+    }
+
+    public void testBuildStamp() throws Exception {
+        String stamp = DirectoryManipulationCache.getBuildStamp();
+        assertEquals(40, stamp.length());
+        assertEquals(stamp, DirectoryManipulationCache.getBuildStamp());
+    }
+
+    public void testDigest() throws Exception {
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", CachedManipulation.digest("abc".getBytes("UTF-8")));
+    }
+
+    private static CachedManipulation manipulation() {
+        CachedManipulation manipulation = new CachedManipulation();
+        manipulation.addResource("test/Pojo.class", "a", new byte[] {1});
+        manipulation.setMetadata(new Element("Manipulation", ""));
+        return manipulation;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
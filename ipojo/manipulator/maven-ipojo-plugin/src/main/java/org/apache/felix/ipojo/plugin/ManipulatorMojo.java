@@ -124,6 +124,21 @@ public class ManipulatorMojo extends AbstractMojo {
      */
     private boolean m_ignoreEmbeddedXSD;
 
+    /**
+     * Directory keeping the manipulated classes between builds.
+     * Unchanged classes are not manipulated again.
+     *
+     * @parameter alias="manipulationCache" default-value="${project.build.directory}/ipojo-manipulation-cache"
+     */
+    private File m_manipulationCache;
+
+    /**
+     * Disables the manipulation cache.
+     *
+     * @parameter alias="disableManipulationCache" default-value="false"
+     */
+    private boolean m_disableManipulationCache;
+
     private boolean isXML() {
         return m_metadata != null && (m_metadata.indexOf('<') > -1);
     }
@@ -258,6 +273,9 @@ public class ManipulatorMojo extends AbstractMojo {
         if (!m_ignoreEmbeddedXSD) {
             pojo.setUseLocalXSD();
         }
+        if (!m_disableManipulationCache && m_manipulationCache != null) {
+            pojo.setManipulationCache(m_manipulationCache);
+        }
 
         // Executes the pojoization.
         if (is == null) {
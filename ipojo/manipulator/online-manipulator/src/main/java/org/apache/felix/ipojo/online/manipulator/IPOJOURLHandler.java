@@ -105,6 +105,13 @@ public class IPOJOURLHandler extends AbstractURLStreamHandlerService {
      */
     private final File m_temp;
 
+    /**
+     * The directory keeping the manipulated classes, so they are not
+     * manipulated again when a bundle is installed again.
+     * {@literal null} if the framework has no file system support.
+     */
+    private final File m_cache;
+
     private List<Module> m_modules = new ArrayList<Module>();
 
     //@Requires(optional = true, defaultimplementation = SystemLogService.class)
@@ -135,6 +142,7 @@ public class IPOJOURLHandler extends AbstractURLStreamHandlerService {
     public IPOJOURLHandler(BundleContext context, File work) {
         m_context = context;
         m_temp = work;
+        m_cache = context.getDataFile("manipulation-cache");
         if (!m_temp.exists()) {
             m_temp.mkdir();
         }
@@ -215,6 +223,9 @@ public class IPOJOURLHandler extends AbstractURLStreamHandlerService {
         ClassLoader classloader = new BridgeClassLoader(original, m_context);
         // Pojoization
         Pojoization pojoizator = new Pojoization(createModuleProvider());
+        if (m_cache != null) {
+            pojoizator.setManipulationCache(m_cache);
+        }
         try {
             pojoizator.pojoization(store, composite, createVisitor(store, reporter), classloader);
         } catch (Exception e) {
@@ -37,6 +37,16 @@ import java.util.*;
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class InstanceManager implements ComponentInstance, InstanceStateListener, InstanceBundleContextAware {
+    /**
+     * The name of the static method generated by the manipulator returning the field names, ordered by field id.
+     */
+    private static final String FIELD_IDS_METHOD = "__fieldIds";
+
+    /**
+     * The name of the static method generated by the manipulator returning the method ids, ordered by integer id.
+     */
+    private static final String METHOD_IDS_METHOD = "__methodIds";
+
     /**
      * The name of the component instance.
      */
@@ -149,6 +159,12 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      */
     private Map m_methods =  Collections.synchronizedMap(new HashMap());
 
+    /**
+     * The interceptors indexed by the integer field and method ids used by the manipulated class.
+     * <code>null</code> until the class is loaded, or if the class was manipulated without integer ids.
+     */
+    private volatile InterceptorTable m_interceptors;
+
     /**
      * The instance's bundle context.
      */
@@ -671,6 +687,52 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
             stop();
             return;
         }
+        if (m_interceptors == null) {
+            try {
+                m_interceptors = createInterceptorTable(m_clazz);
+            } catch (Exception e) {
+                // The manipulated class uses integer ids, it cannot work without the interceptor table.
+                m_logger.log(Logger.ERROR, "[" + m_name + "] Cannot get the interception ids of " + m_className
+                        + " : " + e.getMessage(), e);
+                m_clazz = null;
+                stop();
+            }
+        }
+    }
+
+    /**
+     * Creates the table of interceptors indexed by the integer ids used by the manipulated class.
+     * The manipulator generates two static methods returning the field names and method ids, ordered by integer id.
+     * The registrations cannot change once the instance is configured, so the table is computed once.
+     *
+     * @param clazz the manipulated class
+     * @return the interceptor table, or <code>null</code> if the class does not use integer ids.
+     * @throws Exception if the class uses integer ids, but the ids cannot be read.
+     */
+    private InterceptorTable createInterceptorTable(Class clazz) throws Exception {
+        String[] fieldIds;
+        String[] methodIds;
+        try {
+            Method fields = clazz.getDeclaredMethod(FIELD_IDS_METHOD);
+            Method methods = clazz.getDeclaredMethod(METHOD_IDS_METHOD);
+            fields.setAccessible(true);
+            methods.setAccessible(true);
+            fieldIds = (String[]) fields.invoke(null);
+            methodIds = (String[]) methods.invoke(null);
+        } catch (NoSuchMethodException e) {
+            // Class manipulated by an older manipulator, only the String ids are used.
+            return null;
+        }
+
+        FieldInterceptor[][] fieldInterceptors = new FieldInterceptor[fieldIds.length][];
+        for (int i = 0; m_fieldRegistration != null && i < fieldIds.length; i++) {
+            fieldInterceptors[i] = (FieldInterceptor[]) m_fieldRegistration.get(fieldIds[i]);
+        }
+        MethodInterceptor[][] methodInterceptors = new MethodInterceptor[methodIds.length][];
+        for (int i = 0; m_methodRegistration != null && i < methodIds.length; i++) {
+            methodInterceptors[i] = (MethodInterceptor[]) m_methodRegistration.get(methodIds[i]);
+        }
+        return new InterceptorTable(fieldIds, fieldInterceptors, methodIds, methodInterceptors);
     }
 
     /**
@@ -700,6 +762,11 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
     protected Object createObject() {
         if (m_clazz == null) {
             load();
+            if (m_clazz == null) {
+                // The error was already logged, and the instance stopped.
+                throw new RuntimeException("Cannot create a POJO instance, the class " + m_className
+                        + " cannot be loaded");
+            }
         }
 
         // The following code doesn't need to be synchronized as is deal only with immutable fields.
@@ -1007,6 +1074,9 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
 
         load(); // Load the class.
 
+        if (m_clazz == null) {
+            throw new RuntimeException("The class of the injected object in " + m_name + " cannot be loaded");
+        }
         if (!m_clazz.isInstance(obj)) {
             throw new RuntimeException("The injected object in " + m_name + " is not an instance of " + m_className);
         }
@@ -1180,14 +1250,39 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      * @return the value decided by the last asked handler (throws a warning if two fields decide two different values)
      */
     public Object onGet(Object pojo, String fieldName) {
+        // The registration map is immutable.
+        return onGet(pojo, fieldName, (FieldInterceptor[]) m_fieldRegistration.get(fieldName));
+    }
+
+    /**
+     * This method is called by the manipulated class each time that a GETFIELD instruction is executed.
+     * It behaves as {@link #onGet(Object, String)}, but the field is identified by the integer id
+     * given by the manipulator, so the field interceptors are found without any lookup.
+     *
+     * @param pojo    the pojo object on which the field was get
+     * @param fieldId the id of the field on which the GETFIELD instruction is called
+     * @return the value decided by the last asked handler
+     */
+    public Object onGet(Object pojo, int fieldId) {
+        InterceptorTable table = m_interceptors;
+        return onGet(pojo, table.m_fieldIds[fieldId], table.m_fieldInterceptors[fieldId]);
+    }
+
+    /**
+     * Asks the given field interceptors which value need to be injected.
+     *
+     * @param pojo      the pojo object on which the field was get
+     * @param fieldName the field name
+     * @param list      the interceptors monitoring the field, may be <code>null</code>
+     * @return the value decided by the last asked handler
+     */
+    private Object onGet(Object pojo, String fieldName, FieldInterceptor[] list) {
         Object initialValue = null;
         synchronized (this) { // Stack confinement.
             initialValue = m_fields.get(fieldName);
         }
         Object result = initialValue;
         boolean hasChanged = false;
-        // Get the list of registered handlers
-        FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration.get(fieldName); // Immutable list.
         for (int i = 0; list != null && i < list.length; i++) {
             // Call onGet outside of a synchronized block.
             Object handlerResult = list[i].onGet(pojo, fieldName, initialValue);
@@ -1246,6 +1341,27 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
         }
     }
 
+    /**
+     * Dispatches entry method events on registered method interceptors.
+     * It behaves as {@link #onEntry(Object, String, Object[])}, but the method is identified by
+     * the integer id given by the manipulator.
+     *
+     * @param pojo     the pojo object on which method is invoked.
+     * @param methodId the integer id of the method.
+     * @param args     the argument array
+     */
+    public void onEntry(Object pojo, int methodId, Object[] args) {
+        InterceptorTable table = m_interceptors;
+        MethodInterceptor[] list = table.m_methodInterceptors[methodId];
+        if (list == null) {
+            return;
+        }
+        Member method = getMethodByIndex(table, methodId);
+        for (int i = 0; i < list.length; i++) {
+            list[i].onEntry(pojo, method, args); // Outside a synchronized block.
+        }
+    }
+
     /**
      * Dispatches exit method events on registered method interceptors.
      * The given returned object is an instance of {@link Exception} if the method thrown an
@@ -1273,6 +1389,30 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
         }
     }
 
+    /**
+     * Dispatches exit method events on registered method interceptors.
+     * It behaves as {@link #onExit(Object, String, Object)}, but the method is identified by
+     * the integer id given by the manipulator.
+     *
+     * @param pojo     the pojo object on which method was invoked.
+     * @param methodId the integer id of the method.
+     * @param result   the returned object.
+     */
+    public void onExit(Object pojo, int methodId, Object result) {
+        InterceptorTable table = m_interceptors;
+        MethodInterceptor[] list = table.m_methodInterceptors[methodId];
+        if (list == null) {
+            return;
+        }
+        Member method = getMethodByIndex(table, methodId);
+        for (int i = 0; i < list.length; i++) {
+            list[i].onExit(pojo, method, result);
+        }
+        for (int i = 0; i < list.length; i++) {
+            list[i].onFinally(pojo, method);
+        }
+    }
+
     /**
      * Dispatches error method events on registered method interceptors.
      * or the method has returned <code>null</code>
@@ -1298,6 +1438,48 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
         }
     }
 
+    /**
+     * Dispatches error method events on registered method interceptors.
+     * It behaves as {@link #onError(Object, String, Throwable)}, but the method is identified by
+     * the integer id given by the manipulator.
+     *
+     * @param pojo     the pojo object on which the method was invoked
+     * @param methodId the integer id of the method.
+     * @param error    the Throwable object.
+     */
+    public void onError(Object pojo, int methodId, Throwable error) {
+        InterceptorTable table = m_interceptors;
+        MethodInterceptor[] list = table.m_methodInterceptors[methodId];
+        if (list == null) {
+            return;
+        }
+        Member method = getMethodByIndex(table, methodId);
+        for (int i = 0; i < list.length; i++) {
+            list[i].onError(pojo, method, error);
+        }
+        for (int i = 0; i < list.length; i++) {
+            list[i].onFinally(pojo, method);
+        }
+    }
+
+    /**
+     * Gets the {@link Method} object of the method having the given integer id.
+     * Once computed, the member is cached in the interceptor table.
+     *
+     * @param table    the interceptor table
+     * @param methodId the integer id of the method
+     * @return the method object or <code>null</code> if the method cannot be found.
+     */
+    private Member getMethodByIndex(InterceptorTable table, int methodId) {
+        Member member = table.m_members[methodId];
+        if (member == null) {
+            // Concurrent computations get the same member, so there is no need to synchronize.
+            member = getMethodById(table.m_methodIds[methodId]);
+            table.m_members[methodId] = member;
+        }
+        return member;
+    }
+
     /**
      * Computes the {@link Method} object from the given id.
      * Once computes, a map is used as a cache to avoid to recompute for
@@ -1388,16 +1570,40 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      * @param objectValue the new value of the field
      */
     public void onSet(final Object pojo, final String fieldName, final Object objectValue) {
+        // The registrations cannot be modified, so we can directly access
+        // the interceptor list.
+        onSet(pojo, fieldName, objectValue, (FieldInterceptor[]) m_fieldRegistration.get(fieldName));
+    }
+
+    /**
+     * This method is called by the manipulated class each time that a PUTFIELD instruction is executed.
+     * It behaves as {@link #onSet(Object, String, Object)}, but the field is identified by the integer id
+     * given by the manipulator, so the field interceptors are found without any lookup.
+     *
+     * @param pojo        the pojo object on which the field was set
+     * @param fieldId     the id of the field on which the PUTFIELD instruction is called
+     * @param objectValue the new value of the field
+     */
+    public void onSet(final Object pojo, final int fieldId, final Object objectValue) {
+        InterceptorTable table = m_interceptors;
+        onSet(pojo, table.m_fieldIds[fieldId], objectValue, table.m_fieldInterceptors[fieldId]);
+    }
+
+    /**
+     * Stores the new value of a field and notifies the given field interceptors.
+     *
+     * @param pojo        the pojo object on which the field was set
+     * @param fieldName   the field name
+     * @param objectValue the new value of the field
+     * @param list        the interceptors monitoring the field, may be <code>null</code>
+     */
+    private void onSet(Object pojo, String fieldName, Object objectValue, FieldInterceptor[] list) {
         synchronized (this) {
             // First, store the new value.
             // This must be done in a synchronized block to avoid
             // concurrent modification
             m_fields.put(fieldName, objectValue);
         }
-        // The registrations cannot be modified, so we can directly access
-        // the interceptor list.
-        FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration
-                .get(fieldName);
         for (int i = 0; list != null && i < list.length; i++) {
             // The callback must be call outside the synchronization block.
             list[i].onSet(pojo, fieldName, objectValue);
@@ -1575,4 +1781,40 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
     public BundleContext getInstanceContext() {
         return m_instanceContext;
     }
+
+    /**
+     * The interceptors of the fields and methods, indexed by the integer ids used by the manipulated class.
+     * The interceptor lists are immutable, only the member cache is filled lazily.
+     */
+    private static final class InterceptorTable {
+        /**
+         * The field names, indexed by field id.
+         */
+        private final String[] m_fieldIds;
+        /**
+         * The field interceptors, indexed by field id.
+         */
+        private final FieldInterceptor[][] m_fieldInterceptors;
+        /**
+         * The method ids, indexed by integer id.
+         */
+        private final String[] m_methodIds;
+        /**
+         * The method interceptors, indexed by integer id.
+         */
+        private final MethodInterceptor[][] m_methodInterceptors;
+        /**
+         * The member objects, indexed by integer id, computed on the first call.
+         */
+        private final Member[] m_members;
+
+        private InterceptorTable(String[] fieldIds, FieldInterceptor[][] fieldInterceptors, String[] methodIds,
+                                 MethodInterceptor[][] methodInterceptors) {
+            m_fieldIds = fieldIds;
+            m_fieldInterceptors = fieldInterceptors;
+            m_methodIds = methodIds;
+            m_methodInterceptors = methodInterceptors;
+            m_members = new Member[methodIds.length];
+        }
+    }
 }
@@ -168,9 +168,11 @@ public class Extender implements BundleActivator {
 
             // Create the queue services
             SynchronousQueueService sync = new SynchronousQueueService(context);
+            // Bundles are processed in parallel, default to one thread per processor if no system property is set
+            int processors = Runtime.getRuntime().availableProcessors();
             ExecutorQueueService async = new ExecutorQueueService(context,
                                                                   Integer.getInteger(ExecutorQueueService.THREADPOOL_SIZE_PROPERTY,
-                                                                                     1), // default to 1 if no system property is set
+                                                                                     processors),
                                                                   threadFactory);
             m_queueService = new PreferenceQueueService(new HeaderPreferenceSelection(), sync, async);
 
@@ -21,10 +21,12 @@ package org.apache.felix.ipojo.extender.internal.queue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.felix.ipojo.extender.internal.AbstractService;
 import org.apache.felix.ipojo.extender.queue.Callback;
 import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.ipojo.extender.queue.JobStatistics;
 import org.apache.felix.ipojo.extender.queue.QueueListener;
 import org.apache.felix.ipojo.extender.queue.QueueService;
 import org.osgi.framework.BundleContext;
@@ -34,13 +36,18 @@ import org.osgi.framework.BundleContext;
  * Date: 01/10/13
  * Time: 14:41
  */
-public abstract class AbstractQueueService extends AbstractService implements QueueService, QueueNotifier {
+public abstract class AbstractQueueService extends AbstractService implements QueueService, QueueNotifier, JobStatistics {
 
     /**
      * Store QueueListeners.
      */
     protected final List<QueueListener> m_listeners = new ArrayList<QueueListener>();
 
+    /**
+     * The statistics populated by this queue service.
+     */
+    protected final Statistic m_statistic = new Statistic();
+
     /**
      * Constructor.
      *
@@ -59,6 +66,22 @@ public abstract class AbstractQueueService extends AbstractService implements Qu
         m_listeners.remove(listener);
     }
 
+    public long[] getHistogramBounds() {
+        return Histogram.getBounds();
+    }
+
+    public Set<String> getJobTypes() {
+        return m_statistic.getJobTypes();
+    }
+
+    public long[] getWaitHistogram(String jobType) {
+        return m_statistic.getWaitCounters(jobType);
+    }
+
+    public long[] getExecutionHistogram(String jobType) {
+        return m_statistic.getExecutionCounters(jobType);
+    }
+
     public void fireEnlistedJobInfo(JobInfo info) {
         for (QueueListener listener : m_listeners) {
             listener.enlisted(info);
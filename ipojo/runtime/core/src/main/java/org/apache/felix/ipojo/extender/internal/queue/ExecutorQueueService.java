@@ -20,6 +20,8 @@
 package org.apache.felix.ipojo.extender.internal.queue;
 
 import org.apache.felix.ipojo.extender.internal.LifecycleQueueService;
+import org.apache.felix.ipojo.extender.internal.linker.ManagedType;
+import org.apache.felix.ipojo.extender.internal.processor.QueuingActivationProcessor;
 import org.apache.felix.ipojo.extender.queue.Callback;
 import org.apache.felix.ipojo.extender.queue.Job;
 import org.apache.felix.ipojo.extender.queue.JobInfo;
@@ -32,9 +34,13 @@ import org.osgi.service.cm.ManagedService;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An asynchronous implementation of the queue service. This implementation relies on an executor service.
+ * Waiting jobs are executed according to their type: factory creations first, so types are available as soon as
+ * possible, then bundle activations, and instance startups last. Jobs of the same type are executed in their
+ * submission order.
  */
 public class ExecutorQueueService extends AbstractQueueService implements LifecycleQueueService, ManagedService {
 
@@ -53,15 +59,23 @@ public class ExecutorQueueService extends AbstractQueueService implements Lifecy
      */
     private final static int DEFAULT_QUEUE_SIZE = 3;
 
+    /**
+     * The job types, by decreasing priority. Other job types are executed after these ones.
+     */
+    private final static List<String> JOB_TYPE_PRIORITIES = Arrays.asList(
+            ManagedType.FACTORY_CREATION_JOB_TYPE,
+            QueuingActivationProcessor.BUNDLE_ACTIVATION_JOB_TYPE,
+            ManagedType.INSTANCE_STARTUP_JOB_TYPE);
+
     /**
      * The executor service.
      */
     private final ThreadPoolExecutor m_executorService;
 
     /**
-     * The statistics populated by this queue service.
+     * Submission counter, keeping the submission order of jobs having the same priority.
      */
-    private final Statistic m_statistic = new Statistic();
+    private final AtomicLong m_sequence = new AtomicLong();
 
     /**
      * Store service properties (used when updating their values)
@@ -89,7 +103,7 @@ public class ExecutorQueueService extends AbstractQueueService implements Lifecy
      * @param size          the thread pool size.
      */
     public ExecutorQueueService(BundleContext bundleContext, int size) {
-        this(bundleContext, (ThreadPoolExecutor) Executors.newFixedThreadPool(size));
+        this(bundleContext, size, Executors.defaultThreadFactory());
     }
 
     /**
@@ -100,7 +114,10 @@ public class ExecutorQueueService extends AbstractQueueService implements Lifecy
      * @param threadFactory the thread factory
      */
     public ExecutorQueueService(BundleContext bundleContext, int size, ThreadFactory threadFactory) {
-        this(bundleContext, (ThreadPoolExecutor) Executors.newFixedThreadPool(size, threadFactory));
+        this(bundleContext, new ThreadPoolExecutor(size, size,
+                                                   0L, TimeUnit.MILLISECONDS,
+                                                   new PriorityBlockingQueue<Runnable>(),
+                                                   threadFactory));
     }
 
 
@@ -184,7 +201,25 @@ public class ExecutorQueueService extends AbstractQueueService implements Lifecy
      */
     public <T> Future<T> submit(Job<T> callable, Callback<T> callback, String description) {
         JobInfoCallable<T> task = new JobInfoCallable<T>(this, m_statistic, callable, callback, description);
-        return m_executorService.submit(task);
+        PriorityFutureTask<T> future = new PriorityFutureTask<T>(task,
+                                                                 getPriority(callable.getJobType()),
+                                                                 m_sequence.getAndIncrement());
+        m_executorService.execute(future);
+        return future;
+    }
+
+    /**
+     * Computes the priority of a job type, lower values are executed first.
+     *
+     * @param jobType the job type, may be {@literal null}
+     * @return the priority
+     */
+    private static int getPriority(String jobType) {
+        int index = JOB_TYPE_PRIORITIES.indexOf(jobType);
+        if (index == -1) {
+            return JOB_TYPE_PRIORITIES.size();
+        }
+        return index;
     }
 
     public <T> Future<T> submit(Job<T> callable, String description) {
@@ -211,9 +246,14 @@ public class ExecutorQueueService extends AbstractQueueService implements Lifecy
             Integer newSize = getIntegerProperty(o, DEFAULT_QUEUE_SIZE);
 
             if (newSize != m_executorService.getMaximumPoolSize()) {
-                // Apply configuration change
-                m_executorService.setCorePoolSize(newSize);
-                m_executorService.setMaximumPoolSize(newSize);
+                // Apply configuration change, the core size cannot exceed the maximum size
+                if (newSize > m_executorService.getMaximumPoolSize()) {
+                    m_executorService.setMaximumPoolSize(newSize);
+                    m_executorService.setCorePoolSize(newSize);
+                } else {
+                    m_executorService.setCorePoolSize(newSize);
+                    m_executorService.setMaximumPoolSize(newSize);
+                }
                 m_properties.put(THREADPOOL_SIZE_PROPERTY, newSize);
                 changed = true;
             }
@@ -247,4 +287,32 @@ public class ExecutorQueueService extends AbstractQueueService implements Lifecy
         }
         return newSize;
     }
+
+    /**
+     * A future task ordered by priority, then by submission order.
+     * The executor queue is a priority queue, so these tasks must be given to
+     * {@link ThreadPoolExecutor#execute(Runnable)} directly.
+     */
+    private static class PriorityFutureTask<T> extends FutureTask<T> implements Comparable<PriorityFutureTask<?>> {
+
+        private final int m_priority;
+
+        private final long m_sequence;
+
+        public PriorityFutureTask(Callable<T> callable, int priority, long sequence) {
+            super(callable);
+            m_priority = priority;
+            m_sequence = sequence;
+        }
+
+        public int compareTo(PriorityFutureTask<?> other) {
+            if (m_priority != other.m_priority) {
+                return (m_priority < other.m_priority) ? -1 : 1;
+            }
+            if (m_sequence != other.m_sequence) {
+                return (m_sequence < other.m_sequence) ? -1 : 1;
+            }
+            return 0;
+        }
+    }
 }
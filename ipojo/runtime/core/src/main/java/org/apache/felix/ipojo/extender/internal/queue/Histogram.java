@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.extender.internal.queue;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of durations, using fixed buckets.
+ */
+public class Histogram {
+
+    /**
+     * The upper bounds of the buckets (in milliseconds).
+     */
+    private static final long[] BOUNDS = new long[] {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    /**
+     * The counters, one per bucket plus one for the durations over the last bound.
+     */
+    private final AtomicLongArray m_counters = new AtomicLongArray(BOUNDS.length + 1);
+
+    /**
+     * @return a copy of the buckets upper bounds.
+     */
+    public static long[] getBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * Counts a duration.
+     *
+     * @param duration the duration in milliseconds
+     */
+    public void record(long duration) {
+        int bucket = 0;
+        while (bucket < BOUNDS.length && duration >= BOUNDS[bucket]) {
+            bucket++;
+        }
+        m_counters.incrementAndGet(bucket);
+    }
+
+    /**
+     * @return a snapshot of the counters.
+     */
+    public long[] getCounters() {
+        long[] counters = new long[m_counters.length()];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = m_counters.get(i);
+        }
+        return counters;
+    }
+}
@@ -106,6 +106,7 @@ public class JobInfoCallable<T> implements Callable<T>, JobInfo {
     public T call() throws Exception {
         m_statistic.getWaiters().remove(this);
         startTime = System.currentTimeMillis();
+        m_statistic.getWaitHistogram(getJobType()).record(startTime - enlistmentTime);
         m_statistic.getCurrentsCounter().incrementAndGet();
         T result = null;
         Exception exception = null;
@@ -123,6 +124,11 @@ public class JobInfoCallable<T> implements Callable<T>, JobInfo {
             exception = e;
             throw e;
         } finally {
+            if (endTime == -1) {
+                // An Error (not an Exception) was thrown
+                endTime = System.currentTimeMillis();
+            }
+            m_statistic.getExecutionHistogram(getJobType()).record(endTime - startTime);
             m_statistic.getCurrentsCounter().decrementAndGet();
             m_statistic.getFinishedCounter().incrementAndGet();
 
@@ -24,6 +24,9 @@ import org.apache.felix.ipojo.extender.queue.JobInfo;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -45,6 +48,16 @@ public class Statistic {
      */
     private final AtomicInteger m_currents = new AtomicInteger(0);
 
+    /**
+     * The waiting time histograms, per job type.
+     */
+    private final ConcurrentMap<String, Histogram> m_waitHistograms = new ConcurrentHashMap<String, Histogram>();
+
+    /**
+     * The execution duration histograms, per job type.
+     */
+    private final ConcurrentMap<String, Histogram> m_executionHistograms = new ConcurrentHashMap<String, Histogram>();
+
     /**
      * @return the number of completed jobs.
      */
@@ -66,5 +79,58 @@ public class Statistic {
         return m_currents;
     }
 
+    /**
+     * @param jobType the job type, may be {@literal null}
+     * @return the waiting time histogram of the given job type.
+     */
+    public Histogram getWaitHistogram(String jobType) {
+        return getHistogram(m_waitHistograms, jobType);
+    }
+
+    /**
+     * @param jobType the job type, may be {@literal null}
+     * @return the execution duration histogram of the given job type.
+     */
+    public Histogram getExecutionHistogram(String jobType) {
+        return getHistogram(m_executionHistograms, jobType);
+    }
+
+    /**
+     * @return the types of the jobs having statistics.
+     */
+    public Set<String> getJobTypes() {
+        return Collections.unmodifiableSet(m_waitHistograms.keySet());
+    }
+
+    /**
+     * @param jobType the job type
+     * @return the waiting time histogram of the given job type, {@literal null} if there is none.
+     */
+    public long[] getWaitCounters(String jobType) {
+        Histogram histogram = m_waitHistograms.get(jobType);
+        return (histogram == null) ? null : histogram.getCounters();
+    }
+
+    /**
+     * @param jobType the job type
+     * @return the execution duration histogram of the given job type, {@literal null} if there is none.
+     */
+    public long[] getExecutionCounters(String jobType) {
+        Histogram histogram = m_executionHistograms.get(jobType);
+        return (histogram == null) ? null : histogram.getCounters();
+    }
+
+    private static Histogram getHistogram(ConcurrentMap<String, Histogram> histograms, String jobType) {
+        String key = (jobType == null) ? "unknown" : jobType;
+        Histogram histogram = histograms.get(key);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
 
 }
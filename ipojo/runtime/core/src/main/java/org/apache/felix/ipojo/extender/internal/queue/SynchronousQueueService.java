@@ -39,8 +39,6 @@ import java.util.concurrent.*;
  */
 public class SynchronousQueueService extends AbstractQueueService implements LifecycleQueueService {
 
-    private final Statistic m_statistic = new Statistic();
-
     public SynchronousQueueService(BundleContext bundleContext) {
         super(bundleContext, QueueService.class);
     }
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.extender.queue;
+
+import java.util.Set;
+
+/**
+ * Histograms of the time spent by the jobs of a {@link org.apache.felix.ipojo.extender.queue.QueueService} in the
+ * waiting queue and in execution, per job type.
+ * A queue service may implement this interface in addition to {@link QueueService}.
+ *
+ * A histogram is an array of counters. The counter {@code i} counts the durations lower than the bound {@code i}
+ * (and greater or equal to the previous bound), the last counter counts the durations greater or equal to the last
+ * bound. So histograms have one more counter than bounds.
+ */
+public interface JobStatistics {
+
+    /**
+     * Gets the upper bounds of the histograms buckets.
+     *
+     * @return the increasing bounds, in milliseconds
+     */
+    long[] getHistogramBounds();
+
+    /**
+     * Gets the types of the jobs started so far. Jobs without type are reported under the {@literal unknown} type.
+     *
+     * @return the job type identifiers
+     */
+    Set<String> getJobTypes();
+
+    /**
+     * Gets the histogram of the time spent in the waiting queue by the jobs of the given type.
+     *
+     * @param jobType the job type identifier
+     * @return a snapshot of the histogram, {@literal null} if no job of this type was started
+     */
+    long[] getWaitHistogram(String jobType);
+
+    /**
+     * Gets the histogram of the execution duration of the jobs of the given type.
+     *
+     * @param jobType the job type identifier
+     * @return a snapshot of the histogram, {@literal null} if no job of this type was started
+     */
+    long[] getExecutionHistogram(String jobType);
+}
@@ -38,6 +38,11 @@ import java.util.*;
 public class Dependency extends DependencyModel implements FieldInterceptor, MethodInterceptor,
         ConstructorInjector {
 
+    /**
+     * Marker of a not computed snapshot (the injected object may be {@code null}).
+     */
+    private static final Object NO_SNAPSHOT = new Object();
+
     /**
      * Reference on the Dependency Handler.
      */
@@ -80,6 +85,24 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * Thread Local.
      */
     private ServiceUsage m_usage;
+    /**
+     * Are the service objects injected from the snapshot instead of the thread local ?
+     * This is the case for non-proxied static scalar field dependencies, as the used service cannot change while the
+     * dependency is frozen.
+     * Immutable once the dependency is started.
+     */
+    private boolean m_snapshotInjection;
+    /**
+     * The object injected in the field while the dependency is frozen,
+     * {@link #NO_SNAPSHOT} if not computed yet.
+     */
+    private volatile Object m_snapshot = NO_SNAPSHOT;
+    /**
+     * Incremented every time the snapshot is discarded, to detect a snapshot computed concurrently from
+     * a former set of services.
+     * Modified under the write lock.
+     */
+    private volatile int m_snapshotGeneration;
     /**
      * Type of the object to inject in aggregate dependency. This value is used to determine what kind of object need
      * to be injected for fields and constructor parameter for aggregate dependencies.
@@ -212,6 +235,7 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
     public void stop() {
         acquireWriteLockIfNotHeld();
         m_isStarted = false;
+        discardSnapshot();
         super.stop();
         releaseWriteLockIfHeld();
 
@@ -239,6 +263,7 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
         try {
             acquireWriteLockIfNotHeld();
             m_isFrozen = false;
+            discardSnapshot();
         } finally {
             releaseWriteLockIfHeld();
         }
@@ -505,6 +530,8 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
             }
         }
 
+        m_snapshotInjection = isSnapshotInjection();
+
         super.start();
 
         // Once the dependency is started, access to fields must be protected.
@@ -579,6 +606,13 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * @see org.apache.felix.ipojo.util.DependencyModel#onDependencyReconfiguration(org.osgi.framework.ServiceReference[], org.osgi.framework.ServiceReference[])
      */
     public void onDependencyReconfiguration(ServiceReference[] departs, ServiceReference[] arrivals) {
+        try {
+            acquireWriteLockIfNotHeld();
+            discardSnapshot();
+        } finally {
+            releaseWriteLockIfHeld();
+        }
+
         for (int i = 0; departs != null && i < departs.length; i++) {
             callUnbindMethod(departs[i]);
         }
@@ -593,6 +627,12 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * For testing purpose only.
      */
     public void resetLocalCache() {
+        try {
+            acquireWriteLockIfNotHeld();
+            discardSnapshot();
+        } finally {
+            releaseWriteLockIfHeld();
+        }
         if (m_usage != null) {
             Usage usage = (Usage) m_usage.get();
             if (usage.m_stack > 0) {
@@ -714,6 +754,9 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * @see org.apache.felix.ipojo.FieldInterceptor#onGet(java.lang.Object, java.lang.String, java.lang.Object)
      */
     public Object onGet(Object pojo, String fieldName, Object value) {
+        if (m_snapshotInjection) {
+            return getSnapshot();
+        }
 
         // Initialize the thread local object is not already touched.
         Usage usage = m_usage.get();
@@ -730,6 +773,63 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
 
     }
 
+    /**
+     * Checks whether the service objects can be injected from a snapshot shared by all threads, without tracking
+     * the method flows in a thread local. The snapshot is used for static scalar field dependencies, as the used
+     * service is stable while the dependency is frozen. Proxied dependencies still rely on the thread local, and so
+     * do aggregate dependencies, as each thread gets its own array or collection, which it may modify.
+     * This method must be called once the dependency is configured.
+     *
+     * @return {@code true} if the dependency uses a snapshot, in which case it does not need to intercept methods.
+     */
+    public boolean isSnapshotInjection() {
+        return m_field != null && m_index == -1 && !m_isProxy && !isAggregate()
+                && getBindingPolicy() == STATIC_BINDING_POLICY;
+    }
+
+    /**
+     * Gets the object to inject from the snapshot, computing the snapshot if needed.
+     * The snapshot is kept only if the dependency is frozen, otherwise the object is computed for each access.
+     *
+     * @return the service object(s) or a nullable / default implementation if defined.
+     */
+    private Object getSnapshot() {
+        if (isAggregate()) {
+            // The dependency became aggregate once started: don't share the array or collection between accesses.
+            Usage usage = new Usage();
+            createServiceObject(usage);
+            return usage.m_object;
+        }
+
+        Object snapshot = m_snapshot;
+        if (snapshot != NO_SNAPSHOT) {
+            return snapshot;
+        }
+
+        int generation = m_snapshotGeneration;
+        Usage usage = new Usage();
+        createServiceObject(usage);
+        try {
+            acquireReadLockIfNotHeld();
+            // Don't keep a snapshot computed while the dependency was not frozen, or was unfrozen meanwhile.
+            if (m_isFrozen && generation == m_snapshotGeneration) {
+                m_snapshot = usage.m_object;
+            }
+        } finally {
+            releaseReadLockIfHeld();
+        }
+        return usage.m_object;
+    }
+
+    /**
+     * Discards the snapshot, so the object to inject is computed again on the next access.
+     * Must be called with the write lock.
+     */
+    private void discardSnapshot() {
+        m_snapshotGeneration++;
+        m_snapshot = NO_SNAPSHOT;
+    }
+
     /**
      * Creates the object to store in the given Thread Local.
      * This object will be injected inside the POJO field.
@@ -867,7 +967,7 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * @see org.apache.felix.ipojo.MethodInterceptor#onEntry(java.lang.Object, java.lang.reflect.Member, java.lang.Object[])
      */
     public void onEntry(Object pojo, Member method, Object[] args) {
-        if (m_usage != null) {
+        if (m_usage != null && !m_snapshotInjection) {
             Usage usage = m_usage.get();
             usage.incComponentStack(); // Increment the number of component access.
             if (usage.m_stack > 0) {
@@ -910,7 +1010,7 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * @see org.apache.felix.ipojo.MethodInterceptor#onFinally(java.lang.Object, java.lang.reflect.Member)
      */
     public void onFinally(Object pojo, Member method) {
-        if (m_usage != null) {
+        if (m_usage != null && !m_snapshotInjection) {
             Usage usage = m_usage.get();
             usage.decComponentStack();
             if (usage.m_stack > 0) {
@@ -264,10 +264,18 @@ public class DependencyHandler extends PrimitiveHandler implements DependencySta
 
         }
 
-        if (atLeastOneField) { // Does register only if we have fields
+        // Dependencies injected from a snapshot don't track the method flows, so are not registered on methods.
+        List<Dependency> tracked = new ArrayList<Dependency>();
+        for (Dependency dep : m_dependencies) {
+            if (!dep.isSnapshotInjection()) {
+                tracked.add(dep);
+            }
+        }
+
+        if (atLeastOneField && !tracked.isEmpty()) { // Does register only if we have fields
             MethodMetadata[] methods = manipulation.getMethods();
             for (MethodMetadata method : methods) {
-                for (Dependency dep : m_dependencies) {
+                for (Dependency dep : tracked) {
                     getInstanceManager().register(method, dep);
                 }
             }
@@ -277,7 +285,7 @@ public class DependencyHandler extends PrimitiveHandler implements DependencySta
                 MethodMetadata[] meths = manipulation.getMethodsFromInnerClass(inner);
                 if (meths != null) {
                     for (MethodMetadata method : meths) {
-                        for (Dependency dep : m_dependencies) {
+                        for (Dependency dep : tracked) {
                             getInstanceManager().register(method, inner, dep);
                         }
                     }
@@ -26,10 +26,18 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.concurrent.Future;
 
+import org.apache.felix.ipojo.extender.internal.linker.ManagedType;
+import org.apache.felix.ipojo.extender.internal.processor.QueuingActivationProcessor;
+import org.apache.felix.ipojo.extender.internal.queue.callable.EmptyJob;
+
 import org.apache.felix.ipojo.extender.internal.queue.callable.SleepingCallable;
 import org.apache.felix.ipojo.extender.internal.queue.callable.StringCallable;
 import org.apache.felix.ipojo.extender.queue.Callback;
@@ -200,6 +208,79 @@ public class ExecutorQueueServiceTestCase extends TestCase {
 
         verifyZeroInteractions(m_registration);
     }
-}
 
+    public void testJobTypePriorities() throws Exception {
+        ExecutorQueueService queueService = new ExecutorQueueService(m_bundleContext, 1);
+        queueService.start();
+
+        final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+        // Keep the only thread busy while the other jobs are queued
+        Future<String> busy = queueService.submit(new SleepingCallable(100, "busy"));
+        Future<String> instance = queueService.submit(new RecordingJob(ManagedType.INSTANCE_STARTUP_JOB_TYPE, executed));
+        Future<String> other = queueService.submit(new RecordingJob("test", executed));
+        Future<String> bundle = queueService.submit(new RecordingJob(QueuingActivationProcessor.BUNDLE_ACTIVATION_JOB_TYPE, executed));
+        Future<String> factory = queueService.submit(new RecordingJob(ManagedType.FACTORY_CREATION_JOB_TYPE, executed));
+
+        busy.get();
+        instance.get();
+        other.get();
+        bundle.get();
+        factory.get();
+
+        assertEquals(Arrays.asList(ManagedType.FACTORY_CREATION_JOB_TYPE,
+                                   QueuingActivationProcessor.BUNDLE_ACTIVATION_JOB_TYPE,
+                                   ManagedType.INSTANCE_STARTUP_JOB_TYPE,
+                                   "test"),
+                     executed);
+
+        queueService.stop();
+    }
+
+    public void testHistograms() throws Exception {
+        ExecutorQueueService queueService = new ExecutorQueueService(m_bundleContext, 1);
+        queueService.start();
 
+        queueService.submit(new StringCallable("a", "1")).get();
+        queueService.submit(new StringCallable("a", "2")).get();
+        queueService.submit(new SleepingCallable(50, "3")).get();
+
+        assertTrue(queueService.getJobTypes().contains("a"));
+        assertTrue(queueService.getJobTypes().contains("test"));
+        assertNull(queueService.getWaitHistogram("b"));
+
+        long[] bounds = queueService.getHistogramBounds();
+        assertEquals(bounds.length + 1, queueService.getWaitHistogram("a").length);
+        assertEquals(2, sum(queueService.getWaitHistogram("a")));
+        assertEquals(2, sum(queueService.getExecutionHistogram("a")));
+
+        // The sleeping job cannot fall in the first buckets
+        long[] execution = queueService.getExecutionHistogram("test");
+        assertEquals(1, sum(execution));
+        assertEquals(0, execution[0]);
+
+        queueService.stop();
+    }
+
+    private static long sum(long[] histogram) {
+        long sum = 0;
+        for (long counter : histogram) {
+            sum += counter;
+        }
+        return sum;
+    }
+
+    private static class RecordingJob extends EmptyJob<String> {
+        private final List<String> m_executed;
+
+        public RecordingJob(String type, List<String> executed) {
+            super(null, type);
+            m_executed = executed;
+        }
+
+        public String call() throws Exception {
+            m_executed.add(getJobType());
+            return getJobType();
+        }
+    }
+}
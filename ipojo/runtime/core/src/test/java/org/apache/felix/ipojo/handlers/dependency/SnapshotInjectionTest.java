@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.ipojo.handlers.dependency;
+
+import org.apache.felix.ipojo.InstanceManager;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks which dependencies are injected from a snapshot shared by all threads, and which snapshot is injected while
+ * services come and go.
+ */
+public class SnapshotInjectionTest {
+
+    private final BundleContext context = mock(BundleContext.class);
+    private final InstanceManager instance = mock(InstanceManager.class);
+    private final DependencyHandler handler = mock(DependencyHandler.class);
+    private final List<ServiceReference> services = new ArrayList<ServiceReference>();
+    private final Map<Object, Object> objects = new HashMap<Object, Object>();
+
+    public SnapshotInjectionTest() {
+        // The dependency gets the services from references wrapping ours, so look the service objects up by id.
+        when(context.getService(Mockito.any(ServiceReference.class))).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                ServiceReference reference = (ServiceReference) invocation.getArguments()[0];
+                return objects.get(reference.getProperty(Constants.SERVICE_ID));
+            }
+        });
+    }
+
+    @Test
+    public void testStaticScalarFieldDependency() {
+        assertThat(dependency("a_field", false, false, Dependency.STATIC_BINDING_POLICY).isSnapshotInjection())
+                .isTrue();
+    }
+
+    @Test
+    public void testStaticAggregateFieldDependency() {
+        // each thread must get its own array or collection
+        assertThat(dependency("a_field", true, false, Dependency.STATIC_BINDING_POLICY).isSnapshotInjection())
+                .isFalse();
+    }
+
+    @Test
+    public void testDynamicFieldDependency() {
+        assertThat(dependency("a_field", false, false, Dependency.DYNAMIC_BINDING_POLICY).isSnapshotInjection())
+                .isFalse();
+    }
+
+    @Test
+    public void testProxiedFieldDependency() {
+        assertThat(dependency("a_field", false, true, Dependency.STATIC_BINDING_POLICY).isSnapshotInjection())
+                .isFalse();
+    }
+
+    @Test
+    public void testCallbackOnlyDependency() {
+        assertThat(dependency(null, false, false, Dependency.STATIC_BINDING_POLICY).isSnapshotInjection())
+                .isFalse();
+    }
+
+    @Test
+    public void testSnapshotIsKeptWhileFrozen() throws InvalidSyntaxException {
+        List a = register(1);
+        CountingDependency dependency = start(true);
+        assertThat(dependency.isFrozen()).isTrue();
+
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        int lookups = dependency.m_lookups;
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        assertThat(dependency.m_lookups).isEqualTo(lookups);
+    }
+
+    @Test
+    public void testSnapshotIsNotKeptWhenNotFrozen() throws InvalidSyntaxException {
+        List a = register(1);
+        // No POJO object yet: the dependency does not freeze.
+        CountingDependency dependency = start(false);
+        assertThat(dependency.isFrozen()).isFalse();
+
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        int lookups = dependency.m_lookups;
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        assertThat(dependency.m_lookups).isGreaterThan(lookups);
+    }
+
+    @Test
+    public void testArrivalBeforeFreezeIsInjected() throws InvalidSyntaxException {
+        CountingDependency dependency = start(false);
+        assertThat(dependency.onGet(null, "a_field", null)).isNull();
+
+        List a = register(1);
+        arrive(1);
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+    }
+
+    @Test
+    public void testArrivalWhileFrozenKeepsSnapshot() throws InvalidSyntaxException {
+        List a = register(1);
+        CountingDependency dependency = start(true);
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+
+        // A frozen static dependency ignores the new providers.
+        register(2);
+        arrive(2);
+        int lookups = dependency.m_lookups;
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        assertThat(dependency.m_lookups).isEqualTo(lookups);
+    }
+
+    @Test
+    public void testDepartureDiscardsSnapshot() throws InvalidSyntaxException {
+        List a = register(1);
+        List b = register(2);
+        CountingDependency dependency = start(true);
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+
+        // The used service leaves: the static dependency is broken, and the instance is restarted.
+        depart(1);
+        assertThat(dependency.isFrozen()).isFalse();
+        verify(instance).stop();
+        dependency.stop();
+        dependency.start();
+
+        assertThat(dependency.isFrozen()).isTrue();
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(b);
+    }
+
+    @Test
+    public void testUnfreezeDiscardsSnapshot() throws InvalidSyntaxException {
+        List a = register(1);
+        CountingDependency dependency = start(true);
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+
+        dependency.unfreeze();
+        int lookups = dependency.m_lookups;
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        assertThat(dependency.m_lookups).isGreaterThan(lookups);
+        // Not frozen anymore: the object is computed for each access.
+        lookups = dependency.m_lookups;
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        assertThat(dependency.m_lookups).isGreaterThan(lookups);
+    }
+
+    @Test
+    public void testReconfigurationDiscardsSnapshot() throws InvalidSyntaxException {
+        List a = register(1);
+        CountingDependency dependency = start(true);
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+
+        dependency.onDependencyReconfiguration(null, null);
+        int lookups = dependency.m_lookups;
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        assertThat(dependency.m_lookups).isGreaterThan(lookups);
+        // Still frozen: the new snapshot is kept.
+        lookups = dependency.m_lookups;
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        assertThat(dependency.m_lookups).isEqualTo(lookups);
+    }
+
+    @Test
+    public void testSnapshotComputedDuringReconfigurationIsNotKept() throws InvalidSyntaxException {
+        List a = register(1);
+        final CountingDependency dependency = start(true);
+
+        // The dependency is reconfigured while the snapshot is being computed.
+        dependency.m_onLookup = new Runnable() {
+            public void run() {
+                dependency.m_onLookup = null;
+                dependency.onDependencyReconfiguration(null, null);
+            }
+        };
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+
+        int lookups = dependency.m_lookups;
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        assertThat(dependency.m_lookups).isGreaterThan(lookups);
+        lookups = dependency.m_lookups;
+        assertThat(dependency.onGet(null, "a_field", null)).isSameAs(a);
+        assertThat(dependency.m_lookups).isEqualTo(lookups);
+    }
+
+    /**
+     * Registers a service with the given id, and returns the service object.
+     */
+    private List register(long id) throws InvalidSyntaxException {
+        ServiceReference reference = mock(ServiceReference.class);
+        when(reference.getPropertyKeys()).thenReturn(new String[] {Constants.OBJECTCLASS, Constants.SERVICE_ID});
+        when(reference.getProperty(Constants.OBJECTCLASS)).thenReturn(new String[] {List.class.getName()});
+        when(reference.getProperty(Constants.SERVICE_ID)).thenReturn(id);
+        List service = new ArrayList();
+        objects.put(id, service);
+        services.add(reference);
+        when(context.getServiceReferences(List.class.getName(), null))
+                .thenReturn(services.toArray(new ServiceReference[services.size()]));
+        return service;
+    }
+
+    private void arrive(long id) throws InvalidSyntaxException {
+        fire(ServiceEvent.REGISTERED, id);
+    }
+
+    private void depart(long id) throws InvalidSyntaxException {
+        ServiceReference reference = fire(ServiceEvent.UNREGISTERING, id);
+        services.remove(reference);
+        when(context.getServiceReferences(List.class.getName(), null))
+                .thenReturn(services.isEmpty() ? null : services.toArray(new ServiceReference[services.size()]));
+    }
+
+    private ServiceReference fire(int type, long id) throws InvalidSyntaxException {
+        ArgumentCaptor<ServiceListener> listener = ArgumentCaptor.forClass(ServiceListener.class);
+        // The dependency tracker listens to the services published under the specification.
+        verify(context).addServiceListener(listener.capture(),
+                Mockito.eq("(" + Constants.OBJECTCLASS + "=" + List.class.getName() + ")"));
+        for (ServiceReference reference : services) {
+            if (reference.getProperty(Constants.SERVICE_ID).equals(id)) {
+                listener.getValue().serviceChanged(new ServiceEvent(type, reference));
+                return reference;
+            }
+        }
+        throw new IllegalArgumentException("No service " + id);
+    }
+
+    /**
+     * Starts an optional static scalar field dependency.
+     */
+    private CountingDependency start(boolean pojoCreated) {
+        when(handler.getInstanceManager()).thenReturn(instance);
+        when(instance.getPojoObjects()).thenReturn(pojoCreated ? new Object[] {new Object()} : null);
+        CountingDependency dependency = new CountingDependency(handler, context);
+        dependency.start();
+        return dependency;
+    }
+
+    /**
+     * A dependency counting the service lookups, which happen when the injected object is computed.
+     */
+    private static class CountingDependency extends Dependency {
+        private int m_lookups;
+        private Runnable m_onLookup;
+
+        CountingDependency(DependencyHandler handler, BundleContext context) {
+            super(handler, "a_field", List.class, null, true, false, false, false, "dep", context,
+                    Dependency.STATIC_BINDING_POLICY, null, null, null);
+        }
+
+        @Override
+        public ServiceReference[] getServiceReferences() {
+            m_lookups++;
+            Runnable onLookup = m_onLookup;
+            if (onLookup != null) {
+                onLookup.run();
+            }
+            return super.getServiceReferences();
+        }
+    }
+
+    private Dependency dependency(String field, boolean aggregate, boolean proxy, int policy) {
+        BundleContext context = Mockito.mock(BundleContext.class);
+        DependencyHandler handler = Mockito.mock(DependencyHandler.class);
+        return new Dependency(handler, field, List.class, null, true, aggregate, false, proxy, "dep", context,
+                policy, null, null, null);
+    }
+}
@@ -39,6 +39,8 @@ import org.apache.felix.ipojo.architecture.InstanceDescription;
 import org.apache.felix.ipojo.extender.ExtensionDeclaration;
 import org.apache.felix.ipojo.extender.InstanceDeclaration;
 import org.apache.felix.ipojo.extender.TypeDeclaration;
+import org.apache.felix.ipojo.extender.queue.JobStatistics;
+import org.apache.felix.ipojo.extender.queue.QueueService;
 import org.apache.felix.service.command.Descriptor;
 
 /**
@@ -69,7 +71,8 @@ public class Arch {
         "factories",
         "components",
         "handlers",
-        "extensions"
+        "extensions",
+        "queues"
     };
     
     /**
@@ -108,6 +111,12 @@ public class Arch {
     @Requires(optional = true)
     private ExtensionDeclaration[] m_extensions;
 
+    /**
+     * The extender queue services.
+     */
+    @Requires(optional = true)
+    private QueueService[] m_queues;
+
     /**
      * Displays iPOJO instances.
      */
@@ -352,4 +361,47 @@ public class Arch {
         }
     }
 
+    /**
+     * Displays the extender queues statistics, with the waiting and execution time histograms per job type.
+     */
+    @Descriptor("Display iPOJO extender queues")
+    public void queues() {
+        StringBuilder buffer = new StringBuilder();
+        for (QueueService queue : m_queues) {
+            buffer.append(format("Queue %s -> %d waiting, %d running, %d finished%n",
+                    queue.getClass().getSimpleName(),
+                    queue.getWaiters(),
+                    queue.getCurrents(),
+                    queue.getFinished()));
+            if (queue instanceof JobStatistics) {
+                JobStatistics statistics = (JobStatistics) queue;
+                long[] bounds = statistics.getHistogramBounds();
+                for (String type : statistics.getJobTypes()) {
+                    buffer.append(format("  Job type %s%n", type));
+                    histogram(buffer, "wait", bounds, statistics.getWaitHistogram(type));
+                    histogram(buffer, "execution", bounds, statistics.getExecutionHistogram(type));
+                }
+            }
+        }
+
+        if (buffer.length() == 0) {
+            buffer.append("No queues \n");
+        }
+
+        System.out.println(buffer.toString());
+    }
+
+    private void histogram(StringBuilder buffer, String name, long[] bounds, long[] counters) {
+        buffer.append(format("    %-9s:", name));
+        if (counters != null) {
+            for (int i = 0; i < counters.length; i++) {
+                if (counters[i] != 0) {
+                    String bucket = (i < bounds.length) ? "<" + bounds[i] + "ms" : ">=" + bounds[bounds.length - 1] + "ms";
+                    buffer.append(format(" %s=%d", bucket, counters[i]));
+                }
+            }
+        }
+        buffer.append(format("%n"));
+    }
+
 }
@@ -18,6 +18,9 @@
  */
 package org.apache.felix.log;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.log.LogReaderService;
@@ -43,6 +46,29 @@ import org.osgi.service.log.LogService;
  *   <dt>org.apache.felix.log.storeDebug</dt>
  *   <dd>Determines whether or not debug messages will be stored as part of
  *       the historic log information. The default value is false.</dd>
+ *
+ *   <dt>org.apache.felix.log.storeDirectory</dt>
+ *   <dd>Determines the directory of the persistent log store.  If set, the
+ *       historic log information is written to memory mapped segment files
+ *       in this directory instead of being kept in memory, and the maxSize
+ *       property is ignored.  A relative directory is resolved in the data
+ *       area of this bundle.  By default no log store is used.</dd>
+ *
+ *   <dt>org.apache.felix.log.storeSegmentSize</dt>
+ *   <dd>Determines the size of a log store segment file in bytes.  The
+ *       default value is 1048576.</dd>
+ *
+ *   <dt>org.apache.felix.log.storeSegments</dt>
+ *   <dd>Determines the maximum number of log store segment files; the
+ *       oldest segment is deleted when a new segment is started.  The
+ *       default value is 10.</dd>
+ *
+ *   <dt>org.apache.felix.log.listenerQueueSize</dt>
+ *   <dd>Determines the maximum number of log entries waiting to be delivered
+ *       to a single log listener.  Each listener is served by its own thread;
+ *       if a listener does not keep up, new entries are dropped for that
+ *       listener and it is told how many entries it missed.  A value of -1
+ *       means the queue has no maximum size.  The default value is 10000.</dd>
  * </dl>
  */
 public final class Activator implements BundleActivator
@@ -55,6 +81,20 @@ public final class Activator implements BundleActivator
     private static final String STORE_DEBUG_PROPERTY = "org.apache.felix.log.storeDebug";
     /** The default value for the store debug property. */
     private static final boolean DEFAULT_STORE_DEBUG = false;
+    /** The name of the property that defines the directory of the persistent log store. */
+    private static final String STORE_DIRECTORY_PROPERTY = "org.apache.felix.log.storeDirectory";
+    /** The name of the property that defines the size of a log store segment in bytes. */
+    private static final String STORE_SEGMENT_SIZE_PROPERTY = "org.apache.felix.log.storeSegmentSize";
+    /** The default value for the store segment size property. */
+    private static final int DEFAULT_STORE_SEGMENT_SIZE = 1024 * 1024;
+    /** The name of the property that defines the maximum number of log store segments. */
+    private static final String STORE_SEGMENTS_PROPERTY = "org.apache.felix.log.storeSegments";
+    /** The default value for the store segments property. */
+    private static final int DEFAULT_STORE_SEGMENTS = 10;
+    /** The name of the property that defines the maximum number of entries queued for a listener. */
+    private static final String LISTENER_QUEUE_SIZE_PROPERTY = "org.apache.felix.log.listenerQueueSize";
+    /** The default value for the listener queue size property. */
+    private static final int DEFAULT_LISTENER_QUEUE_SIZE = 10000;
     /** The log. */
     private Log m_log;
 
@@ -65,14 +105,28 @@ public final class Activator implements BundleActivator
      */
     private static int getMaxSize(final BundleContext context)
     {
-        int maxSize = DEFAULT_MAX_SIZE;
+        return getIntProperty(context, MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+    }
 
-        String maxSizePropValue = context.getProperty(MAX_SIZE_PROPERTY);
-        if (maxSizePropValue != null)
+    /**
+     * Returns the value of an integer property.
+     * @param context the bundle context (used to look up a property)
+     * @param name the name of the property
+     * @param defaultValue the value to use if the property is missing or invalid
+     * @return the value of the property
+     */
+    private static int getIntProperty(final BundleContext context,
+        final String name,
+        final int defaultValue)
+    {
+        int value = defaultValue;
+
+        String propValue = context.getProperty(name);
+        if (propValue != null)
         {
             try
             {
-                maxSize = Integer.parseInt(maxSizePropValue);
+                value = Integer.parseInt(propValue);
             }
             catch (NumberFormatException e)
             {
@@ -80,7 +134,37 @@ public final class Activator implements BundleActivator
             }
         }
 
-        return maxSize;
+        return value;
+    }
+
+    /**
+     * Opens the persistent log store if a store directory is configured.
+     * A relative directory is resolved in the bundle's data area.
+     * @param context the bundle context (used to look up the properties)
+     * @return the log store, <code>null</code> if no store is configured
+     * @throws IOException if the store can not be opened
+     */
+    private static LogStore getStore(final BundleContext context) throws IOException
+    {
+        String directoryPropValue = context.getProperty(STORE_DIRECTORY_PROPERTY);
+        if (directoryPropValue == null || directoryPropValue.trim().length() == 0)
+        {
+            return null;
+        }
+
+        File directory = new File(directoryPropValue.trim());
+        if (!directory.isAbsolute())
+        {
+            directory = context.getDataFile(directory.getPath());
+            if (directory == null)
+            {
+                throw new IOException("No file system support for the log store");
+            }
+        }
+
+        return new LogStore(context, directory,
+            getIntProperty(context, STORE_SEGMENT_SIZE_PROPERTY, DEFAULT_STORE_SEGMENT_SIZE),
+            getIntProperty(context, STORE_SEGMENTS_PROPERTY, DEFAULT_STORE_SEGMENTS));
     }
 
     /**
@@ -109,8 +193,25 @@ public final class Activator implements BundleActivator
      */
     public void start(final BundleContext context) throws Exception
     {
-        // create the log instance
-        m_log = new Log(getMaxSize(context), getStoreDebug(context));
+        // create the log instance, falling back to an in-memory history if
+        // the log store can not be opened
+        LogStore store = null;
+        IOException storeFailure = null;
+        try
+        {
+            store = getStore(context);
+        }
+        catch (IOException e)
+        {
+            storeFailure = e;
+        }
+        m_log = new Log(getMaxSize(context), getStoreDebug(context), store,
+            getIntProperty(context, LISTENER_QUEUE_SIZE_PROPERTY, DEFAULT_LISTENER_QUEUE_SIZE));
+        if (storeFailure != null)
+        {
+            m_log.addEntry(new LogEntryImpl(context.getBundle(), null, LogService.LOG_ERROR,
+                "Cannot open the log store, keeping the log in memory only", storeFailure));
+        }
 
         // register the listeners
         context.addBundleListener(m_log);
@@ -18,7 +18,11 @@
  */
 package org.apache.felix.log;
 
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
@@ -39,16 +43,14 @@ import org.osgi.service.log.LogService;
  */
 final class Log implements BundleListener, FrameworkListener, ServiceListener
 {
-    /** The first log entry. */
-    private LogNode m_head;
-    /** The last log entry. */
-    private LogNode m_tail;
-    /** The log size. */
-    private int m_size;
-    /** The log listener thread. */
-    private LogListenerThread listenerThread;
-    /** The maximum size for the log. */
-    private final int m_maxSize;
+    /** The historic log entries, <code>null</code> if no history is kept. */
+    private final LogBuffer m_history;
+    /** The persistent log store, <code>null</code> if the log is not persisted. */
+    private final LogStore m_store;
+    /** The log listener threads, one per registered listener. */
+    private final List m_listenerThreads = new CopyOnWriteArrayList();
+    /** The maximum number of entries queued for a listener, -1 for no limit. */
+    private final int m_listenerQueueSize;
     /** Whether or not to store debug messages. */
     private final boolean m_storeDebug;
 
@@ -59,77 +61,76 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
      */
     Log(final int maxSize, final boolean storeDebug)
     {
-        this.m_maxSize = maxSize;
+        this(maxSize, storeDebug, null, -1);
+    }
+
+    /**
+     * Create a new instance.
+     * @param maxSize the maximum size for the log, ignored if a store is used
+     * @param storeDebug whether or not to store debug messages
+     * @param store the persistent log store, <code>null</code> to keep the
+     * history in memory only
+     * @param listenerQueueSize the maximum number of entries queued for
+     * delivery to a single listener, -1 for no limit
+     */
+    Log(final int maxSize,
+        final boolean storeDebug,
+        final LogStore store,
+        final int listenerQueueSize)
+    {
         this.m_storeDebug = storeDebug;
+        this.m_listenerQueueSize = listenerQueueSize;
+        this.m_store = store;
+        this.m_history = (store == null && maxSize != 0) ? new LogBuffer(maxSize) : null;
     }
 
     /**
      * Close the log.
      */
-    void close()
+    synchronized void close()
     {
-        if (listenerThread != null)
+        Iterator threadIt = m_listenerThreads.iterator();
+        while (threadIt.hasNext())
         {
-            listenerThread.shutdown();
-            listenerThread = null;
+            ((LogListenerThread) threadIt.next()).shutdown();
         }
+        m_listenerThreads.clear();
 
-        m_head = null;
-        m_tail = null;
-        m_size = 0;
+        if (m_history != null)
+        {
+            m_history.clear();
+        }
+        if (m_store != null)
+        {
+            m_store.close();
+        }
     }
 
     /**
-     * Adds the entry to the log.
+     * Adds the entry to the log.  This method does not lock, so threads
+     * logging concurrently do not block each other.
      * @param entry the entry to add to the log
      */
-    synchronized void addEntry(final LogEntry entry)
+    void addEntry(final LogEntry entry)
     {
-        if (m_maxSize != 0)
+        // add the entry to the historic log
+        if (m_storeDebug || entry.getLevel() != LogService.LOG_DEBUG)
         {
-            // add the entry to the historic log
-            if (m_storeDebug || entry.getLevel() != LogService.LOG_DEBUG)
+            if (m_store != null)
             {
-                // create a new node for the entry
-                LogNode node = new LogNode(entry);
-
-                // add to the front of the linked list
-                node.setNextNode(m_head);
-                if (m_head != null)
-                {
-                    m_head.setPreviousNode(node);
-                }
-
-                // and store the node
-                m_head = node;
-
-                // bump the size of the list
-                ++m_size;
-
-                // if no tail node - add the node to the tail
-                if (m_tail == null)
-                {
-                    m_tail = node;
-                }
+                m_store.add(entry);
             }
-
-            // ensure the historic log doesn't grow beyond a certain size
-            if (m_maxSize != -1)
+            else if (m_history != null)
             {
-                if (m_size > m_maxSize)
-                {
-                    LogNode last = m_tail.getPreviousNode();
-                    last.setNextNode(null);
-                    m_tail = last;
-                    --m_size;
-                }
+                m_history.add(entry);
             }
         }
 
         // notify any listeners
-        if (listenerThread != null)
+        Iterator threadIt = m_listenerThreads.iterator();
+        while (threadIt.hasNext())
         {
-            listenerThread.addEntry(entry);
+            ((LogListenerThread) threadIt.next()).addEntry(entry);
         }
     }
 
@@ -139,14 +140,11 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
      */
     synchronized void addListener(final LogListener listener)
     {
-        if (listenerThread == null)
-        {
-            // create a new listener thread if necessary:
-            // the listener thread only runs if there are any registered listeners
-            listenerThread = new LogListenerThread();
-            listenerThread.start();
-        }
-        listenerThread.addListener(listener);
+        // every listener gets its own thread, so a slow listener
+        // does not delay the delivery to the other listeners
+        LogListenerThread listenerThread = new LogListenerThread(listener, m_listenerQueueSize);
+        listenerThread.start();
+        m_listenerThreads.add(listenerThread);
     }
 
     /**
@@ -155,15 +153,15 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
      */
     synchronized void removeListener(final LogListener listener)
     {
-        if (listenerThread != null)
+        Iterator threadIt = m_listenerThreads.iterator();
+        while (threadIt.hasNext())
         {
-            listenerThread.removeListener(listener);
-
-            // shutdown the thread if there are no listeners
-            if (listenerThread.getListenerCount() == 0)
+            LogListenerThread listenerThread = (LogListenerThread) threadIt.next();
+            if (listenerThread.getListener() == listener)
             {
+                m_listenerThreads.remove(listenerThread);
                 listenerThread.shutdown();
-                listenerThread = null;
+                break;
             }
         }
     }
@@ -172,9 +170,17 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
      * Returns an enumeration of all the entries in the log most recent first.
      * @return an enumeration of all the entries in the log most recent first
      */
-    synchronized Enumeration getEntries()
+    Enumeration getEntries()
     {
-        return new LogNodeEnumeration(m_head, m_tail);
+        if (m_store != null)
+        {
+            return m_store.getEntries();
+        }
+        if (m_history == null)
+        {
+            return Collections.enumeration(Collections.EMPTY_LIST);
+        }
+        return m_history.getEntries();
     }
 
     /** The messages returned for the framework events. */
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.osgi.service.log.LogEntry;
+
+/**
+ * The historic log entries.  A bounded log is kept in a ring buffer which
+ * threads add entries to without locking: each entry claims the next sequence
+ * number and is stored together with it in the slot of that sequence number
+ * overwriting the oldest entry.  A writer lapped by a later writer of the same
+ * slot does not overwrite the later entry, and readers check the sequence
+ * number stored with the entry, so a snapshot never contains an entry in the
+ * place of another one.  An unbounded log is kept in a lock free queue.
+ */
+final class LogBuffer
+{
+    /** The entries of a bounded log with their sequence numbers. */
+    private final AtomicReferenceArray m_entries;
+    /** The next sequence number. */
+    private final AtomicLong m_next = new AtomicLong();
+    /** The entries of an unbounded log. */
+    private final ConcurrentLinkedQueue m_unbounded;
+    /** The number of entries of an unbounded log. */
+    private final AtomicInteger m_size = new AtomicInteger();
+
+    /**
+     * Create a new instance.
+     * @param maxSize the maximum number of entries, -1 for an unbounded log
+     */
+    LogBuffer(final int maxSize)
+    {
+        if (maxSize < 0)
+        {
+            m_entries = null;
+            m_unbounded = new ConcurrentLinkedQueue();
+        }
+        else
+        {
+            m_entries = new AtomicReferenceArray(maxSize);
+            m_unbounded = null;
+        }
+    }
+
+    /**
+     * Adds the entry to the log.
+     * @param entry the entry to add
+     */
+    void add(final LogEntry entry)
+    {
+        if (m_unbounded != null)
+        {
+            m_unbounded.add(entry);
+            m_size.incrementAndGet();
+            return;
+        }
+
+        final long sequence = m_next.getAndIncrement();
+        final int slot = (int) (sequence % m_entries.length());
+        final Slot added = new Slot(sequence, entry);
+
+        while (true)
+        {
+            final Slot current = (Slot) m_entries.get(slot);
+
+            // a later writer of the slot has lapped us: our entry is already
+            // older than the oldest entry kept
+            if (current != null && current.m_sequence > sequence)
+            {
+                return;
+            }
+            if (m_entries.compareAndSet(slot, current, added))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the entries in the log most recent first.
+     * @return an enumeration of the entries most recent first
+     */
+    Enumeration getEntries()
+    {
+        final LogEntry[] snapshot;
+        int count = 0;
+
+        if (m_unbounded != null)
+        {
+            snapshot = new LogEntry[m_size.get()];
+            final Iterator entryIt = m_unbounded.iterator();
+            while (entryIt.hasNext() && count < snapshot.length)
+            {
+                snapshot[snapshot.length - ++count] = (LogEntry) entryIt.next();
+            }
+            return enumeration(snapshot, snapshot.length - count, snapshot.length);
+        }
+
+        final int capacity = m_entries.length();
+        final long end = m_next.get();
+        final long start = Math.max(0, end - capacity);
+        snapshot = new LogEntry[(int) (end - start)];
+        for (long sequence = end - 1; sequence >= start; --sequence)
+        {
+            final Slot slot = (Slot) m_entries.get((int) (sequence % capacity));
+
+            // skip the entry if it is still being written or has been
+            // overwritten concurrently
+            if (slot != null && slot.m_sequence == sequence)
+            {
+                snapshot[count++] = slot.m_entry;
+            }
+        }
+        return enumeration(snapshot, 0, count);
+    }
+
+    /**
+     * Removes all entries from the log.
+     */
+    void clear()
+    {
+        if (m_unbounded != null)
+        {
+            m_unbounded.clear();
+            m_size.set(0);
+        }
+        else
+        {
+            for (int i = 0; i < m_entries.length(); ++i)
+            {
+                m_entries.set(i, null);
+            }
+        }
+    }
+
+    /**
+     * An entry of a bounded log with its sequence number.
+     */
+    private static final class Slot
+    {
+        private final long m_sequence;
+        private final LogEntry m_entry;
+
+        Slot(final long sequence, final LogEntry entry)
+        {
+            m_sequence = sequence;
+            m_entry = entry;
+        }
+    }
+
+    /**
+     * Returns an enumeration of a range of the entries.
+     */
+    private static Enumeration enumeration(final LogEntry[] entries, final int from, final int to)
+    {
+        return Collections.enumeration(Arrays.asList(entries).subList(from, to));
+    }
+}
@@ -63,13 +63,34 @@ final class LogEntryImpl implements LogEntry
         final int level,
         final String message,
         final Throwable exception)
+    {
+        this(bundle, sr, level, message, LogException.getException(exception),
+            System.currentTimeMillis());
+    }
+
+    /**
+     * Create a new instance for an entry read back from the log store.
+     * @param bundle the bundle that created the LogEntry object
+     * @param sr the service reference to associate with this LogEntry object
+     * @param level the severity level for this LogEntry object
+     * @param message the message to associate with this LogEntry object
+     * @param exception the exception to associate with this LogEntry object,
+     * already converted by {@link LogException#getException(Throwable)}
+     * @param time the system time in milliseconds when the entry was created
+     */
+    LogEntryImpl(final Bundle bundle,
+        final ServiceReference sr,
+        final int level,
+        final String message,
+        final Throwable exception,
+        final long time)
     {
         this.m_bundle = bundle;
-        this.m_exception = LogException.getException(exception);
+        this.m_exception = exception;
         this.m_level = level;
         this.m_message = message;
         this.m_serviceReference = sr;
-        this.m_time = System.currentTimeMillis();
+        this.m_time = time;
     }
 
     /**
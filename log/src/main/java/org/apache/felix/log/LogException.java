@@ -54,6 +54,48 @@ final class LogException extends Exception
         }
     }
 
+    /**
+     * Create a new instance from the information of an exception read back
+     * from the log store.
+     * @param className the class name of the original exception
+     * @param message the message of the original exception
+     * @param stackTrace the stack trace of the original exception
+     * @param cause the cause of the original exception, may be <code>null</code>
+     */
+    LogException(final String className,
+        final String message,
+        final StackTraceElement[] stackTrace,
+        final Throwable cause)
+    {
+        m_className = className;
+        m_message = message;
+        m_localizedMessage = message;
+        setStackTrace(stackTrace);
+
+        if (cause != null)
+        {
+            initCause(cause);
+        }
+    }
+
+    /**
+     * Returns the class name of the original exception.
+     * @return the class name of the original exception
+     */
+    String getClassName()
+    {
+        return m_className;
+    }
+
+    /**
+     * Returns the message of the original exception.
+     * @return the message of the original exception
+     */
+    String getOriginalMessage()
+    {
+        return m_message;
+    }
+
     /**
      * Returns the message associated with the exception.  The message
      * will be the class name of the original exception followed by the
@@ -21,74 +21,100 @@ package org.apache.felix.log;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogListener;
+import org.osgi.service.log.LogService;
 
 /**
  * This class is responsible for asynchronously delivering log messages to
- * any {@link LogListener} subscribers.  A subscriber can be added using the
+ * a single {@link LogListener} subscriber.  A subscriber can be added using the
  * {@link org.osgi.service.log.LogReaderService#addLogListener(LogListener)}
  * method.
+ * <p>
+ * Each listener has its own thread and queue, so a slow listener does not
+ * delay the delivery to other listeners.  Logging threads hand entries over
+ * through a lock free queue and only notify this thread if it is waiting for
+ * entries, so entries logged while the listener is busy are delivered as a
+ * batch.  If the queue is full, new entries are dropped for this listener;
+ * the listener is told how many entries it missed before the next batch.
  */
 final class LogListenerThread extends Thread
 {
-    // The list of entries waiting to be delivered to the log listeners.
-    private final List m_entriesToDeliver = new ArrayList();
-    // The list of listeners.
-    private final List m_listeners = new ArrayList();
+    // The counter used to name the threads.
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    // The listener the entries are delivered to.
+    private final LogListener m_listener;
+    // The maximum number of queued entries, -1 if the queue is not bounded.
+    private final int m_maxQueueSize;
+    // The queue of entries waiting to be delivered to the log listener.
+    private final ConcurrentLinkedQueue m_entriesToDeliver = new ConcurrentLinkedQueue();
+    // The number of queued entries.
+    private final AtomicInteger m_queueSize = new AtomicInteger();
+    // The number of entries dropped because the queue was full.
+    private final AtomicLong m_dropped = new AtomicLong();
+    // The lock used to wait for new entries.
+    private final Object m_lock = new Object();
+    // Whether the thread is waiting for new entries.
+    private volatile boolean m_waiting;
 
-    LogListenerThread() {
-        super("FelixLogListener");
+    /**
+     * Create a new instance.
+     * @param listener the listener to deliver the entries to
+     * @param maxQueueSize the maximum number of entries waiting to be
+     * delivered, -1 if the number of entries is not bounded
+     */
+    LogListenerThread(final LogListener listener, final int maxQueueSize)
+    {
+        super("FelixLogListener #" + THREAD_COUNTER.incrementAndGet()
+            + " (" + listener.getClass().getName() + ")");
+        m_listener = listener;
+        m_maxQueueSize = maxQueueSize;
     }
 
     /**
-     * Add an entry to the list of messages to deliver.
+     * Add an entry to the list of messages to deliver.  If the queue is full
+     * the entry is dropped.
      * @param entry the log entry to deliver
      */
     void addEntry(final LogEntry entry)
     {
-        synchronized (m_entriesToDeliver)
+        if (m_maxQueueSize >= 0 && m_queueSize.incrementAndGet() > m_maxQueueSize)
         {
-            m_entriesToDeliver.add(entry);
-            m_entriesToDeliver.notifyAll();
+            m_queueSize.decrementAndGet();
+            m_dropped.incrementAndGet();
+            return;
         }
-    }
 
-    /**
-     * Add a listener to the list of listeners that are subscribed.
-     * @param listener the listener to add to the list of subscribed listeners
-     */
-    void addListener(final LogListener listener)
-    {
-        synchronized (m_listeners)
+        m_entriesToDeliver.add(entry);
+        if (m_waiting)
         {
-            m_listeners.add(listener);
+            synchronized (m_lock)
+            {
+                m_lock.notifyAll();
+            }
         }
     }
 
     /**
-     * Remove a listener from the list of listeners that are subscribed.
-     * @param listener the listener to remove from the list of subscribed listeners
+     * Returns the listener the entries are delivered to.
+     * @return the listener
      */
-    void removeListener(final LogListener listener)
+    LogListener getListener()
     {
-        synchronized (m_listeners)
-        {
-            m_listeners.remove(listener);
-        }
+        return m_listener;
     }
 
     /**
-     * Returns the number of listeners that are currently registered.
-     * @return the number of listeners that are currently registered
+     * Returns the number of entries dropped for the listener so far.
+     * @return the number of dropped entries
      */
-    int getListenerCount()
+    long getDroppedCount()
     {
-        synchronized (m_listeners)
-        {
-            return m_listeners.size();
-        }
+        return m_dropped.get();
     }
 
     /**
@@ -96,7 +122,7 @@ final class LogListenerThread extends Thread
      */
     void shutdown()
     {
-        synchronized (m_entriesToDeliver)
+        synchronized (m_lock)
         {
             interrupt();
         }
@@ -104,20 +130,48 @@ final class LogListenerThread extends Thread
 
     /**
      * The main method of the thread: waits for new messages to be receieved
-     * and then delivers them to any registered log listeners.
+     * and then delivers them to the log listener.
      */
     public void run()
     {
+        long reportedDropped = 0;
         while (!isInterrupted())
         {
+            // Take all current entries and deliver them in a single go...
             List entriesToDeliver = new ArrayList();
-            synchronized (m_entriesToDeliver)
+            Object next;
+            while ((next = m_entriesToDeliver.poll()) != null)
+            {
+                entriesToDeliver.add(next);
+            }
+            if (m_maxQueueSize >= 0)
+            {
+                m_queueSize.addAndGet(-entriesToDeliver.size());
+            }
+
+            // Tell the listener about the entries it missed...
+            long dropped = m_dropped.get();
+            if (dropped != reportedDropped)
             {
-                if (m_entriesToDeliver.isEmpty())
+                entriesToDeliver.add(0, new LogEntryImpl(null, null, LogService.LOG_WARNING,
+                    (dropped - reportedDropped) + " log entries have been dropped because "
+                    + "the log listener did not keep up", null));
+                reportedDropped = dropped;
+            }
+
+            if (entriesToDeliver.isEmpty())
+            {
+                synchronized (m_lock)
                 {
+                    m_waiting = true;
                     try
                     {
-                        m_entriesToDeliver.wait();
+                        // check again as the entry might have been added
+                        // before the waiting flag has been set
+                        if (m_entriesToDeliver.isEmpty())
+                        {
+                            m_lock.wait();
+                        }
                     }
                     catch (InterruptedException e)
                     {
@@ -125,46 +179,26 @@ final class LogListenerThread extends Thread
                         // interrupt this thread again to stop it...
                         interrupt();
                     }
-                }
-                else 
-                {
-                    // Copy all current entries and deliver them in a single go...
-                    entriesToDeliver.addAll(m_entriesToDeliver);
-                    m_entriesToDeliver.clear();
+                    finally
+                    {
+                        m_waiting = false;
+                    }
                 }
             }
-            
-            if (!entriesToDeliver.isEmpty())
+
+            Iterator entriesIt = entriesToDeliver.iterator();
+            while (entriesIt.hasNext() && !isInterrupted())
             {
-                // Take a snapshot of all current listeners and deliver all
-                // pending messages to them...
-                List listeners = new ArrayList();
-                synchronized (m_listeners) 
+                LogEntry entry = (LogEntry) entriesIt.next();
+                try
                 {
-                    listeners.addAll(m_listeners);
+                    m_listener.logged(entry);
                 }
-
-                Iterator entriesIt = entriesToDeliver.iterator();
-                while (entriesIt.hasNext()) 
+                catch (Throwable t)
                 {
-                    LogEntry entry = (LogEntry) entriesIt.next();
-                    
-                    Iterator listenerIt = listeners.iterator();
-                    while (listenerIt.hasNext())
-                    {
-                        LogListener listener = (LogListener) listenerIt.next();
-                        
-                        try
-                        {
-                            listener.logged(entry);
-                        }
-                        catch (Throwable t)
-                        {
-                            // catch and discard any exceptions thrown by the listener
-                        }
-                    }
+                    // catch and discard any exceptions thrown by the listener
                 }
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,681 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.log.LogEntry;
+
+/**
+ * A persistent store for the historic log entries.  The entries are written
+ * to a directory of memory mapped segment files of a fixed size.  When the
+ * current segment is full a new segment is started and the oldest segments
+ * are deleted, so the store never holds more than the configured number of
+ * segments.
+ * <p>
+ * Each segment starts with a magic number and a format version followed by
+ * the records.  A record is the length of the record data followed by the
+ * data; a length of zero marks the end of the records in the segment.  The
+ * data and the end marker following it are written before the length, so a
+ * record is only visible once it has been written completely.
+ * <p>
+ * Only the segment being written is memory mapped.  The entries read back
+ * from the store are decoded lazily, one segment at a time, most recent
+ * first; older segments are read into the heap rather than mapped, as a
+ * mapping is only released when it is garbage collected.  As service
+ * references can not be stored, entries read back from the store have no
+ * service reference, and exceptions are restored as {@link LogException}
+ * instances.
+ */
+final class LogStore
+{
+    /** The magic number at the start of each segment. */
+    private static final int MAGIC = 0x464c4f47;
+    /** The version of the segment format. */
+    private static final int VERSION = 1;
+    /** The size of the segment header. */
+    private static final int HEADER_SIZE = 8;
+    /** The prefix of the segment file names. */
+    private static final String SEGMENT_PREFIX = "log-";
+    /** The suffix of the segment file names. */
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /** The bundle context used to look up the bundles of stored entries. */
+    private final BundleContext m_context;
+    /** The directory holding the segments. */
+    private final File m_directory;
+    /** The size of new segments in bytes. */
+    private final int m_segmentSize;
+    /** The maximum number of segments. */
+    private final int m_maxSegments;
+    /** The sequence numbers of the existing segments, oldest first. */
+    private final List m_segments = new ArrayList();
+    /** The buffer of the current segment. */
+    private MappedByteBuffer m_buffer;
+    /** The write position in the current segment. */
+    private int m_position;
+
+    /**
+     * Create a new instance.
+     * @param context the bundle context
+     * @param directory the directory holding the segments
+     * @param segmentSize the size of a segment in bytes
+     * @param maxSegments the maximum number of segments
+     * @throws IOException if the store can not be opened
+     */
+    LogStore(final BundleContext context,
+        final File directory,
+        final int segmentSize,
+        final int maxSegments) throws IOException
+    {
+        this.m_context = context;
+        this.m_directory = directory;
+        this.m_segmentSize = Math.max(segmentSize, 1024);
+        this.m_maxSegments = Math.max(maxSegments, 1);
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Cannot create log store directory " + directory);
+        }
+
+        String[] names = directory.list(new FilenameFilter()
+        {
+            public boolean accept(final File dir, final String name)
+            {
+                return getSequence(name) >= 0;
+            }
+        });
+        long[] sequences = new long[(names != null) ? names.length : 0];
+        for (int i = 0; i < sequences.length; ++i)
+        {
+            sequences[i] = getSequence(names[i]);
+        }
+        Arrays.sort(sequences);
+        for (int i = 0; i < sequences.length; ++i)
+        {
+            m_segments.add(new Long(sequences[i]));
+        }
+
+        if (m_segments.isEmpty() || !openLastSegment())
+        {
+            startSegment();
+        }
+    }
+
+    /**
+     * Adds the entry to the store.  Entries which are too large to fit into
+     * a segment are not stored.  The entry is encoded before the store is
+     * locked, so threads logging concurrently only wait for each other while
+     * the record is copied into the segment.
+     * @param entry the entry to add
+     */
+    void add(final LogEntry entry)
+    {
+        byte[] record;
+        try
+        {
+            record = encode(entry);
+        }
+        catch (IOException e)
+        {
+            // the entry can not be stored - ignore
+            return;
+        }
+        if (HEADER_SIZE + 4 + record.length + 4 > m_segmentSize)
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (m_buffer == null)
+            {
+                // the store has been closed
+                return;
+            }
+
+            try
+            {
+                if (m_position + 4 + record.length + 4 > m_buffer.capacity())
+                {
+                    startSegment();
+                }
+
+                m_buffer.position(m_position + 4);
+                m_buffer.put(record);
+                m_buffer.putInt(0);
+                m_buffer.putInt(m_position, record.length);
+                m_position += 4 + record.length;
+            }
+            catch (IOException e)
+            {
+                // the entry can not be stored - ignore
+            }
+        }
+    }
+
+    /**
+     * Returns the entries in the store most recent first.  The entries are
+     * read from the segments as the enumeration proceeds.
+     * @return an enumeration of the stored entries most recent first
+     */
+    synchronized Enumeration getEntries()
+    {
+        long[] sequences = new long[m_segments.size()];
+        for (int i = 0; i < sequences.length; ++i)
+        {
+            sequences[i] = ((Long) m_segments.get(i)).longValue();
+        }
+
+        ByteBuffer current = null;
+        if (m_buffer != null)
+        {
+            current = m_buffer.duplicate();
+            current.limit(m_position);
+        }
+
+        return new StoreEnumeration(sequences, current);
+    }
+
+    /**
+     * Flushes the current segment and closes the store.
+     */
+    synchronized void close()
+    {
+        if (m_buffer != null)
+        {
+            m_buffer.force();
+            m_buffer = null;
+        }
+    }
+
+    /**
+     * Opens the last existing segment for writing.
+     * @return <code>true</code> if the segment can be appended to
+     */
+    private boolean openLastSegment()
+    {
+        File file = getFile(((Long) m_segments.get(m_segments.size() - 1)).longValue());
+        try
+        {
+            MappedByteBuffer buffer = map(file, 0);
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION)
+            {
+                return false;
+            }
+
+            m_buffer = buffer;
+            m_position = getLimit(buffer);
+            return true;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Starts a new segment and deletes the oldest segments beyond the
+     * maximum number of segments.
+     * @throws IOException if the segment can not be created
+     */
+    private void startSegment() throws IOException
+    {
+        if (m_buffer != null)
+        {
+            m_buffer.force();
+            m_buffer = null;
+        }
+
+        long sequence = 1;
+        if (!m_segments.isEmpty())
+        {
+            sequence = ((Long) m_segments.get(m_segments.size() - 1)).longValue() + 1;
+        }
+
+        MappedByteBuffer buffer = map(getFile(sequence), m_segmentSize);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(HEADER_SIZE, 0);
+
+        m_buffer = buffer;
+        m_position = HEADER_SIZE;
+        m_segments.add(new Long(sequence));
+
+        while (m_segments.size() > m_maxSegments)
+        {
+            Long oldest = (Long) m_segments.remove(0);
+            getFile(oldest.longValue()).delete();
+        }
+    }
+
+    /**
+     * Returns the file of a segment.
+     * @param sequence the sequence number of the segment
+     * @return the file of the segment
+     */
+    private File getFile(final long sequence)
+    {
+        String number = String.valueOf(sequence);
+        StringBuffer name = new StringBuffer(SEGMENT_PREFIX);
+        for (int i = number.length(); i < 10; ++i)
+        {
+            name.append('0');
+        }
+        return new File(m_directory, name.append(number).append(SEGMENT_SUFFIX).toString());
+    }
+
+    /**
+     * Returns the sequence number of a segment file.
+     * @param name the name of the file
+     * @return the sequence number, -1 if the file is not a segment
+     */
+    private static long getSequence(final String name)
+    {
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+        {
+            try
+            {
+                return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+            }
+            catch (NumberFormatException e)
+            {
+                // not a segment file
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Maps a segment file into memory for writing.
+     * @param file the segment file
+     * @param size the size of a new segment, 0 to map an existing segment
+     * @return the mapped segment
+     * @throws IOException if the segment can not be mapped
+     */
+    private static MappedByteBuffer map(final File file, final int size)
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            if (size > 0)
+            {
+                raf.setLength(size);
+            }
+            // the mapping stays valid after the file has been closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a segment file into the heap.
+     * @param file the segment file
+     * @return the segment
+     * @throws IOException if the segment can not be read
+     */
+    private static ByteBuffer read(final File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            byte[] segment = new byte[(int) Math.min(raf.length(), Integer.MAX_VALUE)];
+            raf.readFully(segment);
+            return ByteBuffer.wrap(segment);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the position after the last complete record of a segment.
+     * @param buffer the segment
+     * @return the position after the last record
+     */
+    private static int getLimit(final ByteBuffer buffer)
+    {
+        int position = HEADER_SIZE;
+        while (position + 4 <= buffer.limit())
+        {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + 4 + length > buffer.limit())
+            {
+                break;
+            }
+            position += 4 + length;
+        }
+        return position;
+    }
+
+    /**
+     * Encodes an entry as a record.
+     * @param entry the entry
+     * @return the record data
+     * @throws IOException if the entry can not be encoded
+     */
+    private static byte[] encode(final LogEntry entry) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeLong(entry.getTime());
+        out.writeInt(entry.getLevel());
+        out.writeLong((entry.getBundle() != null) ? entry.getBundle().getBundleId() : -1);
+        writeString(out, entry.getMessage());
+        writeException(out, entry.getException());
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes an entry from a record.
+     * @param record the record data
+     * @return the entry
+     * @throws IOException if the record can not be decoded
+     */
+    private LogEntry decode(final byte[] record) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+
+        long time = in.readLong();
+        int level = in.readInt();
+        long bundleId = in.readLong();
+        String message = readString(in);
+        Throwable exception = readException(in);
+
+        return new LogEntryImpl(getBundle(bundleId), null, level, message, exception, time);
+    }
+
+    /**
+     * Returns the bundle of a stored entry.
+     * @param bundleId the id of the bundle, -1 if the entry has no bundle
+     * @return the bundle, <code>null</code> if the bundle does not exist anymore
+     */
+    private Bundle getBundle(final long bundleId)
+    {
+        if (bundleId >= 0)
+        {
+            try
+            {
+                return m_context.getBundle(bundleId);
+            }
+            catch (IllegalStateException e)
+            {
+                // the bundle context is not valid anymore
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes an exception and its causes.
+     */
+    private static void writeException(final DataOutputStream out, final Throwable exception)
+        throws IOException
+    {
+        out.writeBoolean(exception != null);
+        if (exception == null)
+        {
+            return;
+        }
+
+        if (exception instanceof LogException)
+        {
+            writeString(out, ((LogException) exception).getClassName());
+            writeString(out, ((LogException) exception).getOriginalMessage());
+        }
+        else
+        {
+            writeString(out, exception.getClass().getName());
+            writeString(out, exception.getMessage());
+        }
+
+        StackTraceElement[] stackTrace = exception.getStackTrace();
+        out.writeInt(stackTrace.length);
+        for (int i = 0; i < stackTrace.length; ++i)
+        {
+            writeString(out, stackTrace[i].getClassName());
+            writeString(out, stackTrace[i].getMethodName());
+            writeString(out, stackTrace[i].getFileName());
+            out.writeInt(stackTrace[i].getLineNumber());
+        }
+
+        Throwable cause = exception.getCause();
+        writeException(out, (cause != exception) ? cause : null);
+    }
+
+    /**
+     * Reads an exception and its causes.
+     */
+    private static Throwable readException(final DataInputStream in) throws IOException
+    {
+        if (!in.readBoolean())
+        {
+            return null;
+        }
+
+        String className = readString(in);
+        String message = readString(in);
+        int depth = in.readInt();
+        if (depth < 0 || depth > in.available())
+        {
+            // the depth is corrupt, each element takes at least one byte
+            throw new EOFException();
+        }
+        StackTraceElement[] stackTrace = new StackTraceElement[depth];
+        for (int i = 0; i < stackTrace.length; ++i)
+        {
+            stackTrace[i] = new StackTraceElement(readString(in), readString(in),
+                readString(in), in.readInt());
+        }
+
+        return new LogException(className, message, stackTrace, readException(in));
+    }
+
+    /**
+     * Writes a string which may be <code>null</code> or longer than
+     * {@link DataOutputStream#writeUTF(String)} allows.
+     */
+    private static void writeString(final DataOutputStream out, final String value)
+        throws IOException
+    {
+        if (value == null)
+        {
+            out.writeInt(-1);
+        }
+        else
+        {
+            byte[] bytes = value.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     */
+    private static String readString(final DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        if (length > in.available())
+        {
+            // the length is corrupt, the record ends before the string
+            throw new EOFException();
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Enumerates the stored entries most recent first.  The segments are
+     * read one at a time; the offsets of the records of the current segment
+     * are collected and the records are decoded as they are returned.
+     */
+    private final class StoreEnumeration implements Enumeration
+    {
+        /** The sequence numbers of the segments, oldest first. */
+        private final long[] m_sequences;
+        /** The current segment at the time the enumeration was created. */
+        private final ByteBuffer m_current;
+        /** The index of the next segment to read. */
+        private int m_nextSegment;
+        /** The segment being enumerated. */
+        private ByteBuffer m_segment;
+        /** The record offsets of the segment being enumerated. */
+        private int[] m_offsets = new int[0];
+        /** The number of records left in the segment being enumerated. */
+        private int m_remaining;
+        /** The next entry. */
+        private LogEntry m_next;
+
+        StoreEnumeration(final long[] sequences, final ByteBuffer current)
+        {
+            m_sequences = sequences;
+            m_current = current;
+            m_nextSegment = sequences.length - 1;
+        }
+
+        public boolean hasMoreElements()
+        {
+            while (m_next == null)
+            {
+                if (m_remaining == 0 && !nextSegment())
+                {
+                    return false;
+                }
+
+                if (m_remaining > 0)
+                {
+                    int offset = m_offsets[--m_remaining];
+                    byte[] record = new byte[m_segment.getInt(offset)];
+                    m_segment.position(offset + 4);
+                    m_segment.get(record);
+                    try
+                    {
+                        m_next = decode(record);
+                    }
+                    catch (IOException e)
+                    {
+                        // skip the corrupt record
+                    }
+                }
+            }
+            return true;
+        }
+
+        public Object nextElement()
+        {
+            if (!hasMoreElements())
+            {
+                throw new NoSuchElementException();
+            }
+
+            LogEntry entry = m_next;
+            m_next = null;
+            return entry;
+        }
+
+        /**
+         * Moves on to the next older segment.
+         * @return <code>false</code> if there are no more segments
+         */
+        private boolean nextSegment()
+        {
+            m_segment = null;
+            while (m_segment == null && m_nextSegment >= 0)
+            {
+                long sequence = m_sequences[m_nextSegment];
+                if (m_nextSegment == m_sequences.length - 1 && m_current != null)
+                {
+                    m_segment = m_current;
+                }
+                else
+                {
+                    try
+                    {
+                        ByteBuffer segment = read(getFile(sequence));
+                        if (segment.capacity() >= HEADER_SIZE && segment.getInt(0) == MAGIC
+                            && segment.getInt(4) == VERSION)
+                        {
+                            m_segment = segment;
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        // the segment has been deleted in the meantime - skip it
+                    }
+                }
+                --m_nextSegment;
+            }
+
+            if (m_segment == null)
+            {
+                return false;
+            }
+
+            // collect the offsets of the records in the segment
+            int limit = getLimit(m_segment);
+            m_remaining = 0;
+            for (int position = HEADER_SIZE; position < limit; position += 4 + m_segment.getInt(position))
+            {
+                if (m_remaining == m_offsets.length)
+                {
+                    int[] offsets = new int[Math.max(16, m_remaining * 2)];
+                    System.arraycopy(m_offsets, 0, offsets, 0, m_remaining);
+                    m_offsets = offsets;
+                }
+                m_offsets[m_remaining++] = position;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+
+public class LogBufferTest extends TestCase
+{
+    public void testWraparound()
+    {
+        LogBuffer buffer = new LogBuffer(3);
+        for (int i = 1; i <= 5; ++i)
+        {
+            buffer.add(entry("entry", i));
+        }
+
+        // the most recent entries are kept, most recent first
+        assertEquals(times(new long[] { 5, 4, 3 }), times(buffer.getEntries()));
+
+        buffer.add(entry("entry", 6));
+        assertEquals(times(new long[] { 6, 5, 4 }), times(buffer.getEntries()));
+    }
+
+    public void testPartiallyFilled()
+    {
+        LogBuffer buffer = new LogBuffer(4);
+        assertEquals(0, times(buffer.getEntries()).size());
+
+        buffer.add(entry("entry", 1));
+        buffer.add(entry("entry", 2));
+        assertEquals(times(new long[] { 2, 1 }), times(buffer.getEntries()));
+    }
+
+    public void testUnbounded()
+    {
+        LogBuffer buffer = new LogBuffer(-1);
+        for (int i = 1; i <= 5; ++i)
+        {
+            buffer.add(entry("entry", i));
+        }
+        assertEquals(times(new long[] { 5, 4, 3, 2, 1 }), times(buffer.getEntries()));
+    }
+
+    public void testClear()
+    {
+        LogBuffer buffer = new LogBuffer(3);
+        for (int i = 1; i <= 5; ++i)
+        {
+            buffer.add(entry("entry", i));
+        }
+        buffer.clear();
+        assertEquals(0, times(buffer.getEntries()).size());
+
+        buffer.add(entry("entry", 6));
+        assertEquals(times(new long[] { 6 }), times(buffer.getEntries()));
+    }
+
+    public void testConcurrentAppendAndRead() throws InterruptedException
+    {
+        final int capacity = 16;
+        final int count = 20000;
+        final LogBuffer buffer = new LogBuffer(capacity);
+
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; ++w)
+        {
+            final String name = "writer" + w;
+            writers[w] = new Thread()
+            {
+                public void run()
+                {
+                    for (int i = 1; i <= count; ++i)
+                    {
+                        buffer.add(entry(name, i));
+                    }
+                }
+            };
+            writers[w].start();
+        }
+
+        int snapshots = 0;
+        while (isAlive(writers) || snapshots == 0)
+        {
+            checkSnapshot(list(buffer.getEntries()), capacity);
+            ++snapshots;
+        }
+        for (int w = 0; w < writers.length; ++w)
+        {
+            writers[w].join();
+        }
+
+        // once all writers are done every slot holds one of the latest entries
+        List entries = list(buffer.getEntries());
+        checkSnapshot(entries, capacity);
+        assertEquals(capacity, entries.size());
+    }
+
+    /**
+     * Checks that a snapshot holds no entry twice and the entries of each
+     * writer most recent first, which fails if an entry is read in the place
+     * of another one.
+     */
+    private static void checkSnapshot(final List entries, final int capacity)
+    {
+        assertTrue(entries.size() <= capacity);
+        Map last = new HashMap();
+        for (int i = 0; i < entries.size(); ++i)
+        {
+            LogEntry entry = (LogEntry) entries.get(i);
+            assertNotNull(entry);
+            Long previous = (Long) last.put(entry.getMessage(), new Long(entry.getTime()));
+            if (previous != null)
+            {
+                assertTrue(entry.getMessage() + " " + entry.getTime() + " read after " + previous,
+                    entry.getTime() < previous.longValue());
+            }
+        }
+    }
+
+    private static boolean isAlive(final Thread[] threads)
+    {
+        for (int i = 0; i < threads.length; ++i)
+        {
+            if (threads[i].isAlive())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static LogEntry entry(final String message, final long time)
+    {
+        return new LogEntryImpl(null, null, LogService.LOG_INFO, message, null, time);
+    }
+
+    private static List list(final Enumeration entries)
+    {
+        List list = new ArrayList();
+        while (entries.hasMoreElements())
+        {
+            list.add(entries.nextElement());
+        }
+        return list;
+    }
+
+    private static List times(final Enumeration entries)
+    {
+        List times = new ArrayList();
+        while (entries.hasMoreElements())
+        {
+            times.add(new Long(((LogEntry) entries.nextElement()).getTime()));
+        }
+        return times;
+    }
+
+    private static List times(final long[] values)
+    {
+        List times = new ArrayList();
+        for (int i = 0; i < values.length; ++i)
+        {
+            times.add(new Long(values[i]));
+        }
+        return times;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+
+public class LogStoreTest extends TestCase
+{
+    private File m_directory;
+
+    protected void setUp() throws IOException
+    {
+        m_directory = File.createTempFile("logstore", null);
+        m_directory.delete();
+    }
+
+    protected void tearDown()
+    {
+        File[] files = m_directory.listFiles();
+        for (int i = 0; files != null && i < files.length; ++i)
+        {
+            files[i].delete();
+        }
+        m_directory.delete();
+    }
+
+    public void testRoundTrip() throws IOException
+    {
+        LogStore store = new LogStore(null, m_directory, 4096, 2);
+        Exception exception = new IllegalStateException("outer", new IOException("inner"));
+        store.add(entry(LogService.LOG_INFO, "first", null, 1));
+        store.add(entry(LogService.LOG_ERROR, "second", exception, 2));
+        store.close();
+
+        store = new LogStore(null, m_directory, 4096, 2);
+        List entries = list(store.getEntries());
+        store.close();
+
+        assertEquals(2, entries.size());
+        LogEntry second = (LogEntry) entries.get(0);
+        assertEquals("second", second.getMessage());
+        assertEquals(LogService.LOG_ERROR, second.getLevel());
+        assertEquals(2, second.getTime());
+        assertNull(second.getBundle());
+
+        LogException stored = (LogException) second.getException();
+        assertEquals(IllegalStateException.class.getName(), stored.getClassName());
+        assertEquals("outer", stored.getOriginalMessage());
+        assertEquals(exception.getStackTrace().length, stored.getStackTrace().length);
+        assertEquals(exception.getStackTrace()[0].toString(), stored.getStackTrace()[0].toString());
+        LogException cause = (LogException) stored.getCause();
+        assertEquals(IOException.class.getName(), cause.getClassName());
+        assertEquals("inner", cause.getOriginalMessage());
+
+        LogEntry first = (LogEntry) entries.get(1);
+        assertEquals("first", first.getMessage());
+        assertEquals(LogService.LOG_INFO, first.getLevel());
+        assertNull(first.getException());
+    }
+
+    public void testRotation() throws IOException
+    {
+        LogStore store = new LogStore(null, m_directory, 1024, 2);
+        for (int i = 0; i < 100; ++i)
+        {
+            store.add(entry(LogService.LOG_INFO, "message " + i, null, i));
+        }
+
+        List entries = list(store.getEntries());
+        store.close();
+
+        assertEquals(2, m_directory.list().length);
+        assertTrue(entries.size() < 100);
+        for (int i = 0; i < entries.size(); ++i)
+        {
+            assertEquals("message " + (99 - i), ((LogEntry) entries.get(i)).getMessage());
+        }
+    }
+
+    public void testCorruptTail() throws IOException
+    {
+        LogStore store = new LogStore(null, m_directory, 4096, 2);
+        store.add(entry(LogService.LOG_INFO, "first", null, 1));
+        store.add(entry(LogService.LOG_INFO, "second", null, 2));
+        store.close();
+
+        RandomAccessFile segment = new RandomAccessFile(new File(m_directory, "log-0000000001.seg"), "rw");
+        try
+        {
+            // a huge message length in the first record
+            segment.seek(8 + 4 + 20);
+            segment.writeInt(Integer.MAX_VALUE);
+            // the second record was not written completely
+            segment.seek(8);
+            segment.seek(8 + 4 + segment.readInt());
+            segment.writeInt(0);
+        }
+        finally
+        {
+            segment.close();
+        }
+
+        store = new LogStore(null, m_directory, 4096, 2);
+        assertEquals(0, list(store.getEntries()).size());
+
+        // the torn record is overwritten, the corrupt one is skipped
+        store.add(entry(LogService.LOG_INFO, "third", null, 3));
+        List entries = list(store.getEntries());
+        store.close();
+
+        assertEquals(1, entries.size());
+        assertEquals("third", ((LogEntry) entries.get(0)).getMessage());
+    }
+
+    private static LogEntry entry(final int level, final String message,
+        final Throwable exception, final long time)
+    {
+        return new LogEntryImpl(null, null, level, message, exception, time);
+    }
+
+    private static List list(final Enumeration entries)
+    {
+        List list = new ArrayList();
+        while (entries.hasMoreElements())
+        {
+            list.add(entries.nextElement());
+        }
+        return list;
+    }
+}
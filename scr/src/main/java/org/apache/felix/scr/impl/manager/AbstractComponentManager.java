@@ -131,6 +131,9 @@ public abstract class AbstractComponentManager<S> implements SimpleLogger, Compo
 
     private volatile boolean m_dependencyManagersInitialized;
 
+    // the implementation class, loaded with the component methods on the first collectDependencies
+    private volatile Class<S> m_implementationObjectClass;
+
     private final AtomicInteger m_trackingCount = new AtomicInteger();
 
     // The ServiceRegistration is now tracked in the RegistrationManager
@@ -969,10 +972,11 @@ public abstract class AbstractComponentManager<S> implements SimpleLogger, Compo
             log(LogService.LOG_ERROR, "bundle shut down while trying to load implementation object class", null);
             throw new IllegalStateException("bundle shut down while trying to load implementation object class");
         }
-        Class<?> implementationObjectClass;
+        final long start = System.nanoTime();
+        Class<S> implementationObjectClass;
         try
         {
-            implementationObjectClass = bundle.loadClass(getComponentMetadata().getImplementationClassName());
+            implementationObjectClass = (Class<S>) bundle.loadClass(getComponentMetadata().getImplementationClassName());
         }
         catch (ClassNotFoundException e)
         {
@@ -987,7 +991,23 @@ public abstract class AbstractComponentManager<S> implements SimpleLogger, Compo
         {
             dependencyManager.initBindingMethods(m_componentMethods.getBindMethods(dependencyManager.getName()));
         }
+        m_implementationObjectClass = implementationObjectClass;
         m_dependencyManagersInitialized = true;
+        if (isLogEnabled(LogService.LOG_DEBUG))
+        {
+            log(LogService.LOG_DEBUG, "Loaded implementation class {0} and its component methods in {1} microseconds",
+                new Object[] { implementationObjectClass.getName(), (System.nanoTime() - start) / 1000 }, null);
+        }
+    }
+
+    /**
+     * Returns the implementation class of this component, <code>null</code>
+     * until the dependencies are collected for the first time. Delayed
+     * components do not load the class before their service is requested.
+     */
+    Class<S> getImplementationObjectClass()
+    {
+        return m_implementationObjectClass;
     }
 
     /**
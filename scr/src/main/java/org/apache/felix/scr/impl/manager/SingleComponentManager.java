@@ -228,7 +228,9 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
         try
         {
             // 112.4.4 The class is retrieved with the loadClass method of the component's bundle
-            implementationObjectClass = (Class<S>) bundle.loadClass(
+            // it was already loaded when the dependencies were collected
+            final Class<S> loadedClass = getImplementationObjectClass();
+            implementationObjectClass = loadedClass != null ? loadedClass : (Class<S>) bundle.loadClass(
                     getComponentMetadata().getImplementationClassName() )  ;
 
             // 112.4.4 The class must be public and have a public constructor without arguments so component instances
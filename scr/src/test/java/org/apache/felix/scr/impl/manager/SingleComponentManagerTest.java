@@ -21,6 +21,7 @@ package org.apache.felix.scr.impl.manager;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.Field;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -241,4 +242,53 @@ public class SingleComponentManagerTest
         AtomicInteger use = (AtomicInteger) u.get(scm);
         assertEquals(0, use.get());
     }
+
+    @Test
+    public void testDelayedComponentLoadsImplementationClassOnceOnFirstUse() throws Exception
+    {
+        ComponentMetadata cm = new ComponentMetadata(DSVersion.DS13);
+        cm.setImplementationClassName(Implementation.class.getName());
+        cm.validate(null);
+
+        BundleContext bc = Mockito.mock(BundleContext.class);
+        Bundle b = Mockito.mock(Bundle.class);
+        Mockito.when(b.getBundleContext()).thenReturn(bc);
+        Mockito.when(bc.getBundle()).thenReturn(b);
+        Mockito.<Class<?>> when(b.loadClass(Implementation.class.getName())).thenReturn(Implementation.class);
+        ComponentActivator activator = Mockito.mock(ComponentActivator.class);
+        Mockito.when(activator.getBundleContext()).thenReturn(bc);
+
+        @SuppressWarnings("unchecked")
+        ComponentContainer<Object> cc = Mockito.mock(ComponentContainer.class);
+        Mockito.when(cc.getComponentMetadata()).thenReturn(cm);
+        Mockito.when(cc.getActivator()).thenReturn(activator);
+
+        SingleComponentManager<Object> scm = new SingleComponentManager<Object>(cc, new ComponentMethodsImpl());
+        scm.setState(scm.getState(), State.satisfied);
+        assertNull("implementation class must not be loaded before the service is requested",
+                scm.getImplementationObjectClass());
+        Mockito.verify(b, Mockito.never()).loadClass(Implementation.class.getName());
+
+        ComponentContextImpl<Object> cci = new ComponentContextImpl<Object>(scm, b, null);
+        assertTrue(scm.collectDependencies(cci));
+        assertSame(Implementation.class, scm.getImplementationObjectClass());
+        Object implementationObject = scm.createImplementationObject(b, new SingleComponentManager.SetImplementationObject<Object>()
+        {
+            public void presetComponentContext(ComponentContextImpl<Object> componentContext)
+            {
+            }
+
+            public void resetImplementationObject(Object implementationObject)
+            {
+            }
+        }, cci);
+
+        assertTrue(implementationObject instanceof Implementation);
+        // the class loaded to set up the component methods is reused for the instance
+        Mockito.verify(b, Mockito.times(1)).loadClass(Implementation.class.getName());
+    }
+
+    public static class Implementation
+    {
+    }
 }